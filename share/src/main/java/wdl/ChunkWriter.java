@@ -0,0 +1,333 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.RegionFile;
+
+/**
+ * Writes saved chunks into region files on worker threads owned by WDL,
+ * rather than vanilla's shared ThreadedFileIOBase, which only has a single
+ * thread and waits for it to finish by polling.
+ * <p>
+ * Each region file is always written by the same worker, so writes to a
+ * chunk happen in order, while different regions are written in parallel.
+ * The queues are bounded, so that saving faster than the disk can keep up
+ * blocks instead of holding every chunk in memory.  If a chunk is saved again
+ * before its previous version was written, only the latest one is written.
+ * <p>
+ * Region files are opened through the writer's own cache rather than
+ * vanilla's RegionFileCache, which closes every open file (including ones
+ * other workers are writing to) once it is full.  This cache only closes
+ * files that no one is using.
+ */
+class ChunkWriter {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Number of chunks that can be queued for each worker.
+	 */
+	private static final int QUEUE_CAPACITY = 64;
+	/**
+	 * Queued to make a worker exit.
+	 */
+	private static final Object STOP = new Object();
+	/**
+	 * Number of unused region files kept open; vanilla's cache holds 256.
+	 */
+	private static final int MAX_OPEN_REGIONS = 64;
+
+	/**
+	 * A region file in the cache, with the number of threads using it.
+	 */
+	private static class OpenRegion {
+		final RegionFile file;
+		/** Only accessed while holding the cache's lock. */
+		int users;
+
+		OpenRegion(RegionFile file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * The folder containing the region folder.
+	 */
+	private final File chunkSaveLocation;
+	/**
+	 * The latest unwritten NBT of each chunk.
+	 */
+	private final Map<ChunkPos, NBTTagCompound> pending = new ConcurrentHashMap<>();
+	/**
+	 * Positions of chunks (in {@link #pending}) to write, or futures to
+	 * complete once everything before them is written, or {@link #STOP}.
+	 */
+	private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+	private volatile boolean stopped;
+	/**
+	 * Workers that haven't exited yet; the last one closes the region files.
+	 */
+	private final AtomicInteger running = new AtomicInteger();
+	/**
+	 * Open region files, least recently used first.
+	 */
+	private final Map<File, OpenRegion> regions = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param chunkSaveLocation The folder containing the region folder
+	 */
+	ChunkWriter(File chunkSaveLocation) {
+		this.chunkSaveLocation = chunkSaveLocation;
+		int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+		running.set(workers);
+		for (int i = 0; i < workers; i++) {
+			BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			queues.add(queue);
+			Thread thread = new Thread(() -> run(queue), "WDL Chunk Writer Thread " + (i + 1));
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues the given chunk to be written, blocking if the worker for its
+	 * region is too far behind.
+	 */
+	void submit(ChunkPos pos, NBTTagCompound rootTag) throws InterruptedException {
+		if (stopped) {
+			throw new IllegalStateException("Chunk writer for " + chunkSaveLocation + " has been stopped");
+		}
+		if (pending.put(pos, rootTag) == null) {
+			getQueue(pos).put(pos);
+		}
+		// Otherwise, the already queued position writes the new tag
+	}
+
+	/**
+	 * Gets the NBT of the given chunk if it hasn't been written yet.
+	 */
+	@Nullable
+	NBTTagCompound getPending(ChunkPos pos) {
+		return pending.get(pos);
+	}
+
+	/**
+	 * Gets the number of chunks that haven't been written yet.
+	 */
+	int getNumPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Reads the given chunk from its region file.
+	 *
+	 * @return The chunk's NBT, or null if it hasn't been saved.
+	 */
+	@Nullable
+	NBTTagCompound read(ChunkPos pos) throws IOException {
+		OpenRegion region = acquireRegion(pos.x >> 5, pos.z >> 5, false);
+		if (region == null) {
+			return null;
+		}
+		try (DataInputStream stream = region.file.getChunkDataInputStream(pos.x & 31, pos.z & 31)) {
+			return stream != null ? CompressedStreamTools.read(stream) : null;
+		} finally {
+			releaseRegion(region);
+		}
+	}
+
+	/**
+	 * Runs the given action on the given region file, if it exists.  The file
+	 * is reserved while the action runs, so that it isn't closed in the
+	 * meantime; the action must not keep it afterwards.
+	 *
+	 * @return True if the region file exists (and the action was run).
+	 */
+	boolean withRegionFileIfExists(int regionX, int regionZ, Consumer<RegionFile> action) throws IOException {
+		OpenRegion region = acquireRegion(regionX, regionZ, false);
+		if (region == null) {
+			return false;
+		}
+		try {
+			action.accept(region.file);
+			return true;
+		} finally {
+			releaseRegion(region);
+		}
+	}
+
+	/**
+	 * Gets a future that completes once all chunks submitted so far have
+	 * been written, and region files that aren't in use have been closed.
+	 */
+	CompletableFuture<Void> flush() throws InterruptedException {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[queues.size()];
+		for (int i = 0; i < futures.length; i++) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			queues.get(i).put(future);
+			futures[i] = future;
+		}
+		return CompletableFuture.allOf(futures).thenRun(() -> closeRegions(0));
+	}
+
+	/**
+	 * Makes the workers exit once they have written everything already
+	 * submitted.  Does not wait for that to happen.
+	 */
+	void stop() throws InterruptedException {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		for (BlockingQueue<Object> queue : queues) {
+			queue.put(STOP);
+		}
+	}
+
+	/**
+	 * Gets the given region file from the cache, opening it if needed, and
+	 * reserves it so that it isn't closed until {@link #releaseRegion} is
+	 * called.
+	 *
+	 * @param create Whether to create the region file if it doesn't exist
+	 * @return The region, or null if it doesn't exist and create is false.
+	 */
+	@Nullable
+	private OpenRegion acquireRegion(int regionX, int regionZ, boolean create) throws IOException {
+		File folder = new File(chunkSaveLocation, "region");
+		File file = new File(folder, "r." + regionX + "." + regionZ + ".mca");
+		synchronized (regions) {
+			OpenRegion region = regions.get(file);
+			if (region == null) {
+				if (!create && !file.exists()) {
+					return null;
+				}
+				folder.mkdirs();
+				region = new OpenRegion(new RegionFile(file));
+				regions.put(file, region);
+			}
+			region.users++;
+			return region;
+		}
+	}
+
+	private void releaseRegion(OpenRegion region) {
+		synchronized (regions) {
+			region.users--;
+		}
+		closeRegions(MAX_OPEN_REGIONS);
+	}
+
+	/**
+	 * Closes the least recently used region files that aren't in use, until
+	 * at most the given number are open (or all remaining ones are in use).
+	 */
+	private void closeRegions(int max) {
+		synchronized (regions) {
+			Iterator<OpenRegion> itr = regions.values().iterator();
+			while (regions.size() > max && itr.hasNext()) {
+				OpenRegion region = itr.next();
+				if (region.users > 0) {
+					continue;
+				}
+				itr.remove();
+				try {
+					region.file.close();
+				} catch (IOException ex) {
+					LOGGER.warn("[WDL] Failed to close region file in " + chunkSaveLocation, ex);
+				}
+			}
+		}
+	}
+
+	private BlockingQueue<Object> getQueue(ChunkPos pos) {
+		int regionX = pos.x >> 5;
+		int regionZ = pos.z >> 5;
+		int hash = 31 * regionX + regionZ;
+		return queues.get(Math.floorMod(hash, queues.size()));
+	}
+
+	private void run(BlockingQueue<Object> queue) {
+		try {
+			while (true) {
+				Object item = queue.take();
+				if (item == STOP) {
+					break;
+				} else if (item instanceof CompletableFuture) {
+					((CompletableFuture<?>) item).complete(null);
+				} else {
+					write((ChunkPos) item);
+				}
+			}
+		} catch (InterruptedException ex) {
+			LOGGER.warn("[WDL] Chunk writer for {} interrupted with {} chunks left", chunkSaveLocation, pending.size());
+		}
+		if (running.decrementAndGet() == 0) {
+			closeRegions(0);
+		}
+	}
+
+	private void write(ChunkPos pos) {
+		NBTTagCompound rootTag = pending.get(pos);
+		while (rootTag != null) {
+			try {
+				OpenRegion region = acquireRegion(pos.x >> 5, pos.z >> 5, true);
+				try (DataOutputStream stream = region.file.getChunkDataOutputStream(pos.x & 31, pos.z & 31)) {
+					CompressedStreamTools.write(rootTag, stream);
+				} finally {
+					releaseRegion(region);
+				}
+			} catch (IOException | RuntimeException ex) {
+				LOGGER.warn("[WDL] Failed to write chunk at " + pos, ex);
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToSaveChunk",
+						pos.x, pos.z, ex);
+			}
+			if (pending.remove(pos, rootTag)) {
+				return;
+			}
+			// Saved again while being written; write the newer version too
+			rootTag = pending.get(pos);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkWriter [chunkSaveLocation=" + chunkSaveLocation + ", workers=" + queues.size()
+				+ ", pending=" + pending.size() + ", stopped=" + stopped + "]";
+	}
+}
@@ -75,7 +75,6 @@ import net.minecraft.world.chunk.storage.RegionFileCache;
 import net.minecraft.world.storage.MapData;
 import net.minecraft.world.storage.SaveHandler;
 import net.minecraft.world.storage.SessionLockException;
-import net.minecraft.world.storage.ThreadedFileIOBase;
 import net.minecraft.world.storage.WorldInfo;
 import wdl.WorldBackup.WorldBackupType;
 import wdl.api.APIImpl;
@@ -436,6 +435,7 @@ public class WDL {
 
 		minecraft.displayGuiScreen(null);
 
+		stopChunkWriter();
 		chunkLoader = WDLChunkLoader.create(this, saveHandler, worldClient.dimension);
 		newTileEntities.values().forEach((m) -> {
 			m.clear();
@@ -472,6 +472,7 @@ public class WDL {
 		boolean wasDownloading = downloading;
 
 		if (wasDownloading) {
+			stopChunkWriter();
 			RegionFileCache.func_76551_a(); // clearRegionFileReferences - i.e. close all files open
 			startOnChange = false;
 			saving = false;
@@ -604,6 +605,22 @@ public class WDL {
 
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.INFO, "wdl.messages.generalInfo.saveComplete.done");
+		stopChunkWriter();
+	}
+
+	/**
+	 * Stops the threads writing the current chunk loader's chunks, once they
+	 * have written the chunks already saved.
+	 */
+	private void stopChunkWriter() {
+		if (chunkLoader == null) {
+			return;
+		}
+		try {
+			chunkLoader.stopWriter();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -665,7 +682,7 @@ public class WDL {
 				return I18n.format("wdl.saveProgress.flushingIO.subtitle", chunkLoader.getNumPendingChunks());
 			}, 1);
 
-			ThreadedFileIOBase.getThreadedIOInstance().waitForFinish();
+			chunkLoader.flush();
 		} catch (Exception e) {
 			throw new RuntimeException("Threw exception waiting for asynchronous IO to finish. Hmmm.", e);
 		}
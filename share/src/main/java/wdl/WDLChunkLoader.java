@@ -13,14 +13,15 @@
  */
 package wdl;
 
-import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,7 +29,6 @@ import org.apache.logging.log4j.Logger;
 import net.minecraft.block.Block;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.network.datasync.EntityDataManager;
@@ -38,7 +38,6 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import net.minecraft.world.chunk.storage.RegionFile;
-import net.minecraft.world.chunk.storage.RegionFileCache;
 import net.minecraft.world.dimension.Dimension;
 import net.minecraft.world.storage.SaveHandler;
 import wdl.api.IEntityEditor;
@@ -303,21 +302,15 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 		try {
 			NBTTagCompound chunkNBT;
 
-			// The reason for the weird syntax here rather than containsKey is because
-			// chunksToSave can be accessed from multiple threads.  Note that this still
-			// doesn't handle the MC-119971-like case of the chunk being in chunksBeingSaved
-			// (but that should be rare, and this condition should not happen in the first place)
-			if ((chunkNBT = chunksToSave.get(chunk.getPos())) != null) {
-				LOGGER.warn("getOldTileEntities (and thus saveChunk) was called while a chunk was already in chunksToSave!  (location: {})", chunk.getPos(), new Exception());
-			} else try (DataInputStream dis = RegionFileCache.getChunkInputStream(
-					chunkSaveLocation, chunk.getPos().x, chunk.getPos().z)) {
-				if (dis == null) {
-					// This happens whenever the chunk hasn't been saved before.
-					// It's a normal case.
-					return returned;
-				}
-
-				chunkNBT = CompressedStreamTools.read(dis);
+			// If the chunk was saved recently, it might not have been written yet
+			// (the writer keeps it until it has been, so there's no gap between
+			// the two).  The weird syntax is because the writer is on other threads.
+			if ((chunkNBT = writer.getPending(chunk.getPos())) != null) {
+				LOGGER.debug("[WDL] Using unwritten NBT of chunk at {} for old tile entities", chunk.getPos());
+			} else if ((chunkNBT = writer.read(chunk.getPos())) == null) {
+				// This happens whenever the chunk hasn't been saved before.
+				// It's a normal case.
+				return returned;
 			}
 
 			NBTTagCompound levelNBT = chunkNBT.getCompound("Level");
@@ -417,17 +410,16 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 		}
 	}
 
-	public RegionFile getRegionFileIfExists(int regionX, int regionZ) {
-		// 1.13.0 and earlier have func_191065_b or getRegionFileIfExists, but 1.13 doesn't,
-		// so we get this...
-		File regionFolder = new File(this.chunkSaveLocation, "region");
-		File region = new File(regionFolder, "r." + regionX + "." + regionZ + ".mca");
-		if (region.exists()) {
-			// This takes chunk coordinates and shifts them back into region ones, so convert
-			// our region coordinates to chunk ones to appease it
-			return RegionFileCache.createOrLoadRegionFile(this.chunkSaveLocation, regionX << 5, regionZ << 5);
-		} else {
-			return null;
+	/**
+	 * Runs the given action on the given region file, if it exists.  The
+	 * action must not keep the region file afterwards, as it may be closed.
+	 */
+	public void withRegionFileIfExists(int regionX, int regionZ, Consumer<RegionFile> action) {
+		// Through the writer, so that its in-memory header is up to date
+		try {
+			writer.withRegionFileIfExists(regionX, regionZ, action);
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to open region file " + regionX + ", " + regionZ, ex);
 		}
 	}
 }
\ No newline at end of file
@@ -15,7 +15,8 @@ package wdl;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -80,7 +81,11 @@ abstract class WDLChunkLoaderBase extends AnvilChunkLoader {
 	}
 
 	protected final WDL wdl;
-	protected final Map<ChunkPos, NBTTagCompound> chunksToSave;
+	/**
+	 * Writes chunks into the region files, instead of vanilla's
+	 * ThreadedFileIOBase.
+	 */
+	protected final ChunkWriter writer;
 	/**
 	 * Location where chunks are saved.
 	 *
@@ -92,11 +97,8 @@ abstract class WDLChunkLoaderBase extends AnvilChunkLoader {
 	protected WDLChunkLoaderBase(WDL wdl, File file) {
 		super(file, null);
 		this.wdl = wdl;
-		@SuppressWarnings("unchecked")
-		Map<ChunkPos, NBTTagCompound> chunksToSave =
-				ReflectionUtils.findAndGetPrivateField(this, AnvilChunkLoader.class, VersionedFunctions.getChunksToSaveClass());
-		this.chunksToSave = chunksToSave;
 		this.chunkSaveLocation = file;
+		this.writer = new ChunkWriter(file);
 	}
 
 	/**
@@ -115,7 +117,12 @@ abstract class WDLChunkLoaderBase extends AnvilChunkLoader {
 		rootTag.put("Level", levelTag);
 		rootTag.putInt("DataVersion", VersionConstants.getDataVersion());
 
-		addChunkToPending(chunk.getPos(), rootTag);
+		try {
+			writer.submit(chunk.getPos(), rootTag);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing chunk at " + chunk.getPos());
+		}
 
 		wdl.unloadChunk(chunk.getPos());
 	}
@@ -239,11 +246,26 @@ abstract class WDLChunkLoaderBase extends AnvilChunkLoader {
 
 	/**
 	 * Gets a count of how many chunks there are that still need to be written to
-	 * disk. (Does not include any chunk that is currently being written to disk)
+	 * disk (including any chunk that is currently being written to disk).
 	 *
 	 * @return The number of chunks that still need to be written to disk
 	 */
-	public synchronized int getNumPendingChunks() {
-		return this.chunksToSave.size();
+	public int getNumPendingChunks() {
+		return writer.getNumPending();
+	}
+
+	/**
+	 * Waits for all chunks saved so far to be written to their region files.
+	 */
+	public void flush() throws InterruptedException, ExecutionException {
+		writer.flush().get();
+	}
+
+	/**
+	 * Stops the chunk writer once it has written the chunks saved so far,
+	 * without waiting for it.  No more chunks can be saved afterwards.
+	 */
+	public void stopWriter() throws InterruptedException {
+		writer.stop();
 	}
 }
@@ -15,6 +15,7 @@ package wdl.gui;
 
 import java.lang.reflect.Field;
 import java.nio.IntBuffer;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
@@ -121,10 +122,8 @@ public class GuiSavedChunks extends WDLScreen {
 		int maxZ = MathHelper.floor(displayZToChunkZ(height) / 32.0);
 		for (int rx = minX; rx <= maxX; rx++) {
 			for (int rz = minZ; rz <= maxZ; rz++) {
-				RegionFile region = loadRegion(rx, rz);
-				if (region != null) {
-					drawRegion(region, rx, rz);
-				}
+				int regionX = rx, regionZ = rz;
+				withRegion(regionX, regionZ, region -> drawRegion(region, regionX, regionZ));
 			}
 		}
 		// Chunks that have been saved already
@@ -156,12 +155,10 @@ public class GuiSavedChunks extends WDLScreen {
 						I18n.format("wdl.gui.savedChunks.savedNow", x, z),
 						12, 24, 0xFFFFFF);
 			} else {
-				RegionFile region = loadRegion(x >> 5, z >> 5);
-				int timestamp = 0;
-				if (region != null) {
-					IntBuffer timestamps = getChunkTimestamps(region);
-					timestamp = timestamps.get(computeTimestampIndex(x, z));
-				}
+				int[] timestamps = new int[1];
+				withRegion(x >> 5, z >> 5, region ->
+						timestamps[0] = getChunkTimestamps(region).get(computeTimestampIndex(x, z)));
+				int timestamp = timestamps[0];
 				if (timestamp > savedAfterLastDownloadTime) {
 					this.drawString(this.font,
 							I18n.format("wdl.gui.savedChunks.savedAfterDownload", x, z, timestamp * 1000L),
@@ -188,18 +185,17 @@ public class GuiSavedChunks extends WDLScreen {
 	}
 
 	/**
-	 * Loads a region file if it exists.
+	 * Runs the given action on a region file if it exists, while it can't be
+	 * closed.
 	 *
 	 * @param x Region x coordinate (chunk / 32)
 	 * @param z Region z coordinate (chunk / 32)
-	 * @return The region file if it exists, or else null
+	 * @param action The action to run with the region file
 	 */
-	@Nullable
-	private RegionFile loadRegion(int x, int z) {
-		if (wdl.chunkLoader == null) {
-			return null;
+	private void withRegion(int x, int z, Consumer<RegionFile> action) {
+		if (wdl.chunkLoader != null) {
+			wdl.chunkLoader.withRegionFileIfExists(x, z, action);
 		}
-		return wdl.chunkLoader.getRegionFileIfExists(x, z);
 	}
 
 	/**
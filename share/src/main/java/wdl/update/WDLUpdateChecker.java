@@ -13,14 +13,15 @@
  */
 package wdl.update;
 
+import java.io.File;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.minecraft.client.Minecraft;
 import net.minecraft.util.text.TextComponentTranslation;
 import net.minecraft.util.text.TextFormatting;
 import wdl.VersionConstants;
@@ -177,6 +178,14 @@ public class WDLUpdateChecker extends Thread {
 	private static final String REDISTRIBUTION_LINK = "https://pokechu22.github.io/WorldDownloader/redistribution";
 	private static final String SMR_LINK = "https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/mods-discussion/2314237-list-of-sites-stealing-minecraft-content";
 
+	/**
+	 * File caching the hashes of the mod's classes, so that they don't need to
+	 * be hashed again while the jar is unchanged.
+	 */
+	private static final File HASH_CACHE_FILE = new File(
+			Minecraft.getInstance().gameDir,
+			"WorldDownloader_Hash_Cache.properties");
+
 	private WDLUpdateChecker() {
 		super("World Downloader update check thread");
 	}
@@ -299,36 +308,23 @@ public class WDLUpdateChecker extends Thread {
 				return;
 			}
 			//Check the hashes, and list any failing ones.
-			Map<HashData, Object> failed = new HashMap<>();
-
-			hashLoop: for (HashData data : runningRelease.hiddenInfo.hashes) {
-				try {
-					String hash = ClassHasher.hash(data.relativeTo, data.file);
-
-					for (String validHash : data.validHashes) {
-						if (validHash.equalsIgnoreCase(hash)) {
-							// Labeled continues / breaks _are_ a thing.
-							// This just continues the outer loop.
-							continue hashLoop;
-						}
-					}
+			Map<HashData, Object> failed = ClassHasher.verify(
+					Arrays.asList(runningRelease.hiddenInfo.hashes), HASH_CACHE_FILE);
 
+			for (Map.Entry<HashData, Object> e : failed.entrySet()) {
+				HashData data = e.getKey();
+				if (e.getValue() instanceof Exception) {
 					WDLMessages.chatMessageTranslated(
 							WDL.serverProps,
-							WDLMessageTypes.UPDATE_DEBUG, "wdl.messages.updates.incorrectHash",
+							WDLMessageTypes.UPDATE_DEBUG, "wdl.messages.updates.hashException",
 							data.file, data.relativeTo,
-							Arrays.toString(data.validHashes), hash);
-
-					failed.put(data, hash);
-					continue;
-				} catch (Exception e) {
+							Arrays.toString(data.validHashes), e.getValue());
+				} else {
 					WDLMessages.chatMessageTranslated(
 							WDL.serverProps,
-							WDLMessageTypes.UPDATE_DEBUG, "wdl.messages.updates.hashException",
+							WDLMessageTypes.UPDATE_DEBUG, "wdl.messages.updates.incorrectHash",
 							data.file, data.relativeTo,
-							Arrays.toString(data.validHashes), e);
-
-					failed.put(data, e);
+							Arrays.toString(data.validHashes), e.getValue());
 				}
 			}
 
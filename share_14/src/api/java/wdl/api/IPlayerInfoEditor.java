@@ -29,7 +29,9 @@ public interface IPlayerInfoEditor extends IWDLMod {
 	 *            The current saveHandler ({@link wdl.WDL#saveHandler}).
 	 * @param tag
 	 *            The current {@link NBTTagCompound} that is being saved. Edit
-	 *            or add info to this.
+	 *            or add info to this.  This is a copy, which is only saved if
+	 *            this method returns within the extension timeout; don't
+	 *            keep it afterwards.
 	 */
 	public abstract void editPlayerInfo(ClientPlayerEntity player,
 			Object saveHandler, CompoundNBT tag);
@@ -0,0 +1,29 @@
+/*
+ * This file is part of the World Downloader API.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * You are free to include the World Downloader API within your own mods, as
+ * permitted via the MMPLv2.
+ */
+package wdl.api;
+
+/**
+ * Marker interface for an {@link IWDLMod} whose {@link ISaveListener} and
+ * {@link IWorldLoadListener} callbacks can safely be called at the same time as
+ * those of other extensions.
+ * <br/>
+ * Extensions implementing this are run in parallel with each other, on
+ * threads other than the one that is saving or loading.  All of them are
+ * finished before saving continues, but loading a world doesn't wait for
+ * them.  Extensions that don't implement this are run one at a time.
+ * {@link IWorldInfoEditor}s and {@link IPlayerInfoEditor}s are always run one
+ * at a time, as they all edit the same tag.
+ */
+public interface IWDLModThreadSafe extends IWDLMod {
+}
@@ -31,7 +31,9 @@ public interface IWorldInfoEditor extends IWDLMod {
 	 *            The current saveHandler ({@link wdl.WDL#saveHandler}).
 	 * @param tag
 	 *            The current {@link NBTTagCompound} that is being saved. Edit
-	 *            or add info to this.
+	 *            or add info to this.  This is a copy, which is only saved if
+	 *            this method returns within the extension timeout; don't
+	 *            keep it afterwards.
 	 */
 	public abstract void editWorldInfo(ClientWorld world, Object info,
 			Object saveHandler, CompoundNBT tag);
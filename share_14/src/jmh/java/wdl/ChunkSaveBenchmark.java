@@ -0,0 +1,108 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import wdl.SyntheticChunks.Scenario;
+
+/**
+ * Benchmarks for the chunk saving paths in {@link WDLChunkLoader}.
+ * <p>
+ * Each scenario's chunk is also saved once during setup, so that
+ * {@link WDLChunkLoader#getOldTileEntities} has a previous version of the
+ * chunk to import from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkSaveBenchmark {
+	@Param
+	public Scenario scenario;
+
+	private WDL wdl;
+	private TestWorld.ClientWorld world;
+	private File folder;
+	private WDLChunkLoader loader;
+	private Chunk chunk;
+	private ChunkEncoder encoder;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		wdl = SyntheticChunks.setUpWDL();
+		world = TestWorld.makeClient();
+		folder = Files.createTempDirectory("wdl-bench").toFile();
+		DownloadSession session = SyntheticChunks.makeSession(wdl, world, folder);
+		loader = session.chunkLoader;
+		chunk = SyntheticChunks.populate(world, session, new ChunkPos(0, 0), scenario);
+
+		encoder = new ChunkEncoder(Deflater.DEFAULT_COMPRESSION);
+
+		loader.writeChunkData(chunk.getPos(), out -> loader.writeChunkRoot(chunk, world, out));
+		loader.flush();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		loader.close();
+		encoder.close();
+		world.close();
+		SyntheticChunks.clear(wdl);
+		FileUtils.deleteDirectory(folder);
+	}
+
+	@Benchmark
+	public ByteBuffer encodeChunk() throws IOException {
+		return encoder.encode(out -> loader.writeChunkRoot(chunk, world, out));
+	}
+
+	@Benchmark
+	public ListNBT getTileEntityList() {
+		return loader.getTileEntityList(chunk);
+	}
+
+	@Benchmark
+	public Map<BlockPos, CompoundNBT> getOldTileEntities() {
+		return loader.getOldTileEntities(chunk);
+	}
+}
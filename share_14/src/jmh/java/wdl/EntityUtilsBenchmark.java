@@ -0,0 +1,99 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.minecraft.entity.Entity;
+import wdl.config.settings.EntitySettings.TrackDistanceMode;
+
+/**
+ * Benchmarks for classifying the entities of a mob farm with
+ * {@link EntityUtils}, as is done for every entity in every saved chunk.
+ * Each operation classifies all {@value SyntheticChunks#MOB_COUNT} entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityUtilsBenchmark {
+	private WDL wdl;
+	private TestWorld.ClientWorld world;
+	private final List<Entity> entities = new ArrayList<>();
+	private final List<String> types = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		wdl = SyntheticChunks.setUpWDL();
+		world = TestWorld.makeClient();
+		for (int i = 0; i < SyntheticChunks.MOB_COUNT; i++) {
+			Entity e = SyntheticChunks.makeEntity(world, i);
+			entities.add(e);
+			types.add(EntityUtils.getEntityType(e));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		world.close();
+		SyntheticChunks.clear(wdl);
+	}
+
+	@Benchmark
+	public void getEntityType(Blackhole blackhole) {
+		for (Entity e : entities) {
+			blackhole.consume(EntityUtils.getEntityType(e));
+		}
+	}
+
+	@Benchmark
+	public void getEntityGroup(Blackhole blackhole) {
+		for (String type : types) {
+			blackhole.consume(EntityUtils.getEntityGroup(type));
+		}
+	}
+
+	@Benchmark
+	public void getEntityTrackDistance(Blackhole blackhole) {
+		for (int i = 0; i < entities.size(); i++) {
+			blackhole.consume(EntityUtils.getEntityTrackDistance(
+					TrackDistanceMode.DEFAULT, types.get(i), entities.get(i)));
+		}
+	}
+
+	@Benchmark
+	public void isEntityEnabled(Blackhole blackhole) {
+		for (Entity e : entities) {
+			blackhole.consume(EntityUtils.isEntityEnabled(e));
+		}
+	}
+}
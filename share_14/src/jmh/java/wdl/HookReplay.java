@@ -0,0 +1,287 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+
+import com.mojang.authlib.GameProfile;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.entity.player.ClientPlayerEntity;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.network.play.ClientPlayNetHandler;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.network.play.server.SBlockActionPacket;
+import net.minecraft.network.play.server.SChatPacket;
+import net.minecraft.network.play.server.SCustomPayloadPlayPacket;
+import net.minecraft.network.play.server.SMapDataPacket;
+import net.minecraft.network.play.server.SUnloadChunkPacket;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import wdl.HookRecording.Event;
+import wdl.versioned.ISaveHandlerWrapper;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * Replays a recording made by {@link HookRecorder} through {@link WDLHooks}
+ * as fast as possible, saving into a temporary folder, and reports the
+ * throughput.  Run with <code>gradlew replayHooks -PreplayFile=&lt;file&gt;</code>.
+ * <p>
+ * Only the {@link WDL} methods that capture and save data are real; the rest
+ * of the mod's state is set up as if a download had been started.
+ */
+public final class HookReplay {
+	private HookReplay() { throw new AssertionError(); }
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: HookReplay <recording>");
+			System.exit(2);
+		}
+		System.out.println(replay(new File(args[0])));
+		System.exit(0);
+	}
+
+	/**
+	 * The measurements of a replay.
+	 */
+	static final class Result {
+		int events;
+		int chunksSaved;
+		/** Time taken to replay all events, in nanoseconds. */
+		long replayNanos;
+		/** Time taken to finish writing chunks afterwards, in nanoseconds. */
+		long flushNanos;
+		/** Time taken by each {@link WDL#saveChunk(Chunk)} call, in nanoseconds. */
+		long[] saveNanos = new long[16];
+		long peakHeapBytes;
+
+		void addSave(long nanos) {
+			if (chunksSaved == saveNanos.length) {
+				saveNanos = Arrays.copyOf(saveNanos, saveNanos.length * 2);
+			}
+			saveNanos[chunksSaved++] = nanos;
+		}
+
+		/**
+		 * Gets the given percentile of the save latency, in milliseconds.
+		 */
+		double savePercentile(double percentile) {
+			if (chunksSaved == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(saveNanos, chunksSaved);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * chunksSaved) - 1;
+			return sorted[Math.max(0, index)] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = (replayNanos + flushNanos) / 1e9;
+			return String.format("%d events, %d chunks saved in %.2fs (%.2fs replaying, %.2fs flushing)%n"
+					+ "%.1f chunks/s%n"
+					+ "save latency: p50 %.3fms, p90 %.3fms, p99 %.3fms, max %.3fms%n"
+					+ "peak heap: %d MB",
+					events, chunksSaved, seconds, replayNanos / 1e9, flushNanos / 1e9,
+					chunksSaved / seconds,
+					savePercentile(50), savePercentile(90), savePercentile(99), savePercentile(100),
+					peakHeapBytes / (1024 * 1024));
+		}
+	}
+
+	static Result replay(File recording) throws Exception {
+		File folder = Files.createTempDirectory("wdl-replay").toFile();
+		try (HookRecording.Reader reader = new HookRecording.Reader(recording);
+				TestWorld.ClientWorld world = TestWorld.makeClient()) {
+			if (reader.dataVersion != VersionConstants.getDataVersion()) {
+				throw new IllegalArgumentException("Recording was made with data version "
+						+ reader.dataVersion + ", but this is " + VersionConstants.getDataVersion());
+			}
+			Result result = new Result();
+			ClientPlayNetHandler nhpc = setUp(world, folder, result);
+
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				pool.resetPeakUsage();
+			}
+			long start = System.nanoTime();
+			Event event;
+			while ((event = reader.next()) != null) {
+				dispatch(event, world, nhpc);
+				result.events++;
+			}
+			long replayed = System.nanoTime();
+			WDL.getInstance().chunkLoader.flush();
+			result.flushNanos = System.nanoTime() - replayed;
+			result.replayNanos = replayed - start;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					result.peakHeapBytes += pool.getPeakUsage().getUsed();
+				}
+			}
+			WDL.getInstance().chunkLoader.close();
+			return result;
+		} finally {
+			WDL.downloading = false;
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	/**
+	 * Sets up the hooks listener and a {@link WDL} instance that is
+	 * downloading the given world into the given folder.
+	 *
+	 * @return The net handler to pass to hooks
+	 */
+	private static ClientPlayNetHandler setUp(TestWorld.ClientWorld world, File folder, Result result) {
+		WDL wdl = SyntheticChunks.setUpWDL();
+
+		// As in AbstractWorldBehaviorTest
+		Minecraft mc = mock(Minecraft.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+		ReflectionUtils.findAndSetPrivateField(null, Minecraft.class, Minecraft.class, mc);
+		when(mc.isOnExecutionThread()).thenReturn(true);
+		ClientPlayNetHandler nhpc = new ClientPlayNetHandler(mc, new Screen(new StringTextComponent("")) {},
+				null, new GameProfile(UUID.randomUUID(), "ClientPlayer"));
+		ReflectionUtils.findAndSetPrivateField(nhpc, ClientWorld.class, world);
+		ClientPlayerEntity player = VersionedFunctions.makePlayer(mc, world, nhpc,
+				mock(ClientPlayerEntity.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS)));
+		player.world = world;
+		mc.player = player;
+		mc.world = world;
+
+		ISaveHandlerWrapper saveHandler = mock(ISaveHandlerWrapper.class);
+		when(saveHandler.getWorldDirectory()).thenReturn(folder);
+		File chunkFolder = new File(folder, "region");
+		chunkFolder.mkdirs();
+		DownloadSession session = new DownloadSession(wdl, world, player, "", wdl.worldProps,
+				null, saveHandler, chunkFolder, null);
+
+		ReflectionUtils.findAndSetPrivateField(wdl, WDL.class, Minecraft.class, mc);
+		ReflectionUtils.findAndSetPrivateField(wdl, WDL.class, AiroidChecker.class, new AiroidChecker());
+		ReflectionUtils.findAndSetPrivateField(wdl, WDL.class, DownloadSession.class, session);
+		wdl.worldClient = world;
+		wdl.player = player;
+		wdl.windowContainer = player.openContainer;
+		wdl.saveHandler = saveHandler;
+		wdl.chunkLoader = session.chunkLoader;
+		wdl.newTileEntities = session.newTileEntities;
+		wdl.newEntities = session.newEntities;
+		wdl.newMapDatas = session.newMapDatas;
+		wdl.entityPositions = session.entityPositions;
+		wdl.savedChunks = ConcurrentHashMap.newKeySet();
+
+		doAnswer(invocation -> {
+			long start = System.nanoTime();
+			invocation.callRealMethod();
+			result.addSave(System.nanoTime() - start);
+			return null;
+		}).when(wdl).saveChunk(any(Chunk.class));
+		doCallRealMethod().when(wdl).saveChunk(any(DownloadSession.class), any(Chunk.class), anyBoolean());
+		doCallRealMethod().when(wdl).saveTileEntity(any(), any());
+		doCallRealMethod().when(wdl).saveEntity(any(), any());
+		doCallRealMethod().when(wdl).addMapData(anyInt(), any());
+		doAnswer(invocation -> {
+			throw new RuntimeException("Replay failed: " + invocation.getArgument(1),
+					invocation.getArgument(0));
+		}).when(wdl).crashed(any(), any());
+
+		WDLEvents.createListener(wdl);
+		WDL.downloading = true;
+		return nhpc;
+	}
+
+	private static void dispatch(Event event, TestWorld.ClientWorld world, ClientPlayNetHandler nhpc)
+			throws Exception {
+		switch (event.type) {
+		case TICK:
+			WDLHooks.onWorldClientTick(world);
+			break;
+		case REMOVE_ENTITY:
+			WDLHooks.onWorldClientRemoveEntityFromWorld(world, event.data.readVarInt());
+			break;
+		case CHUNK:
+			loadChunk(world, event.data);
+			break;
+		case CHUNK_UNLOAD: {
+			SUnloadChunkPacket packet = event.readPacket(new SUnloadChunkPacket());
+			WDLHooks.onNHPCHandleChunkUnload(nhpc, world, packet);
+			// Free the memory, as the real client would
+			clearChunk(world.getChunk(packet.getX(), packet.getZ()));
+			break;
+		}
+		case CHAT:
+			WDLHooks.onNHPCHandleChat(nhpc, event.readPacket(new SChatPacket()));
+			break;
+		case MAPS:
+			WDLHooks.onNHPCHandleMaps(nhpc, event.readPacket(new SMapDataPacket()));
+			break;
+		case CUSTOM_PAYLOAD:
+			WDLHooks.onNHPCHandleCustomPayload(nhpc, event.readPacket(new SCustomPayloadPlayPacket()));
+			break;
+		case BLOCK_ACTION:
+			WDLHooks.onNHPCHandleBlockAction(nhpc, event.readPacket(new SBlockActionPacket()));
+			break;
+		case DISCONNECT:
+			// Would stop the download; everything is saved at the end anyways
+			break;
+		}
+	}
+
+	/**
+	 * Replaces the contents of a chunk with a recorded copy.
+	 */
+	private static void loadChunk(TestWorld.ClientWorld world, PacketBuffer buf) {
+		Chunk chunk = world.getChunk(buf.readInt(), buf.readInt());
+		clearChunk(chunk);
+		ChunkSection[] sections = chunk.getSections();
+		int mask = buf.readVarInt();
+		for (int i = 0; i < sections.length; i++) {
+			if ((mask & (1 << i)) != 0) {
+				sections[i] = new ChunkSection(i << 4);
+				sections[i].read(buf);
+			}
+		}
+		int tileEntities = buf.readVarInt();
+		for (int i = 0; i < tileEntities; i++) {
+			CompoundNBT tag = buf.readCompoundTag();
+			BlockPos pos = new BlockPos(tag.getInt("x"), tag.getInt("y"), tag.getInt("z"));
+			TileEntity te = TileEntity.readTileEntity(chunk.getBlockState(pos), tag);
+			if (te != null) {
+				chunk.addTileEntity(pos, te);
+			}
+		}
+	}
+
+	private static void clearChunk(Chunk chunk) {
+		Arrays.fill(chunk.getSections(), Chunk.EMPTY_SECTION);
+		chunk.getTileEntityMap().clear();
+	}
+}
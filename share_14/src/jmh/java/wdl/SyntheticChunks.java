@@ -0,0 +1,194 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.ITileEntityProvider;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.item.ArmorStandEntity;
+import net.minecraft.entity.item.ItemFrameEntity;
+import net.minecraft.entity.monster.CreeperEntity;
+import net.minecraft.entity.monster.ZombieEntity;
+import net.minecraft.entity.passive.PigEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.tileentity.ChestTileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import wdl.config.Configuration;
+import wdl.config.DefaultConfiguration;
+import wdl.config.settings.MessageSettings;
+
+/**
+ * Builds the synthetic worlds and chunks used by the benchmarks.
+ */
+final class SyntheticChunks {
+	private SyntheticChunks() { throw new AssertionError(); }
+
+	/**
+	 * The kinds of chunk that are benchmarked.
+	 */
+	enum Scenario {
+		/**
+		 * Every block in every section is different, giving each section a
+		 * full palette.
+		 */
+		DENSE_PALETTE,
+		/**
+		 * A floor of stone covered in filled chests, half of which were
+		 * "opened" and are in {@link DownloadSession#newTileEntities}.
+		 */
+		BLOCK_ENTITIES,
+		/**
+		 * A small platform with several hundred mobs standing on it.
+		 */
+		MOB_FARM
+	}
+
+	/** Number of chests placed by {@link Scenario#BLOCK_ENTITIES}. */
+	static final int CHEST_COUNT = 16 * 16 * 4;
+	/** Number of entities added by {@link Scenario#MOB_FARM}. */
+	static final int MOB_COUNT = 400;
+
+	/**
+	 * Sets up the bootstrap and a {@link WDL} instance that has the state
+	 * needed for saving chunks, with all chat messages disabled.
+	 */
+	static WDL setUpWDL() {
+		TestBootstrap.init();
+
+		Configuration serverProps = new Configuration(new DefaultConfiguration());
+		serverProps.setValue(MessageSettings.ENABLE_ALL_MESSAGES, false);
+		WDL.serverProps = serverProps;
+
+		WDL wdl = mock(WDL.class);
+		wdl.newTileEntities = new ChunkBuckets<>();
+		wdl.newEntities = new ChunkBuckets<>();
+		wdl.newMapDatas = new ConcurrentHashMap<>();
+		wdl.entityPositions = new ConcurrentHashMap<>();
+		wdl.worldProps = new Configuration(serverProps);
+		ReflectionUtils.findAndSetPrivateField(null, WDL.class, WDL.class, wdl);
+		return wdl;
+	}
+
+	/**
+	 * Creates a session for the given world that saves chunks into the given
+	 * folder.  It has no save handler or spill store.
+	 */
+	static DownloadSession makeSession(WDL wdl, TestWorld.ClientWorld world, File folder) {
+		return new DownloadSession(wdl, world, null, "", wdl.worldProps, null, null, folder, null);
+	}
+
+	/**
+	 * Fills in the chunk at the given position for the given scenario.
+	 */
+	static Chunk populate(TestWorld.ClientWorld world, DownloadSession session, ChunkPos pos, Scenario scenario) {
+		Chunk chunk = world.getChunk(pos.x, pos.z);
+		switch (scenario) {
+		case DENSE_PALETTE: fillDensePalette(chunk); break;
+		case BLOCK_ENTITIES: fillBlockEntities(world, session, chunk); break;
+		case MOB_FARM: fillMobFarm(world, chunk); break;
+		}
+		return chunk;
+	}
+
+	private static void fillDensePalette(Chunk chunk) {
+		List<BlockState> states = new ArrayList<>();
+		for (BlockState state : Block.BLOCK_STATE_IDS) {
+			// Block entities would turn this into the other scenario
+			if (!(state.getBlock() instanceof ITileEntityProvider) && !state.isAir()) {
+				states.add(state);
+			}
+		}
+		BlockPos origin = chunk.getPos().asBlockPos();
+		int i = 0;
+		for (int y = 0; y < 256; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					chunk.setBlockState(origin.add(x, y, z), states.get(i++ % states.size()), false);
+				}
+			}
+		}
+	}
+
+	private static void fillBlockEntities(TestWorld.ClientWorld world, DownloadSession session, Chunk chunk) {
+		BlockPos origin = chunk.getPos().asBlockPos();
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				chunk.setBlockState(origin.add(x, 0, z), Blocks.STONE.getDefaultState(), false);
+			}
+		}
+		for (int i = 0; i < CHEST_COUNT; i++) {
+			BlockPos pos = origin.add(i % 16, 1 + i / 256, (i / 16) % 16);
+			chunk.setBlockState(pos, Blocks.CHEST.getDefaultState(), false);
+			if (i % 2 == 0) {
+				ChestTileEntity te = new ChestTileEntity();
+				te.setWorldAndPos(world, pos);
+				for (int slot = 0; slot < te.getSizeInventory(); slot++) {
+					te.setInventorySlotContents(slot, new ItemStack(Items.DIAMOND, 1 + slot));
+				}
+				session.newTileEntities.put(chunk.getPos(), pos, te);
+			}
+		}
+	}
+
+	private static void fillMobFarm(TestWorld.ClientWorld world, Chunk chunk) {
+		BlockPos origin = chunk.getPos().asBlockPos();
+		for (int z = 0; z < 16; z++) {
+			for (int x = 0; x < 16; x++) {
+				chunk.setBlockState(origin.add(x, 63, z), Blocks.GRASS_BLOCK.getDefaultState(), false);
+			}
+		}
+		for (int i = 0; i < MOB_COUNT; i++) {
+			Entity e = makeEntity(world, i);
+			e.setPosition(origin.getX() + 0.5 + (i % 16), 64, origin.getZ() + 0.5 + ((i / 16) % 16));
+			world.addEntity(e, chunk.getPos().hashCode() * MOB_COUNT + i + 1);
+		}
+	}
+
+	/**
+	 * Creates one of a handful of entity types, cycling through them.
+	 */
+	static Entity makeEntity(TestWorld.ClientWorld world, int i) {
+		switch (i % 5) {
+		case 0: return new PigEntity(EntityType.PIG, world);
+		case 1: return new ZombieEntity(world);
+		case 2: return new CreeperEntity(EntityType.CREEPER, world);
+		case 3: return new ArmorStandEntity(EntityType.ARMOR_STAND, world);
+		default: return new ItemFrameEntity(EntityType.ITEM_FRAME, world);
+		}
+	}
+
+	/**
+	 * Removes everything added by {@link #populate}, so that the next trial
+	 * starts from a clean state.
+	 */
+	static void clear(WDL wdl) {
+		wdl.newTileEntities.clear();
+		wdl.newEntities.clear();
+		wdl.newMapDatas.clear();
+		wdl.entityPositions.clear();
+	}
+}
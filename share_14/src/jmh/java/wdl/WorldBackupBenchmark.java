@@ -0,0 +1,128 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wdl.WorldBackup.IBackupProgressMonitor;
+
+/**
+ * Benchmarks for {@link WorldBackup}, using a synthetic world folder made up
+ * of region files and many small player and data files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WorldBackupBenchmark {
+	/** Number of region files in the synthetic world. */
+	private static final int REGION_COUNT = 16;
+	/** Size of each synthetic region file. */
+	private static final int REGION_SIZE = 1024 * 1024;
+	/** Number of small files (player data and such) in the synthetic world. */
+	private static final int SMALL_FILE_COUNT = 200;
+
+	private static final IBackupProgressMonitor MONITOR = new IBackupProgressMonitor() {
+		@Override
+		public void setNumberOfFiles(int num) { }
+
+		@Override
+		public void onNextFile(String name) { }
+
+		@Override
+		public boolean shouldCancel() {
+			return false;
+		}
+	};
+
+	private File folder;
+	private File world;
+	private File destination;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("wdl-bench").toFile();
+		world = new File(folder, "world");
+		Random random = new Random(0);
+
+		File region = new File(world, "region");
+		region.mkdirs();
+		for (int i = 0; i < REGION_COUNT; i++) {
+			// Region data is already compressed, so it's mostly noise with
+			// some padding between chunks
+			byte[] data = new byte[REGION_SIZE];
+			random.nextBytes(data);
+			for (int j = 0; j < data.length; j += 4096) {
+				for (int k = 0; k < 512; k++) {
+					data[j + k] = 0;
+				}
+			}
+			Files.write(new File(region, "r." + (i % 4) + "." + (i / 4) + ".mca").toPath(), data);
+		}
+
+		File playerdata = new File(world, "playerdata");
+		playerdata.mkdirs();
+		for (int i = 0; i < SMALL_FILE_COUNT; i++) {
+			byte[] data = new byte[1024 + random.nextInt(4096)];
+			random.nextBytes(data);
+			Files.write(new File(playerdata, i + ".dat").toPath(), data);
+		}
+		Files.write(new File(world, "level.dat").toPath(), new byte[2048]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(folder);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteBackup() throws IOException {
+		if (destination != null) {
+			FileUtils.forceDelete(destination);
+			destination = null;
+		}
+	}
+
+	@Benchmark
+	public long zipDirectory() throws IOException {
+		destination = new File(folder, "backup.zip");
+		return WorldBackup.zipDirectory(world, destination, MONITOR);
+	}
+
+	@Benchmark
+	public long copyDirectory() throws IOException {
+		destination = new File(folder, "backup");
+		return WorldBackup.copyDirectory(world, destination, MONITOR);
+	}
+}
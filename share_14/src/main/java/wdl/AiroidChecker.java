@@ -0,0 +1,199 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.block.AirBlock;
+import net.minecraft.block.BedBlock;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.palette.IPalette;
+import net.minecraft.util.palette.IdentityPalette;
+import net.minecraft.util.palette.PalettedContainer;
+import net.minecraft.world.chunk.ChunkSection;
+
+/**
+ * Checks whether a chunk section is made up only of "airoids" (air and beds);
+ * some servers send such sections in place of genuinely empty chunks.
+ * <p>
+ * Rather than looking at all 4096 blocks, the section's palette is checked
+ * first: if every state in it is an airoid, so is every block.  Positive
+ * verdicts are cached per chunk, and are reused until the section is replaced
+ * or its palette changes.
+ */
+class AiroidChecker {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * The largest number of entries a non-global palette can have (8 bits).
+	 */
+	private static final int MAX_PALETTE_SIZE = 256;
+
+	/**
+	 * The (non-final) field in {@link PalettedContainer} holding its current
+	 * palette; the final field of the same type is the global registry palette.
+	 * Null if it couldn't be found, in which case every section is scanned.
+	 */
+	@Nullable
+	private static final Field PALETTE_FIELD = findPaletteField();
+
+	@Nullable
+	private static Field findPaletteField() {
+		try {
+			for (Field field : PalettedContainer.class.getDeclaredFields()) {
+				if (field.getType().equals(IPalette.class)
+						&& !Modifier.isFinal(field.getModifiers())) {
+					field.setAccessible(true);
+					return field;
+				}
+			}
+			LOGGER.warn("[WDL] Couldn't find the palette field in PalettedContainer; airoid checks will scan every block");
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Couldn't access the palette field in PalettedContainer; airoid checks will scan every block", ex);
+		}
+		return null;
+	}
+
+	/**
+	 * A positive verdict, along with what is needed to tell whether it is
+	 * still valid.
+	 */
+	private static class Verdict {
+		private final ChunkSection section;
+		private final IPalette<BlockState> palette;
+		/** Number of entries in the palette when the verdict was reached */
+		private final int paletteSize;
+		/** Result of {@link ChunkSection#isEmpty()} when the verdict was reached */
+		private final boolean sectionEmpty;
+
+		Verdict(ChunkSection section, IPalette<BlockState> palette,
+				int paletteSize, boolean sectionEmpty) {
+			this.section = section;
+			this.palette = palette;
+			this.paletteSize = paletteSize;
+			this.sectionEmpty = sectionEmpty;
+		}
+
+		/**
+		 * Palettes only ever grow by appending new entries, and are replaced
+		 * outright when resized, so if there is no entry past the last known
+		 * one the palette's contents are unchanged.
+		 */
+		boolean isValid(ChunkSection section, IPalette<BlockState> palette, boolean sectionEmpty) {
+			return this.section == section && this.palette == palette
+					&& this.sectionEmpty == sectionEmpty
+					&& (paletteSize >= MAX_PALETTE_SIZE || palette.get(paletteSize) == null);
+		}
+	}
+
+	private final Map<ChunkPos, Verdict> verdicts = new ConcurrentHashMap<>();
+
+	/**
+	 * Checks whether the given section only contains airoids.
+	 *
+	 * @param pos The position of the chunk the section belongs to, used for caching
+	 * @param section The section to check
+	 * @return True if all blocks in the section are air or beds
+	 */
+	public boolean isAiroid(ChunkPos pos, ChunkSection section) {
+		boolean sectionEmpty = section.isEmpty();
+		IPalette<BlockState> palette = getPalette(section);
+		if (palette == null || palette instanceof IdentityPalette) {
+			// Can't (or shouldn't) enumerate the palette
+			return scan(section);
+		}
+
+		Verdict cached = verdicts.get(pos);
+		if (cached != null && cached.isValid(section, palette, sectionEmpty)) {
+			return true;
+		}
+
+		int paletteSize = 0;
+		boolean allAiroids = true;
+		BlockState state;
+		while (paletteSize < MAX_PALETTE_SIZE && (state = palette.get(paletteSize)) != null) {
+			if (!isAiroid(state.getBlock())) {
+				allAiroids = false;
+			}
+			paletteSize++;
+		}
+
+		if (allAiroids || sectionEmpty) {
+			verdicts.put(pos, new Verdict(section, palette, paletteSize, sectionEmpty));
+			return true;
+		}
+		// Palettes are never shrunk, so a non-airoid state in it might no
+		// longer be present in the section.  Look at the blocks to be sure;
+		// this isn't cached, since a block could be changed to a state already
+		// in the palette without changing it.  Sections with real terrain
+		// almost always stop at the first block anyways.
+		return scan(section);
+	}
+
+	/**
+	 * Forgets the cached verdict for the given chunk.
+	 */
+	public void forget(ChunkPos pos) {
+		verdicts.remove(pos);
+	}
+
+	/**
+	 * Forgets all cached verdicts.
+	 */
+	public void clear() {
+		verdicts.clear();
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static IPalette<BlockState> getPalette(ChunkSection section) {
+		if (PALETTE_FIELD == null) {
+			return null;
+		}
+		try {
+			return (IPalette<BlockState>) PALETTE_FIELD.get(section.getData());
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Failed to get palette of chunk section", ex);
+			return null;
+		}
+	}
+
+	private static boolean scan(ChunkSection section) {
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					if (!isAiroid(section.getBlockState(x, y, z).getBlock())) {
+						// Contains a non-airoid; stop
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAiroid(Block block) {
+		return block instanceof AirBlock || block instanceof BedBlock;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.storage.MapData;
+import wdl.config.settings.MiscSettings;
+
+/**
+ * Periodically saves the loaded chunks and captured map data of a
+ * {@link DownloadSession} while it is being downloaded, so that less is lost
+ * if the game crashes.
+ * <p>
+ * Only chunks that have changed since they were last autosaved are written;
+ * the final save still writes every loaded chunk.
+ * Autosaving happens on the client thread (as the loaded chunks are not safe
+ * to access from anywhere else), but is spread over several ticks, using
+ * whatever is left of each tick's {@link MainThreadScheduler} budget.
+ */
+class AutosaveScheduler {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private final WDL wdl;
+	private final DownloadSession session;
+
+	/**
+	 * Chunks that have been autosaved and not changed since, by position.  The
+	 * chunk instance is kept to tell if it has since been replaced.
+	 */
+	private final Map<ChunkPos, Chunk> cleanChunks = new HashMap<>();
+	/**
+	 * Maps that have been received since the last autosave.
+	 */
+	private final Set<Integer> dirtyMaps = new HashSet<>();
+	/**
+	 * Chunks still to be written in the current autosave.
+	 */
+	private final Map<ChunkPos, Chunk> pendingChunks = new LinkedHashMap<>();
+	/**
+	 * Maps still to be written in the current autosave.
+	 */
+	private final Set<Integer> pendingMaps = new HashSet<>();
+	/**
+	 * Whether an autosave is in progress.
+	 */
+	private boolean running;
+	/**
+	 * {@link System#currentTimeMillis()} at which the next autosave starts.
+	 */
+	private long nextAutosave;
+	private int chunksSaved;
+	private int mapsSaved;
+
+	AutosaveScheduler(WDL wdl, DownloadSession session) {
+		this.wdl = wdl;
+		this.session = session;
+		this.nextAutosave = System.currentTimeMillis() + getInterval();
+	}
+
+	/**
+	 * Marks the given chunk as needing to be saved again, for changes that are
+	 * not tracked by the chunk itself (e.g. captured tile entities).
+	 */
+	public synchronized void markDirty(ChunkPos pos) {
+		cleanChunks.remove(pos);
+	}
+
+	/**
+	 * Marks the given map as needing to be saved again.
+	 */
+	public synchronized void markMapDirty(int mapID) {
+		dirtyMaps.add(mapID);
+	}
+
+	/**
+	 * Forgets the given chunk, which has been saved and unloaded.
+	 */
+	public synchronized void forget(ChunkPos pos) {
+		cleanChunks.remove(pos);
+		pendingChunks.remove(pos);
+	}
+
+	/**
+	 * Checks whether the given chunk has been autosaved and not changed since,
+	 * in which case it does not need to be autosaved again.  Entities and
+	 * tile entity updates don't mark chunks as changed, so this must not be
+	 * used to skip chunks in the final save.
+	 */
+	public synchronized boolean isClean(Chunk chunk) {
+		return cleanChunks.get(chunk.getPos()) == chunk && !chunk.isModified();
+	}
+
+	/**
+	 * Called every tick while the session is being downloaded; starts an
+	 * autosave when one is due, and otherwise continues the current one.  At
+	 * least one chunk or map is written if any are pending.
+	 *
+	 * @param deadline {@link System#nanoTime()} at which to stop for this tick
+	 */
+	public synchronized void tick(long deadline) {
+		long interval = getInterval();
+		if (interval <= 0) {
+			if (running) {
+				pendingChunks.clear();
+				pendingMaps.clear();
+				running = false;
+			}
+			return;
+		}
+		if (!running) {
+			if (System.currentTimeMillis() < nextAutosave) {
+				return;
+			}
+			begin();
+		}
+
+		boolean first = true;
+		Iterator<Integer> maps = pendingMaps.iterator();
+		while (maps.hasNext() && (first || System.nanoTime() < deadline)) {
+			int mapID = maps.next();
+			maps.remove();
+			saveMap(mapID);
+			first = false;
+		}
+		Iterator<Chunk> chunks = pendingChunks.values().iterator();
+		while (chunks.hasNext() && (first || System.nanoTime() < deadline)) {
+			Chunk chunk = chunks.next();
+			chunks.remove();
+			saveChunk(chunk);
+			first = false;
+		}
+
+		if (pendingChunks.isEmpty() && pendingMaps.isEmpty()) {
+			running = false;
+			nextAutosave = System.currentTimeMillis() + interval;
+			try {
+				// Otherwise, autosaved chunks may only be in the write cache
+				session.chunkLoader.onAutosaved();
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to write cached chunks while autosaving", ex);
+			}
+			LOGGER.debug("[WDL] Autosaved {} chunks and {} maps", chunksSaved, mapsSaved);
+			if (chunksSaved > 0 || mapsSaved > 0) {
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.SAVING, "wdl.messages.saving.autosaved",
+						chunksSaved, mapsSaved);
+			}
+		}
+	}
+
+	/**
+	 * Collects everything that has changed since the last autosave.
+	 */
+	private void begin() {
+		running = true;
+		chunksSaved = 0;
+		mapsSaved = 0;
+		for (Chunk chunk : WDL.getChunkList(session.world)) {
+			if (chunk != null && !isClean(chunk) && session.isInSaveAreas(chunk.getPos())) {
+				pendingChunks.put(chunk.getPos(), chunk);
+			}
+		}
+		if (WDLPluginChannels.canSaveMaps()) {
+			pendingMaps.addAll(dirtyMaps);
+		}
+		dirtyMaps.clear();
+	}
+
+	private void saveChunk(Chunk chunk) {
+		// Mark the chunk as clean first, so that anything that happens while
+		// saving marks it as dirty again
+		chunk.setModified(false);
+		chunk.setLastSaveTime(session.world.getGameTime());
+		if (wdl.saveChunk(session, chunk, false)) {
+			cleanChunks.put(chunk.getPos(), chunk);
+			chunksSaved++;
+		} else {
+			// Try again in the next autosave
+			chunk.setModified(true);
+		}
+	}
+
+	private void saveMap(int mapID) {
+		MapData mapData = session.newMapDatas.get(mapID);
+		if (mapData == null) {
+			// Spilled to disk (or otherwise already gone)
+			return;
+		}
+		File dataDirectory = new File(session.saveHandler.getWorldDirectory(), "data");
+		dataDirectory.mkdirs();
+		CompoundNBT data = new CompoundNBT();
+		mapData.write(data);
+		try {
+			wdl.writeMapData(dataDirectory, mapID, data);
+			mapsSaved++;
+		} catch (RuntimeException ex) {
+			LOGGER.warn("[WDL] Failed to autosave map " + mapID, ex);
+			dirtyMaps.add(mapID);
+		}
+	}
+
+	/**
+	 * Gets the configured interval between autosaves, in milliseconds; 0 or
+	 * less if autosaving is disabled.
+	 */
+	private static long getInterval() {
+		return TimeUnit.MINUTES.toMillis(WDL.serverProps.getValue(MiscSettings.AUTOSAVE_INTERVAL));
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.client.Minecraft;
+import wdl.WorldBackup.ICustomBackupProgressMonitor;
+import wdl.WorldBackup.WorldBackupType;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * Makes world backups on a low-priority background thread, so that neither
+ * resuming the download nor later saves have to wait for them.
+ * <p>
+ * When a backup is scheduled, the world is first snapshotted: region files
+ * in folders that no chunk loader has open are hard linked into the
+ * snapshot, which is nearly free, and everything else (which is small, or
+ * might still be written to) is copied.  Region files are written in place, so before a
+ * region folder is written to again while a snapshot of it is still needed,
+ * {@link #detach(File)} gives the world its own copy of the linked files.
+ * Backups are then made from the snapshots one at a time, with their
+ * progress shown in a toast, until they are {@linkplain #cancelAll()
+ * canceled}.
+ */
+public class BackupScheduler {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** Folder in the game directory that snapshots are made in. */
+	static final String SNAPSHOT_FOLDER = "wdl-backup-snapshots";
+	/** Least time between updates of the progress toast, in milliseconds. */
+	private static final long TOAST_INTERVAL_MS = 500;
+
+	private static class Backup {
+		/** The original world folder */
+		final File worldFolder;
+		/** The snapshot of it, in a folder of the same name */
+		final File snapshot;
+		final String worldName;
+		final WorldBackupType type;
+		@Nullable
+		final String customCommand;
+		@Nullable
+		final String customExtension;
+		/** Files in the world folder that are hard linked into the snapshot.  Guarded by the scheduler. */
+		final Set<File> linkedFiles;
+
+		Backup(File worldFolder, File snapshot, String worldName, WorldBackupType type,
+				@Nullable String customCommand, @Nullable String customExtension, Set<File> linkedFiles) {
+			this.worldFolder = worldFolder;
+			this.snapshot = snapshot;
+			this.worldName = worldName;
+			this.type = type;
+			this.customCommand = customCommand;
+			this.customExtension = customExtension;
+			this.linkedFiles = linkedFiles;
+		}
+	}
+
+	/**
+	 * Backups that haven't been started yet.  Guarded by this.
+	 */
+	private final Deque<Backup> queue = new ArrayDeque<>();
+	/**
+	 * The backup being made, or null.  Guarded by this.
+	 */
+	@Nullable
+	private Backup current;
+	/**
+	 * The thread making the backups, or null if not running.  Guarded by this.
+	 */
+	@Nullable
+	private Thread thread;
+	/**
+	 * Whether the current backup should stop.  Guarded by this.
+	 */
+	private boolean cancelRequested;
+
+	/**
+	 * Snapshots the given world and queues a backup of the snapshot.
+	 *
+	 * @param worldFolder The folder of the world to back up
+	 * @param openFolders Region folders that a chunk loader still has open;
+	 *            files in all other region folders are hard linked
+	 * @param worldName The name of the world
+	 * @param type The type of backup to make
+	 * @param customCommand The command to run for the custom backup type
+	 * @param customExtension The extension to use for the custom backup type
+	 * @throws IOException if the snapshot couldn't be made, in which case no
+	 *             backup is queued
+	 */
+	public void schedule(File worldFolder, Collection<File> openFolders, String worldName,
+			WorldBackupType type, @Nullable String customCommand,
+			@Nullable String customExtension) throws IOException {
+		File root = new File(Minecraft.getInstance().gameDir, SNAPSHOT_FOLDER);
+		synchronized (this) {
+			if (current == null && queue.isEmpty() && root.exists()) {
+				// Left behind by a game that was closed before its backups were done
+				FileUtils.deleteDirectory(root);
+			}
+		}
+		root.mkdirs();
+
+		File snapshot = new File(Files.createTempDirectory(root.toPath(), "snapshot").toFile(),
+				worldFolder.getName());
+		Set<File> linkedFiles = new HashSet<>();
+		long start = System.nanoTime();
+		try {
+			snapshot(worldFolder.toPath(), snapshot.toPath(), openFolders, linkedFiles);
+		} catch (IOException ex) {
+			FileUtils.deleteQuietly(snapshot.getParentFile());
+			throw ex;
+		}
+		LOGGER.info("[WDL] Snapshotted {} for backup in {} ms ({} files linked)", worldFolder,
+				(System.nanoTime() - start) / 1000000, linkedFiles.size());
+
+		synchronized (this) {
+			queue.add(new Backup(worldFolder, snapshot, worldName, type,
+					customCommand, customExtension, linkedFiles));
+			if (thread == null) {
+				thread = new Thread(this::run, "WDL Backup Thread");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Gives the given region folder its own copy of any files that are hard
+	 * linked into a snapshot which is still needed.  Must be called before
+	 * the folder is written to again.
+	 */
+	public void detach(File regionFolder) {
+		List<File> files = new ArrayList<>();
+		synchronized (this) {
+			List<Backup> pending = new ArrayList<>(queue);
+			if (current != null) {
+				pending.add(current);
+			}
+			for (Backup backup : pending) {
+				backup.linkedFiles.removeIf(file -> {
+					if (file.getParentFile().equals(regionFolder)) {
+						files.add(file);
+						return true;
+					}
+					return false;
+				});
+			}
+		}
+		for (File file : files) {
+			Path path = file.toPath();
+			Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+			try {
+				Files.copy(path, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to detach " + file + " from its backup snapshot", ex);
+			}
+		}
+	}
+
+	/**
+	 * Stops the backup being made, and drops the queued ones.
+	 */
+	public void cancelAll() {
+		List<Backup> dropped;
+		synchronized (this) {
+			dropped = new ArrayList<>(queue);
+			queue.clear();
+			cancelRequested = current != null;
+		}
+		for (Backup backup : dropped) {
+			FileUtils.deleteQuietly(backup.snapshot.getParentFile());
+		}
+		if (!dropped.isEmpty()) {
+			LOGGER.info("[WDL] Dropped {} queued backups", dropped.size());
+		}
+	}
+
+	/**
+	 * Checks whether a backup is being made or queued.
+	 */
+	public synchronized boolean isBusy() {
+		return current != null || !queue.isEmpty();
+	}
+
+	private synchronized boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	private static void snapshot(Path source, Path target, Collection<File> openFolders,
+			Set<File> linkedFiles) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String name = file.getFileName().toString();
+				if (name.equals("session.lock") || name.equals(ChunkJournal.FILE_NAME)
+						|| name.equals(CaptureSpillStore.FILE_NAME)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path dest = target.resolve(source.relativize(file));
+				if (name.endsWith(".mca") && file.getParent().getFileName().toString().equals("region")
+						&& !openFolders.contains(file.getParent().toFile())
+						&& link(dest, file)) {
+					linkedFiles.add(file.toFile());
+				} else {
+					Files.copy(file, dest, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static boolean link(Path link, Path existing) {
+		try {
+			Files.createLink(link, existing);
+			return true;
+		} catch (UnsupportedOperationException | IOException ex) {
+			// E.g. a file system without hard links, or the game folder is on another drive
+			LOGGER.debug("[WDL] Couldn't hard link " + existing + "; copying it instead", ex);
+			return false;
+		}
+	}
+
+	private void run() {
+		while (true) {
+			Backup backup;
+			synchronized (this) {
+				backup = queue.poll();
+				current = backup;
+				cancelRequested = false;
+				if (backup == null) {
+					thread = null;
+					return;
+				}
+			}
+			try {
+				WorldBackup.backupWorldCopy(backup.snapshot, backup.worldFolder, backup.worldName,
+						backup.type, new ToastMonitor(backup.worldName),
+						backup.customCommand, backup.customExtension);
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.SAVING, "wdl.messages.saving.backedUp", backup.worldName);
+			} catch (IOException ex) {
+				if (isCancelRequested()) {
+					WDLMessages.chatMessageTranslated(WDL.serverProps,
+							WDLMessageTypes.SAVING, "wdl.messages.saving.backupCanceled", backup.worldName);
+					continue;
+				}
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToBackUp", ex);
+				VersionedFunctions.makeBackupFailedToast(ex);
+			} catch (RuntimeException ex) {
+				LOGGER.warn("[WDL] Unexpected exception while backing up " + backup.worldFolder, ex);
+			} finally {
+				FileUtils.deleteQuietly(backup.snapshot.getParentFile());
+				synchronized (this) {
+					current = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shows the progress of a backup in a toast, at a limited rate, and stops
+	 * it once canceled.
+	 */
+	private class ToastMonitor implements ICustomBackupProgressMonitor {
+		private final String worldName;
+		private int numerator;
+		private int denominator;
+		private long lastUpdate;
+
+		ToastMonitor(String worldName) {
+			this.worldName = worldName;
+		}
+
+		@Override
+		public void setDenominator(int value, boolean show) {
+			denominator = show ? value : 0;
+			update();
+		}
+
+		@Override
+		public void incrementNumerator() {
+			numerator++;
+			update();
+		}
+
+		@Override
+		public void setNumerator(int value) {
+			numerator = value;
+			update();
+		}
+
+		@Override
+		public void onTextUpdate(String text) {
+			update();
+		}
+
+		@Override
+		public boolean shouldCancel() {
+			return isCancelRequested();
+		}
+
+		private void update() {
+			long now = System.currentTimeMillis();
+			if (now - lastUpdate < TOAST_INTERVAL_MS) {
+				return;
+			}
+			lastUpdate = now;
+			int percent = denominator > 0 ? Math.min(100, numerator * 100 / denominator) : -1;
+			VersionedFunctions.makeBackupProgressToast(worldName, percent);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BackupScheduler [queued=" + queue.size() + ", current="
+				+ (current != null ? current.worldFolder : null) + "]";
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Keeps track of how much memory captured data (tile entities, entities and
+ * map data which have not yet been written to disk) is using, and moves that
+ * data into an append-only file once a limit is exceeded.
+ *
+ * Spilled data is stored as raw NBT and read back one chunk at a time when
+ * that chunk is saved.  Nothing in the file is ever rewritten; entries that
+ * are no longer needed are simply dropped from the index, and the file is
+ * deleted once the store is closed.
+ */
+public class CaptureSpillStore implements Closeable {
+	/**
+	 * Rough estimate of the heap used by a single captured tile entity.
+	 * Most captured tile entities are containers, so this accounts for a
+	 * handful of item stacks.
+	 */
+	public static final long TILE_ENTITY_ESTIMATE = 2048;
+	/**
+	 * Rough estimate of the heap used by a single captured entity.
+	 */
+	public static final long ENTITY_ESTIMATE = 1024;
+	/**
+	 * Rough estimate of the heap used by a single map; dominated by the
+	 * 128x128 color array.
+	 */
+	public static final long MAP_ESTIMATE = 128 * 128 + 1024;
+
+	/** Name of the spill file, within the world folder. */
+	public static final String FILE_NAME = "WorldDownloader.spill";
+
+	private static final byte TYPE_TILE_ENTITY = 0;
+	private static final byte TYPE_ENTITY = 1;
+	private static final byte TYPE_MAP = 2;
+
+	/**
+	 * The location of a spilled entry within the file.
+	 */
+	private static final class Entry {
+		/** Offset of the length prefix of the NBT payload. */
+		final long offset;
+		/** UUID, for entities; null otherwise. */
+		@Nullable
+		final UUID uuid;
+
+		Entry(long offset, @Nullable UUID uuid) {
+			this.offset = offset;
+			this.uuid = uuid;
+		}
+	}
+
+	private final File file;
+	private final long limit;
+	@Nullable
+	private RandomAccessFile raf;
+
+	private final Map<ChunkPos, List<Entry>> tileEntities = new HashMap<>();
+	private final Map<ChunkPos, List<Entry>> entities = new HashMap<>();
+	private final Map<Integer, Entry> maps = new HashMap<>();
+
+	/**
+	 * Estimated in-memory size of captured data in each chunk, in the order in
+	 * which the chunks first had data captured (oldest first).
+	 */
+	private final LinkedHashMap<ChunkPos, Long> residentChunks = new LinkedHashMap<>();
+	private long residentChunkBytes;
+	private long residentMapBytes;
+	private long spilledBytes;
+	private boolean disabled;
+
+	/**
+	 * Creates a new spill store.
+	 *
+	 * @param worldDirectory The world folder, in which the spill file is placed.
+	 * @param limit Approximate number of bytes captured data may use before it
+	 *              is spilled.  Values of 0 or less disable spilling.
+	 */
+	public CaptureSpillStore(File worldDirectory, long limit) {
+		this.file = new File(worldDirectory, FILE_NAME);
+		this.limit = limit;
+	}
+
+	/**
+	 * Records that data has been captured in the given chunk.
+	 *
+	 * @param pos The chunk the data belongs to.
+	 * @param estimate The estimated size of the data, in bytes.
+	 */
+	public synchronized void onCaptured(ChunkPos pos, long estimate) {
+		residentChunks.merge(pos, estimate, Long::sum);
+		residentChunkBytes += estimate;
+	}
+
+	/**
+	 * Records that a map has been captured.
+	 */
+	public synchronized void onMapCaptured(long estimate) {
+		residentMapBytes += estimate;
+	}
+
+	/**
+	 * Records that all in-memory captured data for the given chunk has been
+	 * released (either because it was saved or because it was spilled).
+	 */
+	public synchronized void onReleased(ChunkPos pos) {
+		Long size = residentChunks.remove(pos);
+		if (size != null) {
+			residentChunkBytes -= size;
+		}
+	}
+
+	/**
+	 * Records that all in-memory maps have been released.
+	 */
+	public synchronized void onMapsReleased() {
+		residentMapBytes = 0;
+	}
+
+	/**
+	 * Checks whether captured data is currently using more memory than allowed.
+	 */
+	public synchronized boolean isOverLimit() {
+		return !disabled && limit > 0 && residentChunkBytes + residentMapBytes > limit;
+	}
+
+	/**
+	 * Stops any further spilling, e.g. after writing to the file failed.
+	 * Data that has already been spilled can still be read.
+	 */
+	public synchronized void disable() {
+		disabled = true;
+	}
+
+	/**
+	 * Gets the chunk whose in-memory data should be spilled next, or null if
+	 * no chunk needs to be spilled.  The oldest chunk is chosen first.
+	 */
+	@Nullable
+	public synchronized ChunkPos getChunkToSpill() {
+		if (!isOverLimit() || residentChunks.isEmpty()) {
+			return null;
+		}
+		return residentChunks.keySet().iterator().next();
+	}
+
+	/**
+	 * Checks whether maps should be spilled, which only happens once there are
+	 * no chunks left to spill.
+	 */
+	public synchronized boolean shouldSpillMaps() {
+		return isOverLimit() && residentChunks.isEmpty() && residentMapBytes > 0;
+	}
+
+	/**
+	 * Writes a tile entity to the spill file.
+	 */
+	public synchronized void spillTileEntity(ChunkPos pos, CompoundNBT tag) throws IOException {
+		long offset = append(TYPE_TILE_ENTITY, tag);
+		tileEntities.computeIfAbsent(pos, k -> new ArrayList<>()).add(new Entry(offset, null));
+	}
+
+	/**
+	 * Writes an entity to the spill file.  The UUID is recorded separately so
+	 * that entities can be deduplicated without parsing their NBT.
+	 */
+	public synchronized void spillEntity(ChunkPos pos, UUID uuid, CompoundNBT tag) throws IOException {
+		long offset = append(TYPE_ENTITY, tag);
+		List<Entry> list = entities.computeIfAbsent(pos, k -> new ArrayList<>());
+		// Only keep the newest copy of a given entity
+		list.removeIf(e -> uuid.equals(e.uuid));
+		list.add(new Entry(offset, uuid));
+	}
+
+	/**
+	 * Writes a map to the spill file, replacing any previously spilled version.
+	 *
+	 * @param id The map's ID
+	 * @param data The map's data tag (the contents of the "data" compound)
+	 */
+	public synchronized void spillMap(int id, CompoundNBT data) throws IOException {
+		long offset = append(TYPE_MAP, data);
+		maps.put(id, new Entry(offset, null));
+	}
+
+	/**
+	 * Reads all spilled tile entities for the given chunk.
+	 */
+	public synchronized Map<BlockPos, CompoundNBT> readTileEntities(ChunkPos pos) throws IOException {
+		List<Entry> list = tileEntities.get(pos);
+		if (list == null) {
+			return Collections.emptyMap();
+		}
+		Map<BlockPos, CompoundNBT> result = new HashMap<>();
+		for (Entry entry : list) {
+			CompoundNBT tag = read(entry);
+			// Later entries replace earlier ones at the same position
+			result.put(new BlockPos(tag.getInt("x"), tag.getInt("y"), tag.getInt("z")), tag);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads all spilled entities for the given chunk, by UUID.
+	 */
+	public synchronized Map<UUID, CompoundNBT> readEntities(ChunkPos pos) throws IOException {
+		List<Entry> list = entities.get(pos);
+		if (list == null) {
+			return Collections.emptyMap();
+		}
+		Map<UUID, CompoundNBT> result = new LinkedHashMap<>();
+		for (Entry entry : list) {
+			result.put(entry.uuid, read(entry));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads all spilled maps, by ID.
+	 */
+	public synchronized Map<Integer, CompoundNBT> readMaps() throws IOException {
+		Map<Integer, CompoundNBT> result = new HashMap<>();
+		for (Map.Entry<Integer, Entry> e : maps.entrySet()) {
+			result.put(e.getKey(), read(e.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the IDs of all spilled maps.
+	 */
+	public synchronized Set<Integer> getSpilledMapIDs() {
+		return new HashSet<>(maps.keySet());
+	}
+
+	/**
+	 * Removes a spilled entity from the given chunk, for instance because it
+	 * has since moved to a different chunk.
+	 */
+	public synchronized void removeEntity(ChunkPos pos, UUID uuid) {
+		List<Entry> list = entities.get(pos);
+		if (list != null) {
+			list.removeIf(e -> uuid.equals(e.uuid));
+		}
+	}
+
+	/**
+	 * Drops all spilled data for the given chunk, after it has been saved.
+	 *
+	 * @return The UUIDs of the entities that were spilled in that chunk.
+	 */
+	public synchronized List<UUID> forget(ChunkPos pos) {
+		tileEntities.remove(pos);
+		List<Entry> list = entities.remove(pos);
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		List<UUID> uuids = new ArrayList<>(list.size());
+		for (Entry entry : list) {
+			uuids.add(entry.uuid);
+		}
+		return uuids;
+	}
+
+	/**
+	 * Drops all spilled maps, after they have been saved.
+	 */
+	public synchronized void forgetMaps() {
+		maps.clear();
+	}
+
+	/**
+	 * Gets the number of bytes that have been written to the spill file.
+	 */
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	/**
+	 * Gets the estimated number of bytes of captured data currently in memory.
+	 */
+	public synchronized long getResidentBytes() {
+		return residentChunkBytes + residentMapBytes;
+	}
+
+	private long append(byte type, CompoundNBT tag) throws IOException {
+		if (raf == null) {
+			file.getParentFile().mkdirs();
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(bytes)) {
+			CompressedStreamTools.write(tag, stream);
+		}
+		long offset = raf.length();
+		raf.seek(offset);
+		raf.writeByte(type);
+		raf.writeInt(bytes.size());
+		raf.write(bytes.toByteArray());
+		spilledBytes += 5 + bytes.size();
+		return offset + 1;
+	}
+
+	private CompoundNBT read(Entry entry) throws IOException {
+		if (raf == null) {
+			throw new IOException("Spill file " + file + " is not open");
+		}
+		raf.seek(entry.offset);
+		int length = raf.readInt();
+		byte[] bytes = new byte[length];
+		raf.readFully(bytes);
+		try (DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			return CompressedStreamTools.read(stream);
+		}
+	}
+
+	/**
+	 * Closes and deletes the spill file, discarding anything that is still in it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		tileEntities.clear();
+		entities.clear();
+		maps.clear();
+		residentChunks.clear();
+		residentChunkBytes = 0;
+		residentMapBytes = 0;
+		try {
+			if (raf != null) {
+				raf.close();
+			}
+		} finally {
+			raf = null;
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		int spilledTileEntities = 0, spilledEntities = 0;
+		for (List<Entry> list : tileEntities.values()) {
+			spilledTileEntities += list.size();
+		}
+		for (List<Entry> list : entities.values()) {
+			spilledEntities += list.size();
+		}
+		return "CaptureSpillStore [file=" + file + ", limit=" + limit + ", disabled=" + disabled
+				+ ", resident=" + getResidentBytes() + ", spilled=" + spilledBytes
+				+ ", tileEntities=" + spilledTileEntities + ", entities=" + spilledEntities
+				+ ", maps=" + maps.size() + "]";
+	}
+}
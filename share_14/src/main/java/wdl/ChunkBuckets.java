@@ -0,0 +1,125 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Captured values (such as tile entities or entities), grouped by chunk.
+ * <p>
+ * Each chunk's bucket is copy-on-write: changing it replaces the whole
+ * (unmodifiable) map, so a bucket obtained with {@link #get(ChunkPos)} is a
+ * consistent snapshot that can be used on any thread while the client thread
+ * keeps capturing.  Buckets are small, so copying them is cheap.
+ *
+ * @param <K> The key within a chunk, e.g. the position or UUID
+ * @param <V> The captured value
+ */
+public final class ChunkBuckets<K, V> {
+	private final ConcurrentMap<ChunkPos, Map<K, V>> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets a snapshot of the given chunk's bucket.
+	 *
+	 * @return An unmodifiable map, which is empty if nothing was captured in
+	 *         the chunk.
+	 */
+	public Map<K, V> get(ChunkPos pos) {
+		return buckets.getOrDefault(pos, Collections.emptyMap());
+	}
+
+	/**
+	 * Adds a value to the given chunk's bucket, replacing any previous value
+	 * with the same key.
+	 */
+	public void put(ChunkPos pos, K key, V value) {
+		buckets.compute(pos, (p, bucket) -> {
+			Map<K, V> copy = (bucket == null ? new HashMap<>() : new HashMap<>(bucket));
+			copy.put(key, value);
+			return Collections.unmodifiableMap(copy);
+		});
+	}
+
+	/**
+	 * Removes a single value from the given chunk's bucket.
+	 *
+	 * @return True if there was a value to remove
+	 */
+	public boolean remove(ChunkPos pos, K key) {
+		boolean[] removed = new boolean[1];
+		buckets.computeIfPresent(pos, (p, bucket) -> {
+			if (!bucket.containsKey(key)) {
+				return bucket;
+			}
+			removed[0] = true;
+			Map<K, V> copy = new HashMap<>(bucket);
+			copy.remove(key);
+			return copy.isEmpty() ? null : Collections.unmodifiableMap(copy);
+		});
+		return removed[0];
+	}
+
+	/**
+	 * Removes the given chunk's bucket.
+	 *
+	 * @return The removed bucket; empty if there was none.
+	 */
+	public Map<K, V> removeAll(ChunkPos pos) {
+		Map<K, V> removed = buckets.remove(pos);
+		return removed != null ? removed : Collections.emptyMap();
+	}
+
+	/**
+	 * Removes the given chunk's bucket, but only if it hasn't changed since
+	 * the given snapshot of it was taken.
+	 *
+	 * @return True if it was removed
+	 */
+	public boolean removeIfUnchanged(ChunkPos pos, Map<K, V> snapshot) {
+		if (snapshot.isEmpty()) {
+			return !buckets.containsKey(pos);
+		}
+		Map<K, V> current = buckets.get(pos);
+		// Buckets are replaced whenever they change, so identity is enough
+		return current == snapshot && buckets.remove(pos, current);
+	}
+
+	/**
+	 * Gets the chunks that have buckets.  The returned set is a live view; it
+	 * can be iterated while buckets are added or removed.
+	 */
+	public Set<ChunkPos> chunks() {
+		return Collections.unmodifiableSet(buckets.keySet());
+	}
+
+	public boolean isEmpty() {
+		return buckets.isEmpty();
+	}
+
+	public void clear() {
+		buckets.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkBuckets [" + buckets.size() + " chunks]";
+	}
+}
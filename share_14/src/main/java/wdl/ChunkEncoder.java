@@ -0,0 +1,122 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+
+/**
+ * Encodes chunks directly into zlib-compressed NBT, the format used by region
+ * files (and by the write cache and journal), reusing the same buffer and
+ * deflater for every chunk.  The result can be handed to all of them without
+ * being serialized or compressed again.
+ * <p>
+ * Not thread-safe; the buffer returned by {@link #encode} is only valid until
+ * the next call.
+ */
+class ChunkEncoder implements Closeable {
+	/**
+	 * Writes the contents of a chunk, starting with its root compound.
+	 */
+	@FunctionalInterface
+	interface Content {
+		void write(NBTStreamWriter out) throws IOException;
+	}
+
+	/**
+	 * A {@link ByteArrayOutputStream} that gives access to its array, so that
+	 * it doesn't need to be copied.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer(int size) {
+			super(size);
+		}
+
+		ByteBuffer view() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+	private static final int STREAM_BUFFER_SIZE = 8192;
+
+	private final Deflater deflater;
+	private final Buffer buffer = new Buffer(INITIAL_SIZE);
+
+	/**
+	 * @param level The deflate level to use, e.g. {@link Deflater#BEST_SPEED}
+	 */
+	ChunkEncoder(int level) {
+		this.deflater = new Deflater(level);
+	}
+
+	/**
+	 * Encodes the given content.
+	 *
+	 * @return A view of the compressed data, valid until the next call; it
+	 *         must not be modified
+	 */
+	public ByteBuffer encode(Content content) throws IOException {
+		buffer.reset();
+		deflater.reset();
+		// Closing finishes the deflater, but doesn't end it since it isn't the default one
+		try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(buffer, deflater, STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE))) {
+			NBTStreamWriter writer = new NBTStreamWriter(stream);
+			content.write(writer);
+			writer.finish();
+		}
+		return buffer.view();
+	}
+
+	/**
+	 * Encodes an existing tag, as {@link CompressedStreamTools#write} would.
+	 *
+	 * @return A view of the compressed data, valid until the next call; it
+	 *         must not be modified
+	 */
+	public ByteBuffer encode(CompoundNBT tag) throws IOException {
+		return encode(out -> out.put("", tag));
+	}
+
+	/**
+	 * Reads compressed NBT, such as that created by {@link #encode}, back into
+	 * a tag.  The buffer's position is not changed.
+	 */
+	public static CompoundNBT decode(ByteBuffer data) throws IOException {
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+				new ByteArrayInputStream(bytes)))) {
+			return CompressedStreamTools.read(in);
+		}
+	}
+
+	@Override
+	public void close() {
+		deflater.end();
+	}
+}
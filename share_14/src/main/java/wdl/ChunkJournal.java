@@ -0,0 +1,471 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * An append-only journal of saved chunks and captured tile entities, kept
+ * next to the region folder, so that they can be recovered if the game
+ * crashes before they reach the region files.
+ * <p>
+ * Records are written to the file before the save they belong to is
+ * acknowledged, which is enough to survive the game crashing; they are forced
+ * to the disk in batches on a background thread, at most
+ * {@link #SYNC_INTERVAL_MS} after being written.  Each record ends with a
+ * checksum, so that a record torn by a crash ends recovery instead of being
+ * misread.
+ * <p>
+ * Once everything in the journal is known to be in the region files, the
+ * journal is {@linkplain #checkpoint(long) checkpointed}, leaving only tile
+ * entities whose chunk hasn't been saved since they were captured.  Those are
+ * also kept when the journal is closed, so that they can be merged into their
+ * chunk by a later session.
+ */
+class ChunkJournal implements Closeable {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** Name of the journal file, within the dimension folder. */
+	public static final String FILE_NAME = "WorldDownloader.journal";
+
+	private static final int MAGIC = 0x574A4E4C; // WJNL
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	/** Type, chunk X, chunk Z, and payload length */
+	private static final int RECORD_HEADER_SIZE = 1 + 4 + 4 + 4;
+
+	private static final byte TYPE_CHUNK = 0;
+	private static final byte TYPE_TILE_ENTITY = 1;
+
+	/**
+	 * Longest time between a record being written and it being forced to the
+	 * disk.
+	 */
+	static final long SYNC_INTERVAL_MS = 1000;
+
+	private static final ScheduledExecutorService SYNC_EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Journal Sync Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Contents recovered from a journal.
+	 */
+	static class Recovered {
+		/** The newest copy of each journaled chunk, with later tile entities merged in. */
+		final Map<ChunkPos, CompoundNBT> chunks = new LinkedHashMap<>();
+		/** Tile entities whose chunk isn't in the journal, by chunk. */
+		final Map<ChunkPos, List<CompoundNBT>> tileEntities = new LinkedHashMap<>();
+	}
+
+	private final File file;
+	@Nullable
+	private RandomAccessFile raf;
+	/**
+	 * Offsets of tile entity records appended since the last chunk record for
+	 * the same chunk, which must survive a checkpoint.
+	 */
+	private final Map<ChunkPos, List<Long>> liveTileEntities = new HashMap<>();
+	private boolean syncScheduled;
+	private long bytesWritten;
+
+	/**
+	 * @param folder The folder to place the journal in.
+	 */
+	ChunkJournal(File folder) {
+		this.file = new File(folder, FILE_NAME);
+	}
+
+	/**
+	 * Checks whether a previous session left a journal behind.
+	 */
+	boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * Reads a journal left behind by a previous session, if there is one.
+	 * Must be called before anything is appended, as appending starts a new
+	 * journal.
+	 *
+	 * @return The recovered contents, or null if there was no journal.
+	 */
+	@Nullable
+	synchronized Recovered recover() throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		Recovered result = new Recovered();
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			if (in.length() < HEADER_SIZE || in.readInt() != MAGIC) {
+				LOGGER.warn("[WDL] Ignoring invalid journal {}", file);
+				return result;
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				LOGGER.warn("[WDL] Ignoring journal {} with unknown version {}", file, version);
+				return result;
+			}
+			long end = in.length();
+			while (in.getFilePointer() < end) {
+				long offset = in.getFilePointer();
+				Record record;
+				try {
+					record = readRecord(in);
+				} catch (EOFException ex) {
+					record = null;
+				}
+				if (record == null) {
+					LOGGER.warn("[WDL] Journal {} ends with a torn record at {}; ignoring the rest", file, offset);
+					break;
+				}
+				if (record.type == TYPE_CHUNK) {
+					result.chunks.put(record.pos, record.tag);
+					result.tileEntities.remove(record.pos);
+				} else if (record.type == TYPE_TILE_ENTITY) {
+					CompoundNBT chunk = result.chunks.get(record.pos);
+					if (chunk != null) {
+						mergeTileEntity(chunk, record.tag);
+					} else {
+						result.tileEntities.computeIfAbsent(record.pos, k -> new ArrayList<>()).add(record.tag);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records that the given chunk has been saved, with its NBT already
+	 * compressed by a {@link ChunkEncoder}.  Tile entities captured in it
+	 * before now are assumed to be part of it.  The buffer's position is not
+	 * changed.
+	 */
+	synchronized void appendChunk(ChunkPos pos, ByteBuffer compressed) throws IOException {
+		append(TYPE_CHUNK, pos, compressed);
+		liveTileEntities.remove(pos);
+	}
+
+	/**
+	 * Records that the given tile entity has been captured.
+	 */
+	synchronized void appendTileEntity(ChunkPos pos, CompoundNBT tag) throws IOException {
+		long offset = append(TYPE_TILE_ENTITY, pos, compress(tag));
+		liveTileEntities.computeIfAbsent(pos, k -> new ArrayList<>()).add(offset);
+	}
+
+	/**
+	 * Records that the given chunk has been saved without journaling it, so
+	 * that tile entities recovered into it are dropped when the journal is
+	 * closed.  Only used when journaling is disabled.
+	 */
+	synchronized void forgetTileEntities(ChunkPos pos) {
+		liveTileEntities.remove(pos);
+	}
+
+	/**
+	 * Gets the position up to which the journal can be checkpointed once
+	 * everything saved so far has reached the region files; records appended
+	 * after this point are kept by {@link #checkpoint(long)}.
+	 */
+	synchronized long getCheckpointMark() throws IOException {
+		return raf != null ? raf.length() : HEADER_SIZE;
+	}
+
+	/**
+	 * Drops everything that is no longer needed from the journal, up to the
+	 * given mark.  Must only be called once every chunk journaled before the
+	 * mark has been written to (and flushed into) its region file.
+	 *
+	 * @param mark A value previously returned by {@link #getCheckpointMark()},
+	 *            taken before the region files were flushed
+	 */
+	synchronized void checkpoint(long mark) throws IOException {
+		if (raf == null) {
+			return;
+		}
+		long end = raf.length();
+		long keepFrom = Math.max(HEADER_SIZE, Math.min(mark, end));
+		if (liveTileEntities.isEmpty() && keepFrom == end) {
+			raf.setLength(HEADER_SIZE);
+			raf.getChannel().force(true);
+			return;
+		}
+
+		File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+		Map<ChunkPos, List<Long>> newOffsets = new HashMap<>();
+		try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<ChunkPos, List<Long>> e : liveTileEntities.entrySet()) {
+				List<Long> offsets = new ArrayList<>();
+				for (long offset : e.getValue()) {
+					if (offset >= keepFrom) {
+						continue;
+					}
+					raf.seek(offset + RECORD_HEADER_SIZE - 4);
+					int length = raf.readInt();
+					byte[] record = new byte[RECORD_HEADER_SIZE + length + 4];
+					raf.seek(offset);
+					raf.readFully(record);
+					offsets.add(out.getFilePointer());
+					out.write(record);
+				}
+				newOffsets.put(e.getKey(), offsets);
+			}
+			// Everything appended after the mark is kept as it is
+			long tailStart = out.getFilePointer();
+			byte[] buffer = new byte[64 * 1024];
+			raf.seek(keepFrom);
+			for (long remaining = end - keepFrom; remaining > 0;) {
+				int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0) {
+					throw new EOFException("Journal " + file + " shrank while checkpointing");
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+			for (Map.Entry<ChunkPos, List<Long>> e : liveTileEntities.entrySet()) {
+				for (long offset : e.getValue()) {
+					if (offset >= keepFrom) {
+						newOffsets.get(e.getKey()).add(offset - keepFrom + tailStart);
+					}
+				}
+			}
+			out.getChannel().force(true);
+		}
+		raf.close();
+		raf = null;
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length());
+		liveTileEntities.clear();
+		liveTileEntities.putAll(newOffsets);
+	}
+
+	/**
+	 * Gets the current size of the journal, in bytes.
+	 */
+	synchronized long getSize() throws IOException {
+		return raf != null ? raf.length() : 0;
+	}
+
+	/**
+	 * Closes the journal.  Must only be called once every journaled chunk has
+	 * been written to its region file.  The journal is deleted, unless it
+	 * still has tile entities whose chunk was never saved; those are kept for
+	 * the next session to recover.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		boolean keep = !liveTileEntities.isEmpty();
+		try {
+			if (keep) {
+				checkpoint(Long.MAX_VALUE);
+				LOGGER.info("[WDL] Keeping tile entities for {} unsaved chunks in journal {}",
+						liveTileEntities.size(), file);
+			}
+		} finally {
+			liveTileEntities.clear();
+			try {
+				if (raf != null) {
+					raf.close();
+				}
+			} finally {
+				raf = null;
+				if (!keep) {
+					Files.deleteIfExists(file.toPath());
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer compress(CompoundNBT tag) throws IOException {
+		try (ChunkEncoder encoder = new ChunkEncoder(Deflater.BEST_SPEED)) {
+			ByteBuffer view = encoder.encode(tag);
+			// The view is only valid while the encoder is in use
+			ByteBuffer copy = ByteBuffer.allocate(view.remaining());
+			copy.put(view);
+			copy.flip();
+			return copy;
+		}
+	}
+
+	private long append(byte type, ChunkPos pos, ByteBuffer payload) throws IOException {
+		if (raf == null) {
+			file.getParentFile().mkdirs();
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+		}
+		byte[] bytes = new byte[payload.remaining()];
+		payload.duplicate().get(bytes);
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_HEADER_SIZE + bytes.length + 4);
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeByte(type);
+		out.writeInt(pos.x);
+		out.writeInt(pos.z);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(record.toByteArray());
+		out.writeInt((int) crc.getValue());
+
+		long offset = raf.length();
+		raf.seek(offset);
+		// A single write, so that the record is handed to the OS at once
+		raf.write(record.toByteArray());
+		bytesWritten += record.size();
+		scheduleSync();
+		return offset;
+	}
+
+	private void scheduleSync() {
+		if (syncScheduled) {
+			return;
+		}
+		syncScheduled = true;
+		SYNC_EXECUTOR.schedule(this::sync, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private void sync() {
+		RandomAccessFile raf;
+		synchronized (this) {
+			syncScheduled = false;
+			raf = this.raf;
+		}
+		if (raf == null) {
+			return;
+		}
+		try {
+			// Not under the lock, so that appending can continue meanwhile
+			raf.getChannel().force(false);
+		} catch (ClosedChannelException ex) {
+			// Closed or checkpointed meanwhile, which syncs by itself
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to sync journal " + file, ex);
+		}
+	}
+
+	private static class Record {
+		final byte type;
+		final ChunkPos pos;
+		final CompoundNBT tag;
+
+		Record(byte type, ChunkPos pos, CompoundNBT tag) {
+			this.type = type;
+			this.pos = pos;
+			this.tag = tag;
+		}
+	}
+
+	/**
+	 * Reads a single record, returning null if its checksum doesn't match.
+	 */
+	@Nullable
+	private static Record readRecord(RandomAccessFile in) throws IOException {
+		byte type = in.readByte();
+		int x = in.readInt();
+		int z = in.readInt();
+		int length = in.readInt();
+		if (length < 0 || length > in.length() - in.getFilePointer()) {
+			return null;
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		int checksum = in.readInt();
+
+		CRC32 crc = new CRC32();
+		ByteArrayOutputStream header = new ByteArrayOutputStream(RECORD_HEADER_SIZE);
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeByte(type);
+		out.writeInt(x);
+		out.writeInt(z);
+		out.writeInt(length);
+		crc.update(header.toByteArray());
+		crc.update(payload);
+		if ((int) crc.getValue() != checksum) {
+			return null;
+		}
+
+		try (DataInputStream stream = new DataInputStream(new InflaterInputStream(
+				new ByteArrayInputStream(payload)))) {
+			return new Record(type, new ChunkPos(x, z), CompressedStreamTools.read(stream));
+		}
+	}
+
+	/**
+	 * Adds the given tile entity to the chunk's tile entity list, replacing
+	 * any that is already at the same position.
+	 *
+	 * @param rootTag The chunk's NBT, including the Level tag
+	 */
+	static void mergeTileEntity(CompoundNBT rootTag, CompoundNBT tileEntity) {
+		CompoundNBT level = rootTag.getCompound("Level");
+		ListNBT list = level.getList("TileEntities", 10);
+		int x = tileEntity.getInt("x"), y = tileEntity.getInt("y"), z = tileEntity.getInt("z");
+		for (int i = list.size() - 1; i >= 0; i--) {
+			CompoundNBT existing = list.getCompound(i);
+			if (existing.getInt("x") == x && existing.getInt("y") == y && existing.getInt("z") == z) {
+				list.remove(i);
+			}
+		}
+		list.add(tileEntity);
+		level.put("TileEntities", list);
+		rootTag.put("Level", level);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ChunkJournal [file=" + file + ", bytesWritten=" + bytesWritten
+				+ ", liveTileEntities=" + liveTileEntities.size() + "]";
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import wdl.config.settings.MiscSettings;
+
+/**
+ * Keeps the chunk loaders of dimensions that were left while downloading open
+ * for a while, so that returning to one (e.g. through a portal, or on a
+ * server with hub worlds) reuses its open region files, write cache, and
+ * journal instead of creating them again.
+ * <p>
+ * Each loader has its own region file cache and I/O worker, so dimensions are
+ * still saved independently.  A loader is only ever used by one session at a
+ * time: it is taken out of the registry when a session for its region folder
+ * is created, and put back once that session is saved.
+ * <p>
+ * Closing a loader flushes it, so loaders that time out are closed on a
+ * background thread; a new loader for the same region folder waits for that
+ * to finish.
+ */
+class ChunkLoaderRegistry {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * A loader that isn't used by any session.
+	 */
+	private static class IdleLoader {
+		final WDLChunkLoader loader;
+		/** {@link System#nanoTime()} at which the loader was parked */
+		final long since;
+
+		IdleLoader(WDLChunkLoader loader, long since) {
+			this.loader = loader;
+			this.since = since;
+		}
+	}
+
+	/**
+	 * Idle loaders, by region folder, oldest first.
+	 */
+	private final Map<File, IdleLoader> idle = new LinkedHashMap<>();
+	/**
+	 * Region files written by loaders that have been closed here, which can
+	 * be compacted once the download is over.
+	 */
+	private final Set<File> writtenRegions = new HashSet<>();
+	/**
+	 * Region files written with the fast save mode by loaders that have been
+	 * closed here, which should be recompressed.
+	 */
+	private final Set<File> fastSavedRegions = new HashSet<>();
+	/**
+	 * Background closes of evicted loaders that haven't finished, by region
+	 * folder.
+	 */
+	private final Map<File, CompletableFuture<Void>> closing = new HashMap<>();
+	private int reused, created, evicted;
+
+	private static final ExecutorService CLOSE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Chunk Loader Close Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Gets a chunk loader for the given session, reusing an idle one for the
+	 * same region folder if there is one.  If the loader for that folder is
+	 * still being closed in the background, waits for it to be closed first.
+	 *
+	 * @param session The session the loader will be used by
+	 * @param chunkFolder The region folder to save chunks into
+	 */
+	WDLChunkLoader acquire(DownloadSession session, File chunkFolder) {
+		while (true) {
+			CompletableFuture<Void> pending;
+			synchronized (this) {
+				pending = closing.get(chunkFolder);
+				if (pending == null) {
+					IdleLoader entry = idle.remove(chunkFolder);
+					if (entry != null) {
+						reused++;
+						entry.loader.attach(session);
+						LOGGER.debug("[WDL] Reusing chunk loader for {}", chunkFolder);
+						return entry.loader;
+					}
+					created++;
+					return new WDLChunkLoader(session, chunkFolder);
+				}
+			}
+			// Not while holding the lock, which the close needs once it's done
+			LOGGER.debug("[WDL] Waiting for chunk loader for {} to be closed", chunkFolder);
+			pending.join();
+		}
+	}
+
+	/**
+	 * Keeps the given loader open for reuse, if enabled.  The loader must have
+	 * been {@linkplain WDLChunkLoader#flush() flushed}, and must no longer be
+	 * used by its session.
+	 *
+	 * @return True if the loader was kept; otherwise it must be closed by the caller.
+	 */
+	synchronized boolean park(WDLChunkLoader loader) {
+		if (getIdleTimeoutNanos() <= 0) {
+			return false;
+		}
+		IdleLoader previous = idle.remove(loader.chunkSaveLocation);
+		if (previous != null && previous.loader != loader) {
+			// Shouldn't happen, as only one session saves into a folder at a time
+			LOGGER.warn("[WDL] Two chunk loaders for {}; closing the older one", loader.chunkSaveLocation);
+			close(previous.loader);
+		}
+		idle.put(loader.chunkSaveLocation, new IdleLoader(loader, System.nanoTime()));
+		return true;
+	}
+
+	/**
+	 * Starts closing loaders that haven't been used for longer than the idle
+	 * timeout, in the background.  Cheap when there are none, so it can be
+	 * called every tick.
+	 */
+	synchronized void evictIdle() {
+		if (idle.isEmpty()) {
+			return;
+		}
+		long timeout = getIdleTimeoutNanos();
+		long now = System.nanoTime();
+		for (Iterator<IdleLoader> itr = idle.values().iterator(); itr.hasNext();) {
+			IdleLoader entry = itr.next();
+			if (timeout > 0 && now - entry.since < timeout) {
+				// Later ones were parked even more recently
+				break;
+			}
+			itr.remove();
+			evicted++;
+			LOGGER.debug("[WDL] Closing idle chunk loader for {}", entry.loader.chunkSaveLocation);
+			File folder = entry.loader.chunkSaveLocation;
+			CompletableFuture<Void> future = CompletableFuture.runAsync(() -> close(entry.loader), CLOSE_EXECUTOR);
+			closing.put(folder, future);
+			future.whenComplete((result, ex) -> {
+				synchronized (this) {
+					closing.remove(folder, future);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Closes all idle loaders, and waits for the ones being closed in the
+	 * background; used once the download is over.
+	 */
+	void closeAll() {
+		List<CompletableFuture<Void>> pending;
+		synchronized (this) {
+			for (IdleLoader entry : idle.values()) {
+				close(entry.loader);
+			}
+			idle.clear();
+			pending = new ArrayList<>(closing.values());
+		}
+		for (CompletableFuture<Void> future : pending) {
+			future.join();
+		}
+	}
+
+	/**
+	 * Closes the given loader, recording the region files it wrote.  Evicted
+	 * loaders are closed on the close thread.
+	 */
+	private void close(WDLChunkLoader loader) {
+		try {
+			loader.close();
+		} catch (IOException | RuntimeException ex) {
+			LOGGER.warn("[WDL] Failed to close chunk loader for " + loader.chunkSaveLocation, ex);
+		}
+		synchronized (this) {
+			writtenRegions.addAll(loader.getWrittenRegions());
+			fastSavedRegions.addAll(loader.getFastSavedRegions());
+		}
+	}
+
+	/**
+	 * Gets the region folders of loaders that are still open (or being
+	 * closed) here.
+	 */
+	synchronized Set<File> getOpenFolders() {
+		Set<File> result = new HashSet<>(idle.keySet());
+		result.addAll(closing.keySet());
+		return result;
+	}
+
+	/**
+	 * Checks whether any loader is still open (or being closed) here.
+	 */
+	synchronized boolean isEmpty() {
+		return idle.isEmpty() && closing.isEmpty();
+	}
+
+	/**
+	 * Gets and forgets the region files written by loaders closed here.
+	 */
+	synchronized Set<File> takeWrittenRegions() {
+		Set<File> result = new HashSet<>(writtenRegions);
+		writtenRegions.clear();
+		return result;
+	}
+
+	/**
+	 * Gets and forgets the fast-saved region files of loaders closed here.
+	 */
+	synchronized Set<File> takeFastSavedRegions() {
+		Set<File> result = new HashSet<>(fastSavedRegions);
+		fastSavedRegions.clear();
+		return result;
+	}
+
+	private static long getIdleTimeoutNanos() {
+		return TimeUnit.SECONDS.toNanos(WDL.serverProps.getValue(MiscSettings.CHUNK_LOADER_IDLE_TIMEOUT));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ChunkLoaderRegistry [idle=" + idle.keySet() + ", reused=" + reused
+				+ ", created=" + created + ", evicted=" + evicted + "]";
+	}
+}
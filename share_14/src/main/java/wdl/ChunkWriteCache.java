@@ -0,0 +1,313 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * A bounded write-back cache of saved chunks, so that a chunk that is saved
+ * again shortly afterwards (for instance, because the player is moving back
+ * and forth along the edge of their view distance) only replaces its cache
+ * entry instead of being written to the region file each time.  It also
+ * serves reads of recently saved chunks, which are needed to import old tile
+ * entities.
+ * <p>
+ * Entries are stored in direct (off-heap) buffers, in the same compressed
+ * form that they are written to the region file in.  Dirty entries
+ * are written out when evicted, and when {@link #flush()} is called; clean
+ * ones are simply dropped.  Evicted entries are written on a background
+ * thread, and only leave the cache once they have been written; only if that
+ * thread falls behind by a whole cache's worth of data does saving a chunk
+ * wait for the writes.
+ */
+class ChunkWriteCache {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Writes a chunk, as compressed NBT, into its region file.
+	 */
+	@FunctionalInterface
+	interface ChunkWriter {
+		void write(ChunkPos pos, ByteBuffer data) throws IOException;
+	}
+
+	private static class Entry {
+		final ByteBuffer data;
+		/** Only changed while holding the cache's lock. */
+		boolean dirty;
+
+		Entry(ByteBuffer data) {
+			this.data = data;
+			this.dirty = true;
+		}
+	}
+
+	private final ChunkWriter writer;
+	private final long maxBytes;
+	/** In order of last save, oldest first. */
+	private final LinkedHashMap<ChunkPos, Entry> entries = new LinkedHashMap<>();
+	private long bytes;
+	/** Number of saves that replaced a dirty entry, and so never hit the disk. */
+	private int coalescedSaves;
+	/**
+	 * Held while writing an entry, so that two writes of the same chunk can't
+	 * reach the region file out of order.  Never acquired while holding the
+	 * cache's own lock.
+	 */
+	private final Object writeLock = new Object();
+	/** Whether a background eviction has been scheduled and hasn't finished. */
+	private boolean evicting;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Chunk Write Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param writer Used to write dirty entries
+	 * @param maxBytes The most (compressed) data to hold before evicting entries
+	 */
+	ChunkWriteCache(ChunkWriter writer, long maxBytes) {
+		this.writer = writer;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Stores the given chunk, replacing any previous entry for it, and evicts
+	 * the oldest entries if over the limit.
+	 *
+	 * @param pos The position of the chunk
+	 * @param compressed The chunk's zlib-compressed NBT, as created by
+	 *            {@link ChunkEncoder}; it is copied, and its position is not
+	 *            changed
+	 * @throws IOException if the cache was far over its limit, and evicting
+	 *            entries right away failed
+	 */
+	public void put(ChunkPos pos, ByteBuffer compressed) throws IOException {
+		ByteBuffer data = ByteBuffer.allocateDirect(compressed.remaining());
+		data.put(compressed.duplicate());
+		data.flip();
+		boolean evictNow = false;
+		synchronized (this) {
+			Entry previous = entries.remove(pos);
+			if (previous != null) {
+				bytes -= previous.data.capacity();
+				if (previous.dirty) {
+					coalescedSaves++;
+				}
+			}
+			entries.put(pos, new Entry(data));
+			bytes += data.capacity();
+
+			if (bytes > maxBytes * 2) {
+				evictNow = true;
+			} else if (bytes > maxBytes && !evicting) {
+				try {
+					executor.execute(this::evictInBackground);
+					evicting = true;
+				} catch (RejectedExecutionException ex) {
+					// Closing; flush() will write it
+				}
+			}
+		}
+		if (evictNow) {
+			evict();
+		}
+	}
+
+	private void evictInBackground() {
+		try {
+			evict();
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to write evicted chunk; it will be retried", ex);
+		} finally {
+			synchronized (this) {
+				evicting = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes and removes the oldest entries until the cache is within its
+	 * limit.  The newest entry is never evicted, even if it alone is over the
+	 * limit; it will go once something newer comes in.
+	 */
+	private void evict() throws IOException {
+		while (true) {
+			ChunkPos oldest;
+			synchronized (this) {
+				if (bytes <= maxBytes || entries.size() <= 1) {
+					return;
+				}
+				oldest = entries.keySet().iterator().next();
+			}
+			try {
+				write(oldest, true);
+			} catch (IOException ex) {
+				throw new IOException("Failed to write evicted chunk " + oldest, ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes the current entry for the given chunk if it is dirty.  Once it
+	 * has been written, it is marked as clean or removed, unless it was
+	 * replaced in the meantime.  If writing fails, the entry is kept as it was.
+	 */
+	private void write(ChunkPos pos, boolean remove) throws IOException {
+		synchronized (writeLock) {
+			Entry entry;
+			boolean dirty;
+			synchronized (this) {
+				entry = entries.get(pos);
+				if (entry == null) {
+					return;
+				}
+				dirty = entry.dirty;
+			}
+			if (dirty) {
+				writer.write(pos, entry.data.duplicate());
+			}
+			synchronized (this) {
+				if (entries.get(pos) != entry) {
+					// Saved again while it was being written; the new entry is dirty
+					return;
+				}
+				entry.dirty = false;
+				if (remove) {
+					entries.remove(pos);
+					bytes -= entry.data.capacity();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the cached copy of the given chunk.
+	 *
+	 * @return The chunk's NBT, or null if it isn't cached.
+	 */
+	@Nullable
+	public CompoundNBT get(ChunkPos pos) throws IOException {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(pos);
+		}
+		if (entry == null) {
+			return null;
+		}
+		// The buffer itself is never modified after being created
+		return ChunkEncoder.decode(entry.data);
+	}
+
+	/**
+	 * Writes all dirty entries, keeping them in the cache as clean entries.
+	 * Entries that fail to be written stay dirty.
+	 */
+	public void flush() throws IOException {
+		List<ChunkPos> dirty;
+		synchronized (this) {
+			dirty = entries.entrySet().stream()
+					.filter(e -> e.getValue().dirty)
+					.map(Map.Entry::getKey)
+					.collect(Collectors.toList());
+		}
+		List<IOException> failures = new ArrayList<>();
+		for (ChunkPos pos : dirty) {
+			try {
+				write(pos, false);
+			} catch (IOException ex) {
+				failures.add(ex);
+			}
+		}
+		if (!failures.isEmpty()) {
+			IOException ex = new IOException("Failed to write " + failures.size() + " cached chunks");
+			failures.forEach(ex::addSuppressed);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Runs {@link #flush()} on the cache's background thread.
+	 *
+	 * @return A future completed once all entries that were dirty have been
+	 *         written, or completed exceptionally if any of them failed.
+	 */
+	public CompletableFuture<Void> flushInBackground() {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					flush();
+					future.complete(null);
+				} catch (IOException | RuntimeException ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * Waits for background writes to finish, stops the background thread,
+	 * and writes all dirty entries.
+	 */
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				LOGGER.warn("[WDL] Still waiting for cached chunks to be written");
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for cached chunks to be written", ex);
+		}
+		flush();
+	}
+
+	public synchronized int getDirtyCount() {
+		return (int) entries.values().stream().filter(e -> e.dirty).count();
+	}
+
+	public synchronized int getCoalescedSaves() {
+		return coalescedSaves;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ChunkWriteCache [entries=" + entries.size() + ", bytes=" + bytes
+				+ ", coalescedSaves=" + coalescedSaves + "]";
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.client.entity.player.ClientPlayerEntity;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.GameRules;
+import net.minecraft.world.storage.MapData;
+import wdl.config.IConfiguration;
+import wdl.config.settings.MiscSettings;
+import wdl.versioned.ISaveHandlerWrapper;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * The download of a single world (dimension): where it is being saved, and
+ * everything captured in it that hasn't been written yet.
+ * <p>
+ * When the world changes, the previous session is saved ("drained") on a
+ * background thread while a new session captures the new world.  Once a
+ * session is no longer the current one, it must only be used by the thread
+ * draining it.
+ */
+public class DownloadSession {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	public final ClientWorld world;
+	public final ClientPlayerEntity player;
+	/**
+	 * The multiworld name of the world this session saves to, as in
+	 * {@link WDL#worldName}.
+	 */
+	public final String worldName;
+	public final IConfiguration worldProps;
+	public final GameRules gameRules;
+	/**
+	 * For player files and the level.dat file.  Shared with any other sessions
+	 * saving into the same world folder.
+	 */
+	public final ISaveHandlerWrapper saveHandler;
+	/**
+	 * For the chunks of this session's dimension.  May have been used by an
+	 * earlier session for the same dimension.
+	 */
+	public final WDLChunkLoader chunkLoader;
+
+	// The captured data below is written on the client thread, and read (and
+	// released) by saves on other threads.
+
+	/**
+	 * All tile entities that were saved manually, by chunk and then position.
+	 */
+	public final ChunkBuckets<BlockPos, TileEntity> newTileEntities = new ChunkBuckets<>();
+	/**
+	 * All entities that were downloaded, by chunk and then UUID.
+	 */
+	public final ChunkBuckets<UUID, Entity> newEntities = new ChunkBuckets<>();
+	/**
+	 * All of the {@link MapData}s that were sent to the client in this world.
+	 */
+	public final Map<Integer, MapData> newMapDatas = new ConcurrentHashMap<>();
+	/**
+	 * The chunk position of each entity that has been saved, by UUID.
+	 * Cleared after that chunk has been written to disk.  Used to avoid
+	 * writing the same entity into multiple chunks.
+	 */
+	public final Map<UUID, ChunkPos> entityPositions = new ConcurrentHashMap<>();
+	/**
+	 * Holds captured data that has been moved out of memory.  Null if not
+	 * used, or once closed.
+	 */
+	@Nullable
+	public CaptureSpillStore spillStore;
+	/**
+	 * Periodically saves this session's changed chunks and maps while it is
+	 * the current one.
+	 */
+	final AutosaveScheduler autosave;
+	/**
+	 * Compiled form of this session's dimension's
+	 * {@link MiscSettings.SaveAreasSetting save areas}.
+	 */
+	private volatile SaveAreaFilter saveAreas;
+
+	/**
+	 * @param chunkFolder The region folder to save chunks into
+	 */
+	DownloadSession(WDL wdl, ClientWorld world, ClientPlayerEntity player,
+			String worldName, IConfiguration worldProps, GameRules gameRules,
+			ISaveHandlerWrapper saveHandler, File chunkFolder,
+			@Nullable CaptureSpillStore spillStore) {
+		this.world = world;
+		this.player = player;
+		this.worldName = worldName;
+		this.worldProps = worldProps;
+		this.gameRules = gameRules;
+		this.saveHandler = saveHandler;
+		this.spillStore = spillStore;
+		// Region files still linked into a backup snapshot must not be written to
+		wdl.backups.detach(chunkFolder);
+		this.chunkLoader = wdl.chunkLoaders.acquire(this, chunkFolder);
+		this.autosave = new AutosaveScheduler(wdl, this);
+		reloadSaveAreas();
+	}
+
+	/**
+	 * Checks whether the given chunk is in the save areas chosen by the user;
+	 * chunks outside of them aren't saved.
+	 */
+	public boolean isInSaveAreas(ChunkPos pos) {
+		return saveAreas.shouldSave(pos);
+	}
+
+	/**
+	 * Compiles the save areas again, after they were changed in the world's
+	 * configuration.
+	 */
+	public void reloadSaveAreas() {
+		saveAreas = SaveAreaFilter.compile(worldProps.getValue(
+				new MiscSettings.SaveAreasSetting(VersionedFunctions.getDimension(world))));
+	}
+
+	/**
+	 * Gets the region folder that this session saves chunks into.
+	 */
+	public File getChunkFolder() {
+		return chunkLoader.chunkSaveLocation;
+	}
+
+	/**
+	 * Called when the given chunk has been saved and unloaded, to free memory.
+	 *
+	 * @param pos Location of the chunk
+	 */
+	public void releaseChunk(ChunkPos pos) {
+		newTileEntities.removeAll(pos);
+		// The entity has been saved, so there's no easy way to remove it from the already saved file.
+		// TODO: In the future it might be worth rewriting existing chunks for this, but that seems
+		// like a fair bit of work for the moment.
+		for (UUID uuid : newEntities.removeAll(pos).keySet()) {
+			// Only if it hasn't since been recorded in a different chunk
+			entityPositions.remove(uuid, pos);
+		}
+		autosave.forget(pos);
+		if (spillStore != null) {
+			spillStore.onReleased(pos);
+			for (UUID uuid : spillStore.forget(pos)) {
+				// Only if it hasn't since been recorded in a different chunk
+				entityPositions.remove(uuid, pos);
+			}
+		}
+	}
+
+	/**
+	 * Closes and deletes the spill store, if one exists.
+	 */
+	public void closeSpillStore() {
+		if (spillStore != null) {
+			try {
+				spillStore.close();
+			} catch (IOException ex) {
+				LOGGER.warn("Failed to close spill store", ex);
+			}
+			spillStore = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DownloadSession [worldName=" + worldName + ", chunkFolder=" + getChunkFolder() + "]";
+	}
+}
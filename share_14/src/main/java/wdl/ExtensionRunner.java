@@ -0,0 +1,384 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompoundNBT;
+import wdl.api.IWDLMod;
+import wdl.api.IWDLModThreadSafe;
+import wdl.api.WDLApi.ModInfo;
+
+/**
+ * Runs extension callbacks, timing each one and skipping those that take
+ * longer than the configured timeout.
+ * <p>
+ * Extensions implementing {@link IWDLModThreadSafe} are run in parallel with
+ * each other; the rest are run one at a time.  Either way, callbacks run on
+ * WDL's extension threads (so that a hung one can be abandoned), except that
+ * serial callbacks can optionally be run inline on the calling thread, where
+ * they are only timed.  An abandoned call can't be stopped and keeps running
+ * in the background, so callbacks that change state owned by the caller
+ * (such as an NBT tag that is about to be written) must either be run inline
+ * or be given a copy of it, as {@link #runEditors} does.
+ */
+public class ExtensionRunner {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Functional interface for a call to an extension.
+	 */
+	@FunctionalInterface
+	public interface Call<T extends IWDLMod> {
+		void call(T mod) throws Exception;
+	}
+
+	/**
+	 * Functional interface for a call to an extension that edits a tag.
+	 */
+	@FunctionalInterface
+	public interface EditCall<T extends IWDLMod> {
+		void call(T mod, CompoundNBT tag) throws Exception;
+	}
+
+	/**
+	 * Timings of one callback of one extension.
+	 */
+	public static class Timing {
+		private int calls;
+		private int timeouts;
+		private long lastNanos;
+		private long maxNanos;
+		private long totalNanos;
+
+		synchronized void record(long nanos) {
+			calls++;
+			lastNanos = nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			totalNanos += nanos;
+		}
+
+		synchronized void recordTimeout() {
+			timeouts++;
+		}
+
+		/** Number of calls that finished, successfully or not. */
+		public synchronized int getCalls() {
+			return calls;
+		}
+
+		/** Number of calls that were abandoned after the timeout. */
+		public synchronized int getTimeouts() {
+			return timeouts;
+		}
+
+		/** Duration of the most recent finished call, in milliseconds. */
+		public synchronized long getLastMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(lastNanos);
+		}
+
+		/** Duration of the longest finished call, in milliseconds. */
+		public synchronized long getMaxMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+		}
+
+		/** Average duration of finished calls, in milliseconds. */
+		public synchronized long getAverageMillis() {
+			return calls == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / calls);
+		}
+	}
+
+	private final AtomicInteger threadNumber = new AtomicInteger();
+	/**
+	 * Threads are created as needed, so that one stuck in a hung extension
+	 * doesn't hold up the others.
+	 */
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Extension Thread " + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final LongSupplier timeoutMillis;
+	/** Timings by extension ID, then by callback name. */
+	private final Map<String, Map<String, Timing>> timings = new ConcurrentHashMap<>();
+
+	/**
+	 * @param timeoutMillis Gets the number of milliseconds a single callback
+	 *                      may take before it is skipped; values of 0 or less
+	 *                      mean no timeout.
+	 */
+	public ExtensionRunner(LongSupplier timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Calls the given callback on each of the given extensions, running
+	 * thread-safe extensions in parallel, and waits for all of them to finish
+	 * or time out.
+	 *
+	 * @param extensions The extensions to call
+	 * @param callback The name of the callback, used for timings and logging
+	 * @param inlineSerial If true, extensions that aren't thread-safe are run
+	 *                     on the calling thread, and can't time out
+	 * @param onStart Called on the calling thread for each extension, right
+	 *                before it is called or waited for
+	 * @param call The call to make
+	 * @throws RuntimeException if any of the callbacks threw an exception;
+	 *         the other extensions are still run.
+	 */
+	public <T extends IWDLMod> void runParallel(List<ModInfo<T>> extensions, String callback,
+			boolean inlineSerial, Consumer<ModInfo<T>> onStart, Call<? super T> call) {
+		List<ModInfo<T>> parallel = new ArrayList<>();
+		List<ModInfo<T>> serial = new ArrayList<>();
+		for (ModInfo<T> info : extensions) {
+			(info.mod instanceof IWDLModThreadSafe ? parallel : serial).add(info);
+		}
+		run(parallel, serial, callback, inlineSerial, onStart, call);
+	}
+
+	/**
+	 * Calls the given callback on each of the given extensions, one at a time
+	 * and in order on the calling thread, even for thread-safe extensions.
+	 * The calls are timed, but can't time out.
+	 *
+	 * @param extensions The extensions to call
+	 * @param callback The name of the callback, used for timings and logging
+	 * @param onStart Called on the calling thread for each extension, right
+	 *                before it is called
+	 * @param call The call to make
+	 * @throws RuntimeException if any of the callbacks threw an exception;
+	 *         the other extensions are still run.
+	 */
+	public <T extends IWDLMod> void runSerial(List<ModInfo<T>> extensions, String callback,
+			Consumer<ModInfo<T>> onStart, Call<? super T> call) {
+		run(Collections.emptyList(), extensions, callback, true, onStart, call);
+	}
+
+	/**
+	 * Calls the given editing callback on each of the given extensions, one
+	 * at a time and in order.  Each one runs on WDL's extension threads and
+	 * edits a copy of the tag, which replaces the tag's contents only if the
+	 * call finishes in time; if it times out or fails, the tag is left as the
+	 * previous extension left it.
+	 *
+	 * @param extensions The extensions to call
+	 * @param callback The name of the callback, used for timings and logging
+	 * @param tag The tag to edit
+	 * @param onStart Called on the calling thread for each extension, right
+	 *                before it is called
+	 * @param call The call to make
+	 * @throws RuntimeException if any of the callbacks threw an exception;
+	 *         the other extensions are still run.
+	 */
+	public <T extends IWDLMod> void runEditors(List<ModInfo<T>> extensions, String callback,
+			CompoundNBT tag, Consumer<ModInfo<T>> onStart, EditCall<? super T> call) {
+		List<Throwable> failures = new ArrayList<>();
+		try {
+			for (ModInfo<T> info : extensions) {
+				onStart.accept(info);
+				CompoundNBT copy = tag.copy();
+				if (await(info, callback, submit(info, callback, mod -> call.call(mod, copy)), failures)) {
+					for (String key : new ArrayList<>(tag.keySet())) {
+						tag.remove(key);
+					}
+					for (String key : copy.keySet()) {
+						tag.put(key, copy.get(key));
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			LOGGER.warn("[WDL] Interrupted while running {} for extensions", callback);
+			Thread.currentThread().interrupt();
+		}
+		throwFailures(callback, failures);
+	}
+
+	/**
+	 * Calls the given callback on each of the given extensions without
+	 * waiting for the thread-safe ones, which run in the background (and are
+	 * still skipped once they time out).  The others are run inline on the
+	 * calling thread, one at a time.
+	 *
+	 * @param extensions The extensions to call
+	 * @param callback The name of the callback, used for timings and logging
+	 * @param call The call to make
+	 * @throws RuntimeException if any of the inline callbacks threw an
+	 *         exception; failures of background callbacks are only logged.
+	 */
+	public <T extends IWDLMod> void runInBackground(List<ModInfo<T>> extensions, String callback,
+			Call<? super T> call) {
+		List<ModInfo<T>> serial = new ArrayList<>();
+		for (ModInfo<T> info : extensions) {
+			if (info.mod instanceof IWDLModThreadSafe) {
+				Future<?> future = submit(info, callback, call);
+				executor.execute(() -> watch(info, callback, future));
+			} else {
+				serial.add(info);
+			}
+		}
+		run(Collections.emptyList(), serial, callback, true, info -> { }, call);
+	}
+
+	/**
+	 * Waits for a callback started by {@link #runInBackground}, logging any
+	 * failure.
+	 */
+	private void watch(ModInfo<?> info, String callback, Future<?> future) {
+		List<Throwable> failures = new ArrayList<>();
+		try {
+			await(info, callback, future, failures);
+		} catch (InterruptedException ex) {
+			future.cancel(true);
+			return;
+		}
+		for (Throwable failure : failures) {
+			LOGGER.warn("[WDL] Extension {} failed in {}", info, callback, failure);
+		}
+	}
+
+	private <T extends IWDLMod> void run(List<ModInfo<T>> parallel, List<ModInfo<T>> serial,
+			String callback, boolean inlineSerial, Consumer<ModInfo<T>> onStart,
+			Call<? super T> call) {
+
+		List<Throwable> failures = new ArrayList<>();
+		// Start the thread-safe ones first, so that they overlap with the rest
+		Map<ModInfo<T>, Future<?>> started = new LinkedHashMap<>();
+		for (ModInfo<T> info : parallel) {
+			started.put(info, submit(info, callback, call));
+		}
+		try {
+			for (ModInfo<T> info : serial) {
+				onStart.accept(info);
+				if (inlineSerial) {
+					try {
+						timed(info, callback, call);
+					} catch (Exception ex) {
+						failures.add(ex);
+					}
+				} else {
+					await(info, callback, submit(info, callback, call), failures);
+				}
+			}
+			for (Map.Entry<ModInfo<T>, Future<?>> e : started.entrySet()) {
+				onStart.accept(e.getKey());
+				await(e.getKey(), callback, e.getValue(), failures);
+			}
+		} catch (InterruptedException ex) {
+			LOGGER.warn("[WDL] Interrupted while running {} for extensions", callback);
+			started.values().forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+		}
+
+		throwFailures(callback, failures);
+	}
+
+	private static void throwFailures(String callback, List<Throwable> failures) {
+		if (!failures.isEmpty()) {
+			RuntimeException ex = new RuntimeException("Extension failed in " + callback, failures.get(0));
+			failures.stream().skip(1).forEach(ex::addSuppressed);
+			throw ex;
+		}
+	}
+
+	private <T extends IWDLMod> Future<?> submit(ModInfo<T> info, String callback, Call<? super T> call) {
+		return executor.submit(() -> {
+			timed(info, callback, call);
+			return null;
+		});
+	}
+
+	private <T extends IWDLMod> void timed(ModInfo<T> info, String callback, Call<? super T> call) throws Exception {
+		long start = System.nanoTime();
+		try {
+			call.call(info.mod);
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			getTiming(info.id, callback).record(elapsed);
+			long timeout = timeoutMillis.getAsLong();
+			if (timeout > 0 && elapsed > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+				LOGGER.warn("[WDL] Extension {} took {} ms in {}", info,
+						TimeUnit.NANOSECONDS.toMillis(elapsed), callback);
+			}
+		}
+	}
+
+	/**
+	 * Waits for a submitted callback, for at most the timeout.  A callback
+	 * that times out is interrupted, but may keep running anyway.
+	 *
+	 * @return True if the callback finished successfully in time.
+	 */
+	private boolean await(ModInfo<?> info, String callback, Future<?> future,
+			List<Throwable> failures) throws InterruptedException {
+		long timeout = timeoutMillis.getAsLong();
+		try {
+			if (timeout > 0) {
+				future.get(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				future.get();
+			}
+			return true;
+		} catch (ExecutionException ex) {
+			failures.add(ex.getCause());
+		} catch (CancellationException ex) {
+			// Already given up on
+		} catch (TimeoutException ex) {
+			LOGGER.warn("[WDL] Extension {} didn't finish {} within {} ms; skipping it", info,
+					callback, timeout);
+			getTiming(info.id, callback).recordTimeout();
+			future.cancel(true);
+		}
+		return false;
+	}
+
+	private Timing getTiming(String id, String callback) {
+		return timings.computeIfAbsent(id, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(callback, k -> new Timing());
+	}
+
+	/**
+	 * Gets the timings of each callback of the given extension.
+	 *
+	 * @param id The ID of the extension
+	 * @return An unmodifiable map of callback name to timing; empty if the
+	 *         extension hasn't been called yet.
+	 */
+	public Map<String, Timing> getTimings(String id) {
+		Map<String, Timing> map = timings.get(id);
+		return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public String toString() {
+		return "ExtensionRunner [timings for " + timings.keySet() + "]";
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.RegionFile;
+
+/**
+ * Writes chunks that have already been compressed (by {@link ChunkEncoder})
+ * into a {@link RegionFile}, instead of having vanilla serialize and compress
+ * them again.  This also allows using the fastest deflate level instead of
+ * the default one.  The result is still a normal deflate-compressed chunk
+ * that the game can read; it's just larger, until {@link RegionRecompressor}
+ * recompresses it after the download has stopped.
+ */
+final class FastChunkWriter {
+	private FastChunkWriter() { throw new AssertionError(); }
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Constructor for RegionFile's inner ChunkBuffer class, which writes its
+	 * contents into the region file when closed.  Null if it couldn't be found.
+	 */
+	@Nullable
+	private static final Constructor<? extends OutputStream> CHUNK_BUFFER_CONSTRUCTOR =
+			findChunkBufferConstructor();
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static Constructor<? extends OutputStream> findChunkBufferConstructor() {
+		try {
+			for (Class<?> clazz : RegionFile.class.getDeclaredClasses()) {
+				if (ByteArrayOutputStream.class.isAssignableFrom(clazz)) {
+					// Inner class, so the first parameter is the region file
+					Constructor<?> constructor = clazz.getDeclaredConstructor(RegionFile.class, ChunkPos.class);
+					constructor.setAccessible(true);
+					return (Constructor<? extends OutputStream>) constructor;
+				}
+			}
+			LOGGER.warn("[WDL] Couldn't find RegionFile's chunk buffer; fast saving is unavailable");
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Couldn't access RegionFile's chunk buffer; fast saving is unavailable", ex);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether chunks can be written with this class.  If not, the
+	 * normal save path should be used.
+	 */
+	public static boolean isAvailable() {
+		return CHUNK_BUFFER_CONSTRUCTOR != null;
+	}
+
+	/**
+	 * Writes the given chunk into the given region file.
+	 *
+	 * @param region The region file to write into
+	 * @param pos The position of the chunk
+	 * @param data The chunk's zlib-compressed NBT, including the Level and
+	 *            DataVersion tags; its position is not changed
+	 * @throws IOException when writing fails
+	 * @throws IllegalStateException if {@link #isAvailable()} is false
+	 */
+	public static void write(RegionFile region, ChunkPos pos, ByteBuffer data) throws IOException {
+		if (CHUNK_BUFFER_CONSTRUCTOR == null) {
+			throw new IllegalStateException("Fast saving is unavailable");
+		}
+		OutputStream buffer;
+		try {
+			buffer = CHUNK_BUFFER_CONSTRUCTOR.newInstance(region, pos);
+		} catch (ReflectiveOperationException ex) {
+			throw new IOException("Failed to create chunk buffer for " + pos, ex);
+		}
+		// The buffer has already written the deflate compression type
+		try (OutputStream stream = buffer) {
+			ByteBuffer source = data.duplicate();
+			if (source.hasArray()) {
+				stream.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+			} else {
+				byte[] bytes = new byte[source.remaining()];
+				source.get(bytes);
+				stream.write(bytes);
+			}
+		}
+	}
+}
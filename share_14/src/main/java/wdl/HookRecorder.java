@@ -0,0 +1,257 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.netty.buffer.ByteBuf;
+
+import net.minecraft.client.gui.screen.IngameMenuScreen;
+import net.minecraft.client.gui.widget.Widget;
+import net.minecraft.client.gui.widget.button.Button;
+import net.minecraft.client.network.play.ClientPlayNetHandler;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.crash.CrashReport;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.play.server.SBlockActionPacket;
+import net.minecraft.network.play.server.SChatPacket;
+import net.minecraft.network.play.server.SCustomPayloadPlayPacket;
+import net.minecraft.network.play.server.SMapDataPacket;
+import net.minecraft.network.play.server.SUnloadChunkPacket;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import wdl.HookRecording.EventType;
+
+/**
+ * Records the events passed to {@link WDLHooks} (and the chunks they refer
+ * to) into a file, before forwarding them to the real listener.  The
+ * recording can then be replayed offline, to measure the performance of a
+ * real download.
+ * <p>
+ * Enabled by starting the game with <code>-Dwdl.recordHooks=&lt;file&gt;</code>.
+ * Entities are not recorded, since they aren't received through a hook.
+ */
+class HookRecorder implements WDLHooks.IHooksListener {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * The system property naming the file to record to.
+	 */
+	static final String PROPERTY = "wdl.recordHooks";
+
+	private final WDLHooks.IHooksListener delegate;
+	/** Null once recording has failed. */
+	@Nullable
+	private HookRecording.Writer writer;
+	/** Chunks that have been recorded since they were last unloaded. */
+	private final Set<ChunkPos> recordedChunks = new HashSet<>();
+	@Nullable
+	private ClientWorld lastWorld;
+
+	HookRecorder(WDLHooks.IHooksListener delegate, HookRecording.Writer writer) {
+		this.delegate = delegate;
+		this.writer = writer;
+	}
+
+	/**
+	 * Wraps the given listener in a recorder if {@link #PROPERTY} is set.
+	 */
+	static WDLHooks.IHooksListener wrapIfEnabled(WDLHooks.IHooksListener listener) {
+		String file = System.getProperty(PROPERTY);
+		if (file == null || file.isEmpty()) {
+			return listener;
+		}
+		try {
+			HookRecording.Writer writer = new HookRecording.Writer(new File(file),
+					VersionConstants.getDataVersion());
+			HookRecorder recorder = new HookRecorder(listener, writer);
+			Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "WDL Hook Recorder Shutdown"));
+			LOGGER.info("[WDL] Recording hook events to {}", file);
+			return recorder;
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to start recording hook events to " + file, ex);
+			return listener;
+		}
+	}
+
+	private synchronized void record(EventType type, HookRecording.PayloadWriter payload) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write(type, payload);
+		} catch (IOException | RuntimeException ex) {
+			LOGGER.warn("[WDL] Failed to record " + type + " event; recording stopped", ex);
+			close();
+		}
+	}
+
+	/**
+	 * Records the given chunk if it hasn't been recorded yet, or always if
+	 * force is set.
+	 */
+	private void recordChunk(ClientWorld world, int x, int z, boolean force) {
+		ChunkPos pos = new ChunkPos(x, z);
+		if (!recordedChunks.add(pos) && !force) {
+			return;
+		}
+		Chunk chunk = world.getChunkProvider().getChunk(x, z, false);
+		if (chunk == null) {
+			return;
+		}
+		record(EventType.CHUNK, buf -> {
+			buf.writeInt(x);
+			buf.writeInt(z);
+			ChunkSection[] sections = chunk.getSections();
+			int mask = 0;
+			for (int i = 0; i < sections.length; i++) {
+				if (!ChunkSection.isEmpty(sections[i])) {
+					mask |= 1 << i;
+				}
+			}
+			buf.writeVarInt(mask);
+			for (int i = 0; i < sections.length; i++) {
+				if ((mask & (1 << i)) != 0) {
+					sections[i].write(buf);
+				}
+			}
+			Collection<TileEntity> tileEntities = chunk.getTileEntityMap().values();
+			buf.writeVarInt(tileEntities.size());
+			for (TileEntity te : tileEntities) {
+				buf.writeCompoundTag(te.write(new CompoundNBT()));
+			}
+		});
+	}
+
+	@Override
+	public void onWorldClientTick(ClientWorld sender) {
+		if (sender != lastWorld) {
+			// Replays only have one world; just make sure the new world's
+			// chunks get recorded
+			lastWorld = sender;
+			recordedChunks.clear();
+		}
+		record(EventType.TICK, buf -> {});
+		delegate.onWorldClientTick(sender);
+	}
+
+	@Override
+	public void onWorldClientRemoveEntityFromWorld(ClientWorld sender, int eid) {
+		record(EventType.REMOVE_ENTITY, buf -> buf.writeVarInt(eid));
+		delegate.onWorldClientRemoveEntityFromWorld(sender, eid);
+	}
+
+	@Override
+	public void onNHPCHandleChunkUnload(ClientPlayNetHandler sender, ClientWorld world, SUnloadChunkPacket packet) {
+		if (world != null) {
+			// The final state of the chunk, which is what gets saved
+			recordChunk(world, packet.getX(), packet.getZ(), true);
+			recordedChunks.remove(new ChunkPos(packet.getX(), packet.getZ()));
+		}
+		record(EventType.CHUNK_UNLOAD, packet::writePacketData);
+		delegate.onNHPCHandleChunkUnload(sender, world, packet);
+	}
+
+	@Override
+	public void onNHPCHandleChat(ClientPlayNetHandler sender, SChatPacket packet) {
+		record(EventType.CHAT, packet::writePacketData);
+		delegate.onNHPCHandleChat(sender, packet);
+	}
+
+	@Override
+	public void onNHPCHandleMaps(ClientPlayNetHandler sender, SMapDataPacket packet) {
+		record(EventType.MAPS, packet::writePacketData);
+		delegate.onNHPCHandleMaps(sender, packet);
+	}
+
+	@Override
+	public void onNHPCHandleCustomPayload(ClientPlayNetHandler sender, SCustomPayloadPlayPacket packet) {
+		// As in WDLEvents, the payload may already have been read (or released)
+		ByteBuf data = packet.getBufferData();
+		if (data.refCnt() > 0) {
+			data.markReaderIndex();
+			data.readerIndex(0);
+			record(EventType.CUSTOM_PAYLOAD, packet::writePacketData);
+			data.resetReaderIndex();
+		}
+		delegate.onNHPCHandleCustomPayload(sender, packet);
+	}
+
+	@Override
+	public void onNHPCHandleBlockAction(ClientPlayNetHandler sender, SBlockActionPacket packet) {
+		if (lastWorld != null) {
+			recordChunk(lastWorld, packet.getBlockPosition().getX() >> 4,
+					packet.getBlockPosition().getZ() >> 4, false);
+		}
+		record(EventType.BLOCK_ACTION, packet::writePacketData);
+		delegate.onNHPCHandleBlockAction(sender, packet);
+	}
+
+	@Override
+	public void onNHPCDisconnect(ClientPlayNetHandler sender, ITextComponent reason) {
+		record(EventType.DISCONNECT, buf -> buf.writeString(ITextComponent.Serializer.toJson(reason)));
+		synchronized (this) {
+			if (writer != null) {
+				try {
+					writer.flush();
+				} catch (IOException ex) {
+					LOGGER.warn("[WDL] Failed to flush hook recording", ex);
+				}
+			}
+		}
+		delegate.onNHPCDisconnect(sender, reason);
+	}
+
+	@Override
+	public void onCrashReportPopulateEnvironment(CrashReport report) {
+		delegate.onCrashReportPopulateEnvironment(report);
+	}
+
+	@Override
+	public void injectWDLButtons(IngameMenuScreen gui, Collection<Widget> buttonList, Consumer<Widget> addButton) {
+		delegate.injectWDLButtons(gui, buttonList, addButton);
+	}
+
+	@Override
+	public void handleWDLButtonClick(IngameMenuScreen gui, Button button) {
+		delegate.handleWDLButtonClick(gui, button);
+	}
+
+	/**
+	 * Stops recording, closing the file.
+	 */
+	synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to close hook recording", ex);
+			}
+			writer = null;
+		}
+	}
+}
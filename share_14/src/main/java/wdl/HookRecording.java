@@ -0,0 +1,195 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.IPacket;
+import net.minecraft.network.PacketBuffer;
+
+/**
+ * The file format used by {@link HookRecorder}: a gzipped stream of events,
+ * each one a type byte followed by the length and contents of its payload.
+ * Payloads are written using {@link PacketBuffer}, mostly by the packets
+ * themselves.
+ */
+final class HookRecording {
+	private HookRecording() { throw new AssertionError(); }
+
+	/** "WDLR" */
+	static final int MAGIC = 0x57444C52;
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The types of recorded event.  The ordinal is what gets written, so new
+	 * types must be added at the end.
+	 */
+	enum EventType {
+		/** {@link WDLHooks#onWorldClientTick}; no payload. */
+		TICK,
+		/** {@link WDLHooks#onWorldClientRemoveEntityFromWorld}; the entity ID. */
+		REMOVE_ENTITY,
+		/**
+		 * The contents of a chunk, written before the first event that refers
+		 * to it and again right before it is unloaded.  The chunk position, a
+		 * bitmask of non-empty sections followed by those sections, and the
+		 * chunk's tile entities.
+		 */
+		CHUNK,
+		/** {@link WDLHooks#onNHPCHandleChunkUnload}; the packet. */
+		CHUNK_UNLOAD,
+		/** {@link WDLHooks#onNHPCHandleChat}; the packet. */
+		CHAT,
+		/** {@link WDLHooks#onNHPCHandleMaps}; the packet. */
+		MAPS,
+		/** {@link WDLHooks#onNHPCHandleCustomPayload}; the packet. */
+		CUSTOM_PAYLOAD,
+		/** {@link WDLHooks#onNHPCHandleBlockAction}; the packet. */
+		BLOCK_ACTION,
+		/** {@link WDLHooks#onNHPCDisconnect}; the reason, as JSON. */
+		DISCONNECT
+	}
+
+	/**
+	 * A single recorded event.
+	 */
+	static final class Event {
+		final EventType type;
+		/** The event's payload, positioned at its start. */
+		final PacketBuffer data;
+
+		Event(EventType type, PacketBuffer data) {
+			this.type = type;
+			this.data = data;
+		}
+
+		/**
+		 * Reads the payload into the given (empty) packet.
+		 */
+		<T extends IPacket<?>> T readPacket(T packet) throws IOException {
+			packet.readPacketData(data);
+			return packet;
+		}
+	}
+
+	/**
+	 * Something that writes the payload of an event.
+	 */
+	@FunctionalInterface
+	interface PayloadWriter {
+		void write(PacketBuffer buf) throws IOException;
+	}
+
+	static final class Writer implements Closeable {
+		private final DataOutputStream out;
+		private final PacketBuffer buf = new PacketBuffer(Unpooled.buffer());
+
+		/**
+		 * @param file The file to write to; replaced if it exists
+		 * @param dataVersion The data version of the game being recorded, as
+		 *            chunk sections can only be read by the same version
+		 */
+		Writer(File file, int dataVersion) throws IOException {
+			this.out = new DataOutputStream(new GZIPOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file))));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(dataVersion);
+		}
+
+		void write(EventType type, PayloadWriter payload) throws IOException {
+			buf.clear();
+			payload.write(buf);
+			out.writeByte(type.ordinal());
+			out.writeInt(buf.readableBytes());
+			buf.readBytes(out, buf.readableBytes());
+		}
+
+		void write(EventType type, IPacket<?> packet) throws IOException {
+			write(type, packet::writePacketData);
+		}
+
+		void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			buf.release();
+			out.close();
+		}
+	}
+
+	static final class Reader implements Closeable {
+		private final DataInputStream in;
+		/** The data version of the game the recording was made with. */
+		final int dataVersion;
+
+		Reader(File file) throws IOException {
+			this.in = new DataInputStream(new GZIPInputStream(
+					new BufferedInputStream(new FileInputStream(file))));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException(file + " is not a hook recording");
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				in.close();
+				throw new IOException("Unsupported recording format version " + version);
+			}
+			this.dataVersion = in.readInt();
+		}
+
+		/**
+		 * Reads the next event.
+		 *
+		 * @return The event, or null at the end of the recording.
+		 */
+		@Nullable
+		Event next() throws IOException {
+			int type;
+			try {
+				type = in.readUnsignedByte();
+			} catch (EOFException ex) {
+				// Also the case for recordings that were not closed properly
+				return null;
+			}
+			if (type >= EventType.values().length) {
+				throw new IOException("Unknown event type " + type);
+			}
+			byte[] payload = new byte[in.readInt()];
+			in.readFully(payload);
+			return new Event(EventType.values()[type], new PacketBuffer(Unpooled.wrappedBuffer(payload)));
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
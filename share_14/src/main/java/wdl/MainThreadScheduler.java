@@ -0,0 +1,165 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import wdl.config.settings.MiscSettings;
+
+/**
+ * Runs WDL work that must happen on the client thread, but not necessarily
+ * right away, within a time budget for each tick.  Work that doesn't fit into
+ * a tick's budget is carried over to the next one, highest priority first, so
+ * that bursts of packets don't show up as dropped frames.
+ * <p>
+ * At least one task is run each tick, so that the backlog always shrinks even
+ * with a tiny budget.
+ */
+class MainThreadScheduler {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	enum Priority {
+		/** Work that affects what the user currently sees */
+		HIGH,
+		NORMAL,
+		/** Work that only needs to happen eventually */
+		LOW
+	}
+
+	private static class Task {
+		private final Priority priority;
+		/** Submission order, to keep tasks of the same priority in order */
+		private final long sequence;
+		private final String name;
+		private final Runnable runnable;
+
+		Task(Priority priority, long sequence, String name, Runnable runnable) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.name = name;
+			this.runnable = runnable;
+		}
+	}
+
+	private final PriorityQueue<Task> queue = new PriorityQueue<>(
+			Comparator.<Task, Priority>comparing(task -> task.priority)
+					.thenComparingLong(task -> task.sequence));
+	private long nextSequence;
+
+	// Statistics, for the debug info
+	private long lastTickNanos;
+	private int lastTickTasks;
+	private long maxTickNanos;
+	private int maxBacklog;
+	private long totalTasks;
+	private long overBudgetTicks;
+
+	/**
+	 * Queues the given work to be run on a later tick.  Must be called on the
+	 * client thread.
+	 *
+	 * @param priority The priority of the work
+	 * @param name A short description, for logging
+	 * @param runnable The work itself
+	 */
+	public void submit(Priority priority, String name, Runnable runnable) {
+		queue.add(new Task(priority, nextSequence++, name, runnable));
+		maxBacklog = Math.max(maxBacklog, queue.size());
+	}
+
+	/**
+	 * Runs queued work until this tick's budget is used up.
+	 *
+	 * @param idleWork Work without a fixed size (e.g. autosaving) that is
+	 *                 given the deadline for the tick once the queue is empty,
+	 *                 and should stop once it passes.  May be null.
+	 */
+	public void tick(@Nullable LongConsumer idleWork) {
+		long start = System.nanoTime();
+		long deadline = start + getBudgetNanos();
+		int tasks = 0;
+		Task task;
+		while ((tasks == 0 || System.nanoTime() < deadline) && (task = queue.poll()) != null) {
+			run(task);
+			tasks++;
+		}
+		if (idleWork != null && queue.isEmpty()) {
+			idleWork.accept(deadline);
+		}
+
+		lastTickNanos = System.nanoTime() - start;
+		lastTickTasks = tasks;
+		maxTickNanos = Math.max(maxTickNanos, lastTickNanos);
+		totalTasks += tasks;
+		if (lastTickNanos > deadline - start) {
+			overBudgetTicks++;
+		}
+	}
+
+	/**
+	 * Runs all queued work immediately, regardless of the budget.  Used before
+	 * the state the work refers to goes away (e.g. on a world change).
+	 */
+	public void runAll() {
+		Task task;
+		while ((task = queue.poll()) != null) {
+			run(task);
+			totalTasks++;
+		}
+	}
+
+	/**
+	 * Discards all queued work.
+	 */
+	public void clear() {
+		queue.clear();
+	}
+
+	/**
+	 * Gets the number of tasks waiting to be run.
+	 */
+	public int getBacklog() {
+		return queue.size();
+	}
+
+	private void run(Task task) {
+		try {
+			task.runnable.run();
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Exception in scheduled task " + task.name, ex);
+		}
+	}
+
+	private static long getBudgetNanos() {
+		return TimeUnit.MILLISECONDS.toNanos(Math.max(0,
+				WDL.serverProps.getValue(MiscSettings.MAIN_THREAD_BUDGET)));
+	}
+
+	@Override
+	public String toString() {
+		return "MainThreadScheduler [backlog=" + queue.size() + " (max " + maxBacklog
+				+ "), budget=" + TimeUnit.NANOSECONDS.toMicros(getBudgetNanos())
+				+ "us, lastTick=" + TimeUnit.NANOSECONDS.toMicros(lastTickNanos) + "us/"
+				+ lastTickTasks + " tasks, maxTick=" + TimeUnit.NANOSECONDS.toMicros(maxTickNanos)
+				+ "us, overBudgetTicks=" + overBudgetTicks + ", totalTasks=" + totalTasks + "]";
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import net.minecraft.nbt.INBT;
+
+/**
+ * Writes NBT straight into a stream, in the same format as
+ * {@link net.minecraft.nbt.CompressedStreamTools#write}, without building a
+ * tree of tags first.  Compounds and lists are opened and closed explicitly;
+ * tags that already exist (such as entities) can be written as they are.
+ * <p>
+ * Inside of a list, element names are ignored, and each element must be of
+ * the list's type.
+ */
+final class NBTStreamWriter {
+	static final byte TAG_END = 0;
+	static final byte TAG_BYTE = 1;
+	static final byte TAG_INT = 3;
+	static final byte TAG_LONG = 4;
+	static final byte TAG_BYTE_ARRAY = 7;
+	static final byte TAG_STRING = 8;
+	static final byte TAG_LIST = 9;
+	static final byte TAG_COMPOUND = 10;
+	static final byte TAG_INT_ARRAY = 11;
+	static final byte TAG_LONG_ARRAY = 12;
+
+	/**
+	 * An open compound or list.
+	 */
+	private static class Frame {
+		/** The type of the list's elements, or -1 for a compound */
+		final byte elementType;
+		/** Number of list elements that still need to be written */
+		int remaining;
+
+		Frame(byte elementType, int remaining) {
+			this.elementType = elementType;
+			this.remaining = remaining;
+		}
+	}
+
+	private final DataOutput out;
+	private final Deque<Frame> open = new ArrayDeque<>();
+
+	NBTStreamWriter(DataOutput out) {
+		this.out = out;
+	}
+
+	public void beginCompound(String name) throws IOException {
+		header(TAG_COMPOUND, name);
+		open.push(new Frame((byte) -1, 0));
+	}
+
+	public void endCompound() throws IOException {
+		Frame frame = open.poll();
+		if (frame == null || frame.elementType != -1) {
+			throw new IllegalStateException("No compound is open");
+		}
+		out.writeByte(TAG_END);
+	}
+
+	/**
+	 * Starts a list, which must then have exactly <code>size</code> elements
+	 * of the given type written into it before {@link #endList()}.
+	 */
+	public void beginList(String name, byte elementType, int size) throws IOException {
+		header(TAG_LIST, name);
+		// Vanilla writes empty lists with the end type
+		out.writeByte(size > 0 ? elementType : TAG_END);
+		out.writeInt(size);
+		open.push(new Frame(elementType, size));
+	}
+
+	public void endList() {
+		Frame frame = open.poll();
+		if (frame == null || frame.elementType == -1) {
+			throw new IllegalStateException("No list is open");
+		}
+		if (frame.remaining != 0) {
+			throw new IllegalStateException("List is missing " + frame.remaining + " elements");
+		}
+	}
+
+	public void putByte(String name, byte value) throws IOException {
+		header(TAG_BYTE, name);
+		out.writeByte(value);
+	}
+
+	public void putBoolean(String name, boolean value) throws IOException {
+		putByte(name, (byte) (value ? 1 : 0));
+	}
+
+	public void putInt(String name, int value) throws IOException {
+		header(TAG_INT, name);
+		out.writeInt(value);
+	}
+
+	public void putLong(String name, long value) throws IOException {
+		header(TAG_LONG, name);
+		out.writeLong(value);
+	}
+
+	public void putString(String name, String value) throws IOException {
+		header(TAG_STRING, name);
+		out.writeUTF(value);
+	}
+
+	public void putByteArray(String name, byte[] value) throws IOException {
+		header(TAG_BYTE_ARRAY, name);
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	public void putIntArray(String name, int[] value) throws IOException {
+		header(TAG_INT_ARRAY, name);
+		out.writeInt(value.length);
+		for (int i : value) {
+			out.writeInt(i);
+		}
+	}
+
+	public void putLongArray(String name, long[] value) throws IOException {
+		header(TAG_LONG_ARRAY, name);
+		out.writeInt(value.length);
+		for (long l : value) {
+			out.writeLong(l);
+		}
+	}
+
+	/**
+	 * Writes an existing tag of any type.
+	 */
+	public void put(String name, INBT tag) throws IOException {
+		header(tag.getId(), name);
+		tag.write(out);
+	}
+
+	/**
+	 * Checks that everything that was opened has been closed.
+	 */
+	public void finish() {
+		if (!open.isEmpty()) {
+			throw new IllegalStateException(open.size() + " compounds or lists are still open");
+		}
+	}
+
+	private void header(byte type, String name) throws IOException {
+		Frame frame = open.peek();
+		if (frame != null && frame.elementType != -1) {
+			if (type != frame.elementType) {
+				throw new IllegalStateException("Tried to write a tag of type " + type
+						+ " into a list of type " + frame.elementType);
+			}
+			if (frame.remaining <= 0) {
+				throw new IllegalStateException("Too many elements in list");
+			}
+			frame.remaining--;
+			return;
+		}
+		out.writeByte(type);
+		out.writeUTF(name);
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.Chunk;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * Reads the tile entities of previously saved copies of chunks ahead of time,
+ * so that saving a chunk when it is unloaded doesn't have to wait for the
+ * region file.
+ * <p>
+ * Every second, the player's movement is used to predict where they will be
+ * in a few seconds; loaded chunks that would then be further away than the
+ * furthest currently loaded chunk are likely to be unloaded soon, and their
+ * old tile entities are read on a background thread into a bounded cache,
+ * which drops the oldest prefetches to make room for new ones.
+ */
+class OldChunkPrefetcher {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/** Number of ticks between predictions. */
+	static final int TICKS_PER_PREDICTION = 20;
+	/** How far ahead, in ticks, the player's position is predicted. */
+	static final int LOOKAHEAD_TICKS = 100;
+
+	/**
+	 * Functional interface for reading a chunk's old tile entities.
+	 */
+	@FunctionalInterface
+	interface Reader {
+		/**
+		 * @return The tile entities of the saved chunk; empty if it was never
+		 *         saved.
+		 */
+		ListNBT read(ChunkPos pos) throws IOException;
+	}
+
+	private final Reader reader;
+	private final int capacity;
+	/** Prefetched tile entity lists, least recently prefetched first. */
+	private final Map<ChunkPos, ListNBT> cache;
+	/**
+	 * Chunks waiting to be prefetched or being read, each with a token for its
+	 * request; a read is only cached if its token is still here afterwards.
+	 */
+	private final Map<ChunkPos, Object> queued = new ConcurrentHashMap<>();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Prefetch Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private int ticks;
+	private double lastX, lastZ;
+	private boolean hasLast;
+
+	/**
+	 * @param reader Reads old tile entities; called on the background thread
+	 *               without any lock held, so it may race with the chunk
+	 *               being saved (see {@link #invalidate(ChunkPos)})
+	 * @param capacity Maximum number of chunks to keep in the cache
+	 */
+	OldChunkPrefetcher(Reader reader, int capacity) {
+		this.reader = reader;
+		this.capacity = capacity;
+		this.cache = new LinkedHashMap<ChunkPos, ListNBT>(16, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ChunkPos, ListNBT> eldest) {
+				return size() > OldChunkPrefetcher.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Called every tick on the client thread while downloading.
+	 *
+	 * @param player The player whose movement is followed
+	 * @param loaded The currently loaded chunks; only asked for when a
+	 *               prediction is made.  May contain nulls.
+	 */
+	void tick(Entity player, Supplier<List<Chunk>> loaded) {
+		if (++ticks < TICKS_PER_PREDICTION) {
+			return;
+		}
+		ticks = 0;
+
+		double x = VersionedFunctions.getEntityX(player);
+		double z = VersionedFunctions.getEntityZ(player);
+		if (!hasLast) {
+			lastX = x;
+			lastZ = z;
+			hasLast = true;
+			return;
+		}
+		double scale = (double) LOOKAHEAD_TICKS / TICKS_PER_PREDICTION;
+		double predictedX = x + (x - lastX) * scale;
+		double predictedZ = z + (z - lastZ) * scale;
+		lastX = x;
+		lastZ = z;
+		if (predictedX == x && predictedZ == z) {
+			// Standing still; nothing will be unloaded
+			return;
+		}
+
+		List<ChunkPos> positions = new ArrayList<>();
+		for (Chunk chunk : loaded.get()) {
+			if (chunk != null) {
+				positions.add(chunk.getPos());
+			}
+		}
+		for (ChunkPos pos : pickChunks(positions, (int) Math.floor(x / 16), (int) Math.floor(z / 16),
+				(int) Math.floor(predictedX / 16), (int) Math.floor(predictedZ / 16))) {
+			request(pos);
+		}
+	}
+
+	/**
+	 * Picks the chunks that are likely to be unloaded soon.
+	 *
+	 * @param loaded The loaded chunks
+	 * @param chunkX Chunk the player is currently in
+	 * @param chunkZ Chunk the player is currently in
+	 * @param predictedX Chunk the player is predicted to be in
+	 * @param predictedZ Chunk the player is predicted to be in
+	 * @return Loaded chunks that would be out of range at the predicted
+	 *         position, closest to being unloaded first
+	 */
+	static List<ChunkPos> pickChunks(Collection<ChunkPos> loaded, int chunkX, int chunkZ,
+			int predictedX, int predictedZ) {
+		// Chunks are kept loaded up to the server's view distance, which
+		// isn't known, so use the furthest chunk that is loaded
+		int radius = 0;
+		for (ChunkPos pos : loaded) {
+			radius = Math.max(radius, distance(pos, chunkX, chunkZ));
+		}
+		List<ChunkPos> picked = new ArrayList<>();
+		for (ChunkPos pos : loaded) {
+			if (distance(pos, predictedX, predictedZ) > radius) {
+				picked.add(pos);
+			}
+		}
+		picked.sort((a, b) -> Integer.compare(distance(b, predictedX, predictedZ),
+				distance(a, predictedX, predictedZ)));
+		return picked;
+	}
+
+	private static int distance(ChunkPos pos, int x, int z) {
+		return Math.max(Math.abs(pos.x - x), Math.abs(pos.z - z));
+	}
+
+	/**
+	 * Reads the given chunk's old tile entities in the background, unless
+	 * they are already cached or queued.  If the cache is full, the oldest
+	 * prefetched chunk is dropped once this one has been read.
+	 */
+	void request(ChunkPos pos) {
+		synchronized (cache) {
+			if (cache.containsKey(pos) || queued.size() >= capacity) {
+				return;
+			}
+		}
+		Object token = new Object();
+		if (queued.putIfAbsent(pos, token) != null) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					if (queued.get(pos) != token) {
+						// Invalidated while queued
+						return;
+					}
+					ListNBT list = reader.read(pos);
+					synchronized (cache) {
+						// Otherwise, it was saved while being read, and the
+						// list may be from before or after that save
+						if (queued.get(pos) == token) {
+							cache.put(pos, list);
+						}
+					}
+				} catch (Exception ex) {
+					LOGGER.debug("[WDL] Failed to prefetch old chunk at {}", pos, ex);
+				} finally {
+					queued.remove(pos, token);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			// Closed
+			queued.remove(pos, token);
+		}
+	}
+
+	/**
+	 * Takes the prefetched tile entities of the given chunk out of the cache.
+	 *
+	 * @return The old tile entities, or null if they weren't prefetched.
+	 */
+	@Nullable
+	ListNBT take(ChunkPos pos) {
+		synchronized (cache) {
+			return cache.remove(pos);
+		}
+	}
+
+	/**
+	 * Forgets anything prefetched, queued or being read for the given chunk,
+	 * as it has been saved again.  Must be called once the new copy of the
+	 * chunk can be read, so that reads started afterwards see it.
+	 */
+	void invalidate(ChunkPos pos) {
+		synchronized (cache) {
+			queued.remove(pos);
+			cache.remove(pos);
+		}
+	}
+
+	/**
+	 * Gets the number of chunks waiting to be prefetched or being read.
+	 */
+	int getQueuedCount() {
+		return queued.size();
+	}
+
+	/**
+	 * Stops prefetching and empties the cache.
+	 */
+	void close() {
+		executor.shutdownNow();
+		queued.clear();
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (cache) {
+			return "OldChunkPrefetcher [cached=" + cache.size() + ", queued=" + queued.size()
+					+ ", capacity=" + capacity + "]";
+		}
+	}
+}
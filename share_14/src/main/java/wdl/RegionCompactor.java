@@ -0,0 +1,301 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Rewrites region files so that their chunks are stored contiguously, in
+ * chunk order, dropping the free sectors left behind when chunks are saved
+ * again.  Optionally, chunks written with the fastest deflate level (see
+ * {@link FastChunkWriter}) are also recompressed with the default deflate
+ * level.
+ * <p>
+ * Each region file is rewritten into a temporary file which then replaces the
+ * original, so stopping partway through never leaves a damaged region file.
+ * Region files must not be open in the game while this is happening.
+ */
+public final class RegionCompactor {
+	private RegionCompactor() { throw new AssertionError(); }
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	@VisibleForTesting
+	static final int SECTOR_SIZE = 4096;
+	@VisibleForTesting
+	static final int CHUNKS_PER_REGION = 1024;
+	@VisibleForTesting
+	static final byte TYPE_DEFLATE = 2;
+	/**
+	 * Flag set on the compression type for chunks stored in an external
+	 * .mcc file (1.15+); these are copied unchanged.
+	 */
+	private static final int EXTERNAL_FLAG = 128;
+	private static final int MAX_SECTORS_PER_CHUNK = 255;
+
+	private static final Pattern REGION_FILE_NAME = Pattern.compile("^r\\.-?\\d+\\.-?\\d+\\.mca$");
+
+	/**
+	 * The result of compacting several region files.
+	 */
+	public static class Result {
+		/** Number of region files that were rewritten */
+		public final int filesRewritten;
+		/** Number of region files that couldn't be rewritten */
+		public final int filesFailed;
+		/** Total number of bytes removed from the rewritten files */
+		public final long bytesReclaimed;
+
+		Result(int filesRewritten, int filesFailed, long bytesReclaimed) {
+			this.filesRewritten = filesRewritten;
+			this.filesFailed = filesFailed;
+			this.bytesReclaimed = bytesReclaimed;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [filesRewritten=" + filesRewritten + ", filesFailed=" + filesFailed
+					+ ", bytesReclaimed=" + bytesReclaimed + "]";
+		}
+	}
+
+	/**
+	 * Finds all region files in the given world folder, in every dimension.
+	 *
+	 * @param worldFolder The folder of the world (containing level.dat)
+	 * @return All .mca files found in folders named region
+	 */
+	public static List<File> findRegionFiles(File worldFolder) throws IOException {
+		if (!worldFolder.isDirectory()) {
+			return new ArrayList<>();
+		}
+		try (Stream<Path> paths = Files.walk(worldFolder.toPath())) {
+			return paths.filter(Files::isRegularFile)
+					.filter(path -> path.getParent().getFileName().toString().equals("region"))
+					.filter(path -> REGION_FILE_NAME.matcher(path.getFileName().toString()).matches())
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Compacts the given region files in parallel, blocking until done.
+	 *
+	 * @param files The region files to compact
+	 * @param recompress Whether chunks written with the fastest deflate level
+	 *                   should also be recompressed
+	 * @param progress Called with the number of files finished so far, from
+	 *                 any thread, each time a file is finished
+	 * @return The result of compacting
+	 */
+	public static Result compact(Collection<File> files, boolean recompress, IntConsumer progress) throws InterruptedException {
+		if (files.isEmpty()) {
+			return new Result(0, 0, 0);
+		}
+		int threads = Math.min(files.size(), Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "WDL Region Compaction Thread " + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<File> fileList = new ArrayList<>(files);
+			AtomicInteger finished = new AtomicInteger();
+			List<Future<Long>> futures = new ArrayList<>();
+			for (File file : fileList) {
+				futures.add(executor.submit(() -> {
+					try {
+						return rewrite(file, recompress, () -> false);
+					} finally {
+						progress.accept(finished.incrementAndGet());
+					}
+				}));
+			}
+
+			int rewritten = 0, failed = 0;
+			long reclaimed = 0;
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					long result = futures.get(i).get();
+					if (result >= 0) {
+						rewritten++;
+						reclaimed += result;
+					}
+				} catch (ExecutionException ex) {
+					LOGGER.warn("[WDL] Failed to compact region file " + fileList.get(i), ex.getCause());
+					failed++;
+				}
+			}
+			return new Result(rewritten, failed, reclaimed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Rewrites the given region file with its chunks stored contiguously.
+	 *
+	 * @param file The region file
+	 * @param recompress Whether chunks written with the fastest deflate level
+	 *                   should be recompressed with the default level
+	 * @param cancelled Checked between chunks; if it returns true the file is left unchanged.
+	 * @return The number of bytes removed from the file, or -1 if the file was left unchanged.
+	 * @throws IOException if the file couldn't be read or written, or is malformed
+	 */
+	public static long rewrite(File file, boolean recompress, BooleanSupplier cancelled) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length < 2 * SECTOR_SIZE) {
+			return -1;
+		}
+		ByteBuffer in = ByteBuffer.wrap(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+		ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_SIZE);
+		out.write(header.array(), 0, header.capacity());
+		boolean recompressed = false;
+
+		for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+			if (cancelled.getAsBoolean()) {
+				return -1;
+			}
+			int location = in.getInt(i * 4);
+			if (location == 0) {
+				continue;
+			}
+			int offset = (location >>> 8) * SECTOR_SIZE;
+			if (offset < 2 * SECTOR_SIZE || offset + 5 > data.length) {
+				throw new IOException("Chunk " + i + " has invalid offset " + offset + " in " + file);
+			}
+			int length = in.getInt(offset);
+			if (length <= 0 || offset + 4 + length > data.length) {
+				throw new IOException("Chunk " + i + " has invalid length " + length + " in " + file);
+			}
+			int type = data[offset + 4] & 0xFF;
+			byte[] payload = new byte[length - 1];
+			System.arraycopy(data, offset + 5, payload, 0, payload.length);
+
+			if (recompress && type == TYPE_DEFLATE && isFastCompressed(payload)) {
+				byte[] result = recompressChunk(payload);
+				if (sectorsFor(result.length) <= MAX_SECTORS_PER_CHUNK) {
+					payload = result;
+					recompressed = true;
+				}
+			} else if ((type & EXTERNAL_FLAG) == 0 && sectorsFor(payload.length) > MAX_SECTORS_PER_CHUNK) {
+				throw new IOException("Chunk " + i + " is too large in " + file);
+			}
+
+			int sector = out.size() / SECTOR_SIZE;
+			int sectors = sectorsFor(payload.length);
+			header.putInt(i * 4, (sector << 8) | sectors);
+			header.putInt(SECTOR_SIZE + i * 4, in.getInt(SECTOR_SIZE + i * 4));
+			writeInt(out, payload.length + 1);
+			out.write(type);
+			out.write(payload, 0, payload.length);
+			int padding = sectors * SECTOR_SIZE - (payload.length + 5);
+			out.write(new byte[padding], 0, padding);
+		}
+
+		if ((!recompressed && out.size() >= data.length) || cancelled.getAsBoolean()) {
+			return -1;
+		}
+
+		byte[] result = out.toByteArray();
+		System.arraycopy(header.array(), 0, result, 0, header.capacity());
+		replace(file, result);
+		return data.length - result.length;
+	}
+
+	/**
+	 * Checks whether the given zlib stream was compressed with the fastest
+	 * level, using the FLEVEL field of its header.
+	 */
+	@VisibleForTesting
+	static boolean isFastCompressed(byte[] payload) {
+		return payload.length >= 2
+				&& (payload[0] & 0x0F) == 8 // CM: deflate
+				&& ((payload[1] & 0xFF) >> 6) == 0; // FLEVEL: fastest
+	}
+
+	private static byte[] recompressChunk(byte[] payload) throws IOException {
+		byte[] raw;
+		try (InputStream stream = new InflaterInputStream(new ByteArrayInputStream(payload))) {
+			raw = ByteStreams.toByteArray(stream);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length);
+		try (DeflaterOutputStream stream = new DeflaterOutputStream(out)) {
+			stream.write(raw);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Number of sectors needed for a chunk with the given payload length,
+	 * including the 4-byte length and the compression type.
+	 */
+	private static int sectorsFor(int payloadLength) {
+		return (payloadLength + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	/**
+	 * Replaces the given file's contents, going through a temporary file so
+	 * that the original is never partially overwritten.
+	 */
+	static void replace(File file, byte[] contents) throws IOException {
+		Path target = file.toPath();
+		Path temp = target.resolveSibling(file.getName() + ".tmp");
+		Files.write(temp, contents);
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
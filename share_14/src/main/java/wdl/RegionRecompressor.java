@@ -0,0 +1,134 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Recompresses chunks that were written with the fastest deflate level (see
+ * {@link FastChunkWriter}) with the default deflate level, on a low-priority
+ * background thread once the download has stopped.
+ * <p>
+ * The recompression is done by {@link RegionCompactor}, which also compacts
+ * the files, and can safely be stopped partway through.
+ */
+public class RegionRecompressor {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Region files that still need to be recompressed.  Guarded by this.
+	 */
+	private final Set<File> queue = new LinkedHashSet<>();
+	/**
+	 * The thread doing the recompression, or null if not running.  Guarded by this.
+	 */
+	@Nullable
+	private Thread thread;
+	private volatile boolean cancelled;
+
+	/**
+	 * Queues the given region files for recompression, starting the
+	 * background thread if it is not already running.
+	 */
+	public synchronized void start(Collection<File> files) {
+		queue.addAll(files);
+		if (thread == null && !queue.isEmpty()) {
+			thread = new Thread(this::run, "WDL Region Recompression Thread");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops recompressing, waiting for the background thread to finish.  This
+	 * must be called before any of the queued region files are written to again.
+	 *
+	 * @return The region files that were not yet recompressed.
+	 */
+	public List<File> cancel() {
+		Thread running;
+		synchronized (this) {
+			running = thread;
+		}
+		if (running != null) {
+			cancelled = true;
+			boolean interrupted = false;
+			while (running.isAlive()) {
+				try {
+					running.join();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			List<File> remaining = new ArrayList<>(queue);
+			queue.clear();
+			thread = null;
+			cancelled = false;
+			return remaining;
+		}
+	}
+
+	private void run() {
+		int filesRecompressed = 0;
+		long bytesSaved = 0;
+		while (!cancelled) {
+			File file;
+			synchronized (this) {
+				if (queue.isEmpty()) {
+					thread = null;
+					break;
+				}
+				file = queue.iterator().next();
+			}
+			try {
+				long saved = RegionCompactor.rewrite(file, true, () -> cancelled);
+				if (saved >= 0) {
+					filesRecompressed++;
+					bytesSaved += saved;
+				}
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to recompress region file " + file, ex);
+			}
+			if (cancelled) {
+				// Leave it queued, as it may not have been finished
+				break;
+			}
+			synchronized (this) {
+				queue.remove(file);
+			}
+		}
+		if (filesRecompressed > 0) {
+			LOGGER.info("[WDL] Recompressed {} region files, saving {} bytes", filesRecompressed, bytesSaved);
+			WDLMessages.chatMessageTranslated(WDL.serverProps, WDLMessageTypes.SAVING,
+					"wdl.messages.saving.recompressed", filesRecompressed, bytesSaved / 1024);
+		}
+	}
+}
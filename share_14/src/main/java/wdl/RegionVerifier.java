@@ -0,0 +1,450 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.io.ByteStreams;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Checks that every chunk in a region file can be read back: the header must
+ * point at sectors within the file that no other chunk uses, the stored
+ * length must fit those sectors, and the payload must decompress into chunk
+ * NBT with a Level tag for the right position.
+ * <p>
+ * Damaged chunks can be dropped from the header, after which the game treats
+ * them as never saved; they are saved again the next time they are
+ * downloaded.  As with {@link RegionCompactor}, region files must not be open
+ * in the game while they are being repaired.
+ */
+public final class RegionVerifier {
+	private RegionVerifier() { throw new AssertionError(); }
+
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	private static final int SECTOR_SIZE = RegionCompactor.SECTOR_SIZE;
+	private static final int CHUNKS_PER_REGION = RegionCompactor.CHUNKS_PER_REGION;
+	private static final int TYPE_GZIP = 1;
+	private static final int TYPE_DEFLATE = RegionCompactor.TYPE_DEFLATE;
+	/** Uncompressed chunks (1.15.1+) */
+	private static final int TYPE_NONE = 3;
+	/**
+	 * Flag set on the compression type for chunks stored in an external
+	 * .mcc file (1.15+).
+	 */
+	private static final int EXTERNAL_FLAG = 128;
+
+	private static final Pattern REGION_FILE_NAME = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+
+	/**
+	 * The kinds of damage that can be found in a chunk.
+	 */
+	public enum ProblemType {
+		/** The chunk's sectors start in the header or past the end of the file */
+		BAD_OFFSET,
+		/** The chunk's sectors are also used by another chunk */
+		OVERLAPPING_SECTORS,
+		/** The stored length is not positive or doesn't fit in the chunk's sectors */
+		BAD_LENGTH,
+		/** The compression type isn't one the game knows */
+		UNKNOWN_COMPRESSION,
+		/** The payload (or its external file) couldn't be decompressed */
+		CORRUPT_COMPRESSION,
+		/** The decompressed data isn't valid NBT */
+		CORRUPT_NBT,
+		/** The NBT has no Level tag */
+		MISSING_LEVEL,
+		/** The Level tag is for a different chunk */
+		WRONG_POSITION
+	}
+
+	/**
+	 * A damaged chunk in a region file.
+	 */
+	public static class Problem {
+		/** Index of the chunk in the region file's header (x + z * 32) */
+		public final int index;
+		public final ProblemType type;
+		/** Human-readable details, for the log */
+		public final String details;
+
+		Problem(int index, ProblemType type, String details) {
+			this.index = index;
+			this.type = type;
+			this.details = details;
+		}
+
+		@Override
+		public String toString() {
+			return "chunk " + index + " (" + (index & 31) + ", " + (index >> 5) + "): "
+					+ type + " (" + details + ")";
+		}
+	}
+
+	/**
+	 * The result of verifying several region files.
+	 */
+	public static class Result {
+		/** Number of region files that were checked */
+		public final int filesChecked;
+		/** Number of region files that couldn't be read (or repaired) */
+		public final int filesFailed;
+		/** Number of chunks that were checked */
+		public final int chunksChecked;
+		/** Number of damaged chunks that were dropped */
+		public final int chunksDropped;
+		/** Problems found, by file, for files with at least one */
+		public final Map<File, List<Problem>> problems;
+
+		Result(int filesChecked, int filesFailed, int chunksChecked, int chunksDropped,
+				Map<File, List<Problem>> problems) {
+			this.filesChecked = filesChecked;
+			this.filesFailed = filesFailed;
+			this.chunksChecked = chunksChecked;
+			this.chunksDropped = chunksDropped;
+			this.problems = Collections.unmodifiableMap(problems);
+		}
+
+		/**
+		 * Gets the total number of damaged chunks found.
+		 */
+		public int getProblemCount() {
+			return problems.values().stream().mapToInt(List::size).sum();
+		}
+
+		@Override
+		public String toString() {
+			return "Result [filesChecked=" + filesChecked + ", filesFailed=" + filesFailed
+					+ ", chunksChecked=" + chunksChecked + ", problems=" + getProblemCount()
+					+ ", chunksDropped=" + chunksDropped + "]";
+		}
+	}
+
+	/**
+	 * The problems found in a single file, along with the number of chunks
+	 * checked.
+	 */
+	private static class FileResult {
+		final int chunksChecked;
+		final List<Problem> problems;
+		final int chunksDropped;
+
+		FileResult(int chunksChecked, List<Problem> problems, int chunksDropped) {
+			this.chunksChecked = chunksChecked;
+			this.problems = problems;
+			this.chunksDropped = chunksDropped;
+		}
+	}
+
+	/**
+	 * Verifies the given region files in parallel, blocking until done.
+	 *
+	 * @param files The region files to verify
+	 * @param repair Whether damaged chunks should be dropped from the files
+	 * @param progress Called with the number of files finished so far, from
+	 *                 any thread, each time a file is finished
+	 * @return The result of verifying
+	 */
+	public static Result verify(Collection<File> files, boolean repair, IntConsumer progress) throws InterruptedException {
+		if (files.isEmpty()) {
+			return new Result(0, 0, 0, 0, new LinkedHashMap<>());
+		}
+		int threads = Math.min(files.size(), Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "WDL Region Verification Thread " + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<File> fileList = new ArrayList<>(files);
+			AtomicInteger finished = new AtomicInteger();
+			List<Future<FileResult>> futures = new ArrayList<>();
+			for (File file : fileList) {
+				futures.add(executor.submit(() -> {
+					try {
+						List<Problem> problems = new ArrayList<>();
+						int chunks = check(file, problems);
+						int dropped = 0;
+						if (repair && !problems.isEmpty()) {
+							dropped = drop(file, problems);
+						}
+						return new FileResult(chunks, problems, dropped);
+					} finally {
+						progress.accept(finished.incrementAndGet());
+					}
+				}));
+			}
+
+			int failed = 0, chunks = 0, dropped = 0;
+			Map<File, List<Problem>> problems = new LinkedHashMap<>();
+			for (int i = 0; i < futures.size(); i++) {
+				File file = fileList.get(i);
+				try {
+					FileResult result = futures.get(i).get();
+					chunks += result.chunksChecked;
+					dropped += result.chunksDropped;
+					if (!result.problems.isEmpty()) {
+						problems.put(file, result.problems);
+						for (Problem problem : result.problems) {
+							LOGGER.warn("[WDL] Damaged chunk in region file {}: {}", file, problem);
+						}
+					}
+				} catch (ExecutionException ex) {
+					LOGGER.warn("[WDL] Failed to verify region file " + file, ex.getCause());
+					failed++;
+				}
+			}
+			return new Result(fileList.size() - failed, failed, chunks, dropped, problems);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Checks every chunk in the given region file.
+	 *
+	 * @param file The region file
+	 * @return The problems found, in chunk order; empty if the file is fine.
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static List<Problem> check(File file) throws IOException {
+		List<Problem> problems = new ArrayList<>();
+		check(file, problems);
+		return problems;
+	}
+
+	/**
+	 * Checks every chunk in the given region file.
+	 *
+	 * @param file The region file
+	 * @param problems List to add the problems found to, in chunk order
+	 * @return The number of chunks checked
+	 * @throws IOException if the file couldn't be read
+	 */
+	private static int check(File file, List<Problem> problems) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length == 0) {
+			// The game creates empty region files and fills in the header later
+			return 0;
+		}
+		if (data.length < 2 * SECTOR_SIZE) {
+			throw new IOException("Region file " + file + " is too short for its header ("
+					+ data.length + " bytes)");
+		}
+		@Nullable ChunkPos region = getRegionPos(file);
+		ByteBuffer in = ByteBuffer.wrap(data);
+		int fileSectors = (data.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+		// Index of the chunk using each sector, plus one (0 for free sectors)
+		int[] owners = new int[fileSectors];
+		boolean[] reported = new boolean[CHUNKS_PER_REGION];
+		int chunks = 0;
+
+		for (int i = 0; i < CHUNKS_PER_REGION; i++) {
+			int location = in.getInt(i * 4);
+			if (location == 0) {
+				continue;
+			}
+			chunks++;
+			int sector = location >>> 8;
+			int sectors = location & 0xFF;
+			if (sector < 2 || sectors == 0 || sector + sectors > fileSectors) {
+				problems.add(new Problem(i, ProblemType.BAD_OFFSET,
+						"sectors " + sector + "+" + sectors + " of " + fileSectors));
+				reported[i] = true;
+				continue;
+			}
+			for (int s = sector; s < sector + sectors; s++) {
+				int other = owners[s] - 1;
+				if (other >= 0) {
+					if (!reported[other]) {
+						problems.add(new Problem(other, ProblemType.OVERLAPPING_SECTORS,
+								"sector " + s + " is also used by chunk " + i));
+						reported[other] = true;
+					}
+					if (!reported[i]) {
+						problems.add(new Problem(i, ProblemType.OVERLAPPING_SECTORS,
+								"sector " + s + " is also used by chunk " + other));
+						reported[i] = true;
+					}
+				} else {
+					owners[s] = i + 1;
+				}
+			}
+			if (reported[i]) {
+				continue;
+			}
+
+			int offset = sector * SECTOR_SIZE;
+			if (offset + 5 > data.length) {
+				problems.add(new Problem(i, ProblemType.BAD_LENGTH, "no room for the length"));
+				reported[i] = true;
+				continue;
+			}
+			int length = in.getInt(offset);
+			if (length <= 0 || length + 4 > sectors * SECTOR_SIZE || offset + 4 + length > data.length) {
+				problems.add(new Problem(i, ProblemType.BAD_LENGTH,
+						"length " + length + " in " + sectors + " sectors"));
+				reported[i] = true;
+				continue;
+			}
+			int type = data[offset + 4] & 0xFF;
+			@Nullable ChunkPos pos = region == null ? null :
+					new ChunkPos(region.x * 32 + (i & 31), region.z * 32 + (i >> 5));
+
+			Problem problem;
+			if ((type & EXTERNAL_FLAG) != 0) {
+				File external = pos == null ? null :
+						new File(file.getParentFile(), "c." + pos.x + "." + pos.z + ".mcc");
+				if (external == null || !external.isFile()) {
+					problem = new Problem(i, ProblemType.CORRUPT_COMPRESSION,
+							"external chunk file " + external + " is missing");
+				} else {
+					byte[] payload = Files.readAllBytes(external.toPath());
+					problem = checkPayload(i, type & ~EXTERNAL_FLAG, payload, 0, payload.length, pos);
+				}
+			} else {
+				problem = checkPayload(i, type, data, offset + 5, length - 1, pos);
+			}
+			if (problem != null) {
+				problems.add(problem);
+				reported[i] = true;
+			}
+		}
+
+		// Overlaps are found out of chunk order
+		problems.sort((a, b) -> Integer.compare(a.index, b.index));
+		return chunks;
+	}
+
+	/**
+	 * Decompresses and parses a single chunk's payload.
+	 *
+	 * @return The problem with the chunk, or null if it is fine
+	 */
+	@Nullable
+	private static Problem checkPayload(int index, int type, byte[] data, int offset, int length,
+			@Nullable ChunkPos pos) {
+		if (type != TYPE_GZIP && type != TYPE_DEFLATE && type != TYPE_NONE) {
+			return new Problem(index, ProblemType.UNKNOWN_COMPRESSION, "type " + type);
+		}
+		// Decompress everything first, as the NBT reader wraps exceptions
+		// from the stream into crash reports
+		byte[] raw;
+		InputStream stream = new ByteArrayInputStream(data, offset, length);
+		try {
+			if (type == TYPE_GZIP) {
+				stream = new GZIPInputStream(stream);
+			} else if (type == TYPE_DEFLATE) {
+				stream = new InflaterInputStream(stream);
+			}
+			raw = ByteStreams.toByteArray(stream);
+		} catch (IOException ex) {
+			return new Problem(index, ProblemType.CORRUPT_COMPRESSION, ex.toString());
+		}
+
+		CompoundNBT tag;
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(raw))) {
+			tag = CompressedStreamTools.read(input);
+		} catch (IOException | RuntimeException ex) {
+			// Bad tag types or lengths surface as either
+			return new Problem(index, ProblemType.CORRUPT_NBT, ex.toString());
+		}
+
+		if (!tag.contains("Level", 10)) {
+			return new Problem(index, ProblemType.MISSING_LEVEL, "keys " + tag.keySet());
+		}
+		CompoundNBT level = tag.getCompound("Level");
+		if (pos != null && (level.getInt("xPos") != pos.x || level.getInt("zPos") != pos.z)) {
+			return new Problem(index, ProblemType.WRONG_POSITION, "expected " + pos.x + ", " + pos.z
+					+ " but found " + level.getInt("xPos") + ", " + level.getInt("zPos"));
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the given damaged chunks from the region file's header, so that
+	 * they are treated as never saved.  Their sectors become free space, which
+	 * {@link RegionCompactor} can reclaim.
+	 *
+	 * @param file The region file
+	 * @param problems The problems found by {@link #check(File)}
+	 * @return The number of chunks dropped
+	 * @throws IOException if the file couldn't be rewritten
+	 */
+	public static int drop(File file, Collection<Problem> problems) throws IOException {
+		if (problems.isEmpty()) {
+			return 0;
+		}
+		byte[] data = Files.readAllBytes(file.toPath());
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		int dropped = 0;
+		for (Problem problem : problems) {
+			if (buffer.getInt(problem.index * 4) != 0) {
+				buffer.putInt(problem.index * 4, 0);
+				buffer.putInt(SECTOR_SIZE + problem.index * 4, 0);
+				dropped++;
+			}
+		}
+		if (dropped > 0) {
+			RegionCompactor.replace(file, data);
+		}
+		return dropped;
+	}
+
+	/**
+	 * Gets the region coordinates from a region file's name.
+	 *
+	 * @return The position, or null if the name isn't a region file name
+	 */
+	@Nullable
+	private static ChunkPos getRegionPos(File file) {
+		Matcher matcher = REGION_FILE_NAME.matcher(file.getName());
+		if (!matcher.matches()) {
+			return null;
+		}
+		return new ChunkPos(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+	}
+}
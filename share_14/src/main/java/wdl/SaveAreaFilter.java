@@ -0,0 +1,185 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableList;
+
+import net.minecraft.util.math.ChunkPos;
+import wdl.WDLPluginChannels.ChunkRange;
+
+/**
+ * User-defined areas that chunks are saved in (or not saved in).
+ * <p>
+ * Each area is a {@link ChunkRange} tagged {@link #INCLUDE} or
+ * {@link #EXCLUDE}; later areas take priority over earlier ones.  If there
+ * are no included areas, everything outside of the excluded ones is saved.
+ * <p>
+ * The areas are compiled into a bitmap per region (32 by 32 chunks) the first
+ * time a chunk in that region is checked, so checking a chunk afterwards is a
+ * single bit test.  Regions that are entirely saved or entirely skipped share
+ * the same bitmap.
+ */
+public final class SaveAreaFilter {
+	public static final String INCLUDE = "include";
+	public static final String EXCLUDE = "exclude";
+
+	/**
+	 * A filter that saves every chunk.
+	 */
+	public static final SaveAreaFilter ALL = new SaveAreaFilter(ImmutableList.of());
+
+	private static final int REGION_SIZE = 32;
+	/** Number of longs in a region's bitmap; each holds two rows of chunks */
+	private static final int WORDS = REGION_SIZE * REGION_SIZE / 64;
+	private static final long[] ALL_SET = new long[WORDS];
+	private static final long[] NONE_SET = new long[WORDS];
+	static {
+		Arrays.fill(ALL_SET, -1L);
+	}
+
+	private final ImmutableList<ChunkRange> areas;
+	/**
+	 * Whether chunks outside of every area are saved.
+	 */
+	private final boolean outside;
+	/**
+	 * Compiled bitmaps, by {@link ChunkPos#asLong} of the region position.
+	 */
+	private final Map<Long, long[]> regions = new ConcurrentHashMap<>();
+
+	private SaveAreaFilter(List<ChunkRange> areas) {
+		this.areas = ImmutableList.copyOf(areas);
+		this.outside = areas.stream().allMatch(area -> EXCLUDE.equals(area.tag));
+	}
+
+	/**
+	 * Creates a filter for the given areas.
+	 */
+	public static SaveAreaFilter compile(List<ChunkRange> areas) {
+		if (areas.isEmpty()) {
+			return ALL;
+		}
+		return new SaveAreaFilter(areas);
+	}
+
+	/**
+	 * Checks whether the chunk at the given position should be saved.
+	 */
+	public boolean shouldSave(int chunkX, int chunkZ) {
+		if (areas.isEmpty()) {
+			return true;
+		}
+		int regionX = chunkX >> 5, regionZ = chunkZ >> 5;
+		long[] bits = regions.computeIfAbsent(ChunkPos.asLong(regionX, regionZ),
+				key -> compileRegion(regionX, regionZ));
+		int index = (chunkZ & (REGION_SIZE - 1)) * REGION_SIZE + (chunkX & (REGION_SIZE - 1));
+		return (bits[index >> 6] & (1L << index)) != 0;
+	}
+
+	public boolean shouldSave(ChunkPos pos) {
+		return shouldSave(pos.x, pos.z);
+	}
+
+	/**
+	 * Gets the areas this filter was created from.
+	 */
+	public List<ChunkRange> getAreas() {
+		return areas;
+	}
+
+	private long[] compileRegion(int regionX, int regionZ) {
+		long[] bits = (outside ? ALL_SET : NONE_SET).clone();
+		int baseX = regionX * REGION_SIZE, baseZ = regionZ * REGION_SIZE;
+		for (ChunkRange area : areas) {
+			int x1 = Math.max(area.x1, baseX), x2 = Math.min(area.x2, baseX + REGION_SIZE - 1);
+			int z1 = Math.max(area.z1, baseZ), z2 = Math.min(area.z2, baseZ + REGION_SIZE - 1);
+			if (x1 > x2 || z1 > z2) {
+				continue;
+			}
+			long rowMask = (-1L >>> (64 - (x2 - x1 + 1))) << (x1 - baseX);
+			boolean include = !EXCLUDE.equals(area.tag);
+			for (int z = z1; z <= z2; z++) {
+				int row = z - baseZ;
+				long mask = rowMask << ((row & 1) * REGION_SIZE);
+				if (include) {
+					bits[row >> 1] |= mask;
+				} else {
+					bits[row >> 1] &= ~mask;
+				}
+			}
+		}
+		if (Arrays.equals(bits, ALL_SET)) {
+			return ALL_SET;
+		} else if (Arrays.equals(bits, NONE_SET)) {
+			return NONE_SET;
+		} else {
+			return bits;
+		}
+	}
+
+	/**
+	 * Reads areas in the format written by {@link #writeAreas}.
+	 *
+	 * @throws IllegalArgumentException if the text is malformed
+	 */
+	public static List<ChunkRange> parseAreas(String text) {
+		List<ChunkRange> areas = new ArrayList<>();
+		for (String entry : text.split(";")) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			int colon = entry.indexOf(':');
+			String[] coords = (colon < 0 ? new String[0] : entry.substring(colon + 1).split(","));
+			if (coords.length != 4) {
+				throw new IllegalArgumentException("Malformed save area: " + entry);
+			}
+			String tag = entry.substring(0, colon);
+			if (!tag.equals(INCLUDE) && !tag.equals(EXCLUDE)) {
+				throw new IllegalArgumentException("Unknown save area type " + tag + " in " + entry);
+			}
+			areas.add(new ChunkRange(tag,
+					Integer.parseInt(coords[0].trim()), Integer.parseInt(coords[1].trim()),
+					Integer.parseInt(coords[2].trim()), Integer.parseInt(coords[3].trim())));
+		}
+		return ImmutableList.copyOf(areas);
+	}
+
+	/**
+	 * Writes areas as <code>tag:x1,z1,x2,z2</code>, separated by semicolons.
+	 */
+	public static String writeAreas(List<ChunkRange> areas) {
+		StringBuilder builder = new StringBuilder();
+		for (ChunkRange area : areas) {
+			if (builder.length() > 0) {
+				builder.append(';');
+			}
+			builder.append(area.tag).append(':')
+					.append(area.x1).append(',').append(area.z1).append(',')
+					.append(area.x2).append(',').append(area.z2);
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "SaveAreaFilter [areas=" + areas.size() + ", outside=" + outside
+				+ ", compiledRegions=" + regions.size() + "]";
+	}
+}
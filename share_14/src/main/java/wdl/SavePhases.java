@@ -0,0 +1,161 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A small dependency graph of save phases.  Each phase starts as soon as all
+ * of the phases it depends on have finished, so phases that don't depend on
+ * each other run at the same time, each on its own thread.
+ * <p>
+ * If a phase fails, the phases depending on it are not run (the others still
+ * are), and {@link #run()} throws the first failure once everything that could
+ * run has finished.
+ */
+class SavePhases {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Functional interface for the work done by a phase.
+	 */
+	@FunctionalInterface
+	interface Work {
+		void run() throws Exception;
+	}
+
+	/**
+	 * A phase that was added to the graph; used to declare dependencies.
+	 */
+	static final class Phase {
+		private final String name;
+		private final Work work;
+		private final Phase[] dependencies;
+		private CompletableFuture<Void> future;
+
+		private Phase(String name, Work work, Phase[] dependencies) {
+			this.name = name;
+			this.work = work;
+			this.dependencies = dependencies;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private final String name;
+	private final List<Phase> phases = new ArrayList<>();
+	private final Runnable afterEach;
+
+	/**
+	 * @param name Name used for the threads, e.g. the world's name
+	 * @param afterEach Called on a phase's thread after it finishes,
+	 *                  successfully or not
+	 */
+	SavePhases(String name, Runnable afterEach) {
+		this.name = name;
+		this.afterEach = afterEach;
+	}
+
+	/**
+	 * Adds a phase.  Dependencies must have been added first, which also
+	 * keeps the graph acyclic.
+	 *
+	 * @param name The name of the phase, for logging
+	 * @param work The work done by the phase
+	 * @param dependencies Phases that need to finish before this one starts
+	 * @return The new phase
+	 */
+	Phase add(String name, Work work, Phase... dependencies) {
+		for (Phase dependency : dependencies) {
+			if (!phases.contains(dependency)) {
+				throw new IllegalArgumentException("Dependency " + dependency + " of " + name
+						+ " hasn't been added");
+			}
+		}
+		Phase phase = new Phase(name, work, dependencies);
+		phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * Runs all phases, and waits for them to finish.
+	 *
+	 * @throws Exception The first exception thrown by a phase, in the order the
+	 *         phases were added.
+	 */
+	void run() throws Exception {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "WDL Save Thread (" + name + ") "
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			for (Phase phase : phases) {
+				CompletableFuture<?>[] dependencies = new CompletableFuture<?>[phase.dependencies.length];
+				for (int i = 0; i < dependencies.length; i++) {
+					dependencies[i] = phase.dependencies[i].future;
+				}
+				phase.future = CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+					long start = System.nanoTime();
+					try {
+						phase.work.run();
+					} catch (RuntimeException ex) {
+						throw ex;
+					} catch (Exception ex) {
+						throw new CompletionException(ex);
+					} finally {
+						afterEach.run();
+						LOGGER.debug("[WDL] Save phase {} took {} ms", phase.name,
+								(System.nanoTime() - start) / 1000000);
+					}
+				}, executor);
+			}
+
+			Throwable failure = null;
+			for (Phase phase : phases) {
+				try {
+					phase.future.join();
+				} catch (CompletionException ex) {
+					Throwable cause = ex.getCause();
+					if (failure == null) {
+						failure = cause;
+					} else if (failure != cause) {
+						failure.addSuppressed(cause);
+					}
+				}
+			}
+			if (failure instanceof Exception) {
+				throw (Exception) failure;
+			} else if (failure != null) {
+				throw (Error) failure;
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
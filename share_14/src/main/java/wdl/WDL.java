@@ -20,30 +20,34 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 
-import net.minecraft.block.AirBlock;
-import net.minecraft.block.BedBlock;
-import net.minecraft.block.Block;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.entity.player.ClientPlayerEntity;
 import net.minecraft.client.multiplayer.ClientChunkProvider;
@@ -131,6 +135,10 @@ public class WDL {
 	 * Reference to the Minecraft object.
 	 */
 	public final Minecraft minecraft;
+	/**
+	 * Index of downloaded worlds in the saves folder.
+	 */
+	public final WorldIndex worldIndex;
 	/**
 	 * Reference to the World object that WDL uses.
 	 */
@@ -165,6 +173,9 @@ public class WDL {
 
 	/**
 	 * For player files and the level.dat file.
+	 * <p>
+	 * This and the fields below it up to {@link #spillStore} refer to the
+	 * contents of the current {@link DownloadSession}.
 	 */
 	public ISaveHandlerWrapper saveHandler;
 	/**
@@ -175,30 +186,97 @@ public class WDL {
 	/**
 	 * All tile entities that were saved manually, by chunk and then position.
 	 */
-	public Map<ChunkPos, Map<BlockPos, TileEntity>> newTileEntities = new HashMap<>();
+	public ChunkBuckets<BlockPos, TileEntity> newTileEntities = new ChunkBuckets<>();
 
 	/**
-	 * All entities that were downloaded, by chunk.
+	 * All entities that were downloaded, by chunk and then UUID.
 	 */
-	public Multimap<ChunkPos, Entity> newEntities = HashMultimap.create();
+	public ChunkBuckets<UUID, Entity> newEntities = new ChunkBuckets<>();
 
 	/**
 	 * All of the {@link MapData}s that were sent to the client in the current
 	 * world.
 	 */
-	public Map<Integer, MapData> newMapDatas = new HashMap<>();
+	public Map<Integer, MapData> newMapDatas = new ConcurrentHashMap<>();
 
 	/**
 	 * The chunk position of each entity that has been saved, by UUID.
 	 * Cleared after that chunk has been written to disk.  Used to avoid
 	 * writing the same entity into multiple chunks.
 	 */
-	public Map<UUID, ChunkPos> entityPositions = new HashMap<>();
+	public Map<UUID, ChunkPos> entityPositions = new ConcurrentHashMap<>();
+
+	/**
+	 * All chunks that have been saved, for use in a UI.  Added to by save
+	 * threads while the UI reads it.
+	 */
+	public Set<ChunkPos> savedChunks = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Holds captured data that has been moved out of {@link #newTileEntities},
+	 * {@link #newEntities}, and {@link #newMapDatas} to limit memory usage.
+	 * Null when not downloading.
+	 */
+	@Nullable
+	public CaptureSpillStore spillStore;
 
 	/**
-	 * All chunks that have been saved, for use in a UI.
+	 * Caches whether chunks only contain airoids, for {@link #isEmpty(Chunk)}.
+	 */
+	private final AiroidChecker airoidChecker = new AiroidChecker();
+	/**
+	 * Work on the client thread that can be spread over several ticks.
+	 */
+	final MainThreadScheduler mainThreadTasks = new MainThreadScheduler();
+	/**
+	 * Chunk loaders of dimensions that were left, kept open for reuse.
+	 */
+	final ChunkLoaderRegistry chunkLoaders = new ChunkLoaderRegistry();
+	/**
+	 * Makes backups in the background after saving.
+	 */
+	final BackupScheduler backups = new BackupScheduler();
+	/**
+	 * Runs and times extension callbacks while saving and loading worlds.
+	 */
+	public final ExtensionRunner extensions = new ExtensionRunner(() ->
+			TimeUnit.SECONDS.toMillis(serverProps.getValue(MiscSettings.EXTENSION_TIMEOUT)));
+	/**
+	 * The world currently being downloaded.  Null when not downloading, and
+	 * between a world change and the download restarting.
+	 */
+	@Nullable
+	private DownloadSession session;
+	/**
+	 * Sessions of previous worlds that are being saved on background threads.
+	 * Also guards {@link #saveHandlerUsers}.
+	 */
+	private final List<DownloadSession> drainingSessions = new ArrayList<>();
+	/**
+	 * Number of sessions (current or draining) using each open save handler.
+	 * Only one save handler can be open for a world folder at a time, since
+	 * it holds the session lock.
 	 */
-	public Set<ChunkPos> savedChunks = new HashSet<>();
+	private final Map<ISaveHandlerWrapper, Integer> saveHandlerUsers = new IdentityHashMap<>();
+
+	/**
+	 * Recompresses region files written with the fast save mode, once the
+	 * download has stopped.
+	 */
+	private final RegionRecompressor regionRecompressor = new RegionRecompressor();
+	/**
+	 * Region files written with the fast save mode that haven't yet been
+	 * handed to {@link #regionRecompressor}.
+	 */
+	private final Set<File> regionsToRecompress = Collections.synchronizedSet(new HashSet<>());
+	/**
+	 * Whether {@link #startCompaction()} is currently running.
+	 */
+	private volatile boolean compacting;
+	/**
+	 * Whether {@link #startVerification()} is currently running.
+	 */
+	private volatile boolean verifying;
 
 	// State variables:
 	/**
@@ -206,7 +284,7 @@ public class WDL {
 	 *
 	 * Don't modify this outside of WDL.java. TODO See above -- getters?
 	 */
-	public static boolean downloading = false;
+	public static volatile boolean downloading = false;
 	/**
 	 * Is this a multiworld server?
 	 */
@@ -228,13 +306,18 @@ public class WDL {
 	/**
 	 * Is the world currently being saved?
 	 */
-	public static boolean saving = false;
+	public static volatile boolean saving = false;
 	/**
 	 * Has loading the world been delayed while the old one is being saved?
 	 *
 	 * Used when going thru portals or otherwise saving data.
 	 */
-	public static boolean worldLoadingDeferred = false;
+	public static volatile boolean worldLoadingDeferred = false;
+	/**
+	 * Has starting the download been delayed until a previous world saving
+	 * into the same folder has been saved?  Only used on the client thread.
+	 */
+	private boolean startDeferred = false;
 
 	// Names:
 	/**
@@ -291,6 +374,7 @@ public class WDL {
 	}
 	private WDL(Minecraft minecraft) {
 		this.minecraft = minecraft;
+		this.worldIndex = new WorldIndex(new File(minecraft.gameDir, "saves"));
 
 		try {
 			File dataFile = new File(minecraft.gameDir, "WorldDownloader.txt");
@@ -424,7 +508,7 @@ public class WDL {
 		}
 
 		try {
-			saveHandler = VersionedFunctions.getSaveHandler(minecraft, getWorldFolderName(worldName));
+			saveHandler = acquireSaveHandler(worldName);
 		} catch (Exception e) {
 			throw new RuntimeException(
 					"WorldDownloader: Couldn't create saveHandler for saving the world!", e);
@@ -434,14 +518,32 @@ public class WDL {
 
 		minecraft.displayGuiScreen(null);
 
-		chunkLoader = WDLChunkLoader.create(this, saveHandler, VersionedFunctions.getDimension(worldClient));
-		newTileEntities.values().forEach((m) -> {
-			m.clear();
-		});
-		newTileEntities.clear();
-		newEntities.clear();
-		newMapDatas.clear();
+		// Region files must not be recompressed while they're being written to
+		regionsToRecompress.addAll(regionRecompressor.cancel());
+		File chunkFolder = WDLChunkLoader.getChunkFolder(saveHandler, VersionedFunctions.getDimension(worldClient));
+		// Normally prevented by saveForWorldChange, but a different multiworld
+		// world may have been picked since then.  Rather than blocking this
+		// thread, try again once a previous world has been saved.
+		if (isDraining(chunkFolder)) {
+			releaseSaveHandler(saveHandler);
+			saveHandler = null;
+			startDeferred = true;
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.INFO, "wdl.messages.generalInfo.downloadDeferred");
+			return;
+		}
+		startDeferred = false;
+		session = new DownloadSession(this, worldClient, player, worldName, worldProps, gameRules,
+				saveHandler, chunkFolder, new CaptureSpillStore(chunkFolder.getParentFile(),
+						serverProps.getValue(MiscSettings.CAPTURE_MEMORY_LIMIT) * 1024L * 1024L));
+		chunkLoader = session.chunkLoader;
+		newTileEntities = session.newTileEntities;
+		newEntities = session.newEntities;
+		newMapDatas = session.newMapDatas;
+		entityPositions = session.entityPositions;
+		spillStore = session.spillStore;
 		savedChunks.clear();
+		airoidChecker.clear();
 
 		startOnChange = true;
 		downloading = true;
@@ -459,7 +561,7 @@ public class WDL {
 			startOnChange = false;
 			WDLMessages.chatMessageTranslated(WDL.serverProps,
 					WDLMessageTypes.INFO, "wdl.messages.generalInfo.downloadStopped");
-			startSaveThread();
+			startSaveThread(detachSession());
 		}
 	}
 
@@ -468,20 +570,24 @@ public class WDL {
 	 */
 	public void cancelDownload() {
 		boolean wasDownloading = downloading;
+		startDeferred = false;
 
 		if (wasDownloading) {
-			try {
-				chunkLoader.close();
-			} catch (IOException ex) {
-				LOGGER.warn("Failed to close chunkLoader", ex);
-			}
-			try {
-				saveHandler.close();
-			} catch (Exception ex) {
-				LOGGER.warn("Failed to close saveHandler", ex);
+			DownloadSession session = detachSession();
+			if (session != null) {
+				try {
+					session.chunkLoader.close();
+				} catch (IOException ex) {
+					LOGGER.warn("Failed to close chunkLoader", ex);
+				}
+				regionsToRecompress.addAll(session.chunkLoader.getFastSavedRegions());
+				session.closeSpillStore();
+				releaseSaveHandler(session.saveHandler);
 			}
-			chunkLoader = null;
-			saveHandler = null;
+			chunkLoaders.closeAll();
+			regionsToRecompress.addAll(chunkLoaders.takeFastSavedRegions());
+			chunkLoaders.takeWrittenRegions();
+			startRecompression();
 			startOnChange = false;
 			saving = false;
 			downloading = false;
@@ -493,27 +599,171 @@ public class WDL {
 	}
 
 	/**
-	 * Saves the current world and defers world loading until saving is finished.
-	 * Used for world/dimension changes.
+	 * Saves the current world after a world/dimension change.  Where possible,
+	 * it is saved in the background while the new world is downloaded;
+	 * otherwise, world loading is deferred until saving is finished.
+	 *
+	 * @param newWorld The world that is being changed to
+	 * @return True if the new world can be loaded right away
 	 */
-	public void saveForWorldChange() {
+	public boolean saveForWorldChange(ClientWorld newWorld) {
+		DownloadSession session = detachSession();
+		if (session == null) {
+			// Still waiting on the multiworld prompt; nothing to save
+			return true;
+		}
+		if (canDrain(session, newWorld)) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.INFO, "wdl.messages.generalInfo.worldChanged.background");
+			startDrain(session);
+			return true;
+		}
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.INFO, "wdl.messages.generalInfo.worldChanged");
 		WDL.worldLoadingDeferred = true;
-		startSaveThread();
+		startSaveThread(session);
+		return false;
+	}
+
+	/**
+	 * Checks whether the given session can be saved in the background while
+	 * the new world is downloaded.  This isn't possible if too many sessions
+	 * are already being saved, or if the new world would save into a region
+	 * folder that is still being written to.
+	 */
+	private boolean canDrain(DownloadSession session, ClientWorld newWorld) {
+		// Assume that the same multiworld world is kept; if not, startDownload
+		// waits for any conflicting session
+		File newFolder = WDLChunkLoader.getChunkFolder(session.saveHandler,
+				VersionedFunctions.getDimension(newWorld));
+		if (newFolder.equals(session.getChunkFolder())) {
+			return false;
+		}
+		synchronized (drainingSessions) {
+			if (drainingSessions.size() >= serverProps.getValue(MiscSettings.MAX_DRAINING_SESSIONS)) {
+				return false;
+			}
+			for (DownloadSession other : drainingSessions) {
+				if (newFolder.equals(other.getChunkFolder())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Detaches the current session so that it can be saved, leaving fresh
+	 * (unused) collections in the fields referring to its contents.
+	 *
+	 * @return The previous session, or null if there was none.
+	 */
+	@Nullable
+	private DownloadSession detachSession() {
+		// Queued work may still refer to the current session
+		mainThreadTasks.runAll();
+		DownloadSession session = this.session;
+		this.session = null;
+		saveHandler = null;
+		chunkLoader = null;
+		newTileEntities = new ChunkBuckets<>();
+		newEntities = new ChunkBuckets<>();
+		newMapDatas = new ConcurrentHashMap<>();
+		entityPositions = new ConcurrentHashMap<>();
+		spillStore = null;
+		return session;
+	}
+
+	/**
+	 * Gets the current download session.
+	 */
+	@Nullable
+	public DownloadSession getSession() {
+		return session;
+	}
+
+	/**
+	 * Gets a save handler for the given world, sharing the one used by a
+	 * draining session that saves into the same folder.  Must be released with
+	 * {@link #releaseSaveHandler} once no longer needed.
+	 */
+	private ISaveHandlerWrapper acquireSaveHandler(String worldName) throws Exception {
+		String folderName = getWorldFolderName(worldName);
+		synchronized (drainingSessions) {
+			ISaveHandlerWrapper handler = null;
+			for (DownloadSession other : drainingSessions) {
+				if (getWorldFolderName(other.worldName).equals(folderName)) {
+					handler = other.saveHandler;
+					break;
+				}
+			}
+			if (handler == null) {
+				handler = VersionedFunctions.getSaveHandler(minecraft, folderName);
+			}
+			saveHandlerUsers.merge(handler, 1, Integer::sum);
+			return handler;
+		}
+	}
+
+	/**
+	 * Releases a save handler from {@link #acquireSaveHandler}, closing it if
+	 * no other session uses it.
+	 */
+	private void releaseSaveHandler(ISaveHandlerWrapper handler) {
+		synchronized (drainingSessions) {
+			if (saveHandlerUsers.merge(handler, -1, Integer::sum) > 0) {
+				return;
+			}
+			saveHandlerUsers.remove(handler);
+			try {
+				handler.close();
+			} catch (Exception ex) {
+				LOGGER.warn("Failed to close saveHandler", ex);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a draining session is still saving into the given folder.
+	 */
+	private boolean isDraining(File chunkFolder) {
+		synchronized (drainingSessions) {
+			return drainingSessions.stream().anyMatch(other -> chunkFolder.equals(other.getChunkFolder()));
+		}
+	}
+
+	/**
+	 * Waits for draining sessions to finish saving.
+	 */
+	private void waitForDrainingSessions() {
+		synchronized (drainingSessions) {
+			while (!drainingSessions.isEmpty()) {
+				LOGGER.info("[WDL] Waiting for the previous world to finish saving");
+				try {
+					drainingSessions.wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
 	}
 
 	/**
-	 * Starts the asynchronous save thread.
+	 * Starts the asynchronous save thread, which saves the given session once
+	 * any draining sessions are done.  Loading the next world waits for it.
 	 */
-	private void startSaveThread() {
+	private void startSaveThread(@Nullable DownloadSession session) {
 		// Indicate that we are saving
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.INFO, "wdl.messages.generalInfo.saveStarted");
 		WDL.saving = true;
 		Thread thread = new Thread(() -> {
 			try {
-				saveEverything();
+				waitForDrainingSessions();
+				if (session != null) {
+					saveEverything(session, false);
+				}
 				minecraft.execute(() -> {
 					WDL.saving = false;
 					onSaveComplete();
@@ -525,12 +775,48 @@ public class WDL {
 		thread.start();
 	}
 
+	/**
+	 * Saves the given (detached) session on a background thread, without
+	 * blocking the download of the next world.
+	 */
+	private void startDrain(DownloadSession session) {
+		synchronized (drainingSessions) {
+			drainingSessions.add(session);
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				saveEverything(session, true);
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.INFO, "wdl.messages.generalInfo.previousWorldSaved");
+			} catch (Throwable e) {
+				crashed(e, "World Downloader Mod: Saving previous world");
+			} finally {
+				synchronized (drainingSessions) {
+					releaseSaveHandler(session.saveHandler);
+					drainingSessions.remove(session);
+					drainingSessions.notifyAll();
+				}
+				minecraft.execute(() -> {
+					if (startDeferred && minecraft.world == worldClient) {
+						// Checks again whether this was the session in the way
+						startDownload();
+					} else if (!downloading && !saving) {
+						// The download was canceled while this was saving
+						startRecompression();
+					}
+				});
+			}
+		}, "WDL Session Drain Thread");
+		thread.start();
+	}
+
 	/**
 	 * Called when the world has loaded.
 	 *
 	 * @return Whether on the same server.
 	 */
 	public boolean loadWorld() {
+		startDeferred = false;
 		worldName = ""; // The new (multi-)world name is unknown at the moment
 		worldClient = minecraft.world;
 		player = minecraft.player;
@@ -613,78 +899,320 @@ public class WDL {
 
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.INFO, "wdl.messages.generalInfo.saveComplete.done");
+		// Normally already done by saveEverything, but not if there was no
+		// session to save
+		chunkLoaders.closeAll();
+		regionsToRecompress.addAll(chunkLoaders.takeFastSavedRegions());
+		startRecompression();
+	}
+
+	/**
+	 * Compacts the given region files, reporting the result in chat.
+	 *
+	 * @param files The region files to compact; they must not be open.
+	 * @param recompress Whether to also recompress chunks written with the fast save mode
+	 * @param progress Called with the number of files compacted so far
+	 */
+	private void compactRegions(Collection<File> files, boolean recompress, IntConsumer progress)
+			throws InterruptedException {
+		if (files.isEmpty()) {
+			return;
+		}
+		WDLMessages.chatMessageTranslated(WDL.serverProps,
+				WDLMessageTypes.SAVING, "wdl.messages.saving.compacting");
+		RegionCompactor.Result result = RegionCompactor.compact(files, recompress, progress);
+		LOGGER.info("[WDL] Compacted region files: {}", result);
+		WDLMessages.chatMessageTranslated(WDL.serverProps,
+				WDLMessageTypes.SAVING, "wdl.messages.saving.compacted",
+				result.filesRewritten, result.bytesReclaimed / 1024);
+		if (result.filesFailed > 0) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToCompact",
+					result.filesFailed);
+		}
+	}
+
+	/**
+	 * Checks whether a backup is being made or waiting to be made in the
+	 * background.
+	 */
+	public boolean hasPendingBackups() {
+		return backups.isBusy();
+	}
+
+	/**
+	 * Stops the backup being made in the background, and drops the queued
+	 * ones.
+	 */
+	public void cancelBackups() {
+		backups.cancelAll();
+	}
+
+	/**
+	 * Checks whether {@link #startCompaction()} can currently be used.
+	 */
+	public boolean canStartCompaction() {
+		synchronized (drainingSessions) {
+			if (!drainingSessions.isEmpty()) {
+				return false;
+			}
+		}
+		return !downloading && !saving && !compacting && !verifying
+				&& chunkLoaders.isEmpty();
+	}
+
+	/**
+	 * Compacts all region files of the current world on a background thread.
+	 * Does nothing while downloading, saving, or already compacting.
+	 */
+	public void startCompaction() {
+		if (!canStartCompaction()) {
+			return;
+		}
+		compacting = true;
+		// Don't let the recompressor and the compactor rewrite the same files
+		// at the same time; the compactor recompresses them anyways.
+		regionsToRecompress.addAll(regionRecompressor.cancel());
+		File worldFolder = new File(new File(minecraft.gameDir, "saves"),
+				getWorldFolderName(worldName));
+		Thread thread = new Thread(() -> {
+			try {
+				compactRegions(RegionCompactor.findRegionFiles(worldFolder), true, progress -> {});
+			} catch (IOException | InterruptedException ex) {
+				LOGGER.warn("[WDL] Failed to compact region files in " + worldFolder, ex);
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToCompactWorld", ex);
+			} finally {
+				minecraft.execute(() -> {
+					compacting = false;
+					startRecompression();
+				});
+			}
+		}, "WDL Compaction Thread");
+		thread.start();
+	}
+
+	/**
+	 * Verifies the given region files, reporting the result in chat.
+	 *
+	 * @param files The region files to verify; they must not be open.
+	 * @param repair Whether damaged chunks are dropped; only done when the
+	 *            user explicitly asks for it.
+	 * @param progress Called with the number of files verified so far
+	 */
+	private void verifyRegions(Collection<File> files, boolean repair, IntConsumer progress)
+			throws InterruptedException {
+		if (files.isEmpty()) {
+			return;
+		}
+		WDLMessages.chatMessageTranslated(WDL.serverProps,
+				WDLMessageTypes.SAVING, "wdl.messages.saving.verifying");
+		RegionVerifier.Result result = RegionVerifier.verify(files, repair, progress);
+		LOGGER.info("[WDL] Verified region files: {}", result);
+		WDLMessages.chatMessageTranslated(WDL.serverProps,
+				WDLMessageTypes.SAVING, "wdl.messages.saving.verified",
+				result.filesChecked, result.chunksChecked);
+		if (!result.problems.isEmpty()) {
+			if (repair) {
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.damagedChunks",
+						result.getProblemCount(), result.problems.size(), result.chunksDropped);
+			} else {
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.damagedChunksFound",
+						result.getProblemCount(), result.problems.size());
+			}
+		}
+		if (result.filesFailed > 0) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToVerify",
+					result.filesFailed);
+		}
+	}
+
+	/**
+	 * Checks whether {@link #startVerification()} can currently be used; the
+	 * conditions are the same as for compaction, as both rewrite region files.
+	 */
+	public boolean canStartVerification() {
+		return canStartCompaction();
+	}
+
+	/**
+	 * Whether {@link #startVerification()} is currently running.
+	 */
+	public boolean isVerifying() {
+		return verifying;
+	}
+
+	/**
+	 * Verifies all region files of the current world on a background thread,
+	 * dropping damaged chunks.  Does nothing while downloading, saving,
+	 * compacting, or already verifying.
+	 */
+	public void startVerification() {
+		if (!canStartVerification()) {
+			return;
+		}
+		verifying = true;
+		regionsToRecompress.addAll(regionRecompressor.cancel());
+		File worldFolder = new File(new File(minecraft.gameDir, "saves"),
+				getWorldFolderName(worldName));
+		Thread thread = new Thread(() -> {
+			try {
+				verifyRegions(RegionCompactor.findRegionFiles(worldFolder), true, progress -> {});
+			} catch (IOException | InterruptedException ex) {
+				LOGGER.warn("[WDL] Failed to verify region files in " + worldFolder, ex);
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToVerifyWorld", ex);
+			} finally {
+				minecraft.execute(() -> {
+					verifying = false;
+					startRecompression();
+				});
+			}
+		}, "WDL Verification Thread");
+		thread.start();
+	}
+
+	/**
+	 * Starts recompressing the region files written with the fast save mode
+	 * in the background.  Should only be called when not downloading.
+	 */
+	private void startRecompression() {
+		synchronized (regionsToRecompress) {
+			if (!regionsToRecompress.isEmpty()) {
+				regionRecompressor.start(regionsToRecompress);
+				regionsToRecompress.clear();
+			}
+		}
 	}
 
 	/**
-	 * Saves all remaining chunks, world info and player info. Usually called
-	 * when stopping.
+	 * Saves all remaining chunks, world info and player info of the given
+	 * session. Usually called when stopping.
+	 *
+	 * @param session The (detached) session to save
+	 * @param background True if the session is being drained while another
+	 *            world downloads; no progress screen is shown, and the world
+	 *            is not backed up (that happens with the final save).
 	 */
-	public void saveEverything() throws Exception {
+	void saveEverything(DownloadSession session, boolean background) throws Exception {
 		if (!WDLPluginChannels.canDownloadAtAll()) {
 			WDLMessages.chatMessageTranslated(WDL.serverProps,
 					WDLMessageTypes.ERROR, "wdl.messages.generalError.forbidden");
 			return;
 		}
 
-		WorldBackupType backupType = serverProps.getValue(MiscSettings.BACKUP_TYPE);
+		WorldBackupType backupType = background ? WorldBackupType.NONE
+				: serverProps.getValue(MiscSettings.BACKUP_TYPE);
+		boolean compactRegions = serverProps.getValue(MiscSettings.COMPACT_REGIONS);
+		boolean verifyRegions = serverProps.getValue(MiscSettings.VERIFY_REGIONS);
 
 		final GuiWDLSaveProgress progressScreen = new GuiWDLSaveProgress(this,
 				new TranslationTextComponent("wdl.saveProgress.title"),
 				(backupType != WorldBackupType.NONE ? 6 : 5)
+				+ (compactRegions ? 1 : 0)
+				+ (verifyRegions ? 1 : 0)
 				+ WDLApi.getImplementingExtensions(ISaveListener.class).size());
 
-		// Schedule this as a task to avoid threading issues.
-		// If directly displayed, in some rare cases the GUI will be drawn before it has been
-		// initialized, causing a crash.  Using a task stops that.
-		minecraft.enqueue(() -> { minecraft.displayGuiScreen(progressScreen); });
+		if (!background) {
+			// Schedule this as a task to avoid threading issues.
+			// If directly displayed, in some rare cases the GUI will be drawn before it has been
+			// initialized, causing a crash.  Using a task stops that.
+			minecraft.enqueue(() -> { minecraft.displayGuiScreen(progressScreen); });
+		}
 
-		saveProps();
+		saveProps(session.worldName, session.worldProps);
 
 		try {
-			saveHandler.checkSessionLock();
+			session.saveHandler.checkSessionLock();
 		} catch (Exception e) {
 			throw new RuntimeException(
 					"WorldDownloader: Couldn't get session lock for saving the world!", e);
 		}
 
+		// The phases mostly write different files, so those that don't need
+		// each other's results are run at the same time; the whole save then
+		// takes about as long as the chunks do.
+		SavePhases phases = new SavePhases(session.worldName, progressScreen::finishTask);
 		// Player NBT is stored both in a separate file and level.dat.
-		CompoundNBT playerNBT = savePlayer(progressScreen);
-		saveWorldInfo(progressScreen, playerNBT);
+		AtomicReference<CompoundNBT> playerNBT = new AtomicReference<>();
+		SavePhases.Phase player = phases.add("player",
+				() -> playerNBT.set(savePlayer(session, progressScreen)));
+		SavePhases.Phase worldInfo = phases.add("worldInfo",
+				() -> saveWorldInfo(session, progressScreen, playerNBT.get()), player);
+		SavePhases.Phase maps = phases.add("maps",
+				() -> saveMapData(session, progressScreen));
+		SavePhases.Phase chunks = phases.add("chunks",
+				() -> saveChunks(session, progressScreen));
+		// Saved again for the last saved time set by the world info
+		SavePhases.Phase props = phases.add("props",
+				() -> saveProps(session.worldName, session.worldProps), worldInfo, chunks);
+
+		phases.add("extensions", () -> extensions.runParallel(
+				WDLApi.getImplementingExtensions(ISaveListener.class),
+				"afterChunksSaved", false,
+				info -> progressScreen.startMajorTask(
+						I18n.format("wdl.saveProgress.extension.title",
+								info.getDisplayName()), 1),
+				mod -> mod.afterChunksSaved(session.saveHandler.getWorldDirectory())),
+				worldInfo, maps, chunks, props);
+
+		phases.add("flush", () -> {
+			try {
+				WDLMessages.chatMessageTranslated(WDL.serverProps,
+						WDLMessageTypes.SAVING, "wdl.messages.saving.flushingIO");
 
-		saveMapData(progressScreen);
-		saveChunks(progressScreen);
+				progressScreen.startMajorTask(
+						I18n.format("wdl.saveProgress.flushingIO.title"), 1);
+				progressScreen.setMinorTaskProgress(() -> I18n.format("wdl.saveProgress.flushingIO.subtitle",
+						session.chunkLoader.getNumPendingChunks()), 1);
 
-		saveProps();
+				session.chunkLoader.flush();
+			} catch (Exception e) {
+				throw new RuntimeException("Threw exception waiting for asynchronous IO to finish. Hmmm.", e);
+			}
+		}, chunks);
+
+		phases.run();
+		Set<File> writtenRegions;
+		if (downloading && backupType == WorldBackupType.NONE
+				&& chunkLoaders.park(session.chunkLoader)) {
+			// Kept open for when this dimension is visited again; its region
+			// files are compacted once it is closed.  Not done when backing
+			// up, as the backup's snapshot needs the region files closed.
+			writtenRegions = new HashSet<>();
+		} else {
+			session.chunkLoader.close();
+			regionsToRecompress.addAll(session.chunkLoader.getFastSavedRegions());
+			writtenRegions = session.chunkLoader.getWrittenRegions();
+			if (!background && !downloading) {
+				// The download is over, so those of other dimensions can go too
+				chunkLoaders.closeAll();
+				regionsToRecompress.addAll(chunkLoaders.takeFastSavedRegions());
+				writtenRegions.addAll(chunkLoaders.takeWrittenRegions());
+			}
+		}
+		session.closeSpillStore();
 
-		for (ModInfo<ISaveListener> info : WDLApi
-				.getImplementingExtensions(ISaveListener.class)) {
+		if (compactRegions) {
 			progressScreen.startMajorTask(
-					I18n.format("wdl.saveProgress.extension.title",
-							info.getDisplayName()), 1);
-			info.mod.afterChunksSaved(saveHandler.getWorldDirectory());
+					I18n.format("wdl.saveProgress.compacting.title"), writtenRegions.size());
+			compactRegions(writtenRegions, false, progressScreen.getMinorTaskProgressUpdater());
 		}
-
-		try {
-			WDLMessages.chatMessageTranslated(WDL.serverProps,
-					WDLMessageTypes.SAVING, "wdl.messages.saving.flushingIO");
-
+		if (verifyRegions) {
 			progressScreen.startMajorTask(
-					I18n.format("wdl.saveProgress.flushingIO.title"), 1);
-			progressScreen.setMinorTaskProgress(() -> {
-				WDLChunkLoader chunkLoader = WDL.this.chunkLoader;
-				if (chunkLoader != null) {
-					return I18n.format("wdl.saveProgress.flushingIO.subtitle", chunkLoader.getNumPendingChunks());
-				} else {
-					return "";
-				}
-			}, 1);
+					I18n.format("wdl.saveProgress.verifying.title"), writtenRegions.size());
+			// Only reported; dropping chunks is left to the user
+			verifyRegions(writtenRegions, false, progressScreen.getMinorTaskProgressUpdater());
+		}
 
-			chunkLoader.flush();
-		} catch (Exception e) {
-			throw new RuntimeException("Threw exception waiting for asynchronous IO to finish. Hmmm.", e);
+		File worldDirectory = session.saveHandler.getWorldDirectory();
+		if (!background) {
+			// Draining sessions release it once done, after this has waited for them
+			releaseSaveHandler(session.saveHandler);
 		}
-		chunkLoader.close();
-		chunkLoader = null;
 
 		if (backupType != WorldBackupType.NONE) {
 			WDLMessages.chatMessageTranslated(WDL.serverProps,
@@ -694,44 +1222,11 @@ public class WDL {
 			progressScreen.setMinorTaskProgress(
 					I18n.format("wdl.saveProgress.backingUp.preparing"), 1);
 
-			class BackupState implements WorldBackup.ICustomBackupProgressMonitor {
-				int curFile = 0;
-				@Override
-				public void setDenominator(int value, boolean show) {
-					progressScreen.setMinorTaskCount(value, show);
-				}
-				@Override
-				public void incrementNumerator() {
-					curFile++;
-					progressScreen.setMinorTaskProgress(curFile);
-				}
-				@Override
-				public void setNumerator(int value) {
-					curFile = value;
-					progressScreen.setMinorTaskProgress(value);
-				}
-				@Override
-				public void onTextUpdate(String text) {
-					progressScreen.setMinorTaskProgress(text, curFile);
-				}
-				@Override
-				public boolean shouldCancel() {
-					return progressScreen.cancelAttempted();
-				}
-			}
-
-			File worldDirectory = saveHandler.getWorldDirectory();
-
-			try {
-				saveHandler.close();
-			} catch (Exception ex) {
-				LOGGER.warn("Failed to close saveHandler", ex);
-			}
-			saveHandler = null;
-
 			try {
-				WorldBackup.backupWorld(worldDirectory,
-						getWorldFolderName(worldName), backupType, new BackupState(),
+				// Only a snapshot is made here; the backup itself is made in
+				// the background, so that the download can resume right away
+				backups.schedule(worldDirectory, getOpenChunkFolders(session),
+						getWorldFolderName(session.worldName), backupType,
 						serverProps.getValue(MiscSettings.BACKUP_COMMAND_TEMPLATE),
 						serverProps.getValue(MiscSettings.BACKUP_EXTENSION));
 			} catch (IOException ex) {
@@ -744,13 +1239,34 @@ public class WDL {
 		progressScreen.setDoneWorking();
 	}
 
+	/**
+	 * Gets the region folders that chunk loaders other than the given
+	 * (closed) session's still have open, so that a backup can hard link the
+	 * files of every other region folder.
+	 */
+	private Set<File> getOpenChunkFolders(DownloadSession saved) {
+		Set<File> folders = chunkLoaders.getOpenFolders();
+		synchronized (drainingSessions) {
+			for (DownloadSession other : drainingSessions) {
+				if (other != saved) {
+					folders.add(other.getChunkFolder());
+				}
+			}
+		}
+		DownloadSession current = this.session;
+		if (current != null && current != saved) {
+			folders.add(current.getChunkFolder());
+		}
+		return folders;
+	}
+
 	/**
 	 * Save the player (position, health, inventory, ...) into its own file in
 	 * the players directory, and applies needed overrides to the player info.
 	 *
 	 * @return The player NBT tag.  Needed for later use in the world info.
 	 */
-	private CompoundNBT savePlayer(GuiWDLSaveProgress progressScreen) {
+	private CompoundNBT savePlayer(DownloadSession session, GuiWDLSaveProgress progressScreen) {
 		if (!WDLPluginChannels.canDownloadAtAll()) { return new CompoundNBT(); }
 
 		progressScreen.startMajorTask(
@@ -763,34 +1279,32 @@ public class WDL {
 				I18n.format("wdl.saveProgress.playerData.creatingNBT"), 1);
 
 		CompoundNBT playerNBT = new CompoundNBT();
-		player.writeWithoutTypeId(playerNBT);
-		VersionedFunctions.writeAdditionalPlayerData(player, playerNBT);
+		session.player.writeWithoutTypeId(playerNBT);
+		VersionedFunctions.writeAdditionalPlayerData(session.player, playerNBT);
 
 		progressScreen.setMinorTaskProgress(
 				I18n.format("wdl.saveProgress.playerData.editingNBT"), 2);
-		applyOverridesToPlayer(playerNBT);
-
-		int taskNum = 3;
-		for (ModInfo<IPlayerInfoEditor> info : WDLApi
-				.getImplementingExtensions(IPlayerInfoEditor.class)) {
-			progressScreen.setMinorTaskProgress(
-					I18n.format("wdl.saveProgress.playerData.extension",
-							info.getDisplayName()), taskNum);
-
-			info.mod.editPlayerInfo(player, saveHandler.getWrapped(), playerNBT);
-
-			taskNum++;
-		}
+		applyOverridesToPlayer(session, playerNBT);
+
+		// Editors all change the same tag, so they're never run in parallel
+		List<ModInfo<IPlayerInfoEditor>> editors = WDLApi
+				.getImplementingExtensions(IPlayerInfoEditor.class);
+		extensions.runEditors(editors, "editPlayerInfo", playerNBT,
+				info -> progressScreen.setMinorTaskProgress(
+						I18n.format("wdl.saveProgress.playerData.extension",
+								info.getDisplayName()), 3 + editors.indexOf(info)),
+				(mod, tag) -> mod.editPlayerInfo(session.player, session.saveHandler.getWrapped(), tag));
+		int taskNum = 3 + editors.size();
 
 		progressScreen.setMinorTaskProgress(
 				I18n.format("wdl.saveProgress.playerData.writingNBT"), taskNum);
 
-		File playersDirectory = new File(saveHandler.getWorldDirectory(),
+		File playersDirectory = new File(session.saveHandler.getWorldDirectory(),
 				"playerdata");
 		playersDirectory.mkdirs();
-		File playerFileTmp = new File(playersDirectory, player
+		File playerFileTmp = new File(playersDirectory, session.player
 				.getUniqueID().toString() + ".dat.tmp");
-		File playerFile = new File(playersDirectory, player
+		File playerFile = new File(playersDirectory, session.player
 				.getUniqueID().toString() + ".dat");
 
 		try (FileOutputStream stream = new FileOutputStream(playerFileTmp)) {
@@ -814,7 +1328,7 @@ public class WDL {
 	 * Save the world metadata (time, gamemode, seed, ...) into the level.dat
 	 * file.
 	 */
-	private void saveWorldInfo(GuiWDLSaveProgress progressScreen,
+	private void saveWorldInfo(DownloadSession session, GuiWDLSaveProgress progressScreen,
 			CompoundNBT playerInfoNBT) {
 		if (!WDLPluginChannels.canDownloadAtAll()) { return; }
 
@@ -827,7 +1341,7 @@ public class WDL {
 		progressScreen.setMinorTaskProgress(
 				I18n.format("wdl.saveProgress.worldMetadata.creatingNBT"), 1);
 
-		CompoundNBT worldInfoNBT = VersionedFunctions.getWorldInfoNbt(worldClient, playerInfoNBT);
+		CompoundNBT worldInfoNBT = VersionedFunctions.getWorldInfoNbt(session.world, playerInfoNBT);
 
 		// There's a root tag that stores the above one.
 		CompoundNBT rootWorldInfoNBT = new CompoundNBT();
@@ -835,26 +1349,23 @@ public class WDL {
 
 		progressScreen.setMinorTaskProgress(
 				I18n.format("wdl.saveProgress.worldMetadata.editingNBT"), 2);
-		applyOverridesToWorldInfo(worldInfoNBT, rootWorldInfoNBT);
-
-		int taskNum = 3;
-		for (ModInfo<IWorldInfoEditor> info : WDLApi
-				.getImplementingExtensions(IWorldInfoEditor.class)) {
-			progressScreen.setMinorTaskProgress(
-					I18n.format("wdl.saveProgress.worldMetadata.extension",
-							info.getDisplayName()), taskNum);
-
-			info.mod.editWorldInfo(worldClient, worldClient.getWorldInfo(),
-					saveHandler.getWrapped(), worldInfoNBT);
-
-			taskNum++;
-		}
+		applyOverridesToWorldInfo(session, worldInfoNBT, rootWorldInfoNBT);
+
+		List<ModInfo<IWorldInfoEditor>> editors = WDLApi
+				.getImplementingExtensions(IWorldInfoEditor.class);
+		extensions.runEditors(editors, "editWorldInfo", worldInfoNBT,
+				info -> progressScreen.setMinorTaskProgress(
+						I18n.format("wdl.saveProgress.worldMetadata.extension",
+								info.getDisplayName()), 3 + editors.indexOf(info)),
+				(mod, tag) -> mod.editWorldInfo(session.world, session.world.getWorldInfo(),
+						session.saveHandler.getWrapped(), tag));
+		int taskNum = 3 + editors.size();
 
 		progressScreen.setMinorTaskProgress(
 				I18n.format("wdl.saveProgress.worldMetadata.writingNBT"), taskNum);
-		File saveDirectory = saveHandler.getWorldDirectory();
+		File saveDirectory = session.saveHandler.getWorldDirectory();
 
-		worldProps.setValue(MiscSettings.LAST_SAVED, worldInfoNBT.getLong("LastPlayed"));
+		session.worldProps.setValue(MiscSettings.LAST_SAVED, worldInfoNBT.getLong("LastPlayed"));
 
 		File dataFileTmp = new File(saveDirectory, "level.dat_new");
 		File dataFileBackup = new File(saveDirectory, "level.dat_old");
@@ -887,10 +1398,23 @@ public class WDL {
 	 * list.
 	 */
 	public List<Chunk> getChunkList() {
-		Class<?> chunkArrayClass = ClientChunkProvider.class.getDeclaredClasses()[0];
-		Object obj = ReflectionUtils.findAndGetPrivateField(worldClient.getChunkProvider(),
+		return getChunkList(worldClient);
+	}
+
+	/**
+	 * The type of {@link ClientChunkProvider}'s chunk array; looking it up
+	 * copies all declared classes, so it is only done once.
+	 */
+	private static final Class<?> CHUNK_ARRAY_CLASS = ClientChunkProvider.class.getDeclaredClasses()[0];
+
+	/**
+	 * Gets a list of all chunks loaded in the given world. There may be null
+	 * elements in the list.
+	 */
+	static List<Chunk> getChunkList(ClientWorld world) {
+		Object obj = ReflectionUtils.findAndGetPrivateField(world.getChunkProvider(),
 				ClientChunkProvider.class,
-				chunkArrayClass);
+				CHUNK_ARRAY_CLASS);
 		@SuppressWarnings("unchecked")
 		AtomicReferenceArray<Chunk> chunks = ReflectionUtils.findAndGetPrivateField(obj,
 				AtomicReferenceArray.class);
@@ -908,14 +1432,14 @@ public class WDL {
 	 * @throws IllegalAccessException
 	 * @throws IllegalArgumentException
 	 */
-	private void saveChunks(GuiWDLSaveProgress progressScreen)
+	private void saveChunks(DownloadSession session, GuiWDLSaveProgress progressScreen)
 			throws IllegalArgumentException, IllegalAccessException {
 		if (!WDLPluginChannels.canDownloadAtAll()) { return; }
 
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.SAVING, "wdl.messages.saving.savingChunks");
 
-		List<Chunk> chunks = getChunkList();
+		List<Chunk> chunks = getChunkList(session.world);
 
 		progressScreen.startMajorTask(I18n.format("wdl.saveProgress.chunk.title"),
 				chunks.size());
@@ -927,12 +1451,18 @@ public class WDL {
 				if (!WDLPluginChannels.canSaveChunk(c)) {
 					continue;
 				}
+				// Outside of the areas the user wants saved
+				if (!session.isInSaveAreas(c.getPos())) {
+					continue;
+				}
+				// Even chunks that were autosaved are written again, since
+				// entities and tile entity updates don't mark them as changed
 
 				progressScreen.setMinorTaskProgress(I18n.format(
 						"wdl.saveProgress.chunk.saving", c.getPos().x,
 						c.getPos().z), currentChunk);
 
-				saveChunk(c);
+				saveChunk(session, c, true);
 			}
 		}
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
@@ -943,22 +1473,55 @@ public class WDL {
 	 * Import all non-overwritten TileEntities, then save the chunk
 	 */
 	public void saveChunk(Chunk c) {
-		if (!WDLPluginChannels.canDownloadAtAll()) { return; }
+		DownloadSession session = this.session;
+		if (session != null) {
+			saveChunk(session, c, true);
+		}
+	}
+
+	/**
+	 * Import all non-overwritten TileEntities, then save the chunk.
+	 *
+	 * @param session The session the chunk belongs to
+	 * @param c The chunk to save
+	 * @param release Whether to release the captured data for the chunk
+	 *            afterwards; false if the chunk remains loaded (when autosaving).
+	 * @return True if the chunk was saved (or skipped for being empty), false
+	 *         if it could not be saved or is outside of the save areas.
+	 */
+	boolean saveChunk(DownloadSession session, Chunk c, boolean release) {
+		if (!WDLPluginChannels.canDownloadAtAll()) { return false; }
+
+		if (!session.isInSaveAreas(c.getPos())) {
+			if (release) {
+				// Nothing captured for it will ever be saved
+				session.releaseChunk(c.getPos());
+			}
+			return false;
+		}
 
-		if (!WDLPluginChannels.canSaveChunk(c)) { return; }
+		if (!WDLPluginChannels.canSaveChunk(c)) { return false; }
 
 		try {
-			savedChunks.add(c.getPos());
+			if (this.session == null || this.session == session) {
+				// Not for chunks of a previous world saved in the background
+				savedChunks.add(c.getPos());
+			}
 			if (isEmpty(c)) {
 				//LOGGER.warn("[WDL] Tried to save empty chunk! (" + c + "@" + c.x + "," + c.z + ")");
-				return;
+				return true;
 			}
-			chunkLoader.saveChunk(worldClient, c);
+			session.chunkLoader.saveChunk(session.world, c, release);
+			if (release) {
+				airoidChecker.forget(c.getPos());
+			}
+			return true;
 		} catch (Exception e) {
 			// Better tell the player that something didn't work:
 			WDLMessages.chatMessageTranslated(WDL.serverProps,
 					WDLMessageTypes.ERROR,
 					"wdl.messages.generalError.failedToSaveChunk", c.getPos().x, c.getPos().z, e);
+			return false;
 		}
 	}
 
@@ -975,16 +1538,8 @@ public class WDL {
 		if (array[0] != Chunk.EMPTY_SECTION) {
 			// All-air empty chunks sometimes are sent with a bottom section;
 			// handle that and a few other special cases.
-			for (int y = 0; y < 16; y++) {
-				for (int z = 0; z < 16; z++) {
-					for (int x = 0; x < 16; x++) {
-						Block block = array[0].getBlockState(x, y, z).getBlock(); 
-						if (!(block instanceof AirBlock || block instanceof BedBlock)) {
-							// Contains a non-airoid; stop
-							return false;
-						}
-					}
-				}
+			if (!airoidChecker.isAiroid(c.getPos(), array[0])) {
+				return false;
 			}
 			// Only composed of airoids; treat as empty
 			LOGGER.warn("[WDL] Skipping airoid empty chunk at " + c.getPos().x + ", " + c.getPos().z);
@@ -1039,18 +1594,16 @@ public class WDL {
 			return serverProps;
 		}
 
-		IConfiguration ret = new Configuration(serverProps);
+		Configuration ret = new Configuration(serverProps);
 
-		File savesDir = new File(minecraft.gameDir, "saves");
-
-		String folder = getWorldFolderName(worldName);
-		File worldFolder = new File(savesDir, folder);
-		File dataFile = new File(worldFolder, "WorldDownloader.txt");
+		String props = worldIndex.getSettings(getWorldFolderName(worldName)).getProps();
+		if (props == null) {
+			LOGGER.debug("Failed to load world props for " + worldName + " as they do not exist");
+			return ret;
+		}
 
 		try {
-			ret.load(dataFile);
-		} catch (FileNotFoundException e) {
-			LOGGER.debug("Failed to load world props for " + worldName + " as they do not exist", e);
+			ret.load(new StringReader(props));
 		} catch (Exception e) {
 			LOGGER.warn("Failed to load world props for " + worldName, e);
 		}
@@ -1066,20 +1619,14 @@ public class WDL {
 	 *         rules couldn't be found (e.g. a new world)
 	 */
 	public GameRules loadGameRules(String worldName) {
-		File savesDir = new File(minecraft.gameDir, "saves");
-
-		String folder = getWorldFolderName(worldName);
-		File worldFolder = new File(savesDir, folder);
-		File levelDatFile = new File(worldFolder, "level.dat");
+		CompoundNBT gameRules = worldIndex.getSettings(getWorldFolderName(worldName)).getGameRules();
+		worldIndex.flush();
 
-		if (!levelDatFile.exists()) {
+		if (gameRules == null) {
 			return new GameRules();
 		}
 
-		try (FileInputStream stream = new FileInputStream(levelDatFile)) {
-			CompoundNBT compound = CompressedStreamTools.readCompressed(stream);
-			CompoundNBT gameRules = compound.getCompound("Data").getCompound("GameRules");
-
+		try {
 			return VersionedFunctions.loadGameRules(gameRules);
 		} catch (Exception e) {
 			LOGGER.warn("[WDL] Error while loading existing gamerules; the defaults will be used instead: ", e);
@@ -1114,6 +1661,8 @@ public class WDL {
 			} catch (Exception e) {
 				LOGGER.warn("Failed to write world props!", e);
 			}
+			// Rewriting it may not change its modification time or length
+			worldIndex.invalidateProps(folder);
 		}
 
 		File baseFolder = new File(savesDir, baseFolderName);
@@ -1125,6 +1674,7 @@ public class WDL {
 		} catch (Exception e) {
 			LOGGER.warn("Failed to write server props!", e);
 		}
+		worldIndex.invalidateProps(baseFolderName);
 
 		saveGlobalProps();
 	}
@@ -1145,16 +1695,16 @@ public class WDL {
 	 * Change player specific fields according to the overrides found in the
 	 * properties file.
 	 */
-	private void applyOverridesToPlayer(CompoundNBT playerNBT) {
+	private void applyOverridesToPlayer(DownloadSession session, CompoundNBT playerNBT) {
 		// Health
-		PlayerSettings.Health health = worldProps.getValue(PlayerSettings.HEALTH);
+		PlayerSettings.Health health = session.worldProps.getValue(PlayerSettings.HEALTH);
 
 		if (health != PlayerSettings.Health.KEEP) {
 			playerNBT.putShort("Health", health.healthValue);
 		}
 
 		// foodLevel, foodTimer, foodSaturationLevel, foodExhaustionLevel
-		PlayerSettings.Hunger food = worldProps.getValue(PlayerSettings.HUNGER);
+		PlayerSettings.Hunger food = session.worldProps.getValue(PlayerSettings.HUNGER);
 
 		if (food != PlayerSettings.Hunger.KEEP) {
 			playerNBT.putInt("foodLevel", food.foodLevel);
@@ -1164,12 +1714,12 @@ public class WDL {
 		}
 
 		// Player Position
-		PlayerSettings.PlayerPos playerPos = worldProps.getValue(PlayerSettings.PLAYER_POSITION);
+		PlayerSettings.PlayerPos playerPos = session.worldProps.getValue(PlayerSettings.PLAYER_POSITION);
 
 		if (playerPos == PlayerSettings.PlayerPos.XYZ) {
-			int x = worldProps.getValue(PlayerSettings.PLAYER_X);
-			int y = worldProps.getValue(PlayerSettings.PLAYER_Y);
-			int z = worldProps.getValue(PlayerSettings.PLAYER_Z);
+			int x = session.worldProps.getValue(PlayerSettings.PLAYER_X);
+			int y = session.worldProps.getValue(PlayerSettings.PLAYER_Y);
+			int z = session.worldProps.getValue(PlayerSettings.PLAYER_Z);
 			// Positions are offset to center of block,
 			// or player height.
 			ListNBT pos = VersionedFunctions.createDoubleListTag(x + 0.5D, y + 0.621D, z + 0.5D);
@@ -1199,10 +1749,10 @@ public class WDL {
 	 * @param worldInfoNBT The main world info, generated by {@link WorldInfo#cloneNBTCompound}.
 	 * @param rootWorldInfoNBT The root tag containing worldInfoNBT as "<code>Data</code>"
 	 */
-	private void applyOverridesToWorldInfo(CompoundNBT worldInfoNBT, CompoundNBT rootWorldInfoNBT) {
+	private void applyOverridesToWorldInfo(DownloadSession session, CompoundNBT worldInfoNBT, CompoundNBT rootWorldInfoNBT) {
 		// LevelName
 		String baseName = serverProps.getValue(MiscSettings.SERVER_NAME);
-		String worldName = worldProps.getValue(MiscSettings.WORLD_NAME);
+		String worldName = session.worldProps.getValue(MiscSettings.WORLD_NAME);
 
 		if (worldName.isEmpty()) {
 			worldInfoNBT.putString("LevelName", baseName);
@@ -1211,15 +1761,15 @@ public class WDL {
 		}
 
 		// Cheats
-		boolean allowCommands = worldProps.getValue(WorldSettings.ALLOW_CHEATS);
+		boolean allowCommands = session.worldProps.getValue(WorldSettings.ALLOW_CHEATS);
 		worldInfoNBT.putBoolean("allowCommands", allowCommands);
 
 		// GameType
-		WorldSettings.GameMode gametypeOption = worldProps.getValue(WorldSettings.GAME_MODE);
+		WorldSettings.GameMode gametypeOption = session.worldProps.getValue(WorldSettings.GAME_MODE);
 
 		if (gametypeOption == WorldSettings.GameMode.KEEP) {
 			// XXX Do we want this?  Or should it just use the actual mode without overriding?
-			if (player.abilities.isCreativeMode) { // capabilities
+			if (session.player.abilities.isCreativeMode) { // capabilities
 				worldInfoNBT.putInt("GameType", 1); // Creative
 			} else {
 				worldInfoNBT.putInt("GameType", 0); // Survival
@@ -1230,14 +1780,14 @@ public class WDL {
 		}
 
 		// Time
-		WorldSettings.Time timeOption = worldProps.getValue(WorldSettings.TIME);
+		WorldSettings.Time timeOption = session.worldProps.getValue(WorldSettings.TIME);
 
 		if (timeOption != WorldSettings.Time.KEEP) {
 			worldInfoNBT.putLong("Time", timeOption.timeValue);
 		}
 
 		// RandomSeed
-		String randomSeed = worldProps.getValue(GeneratorSettings.SEED);
+		String randomSeed = session.worldProps.getValue(GeneratorSettings.SEED);
 		long seed = 0;
 
 		// As per GuiCreateWorld.actionPerformed's done button handler
@@ -1249,14 +1799,14 @@ public class WDL {
 			}
 		}
 
-		boolean mapFeatures = worldProps.getValue(GeneratorSettings.GENERATE_STRUCTURES);
-		String generatorName = worldProps.getValue(GeneratorSettings.GENERATOR_NAME);
-		String generatorOptions = worldProps.getValue(GeneratorSettings.GENERATOR_OPTIONS);
-		int generatorVersion = worldProps.getValue(GeneratorSettings.GENERATOR_VERSION);
+		boolean mapFeatures = session.worldProps.getValue(GeneratorSettings.GENERATE_STRUCTURES);
+		String generatorName = session.worldProps.getValue(GeneratorSettings.GENERATOR_NAME);
+		String generatorOptions = session.worldProps.getValue(GeneratorSettings.GENERATOR_OPTIONS);
+		int generatorVersion = session.worldProps.getValue(GeneratorSettings.GENERATOR_VERSION);
 		VersionedFunctions.writeGeneratorOptions(worldInfoNBT, seed, mapFeatures, generatorName, generatorOptions, generatorVersion);
 
 		// Weather
-		WorldSettings.Weather weather = worldProps.getValue(WorldSettings.WEATHER);
+		WorldSettings.Weather weather = session.worldProps.getValue(WorldSettings.WEATHER);
 
 		if (weather != WorldSettings.Weather.KEEP) {
 			worldInfoNBT.putBoolean("raining", weather.raining);
@@ -1266,12 +1816,12 @@ public class WDL {
 		}
 
 		// Spawn
-		WorldSettings.SpawnMode spawn = worldProps.getValue(WorldSettings.SPAWN);
+		WorldSettings.SpawnMode spawn = session.worldProps.getValue(WorldSettings.SPAWN);
 
 		if (spawn != WorldSettings.SpawnMode.AUTO) {
-			int x = spawn.getX(player, worldProps);
-			int y = spawn.getY(player, worldProps);
-			int z = spawn.getZ(player, worldProps);
+			int x = spawn.getX(session.player, session.worldProps);
+			int y = spawn.getY(session.player, session.worldProps);
+			int z = spawn.getZ(session.player, session.worldProps);
 			worldInfoNBT.putInt("SpawnX", x);
 			worldInfoNBT.putInt("SpawnY", y);
 			worldInfoNBT.putInt("SpawnZ", z);
@@ -1279,9 +1829,9 @@ public class WDL {
 		}
 
 		// Difficulty, DifficultyLocked, hardcore
-		WorldSettings.Difficulty difficulty = worldProps.getValue(WorldSettings.DIFFICULTY);
+		WorldSettings.Difficulty difficulty = session.worldProps.getValue(WorldSettings.DIFFICULTY);
 		if (difficulty != WorldSettings.Difficulty.KEEP) {
-			boolean locked = worldProps.getValue(WorldSettings.LOCK_DIFFICULTY);
+			boolean locked = session.worldProps.getValue(WorldSettings.LOCK_DIFFICULTY);
 			worldInfoNBT.putBoolean("hardcore", difficulty.hardcore);
 			worldInfoNBT.putByte("Difficulty", (byte)difficulty.difficultyId);
 			worldInfoNBT.putBoolean("DifficultyLocked", locked);
@@ -1290,7 +1840,7 @@ public class WDL {
 		// Compute an entire new set of gamerules
 		// (based on what we loaded from level.dat earlier)
 		CompoundNBT vanillaRules = worldInfoNBT.getCompound("GameRules");
-		Map<String, String> ourRules = VersionedFunctions.getGameRules(gameRules);
+		Map<String, String> ourRules = VersionedFunctions.getGameRules(session.gameRules);
 		if (!vanillaRules.keySet().equals(ourRules.keySet())) {
 			LOGGER.warn("[WDL] Mismatched custom/vanilla game rule list!  We have " + ourRules +
 					" and vanilla has " + VersionedFunctions.nbtString(vanillaRules) + ".  " +
@@ -1335,20 +1885,37 @@ public class WDL {
 	 * Saves existing map data.  Map data referring to the items
 	 * that contain pictures.
 	 */
-	private void saveMapData(GuiWDLSaveProgress progressScreen) {
+	private void saveMapData(DownloadSession session, GuiWDLSaveProgress progressScreen) {
 		if (!WDLPluginChannels.canSaveMaps()) { return; }
 
-		File dataDirectory = new File(saveHandler.getWorldDirectory(),
+		File dataDirectory = new File(session.saveHandler.getWorldDirectory(),
 				"data");
 		dataDirectory.mkdirs();
 
+		// Maps can still be received while this runs; save the ones known now
+		Map<Integer, MapData> mapDatas = new HashMap<>(session.newMapDatas);
+		// Maps that were spilled to disk and haven't been received again since
+		Map<Integer, CompoundNBT> spilledMaps;
+		if (session.spillStore != null) {
+			try {
+				spilledMaps = session.spillStore.readMaps();
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to read spilled map data", ex);
+				spilledMaps = new HashMap<>();
+			}
+			spilledMaps.keySet().removeAll(mapDatas.keySet());
+		} else {
+			spilledMaps = new HashMap<>();
+		}
+
 		progressScreen.startMajorTask(
-				I18n.format("wdl.saveProgress.map.title"), newMapDatas.size());
+				I18n.format("wdl.saveProgress.map.title"), mapDatas.size() + spilledMaps.size());
 
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.SAVING, "wdl.messages.saving.savingMapItemData");
 
-		Optional<Integer> highestCurrent = newMapDatas.keySet().stream().max(Integer::compare);
+		Optional<Integer> highestCurrent = Stream.concat(mapDatas.keySet().stream(),
+				spilledMaps.keySet().stream()).max(Integer::compare);
 
 		highestCurrent.ifPresent(current -> {
 			progressScreen.setMinorTaskProgress(I18n.format("wdl.saveProgress.map.idcounts"), 0);
@@ -1385,38 +1952,59 @@ public class WDL {
 		});
 
 		int count = 0;
-		for (Map.Entry<Integer, MapData> e : newMapDatas.entrySet()) {
+		for (Map.Entry<Integer, MapData> e : mapDatas.entrySet()) {
 			count++;
 
 			progressScreen.setMinorTaskProgress(
 					I18n.format("wdl.saveProgress.map.saving", e.getKey()),
 					count);
 
-			File mapFile = new File(dataDirectory, "map_" + e.getKey() + ".dat");
-
-			CompoundNBT mapNBT = new CompoundNBT();
 			CompoundNBT data = new CompoundNBT();
 
 			e.getValue().write(data);
 
-			mapNBT.put("data", data);
-			if (VersionConstants.getDataVersion() >= 1484) { // 18w19a
-				// MapData has a data version in 1.13+
-				mapNBT.putInt("DataVersion", VersionConstants.getDataVersion());
-			}
+			writeMapData(dataDirectory, e.getKey(), data);
+		}
+		for (Map.Entry<Integer, CompoundNBT> e : spilledMaps.entrySet()) {
+			count++;
 
-			try (FileOutputStream stream = new FileOutputStream(mapFile)) {
-				CompressedStreamTools.writeCompressed(mapNBT, stream);
-			} catch (IOException ex) {
-				throw new RuntimeException("WDL: Exception while writing " +
-						"map data for map " + e.getKey() + "!", ex);
-			}
+			progressScreen.setMinorTaskProgress(
+					I18n.format("wdl.saveProgress.map.saving", e.getKey()),
+					count);
+
+			writeMapData(dataDirectory, e.getKey(), e.getValue());
 		}
 
 		WDLMessages.chatMessageTranslated(WDL.serverProps,
 				WDLMessageTypes.SAVING, "wdl.messages.saving.mapItemDataSaved");
 	}
 
+	/**
+	 * Writes a single map_#.dat file.
+	 *
+	 * @param dataDirectory The world's data folder.
+	 * @param mapID The ID of the map.
+	 * @param data The map's data, as written by {@link MapData#write}.
+	 */
+	void writeMapData(File dataDirectory, int mapID, CompoundNBT data) {
+		File mapFile = new File(dataDirectory, "map_" + mapID + ".dat");
+
+		CompoundNBT mapNBT = new CompoundNBT();
+
+		mapNBT.put("data", data);
+		if (VersionConstants.getDataVersion() >= 1484) { // 18w19a
+			// MapData has a data version in 1.13+
+			mapNBT.putInt("DataVersion", VersionConstants.getDataVersion());
+		}
+
+		try (FileOutputStream stream = new FileOutputStream(mapFile)) {
+			CompressedStreamTools.writeCompressed(mapNBT, stream);
+		} catch (IOException ex) {
+			throw new RuntimeException("WDL: Exception while writing " +
+					"map data for map " + mapID + "!", ex);
+		}
+	}
+
 	/**
 	 * Gets the name of the server, either from the name in the server list,
 	 * or using the server's IP.
@@ -1548,28 +2136,162 @@ public class WDL {
 
 		ChunkPos chunkPos = new ChunkPos(chunkX, chunkZ);
 
-		if (!newTileEntities.containsKey(chunkPos)) {
-			newTileEntities.put(chunkPos, new HashMap<BlockPos, TileEntity>());
+		newTileEntities.put(chunkPos, pos, te);
+		if (session != null) {
+			session.autosave.markDirty(chunkPos);
+			CompoundNBT compound = new CompoundNBT();
+			try {
+				te.write(compound);
+				session.chunkLoader.journalTileEntity(chunkPos, compound);
+			} catch (Exception ex) {
+				LOGGER.warn("[WDL] Failed to journal tile entity at " + pos, ex);
+			}
+		}
+
+		if (spillStore != null) {
+			spillStore.onCaptured(chunkPos, CaptureSpillStore.TILE_ENTITY_ESTIMATE);
+			spillCapturesIfNeeded();
+		}
+	}
+
+	/**
+	 * Adds the given entity to {@link #newEntities}, removing any previous copy
+	 * of it that was saved in a different chunk.
+	 *
+	 * @param pos
+	 *            The chunk the entity is in
+	 * @param entity
+	 *            The entity to add
+	 */
+	public void saveEntity(ChunkPos pos, Entity entity) {
+		UUID uuid = entity.getUniqueID();
+		// Recorded first, so that a save on another thread that sees the
+		// entity in its new chunk also sees its new position
+		ChunkPos prevPos = entityPositions.put(uuid, pos);
+		if (prevPos != null) {
+			// Remove previous entity, to avoid saving the same one in multiple chunks.
+			// A copy in the same chunk is replaced below instead.
+			boolean removedSome = prevPos.equals(pos) ? newEntities.get(pos).containsKey(uuid)
+					: newEntities.remove(prevPos, uuid);
+			LOGGER.info("Replacing entity with UUID {} previously located at {} with new position {}.  There was an entity at old position (should be true): {}", uuid, prevPos, pos, removedSome);
+			if (spillStore != null) {
+				spillStore.removeEntity(prevPos, uuid);
+			}
+			if (session != null) {
+				session.autosave.markDirty(prevPos);
+			}
+		}
+		newEntities.put(pos, uuid, entity);
+		if (session != null) {
+			session.autosave.markDirty(pos);
+		}
+
+		if (spillStore != null) {
+			spillStore.onCaptured(pos, CaptureSpillStore.ENTITY_ESTIMATE);
+			spillCapturesIfNeeded();
 		}
-		newTileEntities.get(chunkPos).put(pos, te);
 	}
 
 	/**
-	 * Called when the given chunk is unloaded, to free memory.
+	 * Adds the given map to {@link #newMapDatas}.
 	 *
-	 * @param pos Location of the chunk
+	 * @param mapID
+	 *            The ID of the map
+	 * @param mapData
+	 *            The (repaired) map data
 	 */
-	public void unloadChunk(ChunkPos pos) {
-		Map<BlockPos, TileEntity> m = newTileEntities.get(pos);
-		if (m != null) {
-			m.clear();
+	public void addMapData(int mapID, MapData mapData) {
+		MapData prev = newMapDatas.put(mapID, mapData);
+		if (session != null) {
+			session.autosave.markMapDirty(mapID);
+		}
+
+		if (spillStore != null && prev == null) {
+			spillStore.onMapCaptured(CaptureSpillStore.MAP_ESTIMATE);
+			spillCapturesIfNeeded();
 		}
-		newTileEntities.remove(pos);
-		// The entity has been saved, so there's no easy way to remove it from the already saved file.
-		// TODO: In the future it might be worth rewriting existing chunks for this, but that seems
-		// like a fair bit of work for the moment.
-		newEntities.get(pos).forEach(e -> entityPositions.remove(e.getUniqueID()));
-		newEntities.removeAll(pos);
+	}
+
+	/**
+	 * Moves captured data to disk, oldest chunks first, until the amount
+	 * that is held in memory is below the configured limit.
+	 */
+	private void spillCapturesIfNeeded() {
+		CaptureSpillStore store = this.spillStore;
+		if (store == null || !store.isOverLimit()) {
+			return;
+		}
+
+		try {
+			ChunkPos pos;
+			while ((pos = store.getChunkToSpill()) != null) {
+				spillChunk(store, pos);
+			}
+			if (store.shouldSpillMaps()) {
+				for (Map.Entry<Integer, MapData> e : newMapDatas.entrySet()) {
+					CompoundNBT data = new CompoundNBT();
+					e.getValue().write(data);
+					store.spillMap(e.getKey(), data);
+					// Kept if it was received again since
+					newMapDatas.remove(e.getKey(), e.getValue());
+				}
+				store.onMapsReleased();
+			}
+		} catch (IOException ex) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ERROR, "wdl.messages.generalError.failedToSpill", ex);
+			store.disable();
+		}
+	}
+
+	/**
+	 * Writes all in-memory captured data for the given chunk to the spill store,
+	 * and then removes it from memory.  Nothing is removed if writing fails.
+	 */
+	private void spillChunk(CaptureSpillStore store, ChunkPos pos) throws IOException {
+		Map<BlockPos, TileEntity> tileEntities = newTileEntities.get(pos);
+		for (Map.Entry<BlockPos, TileEntity> e : tileEntities.entrySet()) {
+			CompoundNBT compound = new CompoundNBT();
+			try {
+				e.getValue().write(compound);
+			} catch (Exception ex) {
+				WDLMessages.chatMessageTranslated(
+						WDL.serverProps,
+						WDLMessageTypes.ERROR,
+						"wdl.messages.generalError.failedToSaveTE", e.getValue(), e.getKey(), pos.x, pos.z, ex);
+				continue;
+			}
+			store.spillTileEntity(pos, compound);
+		}
+		Map<UUID, Entity> entities = newEntities.get(pos);
+		for (Entity entity : entities.values()) {
+			// Entity editors need the live entity, so they're run now rather than
+			// when the chunk is eventually saved.
+			if (!WDLChunkLoader.shouldSaveEntity(entity)) {
+				continue;
+			}
+			WDLChunkLoader.editEntity(entity, pos);
+			// "Unkill" the entity, since it is killed when it is unloaded.
+			entity.removed = false;
+			CompoundNBT compound = new CompoundNBT();
+			try {
+				if (!entity.writeUnlessPassenger(compound)) {
+					continue;
+				}
+			} catch (Exception ex) {
+				WDLMessages.chatMessageTranslated(
+						WDL.serverProps,
+						WDLMessageTypes.ERROR,
+						"wdl.messages.generalError.failedToSaveEntity", entity, pos.x, pos.z, ex);
+				continue;
+			}
+			store.spillEntity(pos, entity.getUniqueID(), compound);
+		}
+
+		// Anything captured since is kept in memory, and spilled later
+		newTileEntities.removeIfUnchanged(pos, tileEntities);
+		newEntities.removeIfUnchanged(pos, entities);
+		store.onReleased(pos);
 	}
 
 	/**
@@ -1695,10 +2417,19 @@ public class WDL {
 		state.addDetail("lastEntity", lastEntity);
 		state.addDetail("saveHandler", saveHandler);
 		state.addDetail("chunkLoader", chunkLoader);
+		state.addDetail("chunkLoaders", chunkLoaders);
+		state.addDetail("backups", backups);
+		state.addDetail("extensions", this.extensions);
 		state.addDetail("newTileEntities", newTileEntities);
 		state.addDetail("newEntities", newEntities);
 		state.addDetail("entityPositions", entityPositions);
 		state.addDetail("newMapDatas", newMapDatas);
+		state.addDetail("spillStore", spillStore);
+		state.addDetail("session", session);
+		state.addDetail("mainThreadTasks", mainThreadTasks);
+		synchronized (drainingSessions) {
+			state.addDetail("drainingSessions", new ArrayList<>(drainingSessions));
+		}
 		state.addDetail("downloading", downloading);
 		state.addDetail("isMultiworld", isMultiworld);
 		state.addDetail("propsFound", propsFound);
@@ -1706,6 +2437,7 @@ public class WDL {
 		state.addDetail("overrideLastModifiedCheck", overrideLastModifiedCheck);
 		state.addDetail("saving", saving);
 		state.addDetail("worldLoadingDeferred", worldLoadingDeferred);
+		state.addDetail("startDeferred", startDeferred);
 		state.addDetail("worldName", worldName);
 		state.addDetail("baseFolderName", baseFolderName);
 		state.addDetail("serverProps", serverProps);
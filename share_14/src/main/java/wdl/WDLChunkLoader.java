@@ -15,12 +15,19 @@ package wdl;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
 
 import javax.annotation.Nullable;
 
@@ -46,6 +53,7 @@ import wdl.api.ITileEntityEditor.TileEntityCreationMode;
 import wdl.api.ITileEntityImportationIdentifier;
 import wdl.api.WDLApi;
 import wdl.api.WDLApi.ModInfo;
+import wdl.config.settings.MiscSettings;
 import wdl.versioned.IDimensionWrapper;
 import wdl.versioned.ISaveHandlerWrapper;
 import wdl.versioned.VersionedFunctions;
@@ -60,13 +68,361 @@ import wdl.versioned.VersionedFunctions;
 public class WDLChunkLoader extends WDLChunkLoaderBase {
 	private static final Logger LOGGER = LogManager.getLogger();
 
-	public static WDLChunkLoader create(WDL wdl,
-			ISaveHandlerWrapper handler, IDimensionWrapper dimension) {
-		return new WDLChunkLoader(wdl, getWorldSaveFolder(handler, dimension));
+	/**
+	 * Gets the region folder that chunks in the given dimension are saved into.
+	 */
+	public static File getChunkFolder(ISaveHandlerWrapper handler, IDimensionWrapper dimension) {
+		return getWorldSaveFolder(handler, dimension);
+	}
+
+	/**
+	 * Whether encoded chunks can be written into region files as they are,
+	 * without vanilla serializing and compressing them again.
+	 */
+	private final boolean directWrite;
+	/**
+	 * Whether chunks are compressed with the fastest deflate level.
+	 */
+	private final boolean fastSave;
+	/**
+	 * Encodes saved chunks once, for the journal, the write cache and the
+	 * region file.
+	 */
+	private final ChunkEncoder encoder;
+	/**
+	 * Region files that chunks have been written into with the fastest level.
+	 */
+	private final Set<File> fastSavedRegions = Collections.synchronizedSet(new HashSet<>());
+	/**
+	 * All region files that chunks have been written into.
+	 */
+	private final Set<File> writtenRegions = Collections.synchronizedSet(new HashSet<>());
+	/**
+	 * Holds recently saved chunks before they are written to region files;
+	 * null if disabled.
+	 */
+	@Nullable
+	private final ChunkWriteCache writeCache;
+	/**
+	 * Records saved chunks and captured tile entities until they are safely
+	 * in the region files.  Even when that is disabled, it holds any tile
+	 * entities recovered from a previous session until their chunk is saved.
+	 */
+	private final ChunkJournal journal;
+	/**
+	 * Whether saved chunks and captured tile entities are journaled.
+	 */
+	private final boolean journaling;
+	/**
+	 * Recovery of a journal left behind by a previous session; saving has to
+	 * wait for it, so that recovered chunks can't overwrite newer ones.
+	 */
+	private final CompletableFuture<Void> recovery;
+	/**
+	 * The last checkpoint started after an autosave; only accessed on the
+	 * client thread and when closing.
+	 */
+	private volatile CompletableFuture<Void> checkpoint = CompletableFuture.completedFuture(null);
+	/**
+	 * Reads old tile entities of chunks that will likely be saved soon; null
+	 * if disabled.
+	 */
+	@Nullable
+	private final OldChunkPrefetcher prefetcher;
+	/**
+	 * Longest time, in milliseconds, that saved chunks are only held in the
+	 * write cache when they aren't journaled.
+	 */
+	private static final long CACHE_FLUSH_INTERVAL = 5000;
+	/**
+	 * {@link System#currentTimeMillis()} at which the write cache was last
+	 * flushed by {@link #tickWriteCache}; only accessed on the client thread.
+	 */
+	private long lastCacheFlush = System.currentTimeMillis();
+	/**
+	 * Journal size, in bytes, above which it is checkpointed after an autosave.
+	 */
+	private static final long JOURNAL_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+	/**
+	 * Runs journal recovery and checkpoints, so that they don't hold up the
+	 * client thread.
+	 */
+	private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "WDL Chunk Loader Thread");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public WDLChunkLoader(DownloadSession session, File file) {
+		super(session, file);
+		this.directWrite = FastChunkWriter.isAvailable() && canRunRegionTasks();
+		this.fastSave = directWrite && WDL.serverProps.getValue(MiscSettings.FAST_SAVE);
+		this.encoder = new ChunkEncoder(fastSave ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION);
+		int cacheSize = WDL.serverProps.getValue(MiscSettings.CHUNK_CACHE_SIZE);
+		this.writeCache = cacheSize > 0
+				? new ChunkWriteCache(this::writeChunkToRegion, cacheSize * 1024L * 1024L)
+				: null;
+		int prefetchSize = WDL.serverProps.getValue(MiscSettings.OLD_CHUNK_PREFETCH);
+		this.prefetcher = prefetchSize > 0
+				? new OldChunkPrefetcher(this::readOldTileEntityList, prefetchSize)
+				: null;
+
+		this.journal = new ChunkJournal(file.getParentFile());
+		this.journaling = WDL.serverProps.getValue(MiscSettings.CHUNK_JOURNAL);
+		// Recover from a previous crash even if journaling is now disabled
+		if (journal.exists()) {
+			this.recovery = CompletableFuture.runAsync(() -> {
+				try {
+					recoverJournal();
+				} catch (RuntimeException ex) {
+					LOGGER.warn("[WDL] Failed to recover chunk journal", ex);
+				}
+			}, BACKGROUND_EXECUTOR);
+		} else {
+			this.recovery = CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/**
+	 * Waits for the journal left behind by a previous session to be recovered.
+	 */
+	private void awaitRecovery() {
+		recovery.join();
+	}
+
+	/**
+	 * Writes whatever a previous session left in the journal (e.g. because
+	 * the game crashed while downloading) into the region files.  Tile
+	 * entities whose chunk has never been saved are spilled, so that they are
+	 * added to it if it is saved in this session, and kept in the journal
+	 * until then.  Runs on the background thread.
+	 */
+	private void recoverJournal() {
+		ChunkJournal.Recovered recovered;
+		try {
+			recovered = journal.recover();
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to read chunk journal; its contents are lost", ex);
+			return;
+		}
+		if (recovered == null) {
+			return;
+		}
+
+		int tileEntities = 0;
+		Map<ChunkPos, List<CompoundNBT>> uncaptured = new HashMap<>();
+		for (Map.Entry<ChunkPos, List<CompoundNBT>> e : recovered.tileEntities.entrySet()) {
+			ChunkPos pos = e.getKey();
+			CompoundNBT rootTag = null;
+			try {
+				rootTag = readChunk(pos);
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to read chunk at " + pos + " to recover tile entities into", ex);
+			}
+			if (rootTag != null) {
+				for (CompoundNBT tileEntity : e.getValue()) {
+					ChunkJournal.mergeTileEntity(rootTag, tileEntity);
+				}
+				recovered.chunks.put(pos, rootTag);
+			} else {
+				// The chunk hasn't been saved yet; keep them until it is
+				uncaptured.put(pos, e.getValue());
+			}
+			tileEntities += e.getValue().size();
+		}
+
+		for (Map.Entry<ChunkPos, CompoundNBT> e : recovered.chunks.entrySet()) {
+			try {
+				writeChunkToRegion(e.getKey(), encoder.encode(e.getValue()));
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to recover chunk at " + e.getKey(), ex);
+			}
+		}
+		super.flush();
+
+		for (Map.Entry<ChunkPos, List<CompoundNBT>> e : uncaptured.entrySet()) {
+			for (CompoundNBT tileEntity : e.getValue()) {
+				try {
+					if (session.spillStore == null) {
+						LOGGER.warn("[WDL] Can't recover tile entity {} without a spill store", tileEntity);
+						continue;
+					}
+					session.spillStore.spillTileEntity(e.getKey(), tileEntity);
+					journal.appendTileEntity(e.getKey(), tileEntity);
+				} catch (IOException ex) {
+					LOGGER.warn("[WDL] Failed to recover tile entity " + tileEntity, ex);
+				}
+			}
+		}
+		LOGGER.info("[WDL] Recovered {} chunks and {} tile entities from the journal in {}",
+				recovered.chunks.size(), tileEntities, chunkSaveLocation);
+	}
+
+	/**
+	 * Hands this loader over to a new session for the same region folder.
+	 * The previous session must have been saved (and this loader flushed).
+	 */
+	void attach(DownloadSession session) {
+		this.session = session;
+	}
+
+	@Override
+	protected void writeChunkData(ChunkPos pos, ChunkEncoder.Content content) throws IOException {
+		awaitRecovery();
+		// Encoding takes the prefetched old tile entities, if there are any
+		ByteBuffer data = encoder.encode(content);
+		try {
+			if (journaling) {
+				journal.appendChunk(pos, data);
+			} else {
+				journal.forgetTileEntities(pos);
+			}
+			if (writeCache != null) {
+				writeCache.put(pos, data);
+			} else {
+				writeChunkToRegion(pos, data);
+			}
+		} finally {
+			if (prefetcher != null) {
+				// Anything prefetched before now is out of date; this is done
+				// last so that prefetches started afterwards see the new copy
+				prefetcher.invalidate(pos);
+			}
+		}
+	}
+
+	/**
+	 * Writes the given chunk's compressed NBT into its region file, bypassing
+	 * the write cache.  The buffer's position is not changed.
+	 */
+	private void writeChunkToRegion(ChunkPos pos, ByteBuffer data) throws IOException {
+		int regionX = pos.getRegionCoordX();
+		int regionZ = pos.getRegionCoordZ();
+		File regionLocation = getRegionFileLocation(regionX, regionZ);
+		if (directWrite) {
+			// The region file cache isn't thread-safe; only its owner may use it
+			runRegionTask(() -> {
+				RegionFile region = getRegionFile(regionX, regionZ, true);
+				if (region == null) {
+					throw new IOException("Failed to open region file for " + pos);
+				}
+				FastChunkWriter.write(region, pos, data);
+				return null;
+			});
+			if (fastSave) {
+				fastSavedRegions.add(regionLocation);
+			}
+		} else {
+			// Vanilla has to decode it and compress it again
+			writeChunk(pos, ChunkEncoder.decode(data));
+		}
+		writtenRegions.add(regionLocation);
+	}
+
+	/**
+	 * Writes all chunks in the write cache that haven't been written to their
+	 * region files yet.  Unlike {@link #flush()}, this doesn't wait for the
+	 * writes to reach the disk.
+	 */
+	public void flushWriteCache() throws IOException {
+		if (writeCache != null) {
+			writeCache.flush();
+		}
+	}
+
+	/**
+	 * Records that the given tile entity has been captured, so that it can be
+	 * recovered if the game crashes before its chunk is saved.
+	 */
+	public void journalTileEntity(ChunkPos pos, CompoundNBT tag) {
+		if (!journaling) {
+			return;
+		}
+		awaitRecovery();
+		try {
+			journal.appendTileEntity(pos, tag);
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to journal tile entity at " + pos, ex);
+		}
+	}
+
+	/**
+	 * Called on the client thread when an autosave has finished.  Without a
+	 * journal, cached chunks are written to their region files so that the
+	 * autosave is on disk; with one, that only happens once the journal has
+	 * grown too large.  Either way, the writing is done in the background.
+	 */
+	public void onAutosaved() throws IOException {
+		if (!journaling) {
+			if (writeCache != null) {
+				writeCache.flushInBackground().whenComplete((result, ex) -> {
+					if (ex != null) {
+						LOGGER.warn("[WDL] Failed to write cached chunks after autosaving", ex);
+					}
+				});
+			}
+		} else if (checkpoint.isDone() && journal.getSize() > JOURNAL_CHECKPOINT_SIZE) {
+			checkpoint = CompletableFuture.runAsync(this::flush, BACKGROUND_EXECUTOR);
+		}
+	}
+
+	@Override
+	public void flush() {
+		awaitRecovery();
+		boolean cacheFlushed = true;
+		long mark = 0;
+		try {
+			// Anything journaled after this might not be flushed below
+			mark = journal.getCheckpointMark();
+			flushWriteCache();
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to write cached chunks", ex);
+			cacheFlushed = false;
+		}
+		super.flush();
+		if (journaling && cacheFlushed) {
+			try {
+				journal.checkpoint(mark);
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to checkpoint chunk journal", ex);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		awaitRecovery();
+		checkpoint.join();
+		if (prefetcher != null) {
+			prefetcher.close();
+		}
+		if (writeCache != null) {
+			writeCache.close();
+		}
+		super.close();
+		journal.close();
+		encoder.close();
+	}
+
+	/**
+	 * Gets the region files that have been written with a fast compression
+	 * level, which should be recompressed by {@link RegionRecompressor} once
+	 * this loader has been closed.
+	 */
+	public Set<File> getFastSavedRegions() {
+		synchronized (fastSavedRegions) {
+			return new HashSet<>(fastSavedRegions);
+		}
 	}
 
-	public WDLChunkLoader(WDL wdl, File file) {
-		super(wdl, file);
+	/**
+	 * Gets all region files that have been written to, which can be compacted
+	 * by {@link RegionCompactor} once this loader has been closed.
+	 */
+	public Set<File> getWrittenRegions() {
+		synchronized (writtenRegions) {
+			return new HashSet<>(writtenRegions);
+		}
 	}
 
 	/**
@@ -89,14 +445,16 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 			entities.addAll(map);
 		}
 		// Add the manually saved entities.
-		for (Entity e : wdl.newEntities.get(chunk.getPos())) {
-			assert chunk.getPos().equals(wdl.entityPositions.get(e.getUniqueID())) :
-				"Mismatch between position of " + e + " in "
-				+ chunk.getPos() + " and position recorded in entityPositions of "
-				+ wdl.entityPositions.get(e.getUniqueID());
+		Set<UUID> savedUUIDs = new HashSet<>();
+		for (Entity e : session.newEntities.get(chunk.getPos()).values()) {
+			if (!chunk.getPos().equals(session.entityPositions.get(e.getUniqueID()))) {
+				// Moved to a different chunk while this one was being saved
+				continue;
+			}
 			// "Unkill" the entity, since it is killed when it is unloaded.
 			e.removed = false;
 			entities.add(e);
+			savedUUIDs.add(e.getUniqueID());
 		}
 
 		for (Entity entity : entities) {
@@ -110,20 +468,7 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 				continue;
 			}
 
-			// Apply any editors.
-			for (ModInfo<IEntityEditor> info : WDLApi
-					.getImplementingExtensions(IEntityEditor.class)) {
-				try {
-					if (info.mod.shouldEdit(entity)) {
-						info.mod.editEntity(entity);
-					}
-				} catch (Exception ex) {
-					throw new RuntimeException("Failed to edit entity "
-							+ entity + " for chunk at "
-							+ chunk.getPos() + " with extension "
-							+ info, ex);
-				}
-			}
+			editEntity(entity, chunk.getPos());
 
 			CompoundNBT entityData = new CompoundNBT();
 
@@ -169,9 +514,79 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 			}
 		}
 
+		// Add the manually saved entities that were spilled to disk.  These
+		// have already been checked and edited when they were spilled.
+		for (Map.Entry<UUID, CompoundNBT> e : getSpilledEntities(chunk).entrySet()) {
+			if (savedUUIDs.contains(e.getKey())) {
+				// A newer copy is still in memory
+				continue;
+			}
+			if (!chunk.getPos().equals(session.entityPositions.get(e.getKey()))) {
+				// It has since moved to a different chunk
+				continue;
+			}
+			chunk.setHasEntities(true);
+			entityList.add(e.getValue());
+		}
+
 		return entityList;
 	}
 
+	/**
+	 * Applies all registered {@link IEntityEditor}s to the given entity.
+	 */
+	protected static void editEntity(Entity entity, ChunkPos pos) {
+		for (ModInfo<IEntityEditor> info : WDLApi
+				.getImplementingExtensions(IEntityEditor.class)) {
+			try {
+				if (info.mod.shouldEdit(entity)) {
+					info.mod.editEntity(entity);
+				}
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to edit entity "
+						+ entity + " for chunk at "
+						+ pos + " with extension "
+						+ info, ex);
+			}
+		}
+	}
+
+	/**
+	 * Gets the entities in the given chunk that were spilled to disk.
+	 */
+	private Map<UUID, CompoundNBT> getSpilledEntities(Chunk chunk) {
+		CaptureSpillStore store = session.spillStore;
+		if (store == null) {
+			return Collections.emptyMap();
+		}
+		try {
+			return store.readEntities(chunk.getPos());
+		} catch (IOException ex) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ERROR,
+					"wdl.messages.generalError.failedToReadSpilled", chunk.getPos().x, chunk.getPos().z, ex);
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Gets the tile entities in the given chunk that were spilled to disk.
+	 */
+	private Map<BlockPos, CompoundNBT> getSpilledTileEntities(Chunk chunk) {
+		CaptureSpillStore store = session.spillStore;
+		if (store == null) {
+			return Collections.emptyMap();
+		}
+		try {
+			return store.readTileEntities(chunk.getPos());
+		} catch (IOException ex) {
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ERROR,
+					"wdl.messages.generalError.failedToReadSpilled", chunk.getPos().x, chunk.getPos().z, ex);
+			return Collections.emptyMap();
+		}
+	}
+
 	/**
 	 * Checks if the given entity should be saved, putting a message into the
 	 * chat if it can't.
@@ -211,16 +626,15 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 
 		Map<BlockPos, TileEntity> chunkTEMap = chunk.getTileEntityMap();
 		Map<BlockPos, CompoundNBT> oldTEMap = getOldTileEntities(chunk);
-		Map<BlockPos, TileEntity> newTEMap = wdl.newTileEntities.get(chunk.getPos());
-		if (newTEMap == null) {
-			newTEMap = new HashMap<>();
-		}
+		Map<BlockPos, TileEntity> newTEMap = session.newTileEntities.get(chunk.getPos());
+		Map<BlockPos, CompoundNBT> spilledTEMap = getSpilledTileEntities(chunk);
 
 		// All of the locations of tile entities in the chunk.
 		Set<BlockPos> allTELocations = new HashSet<>();
 		allTELocations.addAll(chunkTEMap.keySet());
 		allTELocations.addAll(oldTEMap.keySet());
 		allTELocations.addAll(newTEMap.keySet());
+		allTELocations.addAll(spilledTEMap.keySet());
 
 		for (BlockPos pos : allTELocations) {
 			// Now, add all of the tile entities, using the "best" map
@@ -249,6 +663,19 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 
 				editTileEntity(pos, compound, TileEntityCreationMode.NEW);
 
+				tileEntityList.add(compound);
+			} else if (spilledTEMap.containsKey(pos)) {
+				// A new tile entity that was spilled to disk; it was written
+				// at the time it was spilled, but hasn't been edited yet.
+				CompoundNBT compound = spilledTEMap.get(pos);
+				String entityType = compound.getString("id");
+				WDLMessages.chatMessageTranslated(
+						WDL.serverProps,
+						WDLMessageTypes.LOAD_TILE_ENTITY,
+						"wdl.messages.tileEntity.usingNew", entityType, pos);
+
+				editTileEntity(pos, compound, TileEntityCreationMode.NEW);
+
 				tileEntityList.add(compound);
 			} else if (oldTEMap.containsKey(pos)) {
 				CompoundNBT compound = oldTEMap.get(pos);
@@ -302,19 +729,11 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 		Map<BlockPos, CompoundNBT> returned = new HashMap<>();
 
 		try {
-			CompoundNBT chunkNBT;
-
-			// XXX The cache is gone now (along with MC-119971), right?
-			chunkNBT = this.readChunk(chunk.getPos());
-			if (chunkNBT == null) {
-				// This happens whenever the chunk hasn't been saved before.
-				// It's a normal case.
-				return returned;
+			ListNBT oldList = prefetcher != null ? prefetcher.take(chunk.getPos()) : null;
+			if (oldList == null) {
+				oldList = readOldTileEntityList(chunk.getPos());
 			}
 
-			CompoundNBT levelNBT = chunkNBT.getCompound("Level");
-			ListNBT oldList = levelNBT.getList("TileEntities", 10);
-
 			if (oldList != null) {
 				for (int i = 0; i < oldList.size(); i++) {
 					CompoundNBT oldNBT = oldList.getCompound(i);
@@ -345,6 +764,61 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 		return returned;
 	}
 
+	/**
+	 * Reads the tile entities of the previously saved copy of the given chunk,
+	 * from the write cache or the region file.
+	 *
+	 * @return The tile entity list; empty if the chunk hasn't been saved before.
+	 */
+	private ListNBT readOldTileEntityList(ChunkPos pos) throws IOException {
+		awaitRecovery();
+		// XXX The cache is gone now (along with MC-119971), right?
+		CompoundNBT chunkNBT = writeCache != null ? writeCache.get(pos) : null;
+		if (chunkNBT == null) {
+			chunkNBT = this.readChunk(pos);
+		}
+		if (chunkNBT == null) {
+			// This happens whenever the chunk hasn't been saved before.
+			// It's a normal case.
+			return new ListNBT();
+		}
+
+		CompoundNBT levelNBT = chunkNBT.getCompound("Level");
+		return levelNBT.getList("TileEntities", 10);
+	}
+
+	/**
+	 * Prefetches old tile entities of chunks that the player is moving away
+	 * from.  Called every tick on the client thread while downloading.
+	 */
+	void tickPrefetch() {
+		if (prefetcher != null) {
+			DownloadSession session = this.session;
+			prefetcher.tick(session.player, () -> WDL.getChunkList(session.world));
+		}
+	}
+
+	/**
+	 * Without a journal, writes cached chunks to their region files every few
+	 * seconds in the background, so that a crash can't lose more than that.
+	 * Called every tick on the client thread while downloading.
+	 */
+	void tickWriteCache() {
+		if (journaling || writeCache == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastCacheFlush < CACHE_FLUSH_INTERVAL || writeCache.getDirtyCount() == 0) {
+			return;
+		}
+		lastCacheFlush = now;
+		writeCache.flushInBackground().whenComplete((result, ex) -> {
+			if (ex != null) {
+				LOGGER.warn("[WDL] Failed to write cached chunks", ex);
+			}
+		});
+	}
+
 	/**
 	 * Checks if the block entity should be imported. Only "problematic" (IE,
 	 * those that require manual interaction such as chests) block entities will
@@ -409,8 +883,35 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 		}
 	}
 
+	@Override
+	public String toString() {
+		return "WDLChunkLoader [chunkSaveLocation=" + chunkSaveLocation + ", fastSave=" + fastSave
+				+ ", writeCache=" + writeCache + ", journal=" + journal + ", prefetcher=" + prefetcher + "]";
+	}
+
 	@Nullable
 	public RegionFile getRegionFileIfExists(int regionX, int regionZ) {
+		if (!canRunRegionTasks()) {
+			return null;
+		}
+		try {
+			return runRegionTask(() -> getRegionFile(regionX, regionZ, false));
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to get region file", ex);
+			return null;
+		}
+	}
+
+	private File getRegionFileLocation(int regionX, int regionZ) {
+		return new File(this.chunkSaveLocation, "r." + regionX + "." + regionZ + ".mca");
+	}
+
+	/**
+	 * Gets a region file from the region file cache.  Must only be used in a
+	 * region task.
+	 */
+	@Nullable
+	private RegionFile getRegionFile(int regionX, int regionZ, boolean create) {
 		// Based on RegionFileCache.func_219098_a
 		try {
 			long cacheKey = ChunkPos.asLong(regionX, regionZ);
@@ -418,14 +919,14 @@ public class WDLChunkLoader extends WDLChunkLoaderBase {
 			if (regionfile != null) {
 				return regionfile;
 			} else {
-				File file = new File(this.chunkSaveLocation, "r." + regionX + "." + regionZ + ".mca");
-				if (!file.exists()) {
+				File file = getRegionFileLocation(regionX, regionZ);
+				if (!create && !file.exists()) {
 					// This is changed from func_219098_a; we don't want to create the file if it doesn't exist
 					return null;
 				}
 
 				if (this.cache.size() >= 256) {
-					this.cache.removeLast();
+					this.cache.removeLast().close();
 				}
 
 				if (!this.chunkSaveLocation.exists()) {
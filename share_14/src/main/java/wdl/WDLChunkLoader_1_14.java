@@ -24,7 +24,6 @@ import javax.annotation.Nullable;
 import it.unimi.dsi.fastutil.shorts.ShortList;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.nbt.ListNBT;
-import net.minecraft.nbt.LongArrayNBT;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.SectionPos;
 import net.minecraft.world.LightType;
@@ -81,7 +80,11 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 		return new File(dimensionFolder, "region");
 	}
 
-	protected final WDL wdl;
+	/**
+	 * The session using this loader; changes when the loader is reused by
+	 * {@link ChunkLoaderRegistry}.
+	 */
+	protected volatile DownloadSession session;
 	/**
 	 * Location where chunks are saved.
 	 *
@@ -90,10 +93,31 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 	 */
 	protected final File chunkSaveLocation;
 
-	protected WDLChunkLoaderBase(WDL wdl, File file) {
+	/**
+	 * Whether light data is left out of saved chunks, which are then marked
+	 * as not lit so that the game relights them when they are first loaded.
+	 */
+	protected final boolean stripLight;
+
+	/**
+	 * Something that needs the region file cache to itself.
+	 */
+	@FunctionalInterface
+	protected static interface RegionTask<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Guards the region file cache, which vanilla only uses on the thread
+	 * that reads or writes a chunk.
+	 */
+	private final Object regionLock = new Object();
+
+	protected WDLChunkLoaderBase(DownloadSession session, File file) {
 		super(file, null);
-		this.wdl = wdl;
+		this.session = session;
 		this.chunkSaveLocation = file;
+		this.stripLight = WDL.serverProps.getValue(MiscSettings.STRIP_LIGHT);
 	}
 
 	/**
@@ -103,53 +127,87 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 	 * version does not.
 	 */
 	public synchronized void saveChunk(World world, IChunk chunk) throws Exception {
-		wdl.saveHandler.checkSessionLock();
+		saveChunk(world, chunk, true);
+	}
 
-		CompoundNBT levelTag = writeChunkToNBT((Chunk)chunk, world);
+	/**
+	 * Saves the given chunk.
+	 *
+	 * @param release Whether to release the captured data for the chunk
+	 *            afterwards (via {@link DownloadSession#releaseChunk}); false if the chunk
+	 *            remains loaded.
+	 */
+	public synchronized void saveChunk(World world, IChunk chunk, boolean release) throws Exception {
+		session.saveHandler.checkSessionLock();
 
-		CompoundNBT rootTag = new CompoundNBT();
-		rootTag.put("Level", levelTag);
-		rootTag.putInt("DataVersion", VersionConstants.getDataVersion());
+		writeChunkData(chunk.getPos(), out -> writeChunkRoot((Chunk)chunk, world, out));
 
-		writeChunk(chunk.getPos(), rootTag);
+		if (release) {
+			session.releaseChunk(chunk.getPos());
+		}
+	}
 
-		wdl.unloadChunk(chunk.getPos());
+	/**
+	 * Encodes the given chunk's NBT (with the Level and DataVersion tags) and
+	 * writes it into its region file.
+	 */
+	protected abstract void writeChunkData(ChunkPos pos, ChunkEncoder.Content content) throws IOException;
+
+	/**
+	 * Writes the given chunk's root compound, with the Level and DataVersion
+	 * tags.
+	 */
+	protected void writeChunkRoot(Chunk chunk, World world, NBTStreamWriter out) throws IOException {
+		out.beginCompound("");
+		out.beginCompound("Level");
+		writeChunkToNBT(chunk, world, out);
+		out.endCompound();
+		out.putInt("DataVersion", VersionConstants.getDataVersion());
+		out.endCompound();
 	}
 
 	/**
-	 * Writes the given chunk, creating an NBT compound tag.
+	 * Writes the contents of the given chunk's Level compound.
 	 *
 	 * Note that this does <b>not</b> override the private method
 	 * {@link AnvilChunkLoader#writeChunkToNBT(Chunk, World, NBTCompoundNBT)}.
 	 * That method is private and cannot be overridden; plus, this version
-	 * returns a tag rather than modifying the one passed as an argument.
+	 * streams the tags instead of building a compound.  Only block palettes,
+	 * entities, tile entities, and tick lists are still created as tags, by
+	 * the code that produces them.
 	 *
 	 * @param chunk
 	 *            The chunk to write
 	 * @param world
 	 *            The world the chunk is in, used to determine the modified
 	 *            time.
-	 * @return A new CompoundNBT
+	 * @param out
+	 *            The writer, positioned inside of the Level compound
 	 */
-	private CompoundNBT writeChunkToNBT(Chunk chunk, World world) {
-		CompoundNBT compound = new CompoundNBT();
-
+	protected void writeChunkToNBT(Chunk chunk, World world, NBTStreamWriter out) throws IOException {
 		ChunkPos chunkpos = chunk.getPos();
-		compound.putInt("xPos", chunkpos.x);
-		compound.putInt("zPos", chunkpos.z);
-		compound.putLong("LastUpdate", world.getGameTime());
-		compound.putLong("InhabitedTime", chunk.getInhabitedTime());
-		compound.putString("Status", ChunkStatus.FULL.getName()); // Make sure that the chunk is considered fully generated
+		out.putInt("xPos", chunkpos.x);
+		out.putInt("zPos", chunkpos.z);
+		out.putLong("LastUpdate", world.getGameTime());
+		out.putLong("InhabitedTime", chunk.getInhabitedTime());
+		out.putString("Status", ChunkStatus.FULL.getName()); // Make sure that the chunk is considered fully generated
 		UpgradeData upgradedata = chunk.getUpgradeData();
 
 		if (!upgradedata.isEmpty()) {
-			compound.put("UpgradeData", upgradedata.write());
+			out.put("UpgradeData", upgradedata.write());
 		}
 
 		ChunkSection[] chunkSections = chunk.getSections();
-		ListNBT chunkSectionList = new ListNBT();
 		WorldLightManager worldlightmanager = world.getChunkProvider().getLightManager();
 
+		// The number of sections needs to be known before the list is started,
+		// so find them first (indexed by y + 1)
+		boolean[] present = new boolean[18];
+		ChunkSection[] sections = new ChunkSection[18];
+		NibbleArray[] blocklightArrays = new NibbleArray[18];
+		NibbleArray[] skylightArrays = new NibbleArray[18];
+		int sectionCount = 0;
+
 		// XXX: VersionedFunctions.hasSkyLight is inapplicable here presumably, but it might still need to be used somehow
 		for (int y = -1; y < 17; ++y) {
 			final int f_y = y; // Compiler food
@@ -157,33 +215,54 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 					.filter(section -> section != null && section.getYLocation() >> 4 == f_y)
 					.findFirst()
 					.orElse(Chunk.EMPTY_SECTION);
-			NibbleArray blocklightArray = worldlightmanager.getLightEngine(LightType.BLOCK)
-					.getData(SectionPos.from(chunkpos, y));
-			NibbleArray skylightArray = worldlightmanager.getLightEngine(LightType.SKY)
-					.getData(SectionPos.from(chunkpos, y));
+			NibbleArray blocklightArray = null;
+			NibbleArray skylightArray = null;
+			if (!stripLight) {
+				blocklightArray = worldlightmanager.getLightEngine(LightType.BLOCK)
+						.getData(SectionPos.from(chunkpos, y));
+				skylightArray = worldlightmanager.getLightEngine(LightType.SKY)
+						.getData(SectionPos.from(chunkpos, y));
+			}
 			if (chunkSection != Chunk.EMPTY_SECTION || blocklightArray != null || skylightArray != null) {
-				CompoundNBT sectionNBT = new CompoundNBT();
-				sectionNBT.putByte("Y", (byte) (y & 255));
-				if (chunkSection != Chunk.EMPTY_SECTION) {
-					chunkSection.getData().writeChunkPalette(sectionNBT, "Palette", "BlockStates");
-				}
+				present[y + 1] = true;
+				sections[y + 1] = chunkSection;
+				blocklightArrays[y + 1] = blocklightArray;
+				skylightArrays[y + 1] = skylightArray;
+				sectionCount++;
+			}
+		}
 
-				if (blocklightArray != null && !blocklightArray.isEmpty()) {
-					sectionNBT.putByteArray("BlockLight", blocklightArray.getData());
-				}
+		out.beginList("Sections", NBTStreamWriter.TAG_COMPOUND, sectionCount);
+		for (int y = -1; y < 17; ++y) {
+			if (!present[y + 1]) {
+				continue;
+			}
+			out.beginCompound("");
+			out.putByte("Y", (byte) (y & 255));
+			ChunkSection chunkSection = sections[y + 1];
+			if (chunkSection != Chunk.EMPTY_SECTION) {
+				// Vanilla can only write the palette into a compound
+				CompoundNBT paletteNBT = new CompoundNBT();
+				chunkSection.getData().writeChunkPalette(paletteNBT, "Palette", "BlockStates");
+				out.put("Palette", paletteNBT.get("Palette"));
+				out.put("BlockStates", paletteNBT.get("BlockStates"));
+			}
 
-				if (skylightArray != null && !skylightArray.isEmpty()) {
-					sectionNBT.putByteArray("SkyLight", skylightArray.getData());
-				}
+			NibbleArray blocklightArray = blocklightArrays[y + 1];
+			if (blocklightArray != null && !blocklightArray.isEmpty()) {
+				out.putByteArray("BlockLight", blocklightArray.getData());
+			}
 
-				chunkSectionList.add(sectionNBT);
+			NibbleArray skylightArray = skylightArrays[y + 1];
+			if (skylightArray != null && !skylightArray.isEmpty()) {
+				out.putByteArray("SkyLight", skylightArray.getData());
 			}
+			out.endCompound();
 		}
+		out.endList();
 
-		compound.put("Sections", chunkSectionList);
-
-		if (chunk.hasLight()) {
-			compound.putBoolean("isLightOn", true);
+		if (chunk.hasLight() && !stripLight) {
+			out.putBoolean("isLightOn", true);
 		}
 
 		Biome[] biomes = chunk.func_201590_e(); // getBiomes
@@ -194,58 +273,63 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 			}
 		}
 
-		compound.putIntArray("Biomes", biomeData);
+		out.putIntArray("Biomes", biomeData);
 
 		chunk.setHasEntities(false);
-		ListNBT entityList = getEntityList(chunk);
-		compound.put("Entities", entityList);
+		out.put("Entities", getEntityList(chunk));
+		out.put("TileEntities", getTileEntityList(chunk));
 
-		ListNBT tileEntityList = getTileEntityList(chunk);
-		compound.put("TileEntities", tileEntityList);
+		// Tick lists can come from two places; the later one wins, as it did
+		// when they were put into a compound
+		ListNBT tileTicks = null;
+		ListNBT liquidTicks = null;
 
 		// XXX: Note: This was re-sorted on mojang's end; I've undone that.
 		if (world.getPendingBlockTicks() instanceof ServerTickList) {
-			compound.put("TileTicks", ((ServerTickList<?>) world.getPendingBlockTicks()).func_219503_a(chunkpos));
+			tileTicks = ((ServerTickList<?>) world.getPendingBlockTicks()).func_219503_a(chunkpos);
 		}
 		if (world.getPendingFluidTicks() instanceof ServerTickList) {
-			compound.put("LiquidTicks", ((ServerTickList<?>) world.getPendingFluidTicks()).func_219503_a(chunkpos));
+			liquidTicks = ((ServerTickList<?>) world.getPendingFluidTicks()).func_219503_a(chunkpos);
 		}
 
-		compound.put("PostProcessing", listArrayToTag(chunk.getPackedPositions()));
+		out.put("PostProcessing", listArrayToTag(chunk.getPackedPositions()));
 
 		if (chunk.getBlocksToBeTicked() instanceof ChunkPrimerTickList) {
-			compound.put("ToBeTicked", ((ChunkPrimerTickList<?>) chunk.getBlocksToBeTicked()).write());
+			out.put("ToBeTicked", ((ChunkPrimerTickList<?>) chunk.getBlocksToBeTicked()).write());
 		}
 
 		// XXX: These are new, and they might conflict with the other one.  Not sure which should be used.
 		if (chunk.getBlocksToBeTicked() instanceof SerializableTickList) {
-			compound.put("TileTicks", ((SerializableTickList<?>) chunk.getBlocksToBeTicked())
-					.save(world.getGameTime()));
+			tileTicks = ((SerializableTickList<?>) chunk.getBlocksToBeTicked())
+					.save(world.getGameTime());
 		}
 
 		if (chunk.getFluidsToBeTicked() instanceof ChunkPrimerTickList) {
-			compound.put("LiquidsToBeTicked", ((ChunkPrimerTickList<?>) chunk.getFluidsToBeTicked()).write());
+			out.put("LiquidsToBeTicked", ((ChunkPrimerTickList<?>) chunk.getFluidsToBeTicked()).write());
 		}
 
 		if (chunk.getFluidsToBeTicked() instanceof SerializableTickList) {
-			compound.put("LiquidTicks", ((SerializableTickList<?>) chunk.getFluidsToBeTicked())
-					.save(world.getGameTime()));
+			liquidTicks = ((SerializableTickList<?>) chunk.getFluidsToBeTicked())
+					.save(world.getGameTime());
 		}
 
-		CompoundNBT heightMaps = new CompoundNBT();
+		if (tileTicks != null) {
+			out.put("TileTicks", tileTicks);
+		}
+		if (liquidTicks != null) {
+			out.put("LiquidTicks", liquidTicks);
+		}
 
+		out.beginCompound("Heightmaps");
 		for (Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
 			if (chunk.getStatus().getHeightMaps().contains(entry.getKey())) {
-				heightMaps.put(entry.getKey().getId(), new LongArrayNBT(entry.getValue().getDataArray()));
+				out.putLongArray(entry.getKey().getId(), entry.getValue().getDataArray());
 			}
 		}
-
-		compound.put("Heightmaps", heightMaps);
+		out.endCompound();
 		// TODO
 		//compound.put("Structures",
 		//		writeStructures(chunkpos, chunk.getStructureStarts(), chunk.getStructureReferences()));
-
-		return compound;
 	}
 
 	protected abstract ListNBT getEntityList(Chunk chunk);
@@ -285,6 +369,38 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 		return new RegionFile(file);
 	}
 
+	@Override
+	@Nullable
+	public CompoundNBT readChunk(ChunkPos pos) throws IOException {
+		synchronized (regionLock) {
+			return super.readChunk(pos);
+		}
+	}
+
+	@Override
+	public void writeChunk(ChunkPos pos, CompoundNBT compound) throws IOException {
+		synchronized (regionLock) {
+			super.writeChunk(pos, compound);
+		}
+	}
+
+	/**
+	 * Checks whether {@link #runRegionTask} can be used.
+	 */
+	protected boolean canRunRegionTasks() {
+		return true;
+	}
+
+	/**
+	 * Runs the given task while no other thread is using the region file
+	 * cache.
+	 */
+	protected <T> T runRegionTask(RegionTask<T> task) throws IOException {
+		synchronized (regionLock) {
+			return task.run();
+		}
+	}
+
 	public void flush() {
 		// Do nothing; not clear what kind of flushing can be done in 1.14
 	}
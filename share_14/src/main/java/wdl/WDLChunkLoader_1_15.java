@@ -16,16 +16,24 @@ package wdl;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.mojang.datafixers.util.Either;
+
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.shorts.ShortList;
 import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.nbt.ListNBT;
-import net.minecraft.nbt.LongArrayNBT;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.SectionPos;
 import net.minecraft.util.palette.UpgradeData;
@@ -58,6 +66,41 @@ import wdl.versioned.VersionedFunctions;
  * This variant is used for chunks from 1.13 and later.
  */
 abstract class WDLChunkLoaderBase extends ChunkLoader {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * IOWorker's private method that runs a task on its thread after
+	 * everything queued before it; null if it couldn't be found.
+	 */
+	@Nullable
+	private static final Method SUBMIT_TASK = findSubmitTask();
+
+	@Nullable
+	private static Method findSubmitTask() {
+		try {
+			for (Method method : IOWorker.class.getDeclaredMethods()) {
+				if (method.getParameterCount() == 1
+						&& method.getParameterTypes()[0] == Supplier.class
+						&& method.getReturnType() == CompletableFuture.class) {
+					method.setAccessible(true);
+					return method;
+				}
+			}
+			LOGGER.warn("[WDL] Couldn't find IOWorker's task method; fast saving is unavailable");
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Couldn't access IOWorker's task method; fast saving is unavailable", ex);
+		}
+		return null;
+	}
+
+	/**
+	 * Something that needs the region file cache to itself.
+	 */
+	@FunctionalInterface
+	protected static interface RegionTask<T> {
+		T run() throws IOException;
+	}
+
 
 	/**
 	 * Gets the save folder for the given WorldProvider, respecting Forge's
@@ -84,7 +127,11 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 		return new File(dimensionFolder, "region");
 	}
 
-	protected final WDL wdl;
+	/**
+	 * The session using this loader; changes when the loader is reused by
+	 * {@link ChunkLoaderRegistry}.
+	 */
+	protected volatile DownloadSession session;
 	/**
 	 * Location where chunks are saved.
 	 *
@@ -93,15 +140,24 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 	 */
 	protected final File chunkSaveLocation;
 
+	/**
+	 * Whether light data is left out of saved chunks, which are then marked
+	 * as not lit so that the game relights them when they are first loaded.
+	 */
+	protected final boolean stripLight;
+
 	// XXX HACK this is burried deep, and probably shouldn't be directly accessed
+	// Owned by the IOWorker's thread; only use it in a region task.
 	protected final Long2ObjectLinkedOpenHashMap<RegionFile> cache;
+	private final IOWorker worker;
 
 	@SuppressWarnings({ "resource", "unchecked" })
-	protected WDLChunkLoaderBase(WDL wdl, File file) {
+	protected WDLChunkLoaderBase(DownloadSession session, File file) {
 		super(file, null);
-		this.wdl = wdl;
+		this.session = session;
 		this.chunkSaveLocation = file;
-		IOWorker worker = ReflectionUtils.findAndGetPrivateField(this, ChunkLoader.class, IOWorker.class);
+		this.stripLight = WDL.serverProps.getValue(MiscSettings.STRIP_LIGHT);
+		this.worker = ReflectionUtils.findAndGetPrivateField(this, ChunkLoader.class, IOWorker.class);
 		RegionFileCache rfc = ReflectionUtils.findAndGetPrivateField(worker, RegionFileCache.class);
 		this.cache = ReflectionUtils.findAndGetPrivateField(rfc, Long2ObjectLinkedOpenHashMap.class);
 	}
@@ -113,53 +169,87 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 	 * version does not.
 	 */
 	public synchronized void saveChunk(World world, IChunk chunk) throws Exception {
-		wdl.saveHandler.checkSessionLock();
+		saveChunk(world, chunk, true);
+	}
 
-		CompoundNBT levelTag = writeChunkToNBT((Chunk)chunk, world);
+	/**
+	 * Saves the given chunk.
+	 *
+	 * @param release Whether to release the captured data for the chunk
+	 *            afterwards (via {@link DownloadSession#releaseChunk}); false if the chunk
+	 *            remains loaded.
+	 */
+	public synchronized void saveChunk(World world, IChunk chunk, boolean release) throws Exception {
+		session.saveHandler.checkSessionLock();
 
-		CompoundNBT rootTag = new CompoundNBT();
-		rootTag.put("Level", levelTag);
-		rootTag.putInt("DataVersion", VersionConstants.getDataVersion());
+		writeChunkData(chunk.getPos(), out -> writeChunkRoot((Chunk)chunk, world, out));
 
-		writeChunk(chunk.getPos(), rootTag);
+		if (release) {
+			session.releaseChunk(chunk.getPos());
+		}
+	}
 
-		wdl.unloadChunk(chunk.getPos());
+	/**
+	 * Encodes the given chunk's NBT (with the Level and DataVersion tags) and
+	 * writes it into its region file.
+	 */
+	protected abstract void writeChunkData(ChunkPos pos, ChunkEncoder.Content content) throws IOException;
+
+	/**
+	 * Writes the given chunk's root compound, with the Level and DataVersion
+	 * tags.
+	 */
+	protected void writeChunkRoot(Chunk chunk, World world, NBTStreamWriter out) throws IOException {
+		out.beginCompound("");
+		out.beginCompound("Level");
+		writeChunkToNBT(chunk, world, out);
+		out.endCompound();
+		out.putInt("DataVersion", VersionConstants.getDataVersion());
+		out.endCompound();
 	}
 
 	/**
-	 * Writes the given chunk, creating an NBT compound tag.
+	 * Writes the contents of the given chunk's Level compound.
 	 *
 	 * Note that this does <b>not</b> override the private method
 	 * {@link AnvilChunkLoader#writeChunkToNBT(Chunk, World, NBTCompoundNBT)}.
 	 * That method is private and cannot be overridden; plus, this version
-	 * returns a tag rather than modifying the one passed as an argument.
+	 * streams the tags instead of building a compound.  Only block palettes,
+	 * entities, tile entities, and tick lists are still created as tags, by
+	 * the code that produces them.
 	 *
 	 * @param chunk
 	 *            The chunk to write
 	 * @param world
 	 *            The world the chunk is in, used to determine the modified
 	 *            time.
-	 * @return A new CompoundNBT
+	 * @param out
+	 *            The writer, positioned inside of the Level compound
 	 */
-	private CompoundNBT writeChunkToNBT(Chunk chunk, World world) {
-		CompoundNBT compound = new CompoundNBT();
-
+	protected void writeChunkToNBT(Chunk chunk, World world, NBTStreamWriter out) throws IOException {
 		ChunkPos chunkpos = chunk.getPos();
-		compound.putInt("xPos", chunkpos.x);
-		compound.putInt("zPos", chunkpos.z);
-		compound.putLong("LastUpdate", world.getGameTime());
-		compound.putLong("InhabitedTime", chunk.getInhabitedTime());
-		compound.putString("Status", ChunkStatus.FULL.getName()); // Make sure that the chunk is considered fully generated
+		out.putInt("xPos", chunkpos.x);
+		out.putInt("zPos", chunkpos.z);
+		out.putLong("LastUpdate", world.getGameTime());
+		out.putLong("InhabitedTime", chunk.getInhabitedTime());
+		out.putString("Status", ChunkStatus.FULL.getName()); // Make sure that the chunk is considered fully generated
 		UpgradeData upgradedata = chunk.getUpgradeData();
 
 		if (!upgradedata.isEmpty()) {
-			compound.put("UpgradeData", upgradedata.write());
+			out.put("UpgradeData", upgradedata.write());
 		}
 
 		ChunkSection[] chunkSections = chunk.getSections();
-		ListNBT chunkSectionList = new ListNBT();
 		WorldLightManager worldlightmanager = world.getChunkProvider().getLightManager();
 
+		// The number of sections needs to be known before the list is started,
+		// so find them first (indexed by y + 1)
+		boolean[] present = new boolean[18];
+		ChunkSection[] sections = new ChunkSection[18];
+		NibbleArray[] blocklightArrays = new NibbleArray[18];
+		NibbleArray[] skylightArrays = new NibbleArray[18];
+		int sectionCount = 0;
+
 		// XXX: VersionedFunctions.hasSkyLight is inapplicable here presumably, but it might still need to be used somehow
 		for (int y = -1; y < 17; ++y) {
 			final int f_y = y; // Compiler food
@@ -167,89 +257,116 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 					.filter(section -> section != null && section.getYLocation() >> 4 == f_y)
 					.findFirst()
 					.orElse(Chunk.EMPTY_SECTION);
-			NibbleArray blocklightArray = worldlightmanager.getLightEngine(LightType.BLOCK)
-					.getData(SectionPos.from(chunkpos, y));
-			NibbleArray skylightArray = worldlightmanager.getLightEngine(LightType.SKY)
-					.getData(SectionPos.from(chunkpos, y));
+			NibbleArray blocklightArray = null;
+			NibbleArray skylightArray = null;
+			if (!stripLight) {
+				blocklightArray = worldlightmanager.getLightEngine(LightType.BLOCK)
+						.getData(SectionPos.from(chunkpos, y));
+				skylightArray = worldlightmanager.getLightEngine(LightType.SKY)
+						.getData(SectionPos.from(chunkpos, y));
+			}
 			if (chunkSection != Chunk.EMPTY_SECTION || blocklightArray != null || skylightArray != null) {
-				CompoundNBT sectionNBT = new CompoundNBT();
-				sectionNBT.putByte("Y", (byte) (y & 255));
-				if (chunkSection != Chunk.EMPTY_SECTION) {
-					chunkSection.getData().writeChunkPalette(sectionNBT, "Palette", "BlockStates");
-				}
+				present[y + 1] = true;
+				sections[y + 1] = chunkSection;
+				blocklightArrays[y + 1] = blocklightArray;
+				skylightArrays[y + 1] = skylightArray;
+				sectionCount++;
+			}
+		}
 
-				if (blocklightArray != null && !blocklightArray.isEmpty()) {
-					sectionNBT.putByteArray("BlockLight", blocklightArray.getData());
-				}
+		out.beginList("Sections", NBTStreamWriter.TAG_COMPOUND, sectionCount);
+		for (int y = -1; y < 17; ++y) {
+			if (!present[y + 1]) {
+				continue;
+			}
+			out.beginCompound("");
+			out.putByte("Y", (byte) (y & 255));
+			ChunkSection chunkSection = sections[y + 1];
+			if (chunkSection != Chunk.EMPTY_SECTION) {
+				// Vanilla can only write the palette into a compound
+				CompoundNBT paletteNBT = new CompoundNBT();
+				chunkSection.getData().writeChunkPalette(paletteNBT, "Palette", "BlockStates");
+				out.put("Palette", paletteNBT.get("Palette"));
+				out.put("BlockStates", paletteNBT.get("BlockStates"));
+			}
 
-				if (skylightArray != null && !skylightArray.isEmpty()) {
-					sectionNBT.putByteArray("SkyLight", skylightArray.getData());
-				}
+			NibbleArray blocklightArray = blocklightArrays[y + 1];
+			if (blocklightArray != null && !blocklightArray.isEmpty()) {
+				out.putByteArray("BlockLight", blocklightArray.getData());
+			}
 
-				chunkSectionList.add(sectionNBT);
+			NibbleArray skylightArray = skylightArrays[y + 1];
+			if (skylightArray != null && !skylightArray.isEmpty()) {
+				out.putByteArray("SkyLight", skylightArray.getData());
 			}
+			out.endCompound();
 		}
+		out.endList();
 
-		compound.put("Sections", chunkSectionList);
-
-		if (chunk.hasLight()) {
-			compound.putBoolean("isLightOn", true);
+		if (chunk.hasLight() && !stripLight) {
+			out.putBoolean("isLightOn", true);
 		}
 
 		BiomeContainer biomes = chunk.getBiomes();
 		if (biomes != null) {
-			compound.putIntArray("Biomes", biomes.getBiomeIds());
+			out.putIntArray("Biomes", biomes.getBiomeIds());
 		}
 
 		chunk.setHasEntities(false);
-		ListNBT entityList = getEntityList(chunk);
-		compound.put("Entities", entityList);
+		out.put("Entities", getEntityList(chunk));
+		out.put("TileEntities", getTileEntityList(chunk));
 
-		ListNBT tileEntityList = getTileEntityList(chunk);
-		compound.put("TileEntities", tileEntityList);
+		// Tick lists can come from two places; the later one wins, as it did
+		// when they were put into a compound
+		ListNBT tileTicks = null;
+		ListNBT liquidTicks = null;
 
 		// XXX: Note: This was re-sorted on mojang's end; I've undone that.
 		if (world.getPendingBlockTicks() instanceof ServerTickList) {
-			compound.put("TileTicks", ((ServerTickList<?>) world.getPendingBlockTicks()).func_219503_a(chunkpos));
+			tileTicks = ((ServerTickList<?>) world.getPendingBlockTicks()).func_219503_a(chunkpos);
 		}
 		if (world.getPendingFluidTicks() instanceof ServerTickList) {
-			compound.put("LiquidTicks", ((ServerTickList<?>) world.getPendingFluidTicks()).func_219503_a(chunkpos));
+			liquidTicks = ((ServerTickList<?>) world.getPendingFluidTicks()).func_219503_a(chunkpos);
 		}
 
-		compound.put("PostProcessing", listArrayToTag(chunk.getPackedPositions()));
+		out.put("PostProcessing", listArrayToTag(chunk.getPackedPositions()));
 
 		if (chunk.getBlocksToBeTicked() instanceof ChunkPrimerTickList) {
-			compound.put("ToBeTicked", ((ChunkPrimerTickList<?>) chunk.getBlocksToBeTicked()).write());
+			out.put("ToBeTicked", ((ChunkPrimerTickList<?>) chunk.getBlocksToBeTicked()).write());
 		}
 
 		// XXX: These are new, and they might conflict with the other one.  Not sure which should be used.
 		if (chunk.getBlocksToBeTicked() instanceof SerializableTickList) {
-			compound.put("TileTicks", ((SerializableTickList<?>) chunk.getBlocksToBeTicked())
-					.save(world.getGameTime()));
+			tileTicks = ((SerializableTickList<?>) chunk.getBlocksToBeTicked())
+					.save(world.getGameTime());
 		}
 
 		if (chunk.getFluidsToBeTicked() instanceof ChunkPrimerTickList) {
-			compound.put("LiquidsToBeTicked", ((ChunkPrimerTickList<?>) chunk.getFluidsToBeTicked()).write());
+			out.put("LiquidsToBeTicked", ((ChunkPrimerTickList<?>) chunk.getFluidsToBeTicked()).write());
 		}
 
 		if (chunk.getFluidsToBeTicked() instanceof SerializableTickList) {
-			compound.put("LiquidTicks", ((SerializableTickList<?>) chunk.getFluidsToBeTicked())
-					.save(world.getGameTime()));
+			liquidTicks = ((SerializableTickList<?>) chunk.getFluidsToBeTicked())
+					.save(world.getGameTime());
 		}
 
-		CompoundNBT heightMaps = new CompoundNBT();
+		if (tileTicks != null) {
+			out.put("TileTicks", tileTicks);
+		}
+		if (liquidTicks != null) {
+			out.put("LiquidTicks", liquidTicks);
+		}
 
+		out.beginCompound("Heightmaps");
 		for (Entry<Heightmap.Type, Heightmap> entry : chunk.getHeightmaps()) {
 			if (chunk.getStatus().getHeightMaps().contains(entry.getKey())) {
-				heightMaps.put(entry.getKey().getId(), new LongArrayNBT(entry.getValue().getDataArray()));
+				out.putLongArray(entry.getKey().getId(), entry.getValue().getDataArray());
 			}
 		}
-
-		compound.put("Heightmaps", heightMaps);
+		out.endCompound();
 		// TODO
 		//compound.put("Structures",
 		//		writeStructures(chunkpos, chunk.getStructureStarts(), chunk.getStructureReferences()));
-		return compound;
 	}
 
 	protected abstract ListNBT getEntityList(Chunk chunk);
@@ -289,6 +406,46 @@ abstract class WDLChunkLoaderBase extends ChunkLoader {
 		return new RegionFile(file, this.chunkSaveLocation);
 	}
 
+	/**
+	 * Checks whether {@link #runRegionTask} can be used.
+	 */
+	protected boolean canRunRegionTasks() {
+		return SUBMIT_TASK != null;
+	}
+
+	/**
+	 * Runs the given task on the IOWorker's thread, which owns the region file
+	 * cache, after any reads and writes it has already queued, and waits for
+	 * it.  Must not be used once this loader has been closed.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T runRegionTask(RegionTask<T> task) throws IOException {
+		if (SUBMIT_TASK == null) {
+			throw new IllegalStateException("Region tasks are unavailable");
+		}
+		Supplier<Either<T, Exception>> supplier = () -> {
+			try {
+				return Either.left(task.run());
+			} catch (Exception ex) {
+				return Either.right(ex);
+			}
+		};
+		CompletableFuture<T> future;
+		try {
+			future = (CompletableFuture<T>) SUBMIT_TASK.invoke(worker, supplier);
+		} catch (ReflectiveOperationException ex) {
+			throw new IOException("Failed to submit region task", ex);
+		}
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException("Region task failed", ex.getCause());
+		}
+	}
+
 	public void flush() {
 		this.func_227079_i_();
 	}
@@ -14,7 +14,6 @@
 package wdl;
 
 import java.util.Collection;
-import java.util.UUID;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -89,7 +88,7 @@ public class WDLEvents {
 	public static void createListener(WDL wdl) {
 		// TODO: Actually store this instance somewhere, instead of having it just floating about
 		WDLEvents wdlEvents = new WDLEvents(wdl);
-		WDLHooks.listener = new HooksListener(wdlEvents);
+		WDLHooks.listener = HookRecorder.wrapIfEnabled(new HooksListener(wdlEvents));
 	}
 
 	private WDLEvents(WDL wdl) {
@@ -131,14 +130,12 @@ public class WDLEvents {
 
 		// If already downloading
 		if (WDL.downloading) {
-			// If not currently saving, stop the current download and start
-			// saving now
-			if (!WDL.saving) {
-				wdl.saveForWorldChange();
+			// If not currently saving, save the previous world; if that
+			// happens in the background, keep going with the new one
+			if (WDL.saving || !wdl.saveForWorldChange(world)) {
+				if (ENABLE_PROFILER) PROFILER.endSection();  // "Core"
+				return;
 			}
-
-			if (ENABLE_PROFILER) PROFILER.endSection();  // "Core"
-			return;
 		}
 
 		boolean sameServer = wdl.loadWorld();
@@ -147,12 +144,12 @@ public class WDLEvents {
 
 		if (ENABLE_PROFILER) PROFILER.endSection();  // "Core"
 
-		for (ModInfo<IWorldLoadListener> info : WDLApi
-				.getImplementingExtensions(IWorldLoadListener.class)) {
-			if (ENABLE_PROFILER) PROFILER.startSection(info.id);
-			info.mod.onWorldLoad(world, sameServer);
-			if (ENABLE_PROFILER) PROFILER.endSection();  // info.id
-		}
+		// Listeners that aren't thread-safe stay on the client thread
+		if (ENABLE_PROFILER) PROFILER.startSection("Extensions");
+		// The client thread doesn't wait for thread-safe listeners
+		wdl.extensions.runInBackground(WDLApi.getImplementingExtensions(IWorldLoadListener.class),
+				"onWorldLoad", mod -> mod.onWorldLoad(world, sameServer));
+		if (ENABLE_PROFILER) PROFILER.endSection();  // "Extensions"
 	}
 
 	/**
@@ -165,6 +162,13 @@ public class WDLEvents {
 			return;
 		}
 
+		DownloadSession session = wdl.getSession();
+		if (session != null && !session.isInSaveAreas(unneededChunk.getPos())) {
+			// Not wanted by the user; drop anything captured for it
+			session.releaseChunk(unneededChunk.getPos());
+			return;
+		}
+
 		if (WDLPluginChannels.canSaveChunk(unneededChunk)) {
 			WDLMessages.chatMessageTranslated(
 					WDL.serverProps,
@@ -388,12 +392,18 @@ public class WDLEvents {
 		// Assume that the current dimension is the right one
 		ClientPlayerEntity player = wdl.player;
 		assert player != null;
-		MapDataResult result = MapDataHandler.repairMapData(mapID, mapData, wdl.player);
+		// Repairing can involve scanning the whole map; queued work is run
+		// before a world change, so the player's dimension still applies then
+		wdl.mainThreadTasks.submit(MainThreadScheduler.Priority.NORMAL, "map repair", () -> {
+			if (!WDL.downloading) { return; }
+
+			MapDataResult result = MapDataHandler.repairMapData(mapID, mapData, player);
 
-		wdl.newMapDatas.put(mapID, result.map);
+			wdl.addMapData(mapID, result.map);
 
-		WDLMessages.chatMessageTranslated(WDL.serverProps,
-				WDLMessageTypes.ON_MAP_SAVED, "wdl.messages.onMapSaved", mapID, result.toComponent());
+			WDLMessages.chatMessageTranslated(WDL.serverProps,
+					WDLMessageTypes.ON_MAP_SAVED, "wdl.messages.onMapSaved", mapID, result.toComponent());
+		});
 	}
 
 	/**
@@ -442,15 +452,7 @@ public class WDLEvents {
 						"wdl.messages.removeEntity.savingDistance", entity,
 						entity.getPositionVec().toString(), wdl.player.getPositionVec(), threshold, serverViewDistance);
 				ChunkPos pos = new ChunkPos(entity.chunkCoordX, entity.chunkCoordZ);
-				UUID uuid = entity.getUniqueID();
-				if (wdl.entityPositions.containsKey(uuid)) {
-					// Remove previous entity, to avoid saving the same one in multiple chunks.
-					ChunkPos prevPos = wdl.entityPositions.get(uuid);
-					boolean removedSome = wdl.newEntities.get(pos).removeIf(e -> e.getUniqueID().equals(uuid));
-					LOGGER.info("Replacing entity with UUID {} previously located at {} with new position {}.  There was an entity at old position (should be true): {}", uuid, prevPos, pos, removedSome);
-				}
-				wdl.newEntities.put(pos, entity);
-				wdl.entityPositions.put(uuid, pos);
+				wdl.saveEntity(pos, entity);
 			} else {
 				WDLMessages.chatMessageTranslated(
 						WDL.serverProps,
@@ -579,6 +581,18 @@ public class WDLEvents {
 						}
 					}
 					if (ENABLE_PROFILER) PROFILER.endSection();  // "inventoryCheck"
+
+					if (ENABLE_PROFILER) PROFILER.startSection("scheduled");
+					DownloadSession session = wdl.getSession();
+					if (WDL.downloading && !WDL.saving && session != null) {
+						wdl.mainThreadTasks.tick(session.autosave::tick);
+						session.chunkLoader.tickPrefetch();
+						session.chunkLoader.tickWriteCache();
+					} else {
+						wdl.mainThreadTasks.tick(null);
+					}
+					wdl.chunkLoaders.evictIdle();
+					if (ENABLE_PROFILER) PROFILER.endSection();  // "scheduled"
 				}
 
 				if (ENABLE_PROFILER) PROFILER.startSection("camera");
@@ -16,7 +16,12 @@ package wdl;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 
@@ -45,10 +50,55 @@ import wdl.config.settings.MessageSettings;
 /**
  * Responsible for displaying messages in chat or the log, depending on whether
  * they are enabled.
+ * <p>
+ * Enabled messages are printed in batches, once per tick.  When a batch has
+ * several messages of the same debug type, they are replaced by a single
+ * summary line that lists them when hovered.
  */
 public class WDLMessages {
 	private static final Logger LOGGER = LogManager.getLogger();
 
+	/**
+	 * An enabled message that hasn't been printed yet.
+	 */
+	private static class PendingMessage {
+		final IWDLMessageType type;
+		/** Whether it can be part of a summary */
+		final boolean coalescable;
+		/** The message itself */
+		final ITextComponent message;
+		/** The full line to print, with the header */
+		final ITextComponent text;
+
+		PendingMessage(IWDLMessageType type, boolean coalescable,
+				ITextComponent message, ITextComponent text) {
+			this.type = type;
+			this.coalescable = coalescable;
+			this.message = message;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Number of messages of one debug type in a batch at which they are
+	 * summarized.
+	 */
+	private static final int SUMMARY_THRESHOLD = 3;
+	/**
+	 * Most messages listed in the tooltip of a summary; the rest only go to
+	 * the log.
+	 */
+	private static final int MAX_SUMMARY_DETAILS = 20;
+
+	/**
+	 * Messages to print with the next batch.
+	 */
+	private static final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * Whether a task to print the next batch has been scheduled.
+	 */
+	private static final AtomicBoolean batchScheduled = new AtomicBoolean();
+
 	/**
 	 * Information about an individual message type.
 	 */
@@ -274,14 +324,37 @@ public class WDLMessages {
 	public static void chatMessage(@Nonnull IConfiguration config,
 			@Nonnull IWDLMessageType type, @Nonnull ITextComponent message) {
 		boolean enabled;
+		boolean coalescable;
 		try {
 			MessageRegistration registration = getRegistration(type);
 			enabled = config.getValue(registration.setting);
+			coalescable = registration.category == MessageTypeCategory.CORE_DEBUG;
 		} catch (Exception ex) {
 			enabled = false;
+			coalescable = false;
 			LOGGER.error("Failed to check if type was enabled: " + type, ex);
 		}
 
+		ITextComponent text = withHeader(type, message);
+		if (enabled) {
+			pending.add(new PendingMessage(type, coalescable, message, text));
+			if (batchScheduled.compareAndSet(false, true)) {
+				@SuppressWarnings("resource")
+				Minecraft minecraft = Minecraft.getInstance();
+				// Cross-thread calls to printChatMessage are illegal in 1.13 due to accessing
+				// the font renderer; add a scheduled task instead.  It is enqueued even on
+				// the client thread, so that everything from this tick is printed together.
+				minecraft.enqueue(WDLMessages::printBatch);
+			}
+		} else {
+			LOGGER.info(text.getString());
+		}
+	}
+
+	/**
+	 * Adds the [WorldDL] header and the type's colors to the given message.
+	 */
+	private static ITextComponent withHeader(IWDLMessageType type, ITextComponent message) {
 		// Can't use a TranslationTextComponent here because it doesn't like new lines.
 		String tooltipText = I18n.format("wdl.messages.tooltip",
 				type.getDisplayName().getString()).replace("\\n", "\n"); // XXX should be formatted
@@ -301,15 +374,67 @@ public class WDLMessages {
 		messageFormat.appendSibling(message);
 		text.appendSibling(header);
 		text.appendSibling(messageFormat);
-		if (enabled) {
-			@SuppressWarnings("resource")
-			Minecraft minecraft = Minecraft.getInstance();
-			// Cross-thread calls to printChatMessage are illegal in 1.13 due to accessing
-			// the font renderer; add a scheduled task instead.
-			minecraft.execute(() -> minecraft.ingameGUI.getChatGUI().printChatMessage(text));
-		} else {
-			LOGGER.info(text.getString());
+		return text;
+	}
+
+	/**
+	 * Prints all pending messages, summarizing debug types with many of them.
+	 * Must be called on the client thread.
+	 */
+	private static void printBatch() {
+		batchScheduled.set(false);
+		List<PendingMessage> batch = new ArrayList<>();
+		PendingMessage message;
+		while ((message = pending.poll()) != null) {
+			batch.add(message);
+		}
+
+		Map<IWDLMessageType, List<PendingMessage>> byType = new HashMap<>();
+		for (PendingMessage m : batch) {
+			if (m.coalescable) {
+				byType.computeIfAbsent(m.type, k -> new ArrayList<>()).add(m);
+			}
+		}
+
+		@SuppressWarnings("resource")
+		Minecraft minecraft = Minecraft.getInstance();
+		for (PendingMessage m : batch) {
+			List<PendingMessage> group = byType.get(m.type);
+			if (group == null || group.size() < SUMMARY_THRESHOLD) {
+				minecraft.ingameGUI.getChatGUI().printChatMessage(m.text);
+			} else if (group.get(0) == m) {
+				// The summary takes the place of the first message
+				minecraft.ingameGUI.getChatGUI().printChatMessage(summarize(m.type, group));
+			}
+		}
+	}
+
+	/**
+	 * Creates a single line standing in for all of the given messages, which
+	 * are listed when it is hovered.
+	 */
+	private static ITextComponent summarize(IWDLMessageType type, List<PendingMessage> group) {
+		TextComponent details = new StringTextComponent("");
+		for (int i = 0; i < group.size(); i++) {
+			if (i < MAX_SUMMARY_DETAILS) {
+				if (i != 0) {
+					details.appendText("\n");
+				}
+				details.appendSibling(group.get(i).message);
+			} else {
+				LOGGER.info(group.get(i).text.getString());
+			}
+		}
+		if (group.size() > MAX_SUMMARY_DETAILS) {
+			details.appendText("\n");
+			details.appendSibling(new TranslationTextComponent("wdl.messages.summary.more",
+					group.size() - MAX_SUMMARY_DETAILS));
 		}
+
+		TranslationTextComponent summary = new TranslationTextComponent("wdl.messages.summary",
+				group.size(), type.getDisplayName());
+		summary.setStyle(summary.getStyle().setHoverEvent(new HoverEvent(Action.SHOW_TEXT, details)));
+		return withHeader(type, summary);
 	}
 
 	@Nonnull
@@ -196,7 +196,7 @@ public class WorldBackup {
 	public static void backupWorld(File worldFolder, String worldName,
 			WorldBackupType type, IBackupProgressMonitor monitor) throws IOException {
 		assert type != WorldBackupType.CUSTOM;
-		backupWorld0(worldFolder, worldName, type, monitor, null, null);
+		backupWorld0(worldFolder, worldFolder.getParentFile(), worldName, type, monitor, null, null);
 	}
 
 	/**
@@ -214,13 +214,37 @@ public class WorldBackup {
 	public static void backupWorld(File worldFolder, String worldName,
 			WorldBackupType type, ICustomBackupProgressMonitor monitor,
 			@Nullable String customCommand, @Nullable String customExtension) throws IOException {
-		backupWorld0(worldFolder, worldName, type, monitor, customCommand, customExtension);
+		backupWorld0(worldFolder, worldFolder.getParentFile(), worldName, type, monitor, customCommand, customExtension);
+	}
+
+	/**
+	 * Backs up a copy of a world (such as a snapshot made by
+	 * {@link BackupScheduler}) as if it were the original; in particular,
+	 * folder backups are placed next to the original world.
+	 *
+	 * @param copyFolder The folder that contains the copy to backup, which
+	 *            should have the same name as the original folder.
+	 * @param worldFolder The folder that contains the original world.
+	 * @param worldName The name of the world.
+	 * @param type The type to backup with.
+	 * @param monitor A monitor.
+	 * @param customCommand The command to run for the custom backup type.
+	 * @param customExtension The extension to use for the custom backup type.
+	 *
+	 * @throws IOException
+	 */
+	public static void backupWorldCopy(File copyFolder, File worldFolder, String worldName,
+			WorldBackupType type, ICustomBackupProgressMonitor monitor,
+			@Nullable String customCommand, @Nullable String customExtension) throws IOException {
+		backupWorld0(copyFolder, worldFolder.getParentFile(), worldName, type, monitor, customCommand, customExtension);
 	}
 
 	/**
 	 * Backs up the world, requiring that for the custom type, monitor is a custom monitor.
+	 *
+	 * @param savesFolder The folder that folder backups are placed in.
 	 */
-	private static void backupWorld0(File worldFolder, String worldName,
+	private static void backupWorld0(File worldFolder, File savesFolder, String worldName,
 			WorldBackupType type, IBackupProgressMonitor monitor,
 			@Nullable String customCommand, @Nullable String customExtension) throws IOException {
 		switch (type) {
@@ -230,7 +254,7 @@ public class WorldBackup {
 		case FOLDER: {
 			String newWorldName = worldName + "_" + LocalDateTime.now().format(DATE_FORMAT);
 
-			File destination = new File(worldFolder.getParentFile(),
+			File destination = new File(savesFolder,
 					newWorldName);
 
 			if (destination.exists()) {
@@ -0,0 +1,432 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+
+/**
+ * A persistent index of downloaded worlds in the saves folder, so that screens
+ * listing them don't need to read each world's files every time they open.
+ * <p>
+ * For each world folder, the index keeps the contents of its
+ * WorldDownloader.txt, the game rules from its level.dat, and the size and
+ * number of chunks of each dimension's region files.  Entries are refreshed
+ * when the modification time or size of the file they came from changes; region
+ * file headers are only read again for region files that changed.  As a
+ * rewritten file can keep both, WDL {@linkplain #invalidateProps invalidates}
+ * the props it writes itself.
+ */
+public class WorldIndex {
+	private static final Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Name of the index file, in the saves folder.
+	 */
+	static final String FILE_NAME = "WorldDownloader_Index.dat";
+	private static final int VERSION = 1;
+	private static final String PROPS_FILE = "WorldDownloader.txt";
+	private static final String LEVEL_FILE = "level.dat";
+
+	private final File savesFolder;
+	private final File indexFile;
+	private final Map<String, IndexedWorld> worlds = new HashMap<>();
+	private boolean loaded;
+	private boolean dirty;
+
+	public WorldIndex(File savesFolder) {
+		this.savesFolder = savesFolder;
+		this.indexFile = new File(savesFolder, FILE_NAME);
+	}
+
+	/**
+	 * Information about a single world folder.
+	 */
+	public static class IndexedWorld {
+		public final String folderName;
+		private long[] propsStamp = new long[2];
+		@Nullable
+		private String props;
+		private long[] levelStamp = new long[2];
+		@Nullable
+		private CompoundNBT gameRules;
+		private long folderModified;
+		/** Whether level.dat changed since the region statistics were read. */
+		private boolean dimensionsStale;
+		/**
+		 * Region file statistics (length, modification time, chunk count), by
+		 * dimension folder and then region file name.
+		 */
+		private final Map<String, Map<String, long[]>> dimensions = new TreeMap<>();
+
+		IndexedWorld(String folderName) {
+			this.folderName = folderName;
+		}
+
+		/**
+		 * Gets the contents of the world's WorldDownloader.txt, or null if it
+		 * doesn't have one.
+		 */
+		@Nullable
+		public String getProps() {
+			return props;
+		}
+
+		/**
+		 * Gets the game rules stored in the world's level.dat, or null if it
+		 * doesn't have one.
+		 */
+		@Nullable
+		public CompoundNBT getGameRules() {
+			return gameRules;
+		}
+
+		/**
+		 * Gets the dimension folders ("region" for the overworld, and "DIM"
+		 * followed by the dimension number for others) that contain region
+		 * files.
+		 */
+		public List<String> getDimensions() {
+			List<String> result = new ArrayList<>();
+			for (Map.Entry<String, Map<String, long[]>> e : dimensions.entrySet()) {
+				if (!e.getValue().isEmpty()) {
+					result.add(e.getKey());
+				}
+			}
+			return Collections.unmodifiableList(result);
+		}
+
+		/**
+		 * Gets the total size of the world's region files, in bytes.
+		 */
+		public long getSize() {
+			long size = 0;
+			for (Map<String, long[]> regions : dimensions.values()) {
+				for (long[] stats : regions.values()) {
+					size += stats[0];
+				}
+			}
+			return size;
+		}
+
+		/**
+		 * Gets the number of chunks in the world's region files.
+		 */
+		public long getChunkCount() {
+			long count = 0;
+			for (Map<String, long[]> regions : dimensions.values()) {
+				for (long[] stats : regions.values()) {
+					count += stats[2];
+				}
+			}
+			return count;
+		}
+
+		private CompoundNBT write() {
+			CompoundNBT tag = new CompoundNBT();
+			tag.putLongArray("PropsStamp", propsStamp);
+			if (props != null) {
+				tag.putString("Props", props);
+			}
+			tag.putLongArray("LevelStamp", levelStamp);
+			if (gameRules != null) {
+				tag.put("GameRules", gameRules);
+			}
+			tag.putLong("FolderModified", folderModified);
+			tag.putBoolean("DimensionsStale", dimensionsStale);
+			CompoundNBT dims = new CompoundNBT();
+			for (Map.Entry<String, Map<String, long[]>> dim : dimensions.entrySet()) {
+				CompoundNBT regions = new CompoundNBT();
+				for (Map.Entry<String, long[]> region : dim.getValue().entrySet()) {
+					regions.putLongArray(region.getKey(), region.getValue());
+				}
+				dims.put(dim.getKey(), regions);
+			}
+			tag.put("Dimensions", dims);
+			return tag;
+		}
+
+		private static IndexedWorld read(String folderName, CompoundNBT tag) {
+			IndexedWorld world = new IndexedWorld(folderName);
+			world.propsStamp = tag.getLongArray("PropsStamp");
+			world.props = tag.contains("Props") ? tag.getString("Props") : null;
+			world.levelStamp = tag.getLongArray("LevelStamp");
+			world.gameRules = tag.contains("GameRules") ? tag.getCompound("GameRules") : null;
+			world.folderModified = tag.getLong("FolderModified");
+			world.dimensionsStale = tag.getBoolean("DimensionsStale");
+			CompoundNBT dims = tag.getCompound("Dimensions");
+			for (String dim : dims.keySet()) {
+				CompoundNBT regions = dims.getCompound(dim);
+				Map<String, long[]> stats = new TreeMap<>();
+				for (String region : regions.keySet()) {
+					long[] value = regions.getLongArray(region);
+					if (value.length == 3) {
+						stats.put(region, value);
+					}
+				}
+				world.dimensions.put(dim, stats);
+			}
+			return world;
+		}
+	}
+
+	/**
+	 * Gets the up-to-date information for the given world folder, refreshing
+	 * whatever has changed since it was last indexed.  Changes are kept in
+	 * memory until {@link #flush()} is called.
+	 *
+	 * @param folderName The name of the world's folder within the saves folder.
+	 */
+	public synchronized IndexedWorld get(String folderName) {
+		loadIfNeeded();
+		IndexedWorld world = worlds.get(folderName);
+		if (world == null) {
+			world = new IndexedWorld(folderName);
+			worlds.put(folderName, world);
+			dirty = true;
+		}
+		refresh(world);
+		return world;
+	}
+
+	/**
+	 * Gets the up-to-date props and game rules of the given world folder,
+	 * without refreshing its region file statistics (which would read the
+	 * headers of every changed region file).
+	 *
+	 * @param folderName The name of the world's folder within the saves folder.
+	 */
+	public synchronized IndexedWorld getSettings(String folderName) {
+		loadIfNeeded();
+		IndexedWorld world = worlds.get(folderName);
+		if (world == null) {
+			world = new IndexedWorld(folderName);
+			worlds.put(folderName, world);
+			dirty = true;
+		}
+		refreshSettings(world, new File(savesFolder, folderName));
+		return world;
+	}
+
+	/**
+	 * Forgets the indexed props of the given world folder, so that they are
+	 * read again; called after writing them.
+	 *
+	 * @param folderName The name of the world's folder within the saves folder.
+	 */
+	public synchronized void invalidateProps(String folderName) {
+		loadIfNeeded();
+		IndexedWorld world = worlds.get(folderName);
+		if (world != null) {
+			world.propsStamp = new long[2];
+			world.props = null;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the index to disk, if anything has changed.
+	 */
+	public synchronized void flush() {
+		if (!dirty) {
+			return;
+		}
+		CompoundNBT root = new CompoundNBT();
+		root.putInt("Version", VERSION);
+		CompoundNBT worldsTag = new CompoundNBT();
+		for (IndexedWorld world : worlds.values()) {
+			worldsTag.put(world.folderName, world.write());
+		}
+		root.put("Worlds", worldsTag);
+
+		File tempFile = new File(savesFolder, FILE_NAME + ".tmp");
+		try {
+			savesFolder.mkdirs();
+			try (FileOutputStream stream = new FileOutputStream(tempFile)) {
+				CompressedStreamTools.writeCompressed(root, stream);
+			}
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to save world index", ex);
+		}
+	}
+
+	private void loadIfNeeded() {
+		if (loaded) {
+			return;
+		}
+		loaded = true;
+		if (!indexFile.exists()) {
+			return;
+		}
+		try (FileInputStream stream = new FileInputStream(indexFile)) {
+			CompoundNBT root = CompressedStreamTools.readCompressed(stream);
+			if (root.getInt("Version") != VERSION) {
+				LOGGER.info("[WDL] Rebuilding world index from version {}", root.getInt("Version"));
+				return;
+			}
+			CompoundNBT worldsTag = root.getCompound("Worlds");
+			for (String folderName : worldsTag.keySet()) {
+				worlds.put(folderName, IndexedWorld.read(folderName, worldsTag.getCompound(folderName)));
+			}
+		} catch (Exception ex) {
+			LOGGER.warn("[WDL] Failed to read world index; rebuilding it", ex);
+			worlds.clear();
+		}
+	}
+
+	private void refresh(IndexedWorld world) {
+		File folder = new File(savesFolder, world.folderName);
+		refreshSettings(world, folder);
+
+		// level.dat is written whenever the world is saved, and new dimension
+		// folders change the folder's modification time; otherwise, the
+		// region files are assumed to be unchanged
+		long folderModified = folder.lastModified();
+		if (world.dimensionsStale || folderModified != world.folderModified) {
+			world.folderModified = folderModified;
+			world.dimensionsStale = false;
+			refreshDimensions(world, folder);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Refreshes the props and game rules of the given world, marking its
+	 * region statistics as stale if level.dat changed.
+	 */
+	private void refreshSettings(IndexedWorld world, File folder) {
+		File propsFile = new File(folder, PROPS_FILE);
+		long[] propsStamp = stamp(propsFile);
+		if (!equals(propsStamp, world.propsStamp)) {
+			try {
+				world.props = propsFile.isFile()
+						? new String(Files.readAllBytes(propsFile.toPath()))
+						: null;
+				world.propsStamp = propsStamp;
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to index " + propsFile, ex);
+				world.props = null;
+			}
+			dirty = true;
+		}
+
+		File levelFile = new File(folder, LEVEL_FILE);
+		long[] levelStamp = stamp(levelFile);
+		if (!equals(levelStamp, world.levelStamp)) {
+			world.gameRules = null;
+			if (levelFile.isFile()) {
+				try (FileInputStream stream = new FileInputStream(levelFile)) {
+					CompoundNBT data = CompressedStreamTools.readCompressed(stream).getCompound("Data");
+					world.gameRules = data.getCompound("GameRules");
+					world.levelStamp = levelStamp;
+				} catch (Exception ex) {
+					LOGGER.warn("[WDL] Failed to index " + levelFile, ex);
+				}
+			} else {
+				world.levelStamp = levelStamp;
+			}
+			// The world was saved, so its region files may have changed too
+			world.dimensionsStale = true;
+			dirty = true;
+		}
+	}
+
+	private static void refreshDimensions(IndexedWorld world, File folder) {
+		Map<String, Map<String, long[]>> old = new HashMap<>(world.dimensions);
+		world.dimensions.clear();
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			File regionFolder;
+			if (child.getName().equals("region")) {
+				regionFolder = child;
+			} else if (child.getName().startsWith("DIM")) {
+				regionFolder = new File(child, "region");
+			} else {
+				continue;
+			}
+			File[] regionFiles = regionFolder.listFiles((dir, name) -> name.endsWith(".mca"));
+			if (regionFiles == null) {
+				continue;
+			}
+			Map<String, long[]> oldStats = old.getOrDefault(child.getName(), Collections.emptyMap());
+			Map<String, long[]> stats = new TreeMap<>();
+			for (File regionFile : regionFiles) {
+				long length = regionFile.length();
+				long modified = regionFile.lastModified();
+				long[] prev = oldStats.get(regionFile.getName());
+				if (prev != null && prev[0] == length && prev[1] == modified) {
+					stats.put(regionFile.getName(), prev);
+				} else {
+					stats.put(regionFile.getName(), new long[] { length, modified, countChunks(regionFile) });
+				}
+			}
+			world.dimensions.put(child.getName(), stats);
+		}
+	}
+
+	/**
+	 * Counts the chunks present in a region file, using its location table.
+	 */
+	static int countChunks(File regionFile) {
+		try (RandomAccessFile file = new RandomAccessFile(regionFile, "r")) {
+			if (file.length() < 4096) {
+				return 0;
+			}
+			byte[] header = new byte[4096];
+			file.readFully(header);
+			int count = 0;
+			for (int i = 0; i < 4096; i += 4) {
+				if (header[i] != 0 || header[i + 1] != 0 || header[i + 2] != 0 || header[i + 3] != 0) {
+					count++;
+				}
+			}
+			return count;
+		} catch (IOException ex) {
+			LOGGER.warn("[WDL] Failed to count chunks in " + regionFile, ex);
+			return 0;
+		}
+	}
+
+	private static long[] stamp(File file) {
+		return new long[] { file.lastModified(), file.length() };
+	}
+
+	private static boolean equals(long[] a, long[] b) {
+		return a.length == 2 && b.length == 2 && a[0] == b[0] && a[1] == b[1];
+	}
+}
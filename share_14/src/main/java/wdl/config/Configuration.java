@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
@@ -85,6 +86,14 @@ public class Configuration implements IConfiguration {
 		}
 	}
 
+	/**
+	 * Loads values from the given reader, in the format used by
+	 * {@link #load(File)}.
+	 */
+	public void load(Reader reader) throws IOException {
+		this.properties.load(reader);
+	}
+
 	@Override
 	public void store(File file, String comments) throws IOException {
 		try (FileWriter writer = new FileWriter(file)) {
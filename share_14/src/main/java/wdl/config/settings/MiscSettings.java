@@ -13,14 +13,21 @@
  */
 package wdl.config.settings;
 
+import java.util.List;
 import java.util.Optional;
 
+import com.google.common.collect.ImmutableList;
+
+import wdl.SaveAreaFilter;
 import wdl.WDL;
+import wdl.WDLPluginChannels.ChunkRange;
 import wdl.WorldBackup.WorldBackupType;
 import wdl.config.BaseSetting;
 import wdl.config.IConfiguration;
+import wdl.config.IntSetting;
 import wdl.config.Setting;
 import wdl.config.StringSetting;
+import wdl.versioned.IDimensionWrapper;
 
 /**
  * Miscellaneous settings that don't fit into any other group.
@@ -84,10 +91,127 @@ public final class MiscSettings {
 					str -> str.isEmpty() ? Optional.empty() : Optional.of(str),
 					opt -> opt.orElse(""));
 
+	// Performance
+	/**
+	 * Approximate amount of memory, in megabytes, that captured data (tile
+	 * entities, entities, and maps) may use before being spilled to disk.
+	 * Values of 0 or less disable spilling.
+	 */
+	public static final IntSetting CAPTURE_MEMORY_LIMIT =
+			new IntSetting("CaptureMemoryLimit", 256);
+	/**
+	 * If true, chunks are written with the fastest compression level while
+	 * downloading, and recompressed in the background after the download stops.
+	 */
+	public static final Setting<Boolean> FAST_SAVE =
+			new BaseSetting<>("FastSave", false, Boolean::valueOf, Object::toString);
+	/**
+	 * If true, region files written to while downloading are compacted after
+	 * saving, removing the space left behind by chunks that were saved again.
+	 * Off by default, since every written region file is read and rewritten;
+	 * compaction can also be started from the backup GUI.
+	 */
+	public static final Setting<Boolean> COMPACT_REGIONS =
+			new BaseSetting<>("CompactRegions", false, Boolean::valueOf, Object::toString);
+	/**
+	 * Number of minutes between autosaves while downloading.  Values of 0 or
+	 * less disable autosaving.
+	 */
+	public static final IntSetting AUTOSAVE_INTERVAL =
+			new IntSetting("AutosaveInterval", 10);
+	/**
+	 * Maximum number of previous worlds that can be saved in the background
+	 * after world changes, while the new world downloads.  Once reached (or
+	 * with 0), loading the new world waits for saving to finish.
+	 */
+	public static final IntSetting MAX_DRAINING_SESSIONS =
+			new IntSetting("MaxDrainingSessions", 2);
+	/**
+	 * Amount of memory, in megabytes, used to hold recently saved chunks
+	 * (compressed) before writing them to region files, so that chunks saved
+	 * repeatedly are only written once.  Unless they are journaled, cached
+	 * chunks are written within a few seconds.  Values of 0 or less disable it.
+	 */
+	public static final IntSetting CHUNK_CACHE_SIZE =
+			new IntSetting("ChunkCacheSize", 16);
+	/**
+	 * Number of milliseconds per tick that may be spent on deferred work on
+	 * the client thread (such as map repair and autosaving).  At least one
+	 * queued task is always run each tick.
+	 */
+	public static final IntSetting MAIN_THREAD_BUDGET =
+			new IntSetting("MainThreadBudget", 2);
+	/**
+	 * If true, saved chunks and captured tile entities are recorded in a
+	 * journal until they are in the region files, so that they can be
+	 * recovered after a crash.
+	 */
+	public static final Setting<Boolean> CHUNK_JOURNAL =
+			new BaseSetting<>("ChunkJournal", false, Boolean::valueOf, Object::toString);
+	/**
+	 * If true, region files written to while downloading are checked after
+	 * saving, and chunks that can't be read back are reported.  They are only
+	 * dropped when verifying from the saved chunks GUI.
+	 */
+	public static final Setting<Boolean> VERIFY_REGIONS =
+			new BaseSetting<>("VerifyRegions", false, Boolean::valueOf, Object::toString);
+	/**
+	 * Number of seconds that the chunk loader of a dimension that was left is
+	 * kept open, so that returning to it doesn't need to open its region
+	 * files again.  Values of 0 or less close it right after saving.
+	 */
+	public static final IntSetting CHUNK_LOADER_IDLE_TIMEOUT =
+			new IntSetting("ChunkLoaderIdleTimeout", 300);
+	/**
+	 * If true, chunks are saved without block and sky light, and marked as not
+	 * lit, so that the game relights them when they are first loaded.  Saved
+	 * chunks are much smaller, but take longer to load the first time.
+	 */
+	public static final Setting<Boolean> STRIP_LIGHT =
+			new BaseSetting<>("StripLight", false, Boolean::valueOf, Object::toString);
+	/**
+	 * Number of seconds that a single extension may spend saving, editing the
+	 * world or player info, or handling a world load before it is skipped.
+	 * Values of 0 or less wait forever.
+	 */
+	public static final IntSetting EXTENSION_TIMEOUT =
+			new IntSetting("ExtensionTimeout", 60);
+	/**
+	 * Maximum number of chunks whose previously saved tile entities are read
+	 * ahead of time, when the player's movement suggests that they will be
+	 * unloaded soon.  Values of 0 or less disable reading ahead.
+	 */
+	public static final IntSetting OLD_CHUNK_PREFETCH =
+			new IntSetting("OldChunkPrefetch", 256);
+
 	// Test code for https://github.com/Pokechu22/WorldDownloader/issues/143
 	public static final Setting<Boolean> FORCE_DIMENSION_TO_OVERWORLD =
 			new BaseSetting<>("ForceDimensionToOverworld", false, Boolean::valueOf, Object::toString);
 
+	// Save areas
+	/**
+	 * Areas that chunks of one dimension are saved in (or not saved in); see
+	 * {@link SaveAreaFilter}.  Empty to save every chunk.
+	 */
+	public static class SaveAreasSetting extends BaseSetting<List<ChunkRange>> {
+		/**
+		 * @param dimension The dimension whose chunks the areas apply to.
+		 */
+		public SaveAreasSetting(IDimensionWrapper dimension) {
+			super("SaveAreas." + getDimensionKey(dimension), ImmutableList.of(),
+					SaveAreaFilter::parseAreas, SaveAreaFilter::writeAreas);
+		}
+
+		/**
+		 * Names the dimension by the folder its chunks are saved into, so that
+		 * dimensions sharing a folder also share their areas.
+		 */
+		private static String getDimensionKey(IDimensionWrapper dimension) {
+			String folder = dimension.getFolderName();
+			return folder != null ? folder : "Overworld";
+		}
+	}
+
 	// Extensions
 	public static class ExtensionEnabledSetting extends BaseSetting<Boolean> {
 		public ExtensionEnabledSetting(String modID) {
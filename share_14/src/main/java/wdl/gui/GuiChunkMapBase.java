@@ -0,0 +1,227 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl.gui;
+
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.text.ITextComponent;
+import wdl.WDL;
+import wdl.WDLPluginChannels.ChunkRange;
+import wdl.gui.widget.WDLScreen;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * Base GUI that shows chunk ranges on a map around the player, which can be
+ * panned by dragging.
+ */
+public abstract class GuiChunkMapBase extends WDLScreen {
+	protected static final int TOP_MARGIN = 61, BOTTOM_MARGIN = 32;
+	/**
+	 * How large each chunk is on-screen.
+	 */
+	protected static final int SCALE = 8;
+
+	protected final WDL wdl;
+
+	/**
+	 * The current position.
+	 */
+	private float scrollX, scrollZ;
+	/**
+	 * The position of the mouse on the last tick, for dragging.
+	 */
+	private int lastTickX, lastTickY;
+
+	protected GuiChunkMapBase(WDL wdl, String titleI18nKey) {
+		super(titleI18nKey);
+		this.wdl = wdl;
+		centerOnPlayer();
+	}
+
+	protected GuiChunkMapBase(WDL wdl, ITextComponent title) {
+		super(title);
+		this.wdl = wdl;
+		centerOnPlayer();
+	}
+
+	private void centerOnPlayer() {
+		if (wdl.player != null) {
+			this.scrollX = wdl.player.chunkCoordX;
+			this.scrollZ = wdl.player.chunkCoordZ;
+		}
+	}
+
+	/**
+	 * Whether dragging the mouse currently pans the map.
+	 */
+	protected abstract boolean isPanning();
+
+	/**
+	 * Called when the map is clicked while not {@linkplain #isPanning panning}.
+	 *
+	 * @param chunkX The x coordinate of the clicked chunk.
+	 * @param chunkZ The z coordinate of the clicked chunk.
+	 */
+	protected abstract void mapClicked(int chunkX, int chunkZ);
+
+	/**
+	 * Draws the ranges shown on the map; anything outside of the map is
+	 * covered by the border afterwards.
+	 */
+	protected abstract void drawMap(int mouseX, int mouseY);
+
+	/**
+	 * Checks whether the given display y coordinate is on the map, rather than
+	 * on the border around it.
+	 */
+	protected boolean isOnMap(int mouseY) {
+		return mouseY > TOP_MARGIN && mouseY < height - BOTTOM_MARGIN;
+	}
+
+	@Override
+	public void mouseDown(int mouseX, int mouseY) {
+		if (isOnMap(mouseY)) {
+			if (isPanning()) {
+				lastTickX = mouseX;
+				lastTickY = mouseY;
+			} else {
+				mapClicked(displayXToChunkX(mouseX), displayZToChunkZ(mouseY));
+			}
+		}
+	}
+
+	@Override
+	public void mouseDragged(int mouseX, int mouseY) {
+		int deltaX = lastTickX - mouseX;
+		int deltaY = lastTickY - mouseY;
+
+		lastTickX = mouseX;
+		lastTickY = mouseY;
+
+		if (isPanning()) {
+			scrollX += deltaX / (float)SCALE;
+			scrollZ += deltaY / (float)SCALE;
+		}
+	}
+
+	@Override
+	public void render(int mouseX, int mouseY, float partialTicks) {
+		VersionedFunctions.drawDarkBackground(0, 0, height, width);
+
+		drawMap(mouseX, mouseY);
+
+		// Player position.
+		int playerPosX = (int)(((VersionedFunctions.getEntityX(wdl.player) / 16.0D) - scrollX) * SCALE + (width / 2));
+		int playerPosZ = (int)(((VersionedFunctions.getEntityZ(wdl.player) / 16.0D) - scrollZ) * SCALE + (height / 2));
+
+		hLine(playerPosX - 3, playerPosX + 3, playerPosZ, 0xFFFFFFFF);
+		// Vertical is 1px taller because it seems to be needed to make it proportional
+		vLine(playerPosX, playerPosZ - 4, playerPosZ + 4, 0xFFFFFFFF);
+
+		// Draw the main borders now so that ranges are hidden behind it.
+		this.drawBorder(TOP_MARGIN, BOTTOM_MARGIN, 0, 0, height, width);
+
+		super.render(mouseX, mouseY, partialTicks);
+	}
+
+	/**
+	 * Gets an alpha that fades in and out over time, for ranges that aren't
+	 * final yet.
+	 */
+	protected static int getPulsingAlpha() {
+		// Fancy sin alpha changing by time.
+		return 127 + (int)(Math.sin(System.currentTimeMillis() * Math.PI / 5000) * 64);
+	}
+
+	/**
+	 * Draws the given range at the proper position on screen.
+	 *
+	 * @param range The range to draw.
+	 * @param color The color of the range, without alpha.
+	 * @param alpha The transparency.  0xFF: Fully solid, 0x00: Fully transparent
+	 */
+	protected void drawRange(ChunkRange range, int color, int alpha) {
+		int x1 = chunkXToDisplayX(range.x1);
+		int z1 = chunkZToDisplayZ(range.z1);
+		int x2 = chunkXToDisplayX(range.x2) + SCALE - 1;
+		int z2 = chunkZToDisplayZ(range.z2) + SCALE - 1;
+
+		fill(x1, z1, x2, z2, color + (alpha << 24));
+
+		int colorDark = darken(color);
+
+		vLine(x1, z1, z2, colorDark + (alpha << 24));
+		vLine(x2, z1, z2, colorDark + (alpha << 24));
+		hLine(x1, x2, z1, colorDark + (alpha << 24));
+		hLine(x1, x2, z2, colorDark + (alpha << 24));
+	}
+
+	/**
+	 * Converts a chunk x coordinate to a display x coordinate, taking
+	 * into account the value of {@link scrollX}.
+	 *
+	 * @param chunkX The chunk's x coordinate.
+	 * @return The display position.
+	 */
+	protected int chunkXToDisplayX(int chunkX) {
+		return (int)((chunkX - scrollX) * SCALE + (width / 2));
+	}
+
+	/**
+	 * Converts a chunk z coordinate to a display z coordinate, taking
+	 * into account the value of {@link scrollZ}.
+	 *
+	 * @param chunkZ The chunk's z coordinate.
+	 * @return The display position.
+	 */
+	protected int chunkZToDisplayZ(int chunkZ) {
+		return (int)((chunkZ - scrollZ) * SCALE + (height / 2));
+	}
+
+	/**
+	 * Converts a display x coordinate to a chunk x coordinate, taking
+	 * into account the value of {@link scrollX}.
+	 *
+	 * @param displayX The display x coordinate.
+	 * @return The chunk position.
+	 */
+	protected int displayXToChunkX(int displayX) {
+		return MathHelper.floor((displayX - (float)(width / 2)) / SCALE + scrollX);
+	}
+
+	/**
+	 * Converts a display z coordinate to a chunk z coordinate, taking
+	 * into account the value of {@link scrollZ}.
+	 *
+	 * @param displayZ The display z coordinate.
+	 * @return The chunk position.
+	 */
+	protected int displayZToChunkZ(int displayZ) {
+		return MathHelper.floor((displayZ - (float)(height / 2)) / SCALE + scrollZ);
+	}
+
+	/**
+	 * Halves the brightness of the given color.
+	 */
+	private static int darken(int color) {
+		int r = (color >> 16) & 0xFF;
+		int g = (color >> 8) & 0xFF;
+		int b = color & 0xFF;
+
+		r /= 2;
+		g /= 2;
+		b /= 2;
+
+		return (r << 16) + (g << 8) + b;
+	}
+}
@@ -23,10 +23,12 @@ import net.minecraft.client.resources.I18n;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.util.text.TranslationTextComponent;
 import net.minecraft.world.chunk.storage.RegionFile;
 import wdl.WDL;
 import wdl.config.settings.MiscSettings;
 import wdl.gui.widget.ButtonDisplayGui;
+import wdl.gui.widget.WDLButton;
 import wdl.gui.widget.WDLScreen;
 import wdl.versioned.VersionedFunctions;
 
@@ -44,6 +46,7 @@ public class GuiSavedChunks extends WDLScreen {
 	@Nullable
 	private final Screen parent;
 	private final WDL wdl;
+	private WDLButton verifyButton;
 
 	/**
 	 * The current position.
@@ -86,8 +89,31 @@ public class GuiSavedChunks extends WDLScreen {
 
 	@Override
 	public void init() {
-		this.addButton(new ButtonDisplayGui(width / 2 - 100, height - 29,
-				200, 20, this.parent));
+		this.addButton(new ButtonDisplayGui(width / 2 - 155, height - 29,
+				150, 20, this.parent));
+		verifyButton = this.addButton(new WDLButton(width / 2 + 5, height - 29,
+				150, 20, new TranslationTextComponent("wdl.gui.savedChunks.verify")) {
+			public @Override void performAction() {
+				wdl.startVerification();
+				updateVerifyButton();
+			}
+		});
+		updateVerifyButton();
+	}
+
+	@Override
+	public void tick() {
+		super.tick();
+		updateVerifyButton();
+	}
+
+	private void updateVerifyButton() {
+		verifyButton.setEnabled(wdl.canStartVerification());
+		if (wdl.isVerifying()) {
+			verifyButton.setMessage(new TranslationTextComponent("wdl.gui.savedChunks.verify.running"));
+		} else {
+			verifyButton.setMessage(new TranslationTextComponent("wdl.gui.savedChunks.verify"));
+		}
 	}
 
 	@Override
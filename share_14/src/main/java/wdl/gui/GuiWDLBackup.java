@@ -50,6 +50,8 @@ public class GuiWDLBackup extends WDLScreen {
 	private WorldBackupType backupType;
 	private WDLButton backupTypeButton;
 	private WDLButton doneButton;
+	private WDLButton compactButton;
+	private WDLButton cancelBackupsButton;
 	private WDLTextField customBackupCommandTemplateFld;
 	private String customBackupCommandTemplate;
 	private WDLTextField customBackupExtensionFld;
@@ -103,8 +105,34 @@ public class GuiWDLBackup extends WDLScreen {
 
 		updateFieldVisibility();
 
-		doneButton = this.addButton(new ButtonDisplayGui(this.width / 2 - 100, height - 29,
-				200, 20, this::getParentOrWarning));
+		doneButton = this.addButton(new ButtonDisplayGui(this.width / 2 - 155, height - 29,
+				150, 20, this::getParentOrWarning));
+		compactButton = this.addButton(new WDLButton(this.width / 2 + 5, height - 29,
+				150, 20, new TranslationTextComponent("wdl.gui.backup.compact")) {
+			public @Override void performAction() {
+				wdl.startCompaction();
+				updateCompactButton();
+			}
+		});
+		updateCompactButton();
+		cancelBackupsButton = this.addButton(new WDLButton(this.width / 2 + 5, height - 53,
+				150, 20, new TranslationTextComponent("wdl.gui.backup.cancelBackups")) {
+			public @Override void performAction() {
+				wdl.cancelBackups();
+				this.setEnabled(false);
+			}
+		});
+		cancelBackupsButton.setEnabled(wdl.hasPendingBackups());
+	}
+
+	private void updateCompactButton() {
+		boolean canCompact = wdl.canStartCompaction();
+		compactButton.setEnabled(canCompact);
+		if (canCompact || WDL.downloading || WDL.saving) {
+			compactButton.setMessage(new TranslationTextComponent("wdl.gui.backup.compact"));
+		} else {
+			compactButton.setMessage(new TranslationTextComponent("wdl.gui.backup.compact.running"));
+		}
 	}
 
 	private ITextComponent getBackupButtonText() {
@@ -166,6 +194,8 @@ public class GuiWDLBackup extends WDLScreen {
 
 		// A check is neither queued nor in progress
 		doneButton.setEnabled(checkValidTime == 0 && !checkingCommandValid);
+		updateCompactButton();
+		cancelBackupsButton.setEnabled(wdl.hasPendingBackups());
 
 		int color = 0x40E040;
 		if (checkValidTime != 0 || checkingCommandValid) {
@@ -293,6 +323,10 @@ public class GuiWDLBackup extends WDLScreen {
 			this.drawGuiInfoBox(new TranslationTextComponent("wdl.gui.backup.customCommandTemplate.description"), width, height, 48);
 		} else if (customBackupExtensionFld.isHovered()) {
 			this.drawGuiInfoBox(new TranslationTextComponent("wdl.gui.backup.customExtension.description"), width, height, 48);
+		} else if (compactButton.isHovered()) {
+			this.drawGuiInfoBox(new TranslationTextComponent("wdl.gui.backup.compact.description"), width, height, 48);
+		} else if (cancelBackupsButton.isHovered()) {
+			this.drawGuiInfoBox(new TranslationTextComponent("wdl.gui.backup.cancelBackups.description"), width, height, 48);
 		} else if (commandInvalidReason == null || backupTypeButton.isHovered()) {
 			// Only draw the large description if the command is valid (i.e. there isn't other text)
 			// or the mouse is directly over the backup type button (i.e. the info is useful)
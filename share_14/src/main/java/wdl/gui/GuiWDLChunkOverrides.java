@@ -22,7 +22,6 @@ import net.minecraft.client.audio.SimpleSound;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.SoundEvents;
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.text.StringTextComponent;
 import net.minecraft.util.text.TranslationTextComponent;
 import wdl.WDL;
@@ -30,17 +29,13 @@ import wdl.WDLPluginChannels;
 import wdl.WDLPluginChannels.ChunkRange;
 import wdl.gui.widget.ButtonDisplayGui;
 import wdl.gui.widget.WDLButton;
-import wdl.gui.widget.WDLScreen;
-import wdl.versioned.VersionedFunctions;
 
 /**
  * A GUI that lists and allows requesting chunk overrides.
  *
  * Also, expect a possible minimap integration in the future.
  */
-public class GuiWDLChunkOverrides extends WDLScreen {
-	private static final int TOP_MARGIN = 61, BOTTOM_MARGIN = 32;
-
+public class GuiWDLChunkOverrides extends GuiChunkMapBase {
 	/**
 	 * Location of the button overlay textures.
 	 */
@@ -70,19 +65,9 @@ public class GuiWDLChunkOverrides extends WDLScreen {
 	 */
 	@Nullable
 	private final Screen parent;
-	private final WDL wdl;
 
 	private WDLButton startDownloadButton;
 
-	/**
-	 * The current position.
-	 */
-	private float scrollX, scrollZ;
-	/**
-	 * How large each chunk is on-screen.
-	 */
-	private static final int SCALE = 8;
-
 	/**
 	 * Current mode for the GUI
 	 */
@@ -97,20 +82,10 @@ public class GuiWDLChunkOverrides extends WDLScreen {
 	 * Coordinates of the active request.
 	 */
 	private int requestStartX, requestStartZ, requestEndX, requestEndZ;
-	/**
-	 * The position of the mouse on the last tick, for dragging.
-	 */
-	private int lastTickX, lastTickY;
 
 	public GuiWDLChunkOverrides(@Nullable Screen parent, WDL wdl) {
-		super(new StringTextComponent("Chunk overrides"));
+		super(wdl, new StringTextComponent("Chunk overrides"));
 		this.parent = parent;
-		this.wdl = wdl;
-
-		if (wdl.player != null) {
-			this.scrollX = wdl.player.chunkCoordX;
-			this.scrollZ = wdl.player.chunkCoordZ;
-		}
 	}
 
 	@Override
@@ -172,65 +147,50 @@ public class GuiWDLChunkOverrides extends WDLScreen {
 	}
 
 	@Override
-	public void mouseDown(int mouseX, int mouseY) {
-		if (mouseY > TOP_MARGIN && mouseY < height - BOTTOM_MARGIN) {
-			switch (mode) {
-			case PANNING:
-				lastTickX = mouseX;
-				lastTickY = mouseY;
-				break;
-			case REQUESTING:
-				if (partiallyRequested) {
-					requestEndX = displayXToChunkX(mouseX);
-					requestEndZ = displayZToChunkZ(mouseY);
-
-					ChunkRange requestRange = new ChunkRange("", requestStartX,
-							requestStartZ, requestEndX, requestEndZ);
-					WDLPluginChannels.addChunkOverrideRequest(requestRange);
-
-					partiallyRequested = false;
-				} else {
-					requestStartX = displayXToChunkX(mouseX);
-					requestStartZ = displayZToChunkZ(mouseY);
-
-					partiallyRequested = true;
-				}
-
-				minecraft.getSoundHandler().play(SimpleSound.master(
-								SoundEvents.UI_BUTTON_CLICK, 1.0F));
-				break;
-			case ERASING:
-				// TODO
-				minecraft.getSoundHandler().play(SimpleSound.master(
-						SoundEvents.BLOCK_DISPENSER_FAIL, 1.0F));
-				break;
-			case MOVING:
-				// TODO
-				minecraft.getSoundHandler().play(SimpleSound.master(
-						SoundEvents.BLOCK_DISPENSER_FAIL, 1.0F));
-				break;
-			}
-		}
+	protected boolean isPanning() {
+		return mode == Mode.PANNING;
 	}
 
 	@Override
-	public void mouseDragged(int mouseX, int mouseY) {
-		int deltaX = lastTickX - mouseX;
-		int deltaY = lastTickY - mouseY;
+	protected void mapClicked(int chunkX, int chunkZ) {
+		switch (mode) {
+		case PANNING:
+			break;
+		case REQUESTING:
+			if (partiallyRequested) {
+				requestEndX = chunkX;
+				requestEndZ = chunkZ;
+
+				ChunkRange requestRange = new ChunkRange("", requestStartX,
+						requestStartZ, requestEndX, requestEndZ);
+				WDLPluginChannels.addChunkOverrideRequest(requestRange);
 
-		lastTickX = mouseX;
-		lastTickY = mouseY;
+				partiallyRequested = false;
+			} else {
+				requestStartX = chunkX;
+				requestStartZ = chunkZ;
+
+				partiallyRequested = true;
+			}
 
-		if (mode == Mode.PANNING) {
-			scrollX += deltaX / (float)SCALE;
-			scrollZ += deltaY / (float)SCALE;
+			minecraft.getSoundHandler().play(SimpleSound.master(
+							SoundEvents.UI_BUTTON_CLICK, 1.0F));
+			break;
+		case ERASING:
+			// TODO
+			minecraft.getSoundHandler().play(SimpleSound.master(
+					SoundEvents.BLOCK_DISPENSER_FAIL, 1.0F));
+			break;
+		case MOVING:
+			// TODO
+			minecraft.getSoundHandler().play(SimpleSound.master(
+					SoundEvents.BLOCK_DISPENSER_FAIL, 1.0F));
+			break;
 		}
 	}
 
 	@Override
-	public void render(int mouseX, int mouseY, float partialTicks) {
-		VersionedFunctions.drawDarkBackground(0, 0, height, width);
-
+	protected void drawMap(int mouseX, int mouseY) {
 		// Draw the current request range.
 		if (mode == Mode.REQUESTING) {
 			int x1 = (partiallyRequested ? requestStartX : displayXToChunkX(mouseX));
@@ -241,34 +201,22 @@ public class GuiWDLChunkOverrides extends WDLScreen {
 			// TODO: Maybe cache this range in some way rather than creating a new one each frame
 			ChunkRange requestRange = new ChunkRange("", x1, z1, x2, z2);
 
-			// Fancy sin alpha changing by time.
-			int alpha = 127 + (int)(Math.sin(System.currentTimeMillis() * Math.PI / 5000) * 64);
-			drawRange(requestRange, 0xffffff, alpha);
+			drawTaggedRange(requestRange, 0xffffff, getPulsingAlpha());
 		}
 
 		// Draw current ranges
 		for (Multimap<String, ChunkRange> group : WDLPluginChannels.getChunkOverrides().values()) {
 			for (ChunkRange range : group.values()) {
-				drawRange(range, RNG_SEED, 0xFF);
+				drawTaggedRange(range, RNG_SEED, 0xFF);
 			}
 		}
 		for (ChunkRange range : WDLPluginChannels.getChunkOverrideRequests()) {
-			// Fancy sin alpha changing by time.
-			int alpha = 127 + (int)(Math.sin(System.currentTimeMillis() * Math.PI / 5000) * 64);
-			drawRange(range, 0x808080, alpha);
+			drawTaggedRange(range, 0x808080, getPulsingAlpha());
 		}
+	}
 
-		// Player position.
-		int playerPosX = (int)(((VersionedFunctions.getEntityX(wdl.player) / 16.0D) - scrollX) * SCALE + (width / 2));
-		int playerPosZ = (int)(((VersionedFunctions.getEntityZ(wdl.player) / 16.0D) - scrollZ) * SCALE + (height / 2));
-
-		hLine(playerPosX - 3, playerPosX + 3, playerPosZ, 0xFFFFFFFF);
-		// Vertical is 1px taller because it seems to be needed to make it proportional
-		vLine(playerPosX, playerPosZ - 4, playerPosZ + 4, 0xFFFFFFFF);
-
-		// Draw the main borders now so that ranges are hidden behind it.
-		this.drawBorder(TOP_MARGIN, BOTTOM_MARGIN, 0, 0, height, width);
-
+	@Override
+	public void render(int mouseX, int mouseY, float partialTicks) {
 		super.render(mouseX, mouseY, partialTicks);
 
 		this.drawCenteredString(this.font, "\u00A7c\u00A7lThis is a work in progress.",
@@ -284,87 +232,15 @@ public class GuiWDLChunkOverrides extends WDLScreen {
 	private static final int RNG_SEED = 0xBBDFC;
 
 	/**
-	 * Draws the given range at the proper position on screen.
+	 * Draws the given range at the proper position on screen, colored by its
+	 * tag.
 	 *
 	 * @param range The range to draw.
 	 * @param seed The default color for a tagless range. (See {@link #RNG_SEED})
 	 * @param alpha The transparency.  0xFF: Fully solid, 0x00: Fully transparent
 	 */
-	private void drawRange(ChunkRange range, int seed, int alpha) {
-		int color = (range.tag.hashCode() ^ seed) & 0x00FFFFFF;
-
-		int x1 = chunkXToDisplayX(range.x1);
-		int z1 = chunkZToDisplayZ(range.z1);
-		int x2 = chunkXToDisplayX(range.x2) + SCALE - 1;
-		int z2 = chunkZToDisplayZ(range.z2) + SCALE - 1;
-
-		fill(x1, z1, x2, z2, color + (alpha << 24));
-
-		int colorDark = darken(color);
-
-		vLine(x1, z1, z2, colorDark + (alpha << 24));
-		vLine(x2, z1, z2, colorDark + (alpha << 24));
-		hLine(x1, x2, z1, colorDark + (alpha << 24));
-		hLine(x1, x2, z2, colorDark + (alpha << 24));
-	}
-
-	/**
-	 * Converts a chunk x coordinate to a display x coordinate, taking
-	 * into account the value of {@link scrollX}.
-	 *
-	 * @param chunkX The chunk's x coordinate.
-	 * @return The display position.
-	 */
-	private int chunkXToDisplayX(int chunkX) {
-		return (int)((chunkX - scrollX) * SCALE + (width / 2));
-	}
-
-	/**
-	 * Converts a chunk z coordinate to a display z coordinate, taking
-	 * into account the value of {@link scrollZ}.
-	 *
-	 * @param chunkZ The chunk's z coordinate.
-	 * @return The display position.
-	 */
-	private int chunkZToDisplayZ(int chunkZ) {
-		return (int)((chunkZ - scrollZ) * SCALE + (height / 2));
-	}
-
-	/**
-	 * Converts a display x coordinate to a chunk x coordinate, taking
-	 * into account the value of {@link scrollX}.
-	 *
-	 * @param displayX The display x coordinate.
-	 * @return The chunk position.
-	 */
-	private int displayXToChunkX(int displayX) {
-		return MathHelper.floor((displayX - (float)(width / 2)) / SCALE + scrollX);
-	}
-
-	/**
-	 * Converts a display z coordinate to a chunk z coordinate, taking
-	 * into account the value of {@link scrollZ}.
-	 *
-	 * @param displayZ The display z coordinate.
-	 * @return The chunk position.
-	 */
-	private int displayZToChunkZ(int displayZ) {
-		return MathHelper.floor((displayZ - (float)(height / 2)) / SCALE + scrollZ);
-	}
-
-	/**
-	 * Halves the brightness of the given color.
-	 */
-	private int darken(int color) {
-		int r = (color >> 16) & 0xFF;
-		int g = (color >> 8) & 0xFF;
-		int b = color & 0xFF;
-
-		r /= 2;
-		g /= 2;
-		b /= 2;
-
-		return (r << 16) + (g << 8) + b;
+	private void drawTaggedRange(ChunkRange range, int seed, int alpha) {
+		drawRange(range, (range.tag.hashCode() ^ seed) & 0x00FFFFFF, alpha);
 	}
 
 	/**
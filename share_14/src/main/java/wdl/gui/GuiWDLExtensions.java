@@ -13,6 +13,8 @@
  */
 package wdl.gui;
 
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 import net.minecraft.client.audio.SimpleSound;
@@ -23,6 +25,9 @@ import net.minecraft.util.SoundEvents;
 import net.minecraft.util.text.StringTextComponent;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.util.text.TranslationTextComponent;
+import wdl.ExtensionRunner.Timing;
+import wdl.WDL;
+import wdl.api.IWDLModThreadSafe;
 import wdl.api.IWDLModWithGui;
 import wdl.api.WDLApi;
 import wdl.api.WDLApi.ModInfo;
@@ -223,6 +228,21 @@ public class GuiWDLExtensions extends WDLScreen {
 			String info = selectedMod.getInfo();
 
 			detailsList.addLine(info);
+
+			if (selectedMod.mod instanceof IWDLModThreadSafe) {
+				detailsList.addLine(I18n.format("wdl.gui.extensions.threadSafe"));
+			}
+			Map<String, Timing> timings = WDL.getInstance().extensions.getTimings(selectedMod.id);
+			if (!timings.isEmpty()) {
+				detailsList.addBlankLine();
+				detailsList.addLine(I18n.format("wdl.gui.extensions.timings"));
+				for (Map.Entry<String, Timing> e : timings.entrySet()) {
+					Timing timing = e.getValue();
+					detailsList.addLine(I18n.format("wdl.gui.extensions.timing", e.getKey(),
+							timing.getCalls(), timing.getLastMillis(), timing.getAverageMillis(),
+							timing.getMaxMillis(), timing.getTimeouts()));
+				}
+			}
 		}
 	}
 
@@ -13,7 +13,6 @@
  */
 package wdl.gui;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,6 +21,7 @@ import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.StringTextComponent;
 import net.minecraft.util.text.TranslationTextComponent;
 import wdl.WDL;
+import wdl.WorldIndex;
 import wdl.config.Configuration;
 import wdl.config.IConfiguration;
 import wdl.config.settings.MiscSettings;
@@ -109,34 +109,26 @@ public class GuiWDLMultiworldSelect extends GuiTurningCameraBase {
 				// TODO: More info than just dimensions - EG if the
 				// chunk the player is in is added, etc.
 				description.add("Defined dimensions:");
-				File savesFolder = new File(wdl.minecraft.gameDir, "saves");
-				File world = new File(savesFolder, WDL.getWorldFolderName(folderName));
-				File[] subfolders = world.listFiles();
-
-				if (subfolders != null) {
-					for (File subfolder : subfolders) {
-						if (subfolder.listFiles() == null) {
-							// Not a folder
-							continue;
-						}
-						if (subfolder.listFiles().length == 0) {
-							// Empty folder - we don't count these.
-							continue;
-						}
-						if (subfolder.getName().equals("region")) {
-							description.add(" * Overworld (#0)");
-						} else if (subfolder.getName().startsWith("DIM")) {
-							String dimension = subfolder.getName().substring(3);
-							if (dimension.equals("-1")) {
-								description.add(" * Nether (#-1)");
-							} else if (dimension.equals("1")) {
-								description.add(" * The End (#1)");
-							} else {
-								description.add(" * #" + dimension);
-							}
+				WorldIndex.IndexedWorld world = wdl.worldIndex.get(WDL.getWorldFolderName(folderName));
+
+				for (String dimensionFolder : world.getDimensions()) {
+					if (dimensionFolder.equals("region")) {
+						description.add(" * Overworld (#0)");
+					} else if (dimensionFolder.startsWith("DIM")) {
+						String dimension = dimensionFolder.substring(3);
+						if (dimension.equals("-1")) {
+							description.add(" * Nether (#-1)");
+						} else if (dimension.equals("1")) {
+							description.add(" * The End (#1)");
+						} else {
+							description.add(" * #" + dimension);
 						}
 					}
 				}
+				if (world.getChunkCount() > 0) {
+					description.add(String.format("%,d chunks, %.1f MB",
+							world.getChunkCount(), world.getSize() / (1024.0 * 1024.0)));
+				}
 			}
 
 			return description;
@@ -250,6 +242,8 @@ public class GuiWDLMultiworldSelect extends GuiTurningCameraBase {
 			linkedWorlds.add(new MultiworldInfo(worldName, displayName));
 		}
 
+		wdl.worldIndex.flush();
+
 		linkedWorldsFiltered = new ArrayList<>();
 		linkedWorldsFiltered.addAll(linkedWorlds);
 	}
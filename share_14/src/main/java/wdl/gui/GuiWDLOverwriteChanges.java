@@ -13,6 +13,7 @@
  */
 package wdl.gui;
 
+import java.io.File;
 import java.io.IOException;
 
 import net.minecraft.client.resources.I18n;
@@ -52,7 +53,7 @@ public class GuiWDLOverwriteChanges extends GuiTurningCameraBase implements IBac
 							.format("wdl.gui.overwriteChanges.backingUp.folder", name);
 				}
 
-				WorldBackup.backupWorld(wdl.saveHandler.getWorldDirectory(),
+				WorldBackup.backupWorld(new File(new File(minecraft.gameDir, "saves"), name),
 						name + "_user", type,
 						GuiWDLOverwriteChanges.this);
 			} catch (IOException ex) {
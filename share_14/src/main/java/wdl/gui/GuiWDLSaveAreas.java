@@ -0,0 +1,252 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.client.audio.SimpleSound;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.util.SoundEvents;
+import net.minecraft.util.text.TranslationTextComponent;
+import wdl.DownloadSession;
+import wdl.SaveAreaFilter;
+import wdl.WDL;
+import wdl.WDLPluginChannels.ChunkRange;
+import wdl.config.IConfiguration;
+import wdl.config.settings.MiscSettings;
+import wdl.gui.widget.ButtonDisplayGui;
+import wdl.gui.widget.WDLButton;
+import wdl.versioned.VersionedFunctions;
+
+/**
+ * A GUI for choosing the areas that chunks of the current dimension are saved
+ * in.
+ */
+public class GuiWDLSaveAreas extends GuiChunkMapBase {
+	private static enum Mode {
+		PANNING("wdl.gui.saveAreas.pan"),
+		INCLUDING("wdl.gui.saveAreas.include"),
+		EXCLUDING("wdl.gui.saveAreas.exclude"),
+		ERASING("wdl.gui.saveAreas.erase");
+
+		private Mode(String translationKey) {
+			this.translationKey = translationKey;
+		}
+
+		public final String translationKey;
+	}
+
+	/**
+	 * Parent GUI screen; displayed when this GUI is closed.
+	 */
+	@Nullable
+	private final Screen parent;
+	private final IConfiguration config;
+	/**
+	 * The setting holding the current dimension's areas.
+	 */
+	private final MiscSettings.SaveAreasSetting setting;
+
+	/**
+	 * The areas being edited, in priority order (later ones win).
+	 */
+	private final List<ChunkRange> areas;
+	/**
+	 * Compiled form of {@link #areas}, used to show which chunks are saved.
+	 */
+	private SaveAreaFilter filter;
+
+	/**
+	 * Current mode for the GUI
+	 */
+	private Mode mode = Mode.PANNING;
+
+	/**
+	 * Is the end coordinate being set (true) or start coordinate being set
+	 * (false)?
+	 */
+	private boolean partiallyPlaced;
+	/**
+	 * Start coordinates of the area being placed.
+	 */
+	private int startX, startZ;
+
+	public GuiWDLSaveAreas(@Nullable Screen parent, WDL wdl) {
+		super(wdl, "wdl.gui.saveAreas.title");
+		this.parent = parent;
+		this.config = wdl.worldProps;
+		this.setting = new MiscSettings.SaveAreasSetting(VersionedFunctions.getDimension(wdl.worldClient));
+		this.areas = new ArrayList<>(config.getValue(setting));
+		this.filter = SaveAreaFilter.compile(areas);
+	}
+
+	@Override
+	public void init() {
+		int x = width / 2 - 155;
+		for (Mode mode : Mode.values()) {
+			this.addButton(new ModeButton(x, 18, mode));
+			x += 78;
+		}
+
+		this.addButton(new WDLButton(width / 2 + 5, 39, 150, 20,
+				new TranslationTextComponent("wdl.gui.saveAreas.clear")) {
+			public @Override void performAction() {
+				areas.clear();
+				partiallyPlaced = false;
+				onAreasChanged();
+			}
+		});
+
+		this.addButton(new ButtonDisplayGui(width / 2 - 100, height - 29,
+				200, 20, this.parent));
+	}
+
+	@Override
+	protected boolean isPanning() {
+		return mode == Mode.PANNING;
+	}
+
+	@Override
+	protected void mapClicked(int chunkX, int chunkZ) {
+		switch (mode) {
+		case PANNING:
+			return;
+		case INCLUDING:
+		case EXCLUDING:
+			if (partiallyPlaced) {
+				areas.add(new ChunkRange(getTag(), startX, startZ, chunkX, chunkZ));
+				partiallyPlaced = false;
+				onAreasChanged();
+			} else {
+				startX = chunkX;
+				startZ = chunkZ;
+				partiallyPlaced = true;
+			}
+			break;
+		case ERASING:
+			// Remove the topmost area at that position
+			for (int i = areas.size() - 1; i >= 0; i--) {
+				ChunkRange area = areas.get(i);
+				if (chunkX >= area.x1 && chunkX <= area.x2 && chunkZ >= area.z1 && chunkZ <= area.z2) {
+					areas.remove(i);
+					onAreasChanged();
+					break;
+				}
+			}
+			break;
+		}
+
+		minecraft.getSoundHandler().play(SimpleSound.master(
+				SoundEvents.UI_BUTTON_CLICK, 1.0F));
+	}
+
+	@Override
+	public void removed() {
+		wdl.saveProps();
+	}
+
+	/**
+	 * Stores the edited areas, and applies them to the current download.
+	 */
+	private void onAreasChanged() {
+		config.setValue(setting, new ArrayList<>(areas));
+		filter = SaveAreaFilter.compile(areas);
+		DownloadSession session = wdl.getSession();
+		if (session != null) {
+			session.reloadSaveAreas();
+		}
+	}
+
+	private String getTag() {
+		return mode == Mode.EXCLUDING ? SaveAreaFilter.EXCLUDE : SaveAreaFilter.INCLUDE;
+	}
+
+	@Override
+	protected void drawMap(int mouseX, int mouseY) {
+		for (ChunkRange area : areas) {
+			drawArea(area, 0xFF);
+		}
+
+		// Draw the area being placed.
+		if (mode == Mode.INCLUDING || mode == Mode.EXCLUDING) {
+			int x1 = (partiallyPlaced ? startX : displayXToChunkX(mouseX));
+			int z1 = (partiallyPlaced ? startZ : displayZToChunkZ(mouseY));
+			int x2 = displayXToChunkX(mouseX);
+			int z2 = displayZToChunkZ(mouseY);
+
+			drawArea(new ChunkRange(getTag(), x1, z1, x2, z2), getPulsingAlpha());
+		}
+	}
+
+	@Override
+	public void render(int mouseX, int mouseY, float partialTicks) {
+		super.render(mouseX, mouseY, partialTicks);
+
+		if (isOnMap(mouseY)) {
+			int x = displayXToChunkX(mouseX);
+			int z = displayZToChunkZ(mouseY);
+			this.drawString(this.font, I18n.format(filter.shouldSave(x, z)
+					? "wdl.gui.saveAreas.saved" : "wdl.gui.saveAreas.notSaved", x, z),
+					width / 2 - 155, 45, 0xFFFFFF);
+		}
+
+		if (areas.isEmpty()) {
+			this.drawCenteredString(this.font, I18n.format("wdl.gui.saveAreas.noAreas"),
+					this.width / 2, this.height / 2 + 8, 0xFFFFFF);
+		}
+	}
+
+	/**
+	 * Draws the given area at the proper position on screen: green if it is
+	 * included, and red if it is excluded.
+	 *
+	 * @param area The area to draw.
+	 * @param alpha The transparency.  0xFF: Fully solid, 0x00: Fully transparent
+	 */
+	private void drawArea(ChunkRange area, int alpha) {
+		drawRange(area, SaveAreaFilter.EXCLUDE.equals(area.tag) ? 0xBF3F3F : 0x3FBF3F, alpha);
+	}
+
+	/**
+	 * Button that selects a mode, outlined while that mode is active.
+	 */
+	private class ModeButton extends WDLButton {
+		public final Mode mode;
+
+		public ModeButton(int x, int y, Mode mode) {
+			super(x, y, 74, 20, new TranslationTextComponent(mode.translationKey));
+			this.mode = mode;
+		}
+
+		@Override
+		public void performAction() {
+			GuiWDLSaveAreas.this.mode = this.mode;
+			partiallyPlaced = false;
+		}
+
+		@Override
+		public void beforeDraw() {
+			if (GuiWDLSaveAreas.this.mode == this.mode) {
+				// Mode is currently selected - draw a green outline.
+				fill(this.x - 2, this.y - 2,
+						this.x + width + 2, this.y + height + 2,
+						0xFF007F00);
+			}
+		}
+	}
+}
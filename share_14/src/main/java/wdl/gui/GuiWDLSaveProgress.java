@@ -13,6 +13,11 @@
  */
 package wdl.gui;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
 
 import net.minecraft.client.gui.AbstractGui;
@@ -27,15 +32,47 @@ import wdl.WDL;
  * <br/>
  * Based off of vanilla minecraft's
  * {@link net.minecraft.client.gui.GuiScreenWorking GuiScreenWorking}.
+ * <p>
+ * Several tasks can be worked on at once, from different threads; progress is
+ * tracked per thread.  The task that was started first is shown in full, and
+ * the others are listed below it.
  */
 public class GuiWDLSaveProgress extends GuiTurningCameraBase {
-	private String majorTaskMessage = "";
-	private Supplier<String> minorTaskMessageProvider = () -> "";
+	/**
+	 * Progress of the major task that a single thread is working on.
+	 */
+	private static class Task {
+		private final String majorTaskMessage;
+		private Supplier<String> minorTaskMessageProvider;
+		private int minorTaskProgress;
+		private int minorTaskMaximum;
+		private boolean includeProgressInMinorTask = true;
+
+		Task(String message, int minorTaskMaximum) {
+			this.majorTaskMessage = message;
+			this.minorTaskMessageProvider = () -> message;
+			this.minorTaskMaximum = minorTaskMaximum;
+		}
+
+		float getProgress() {
+			return minorTaskMaximum > 0 ? (float)minorTaskProgress / minorTaskMaximum : 0;
+		}
+
+		String getMinorTaskInfo() {
+			String minorTaskInfo = minorTaskMessageProvider.get();
+			if (minorTaskMaximum > 1 && includeProgressInMinorTask) {
+				minorTaskInfo = I18n.format(
+						"wdl.gui.saveProgress.progressInfo", minorTaskInfo,
+						minorTaskProgress, minorTaskMaximum);
+			}
+			return minorTaskInfo;
+		}
+	}
+
+	/** Tasks in progress, by the thread working on them, oldest first. */
+	private final Map<Thread, Task> tasks = new LinkedHashMap<>();
 	private int majorTaskNumber;
 	private final int majorTaskCount;
-	private int minorTaskProgress;
-	private int minorTaskMaximum;
-	private boolean includeProgressInMinorTask = true;
 
 	// Actually used for rendering
 	private static final int FULL_BAR_WIDTH = 182;
@@ -62,15 +99,30 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 	}
 
 	/**
-	 * Starts a new major task with the given message.
+	 * Starts a new major task with the given message, replacing the current
+	 * thread's previous one.
 	 */
 	public synchronized void startMajorTask(String message, int minorTaskMaximum) {
-		this.majorTaskMessage = message;
 		this.majorTaskNumber++;
+		// Removed first, so that it's ordered as the newest task
+		tasks.remove(Thread.currentThread());
+		tasks.put(Thread.currentThread(), new Task(message, minorTaskMaximum));
+	}
 
-		this.minorTaskMessageProvider = () -> message;
-		this.minorTaskProgress = 0;
-		this.minorTaskMaximum = minorTaskMaximum;
+	/**
+	 * Marks the current thread's task as finished, when it is done with it
+	 * but other threads are still working.
+	 */
+	public synchronized void finishTask() {
+		tasks.remove(Thread.currentThread());
+	}
+
+	/**
+	 * Gets the current thread's task; if it hasn't started one, a blank one
+	 * is started without counting as a major task.
+	 */
+	private Task getTask() {
+		return tasks.computeIfAbsent(Thread.currentThread(), thread -> new Task("", 0));
 	}
 
 	/**
@@ -82,8 +134,9 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 	 *            automatically appended after it.
 	 */
 	public synchronized void setMinorTaskProgress(String message, int progress) {
-		this.minorTaskMessageProvider = () -> message;
-		this.minorTaskProgress = progress;
+		Task task = getTask();
+		task.minorTaskMessageProvider = () -> message;
+		task.minorTaskProgress = progress;
 	}
 
 	/**
@@ -93,23 +146,40 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 	 *            Provides the message to be displayed.
 	 */
 	public synchronized void setMinorTaskProgress(Supplier<String> messageProvider, int progress) {
-		this.minorTaskMessageProvider = messageProvider;
-		this.minorTaskProgress = progress;
+		Task task = getTask();
+		task.minorTaskMessageProvider = messageProvider;
+		task.minorTaskProgress = progress;
 	}
 
 	/**
 	 * Updates the progress on the minor task.
 	 */
 	public synchronized void setMinorTaskProgress(int progress) {
-		this.minorTaskProgress = progress;
+		getTask().minorTaskProgress = progress;
+	}
+
+	/**
+	 * Gets a callback that updates the progress on the current thread's minor
+	 * task, which may be called from other threads (e.g. a pool working on
+	 * the task).  Progress never goes backwards, as updates from different
+	 * threads may arrive out of order.
+	 */
+	public synchronized IntConsumer getMinorTaskProgressUpdater() {
+		Task task = getTask();
+		return progress -> {
+			synchronized (this) {
+				task.minorTaskProgress = Math.max(task.minorTaskProgress, progress);
+			}
+		};
 	}
 
 	/**
 	 * Updates the number of minor tasks.
 	 */
 	public synchronized void setMinorTaskCount(int count) {
-		this.minorTaskMaximum = count;
-		this.includeProgressInMinorTask = true;
+		Task task = getTask();
+		task.minorTaskMaximum = count;
+		task.includeProgressInMinorTask = true;
 	}
 
 	/**
@@ -117,8 +187,9 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 	 * number.
 	 */
 	public synchronized void setMinorTaskCount(int count, boolean show) {
-		this.minorTaskMaximum = count;
-		this.includeProgressInMinorTask = show;
+		Task task = getTask();
+		task.minorTaskMaximum = count;
+		task.includeProgressInMinorTask = show;
 	}
 
 	/**
@@ -133,15 +204,19 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 		super.tick();
 		prevMajorBar = majorBar;
 		prevMinorBar = minorBar;
-		if (minorTaskMaximum > 0) {
-			// Make the major bar also reflect the minor bar.
-			majorBar = (float)((majorTaskNumber * minorTaskMaximum) + minorTaskProgress) /
-					((majorTaskCount + 1) * minorTaskMaximum);
-		} else {
-			majorBar = (float)majorTaskNumber / majorTaskCount;
+		// Make the major bar also reflect the minor bars.
+		float progress = majorTaskNumber;
+		for (Task task : tasks.values()) {
+			progress += task.getProgress();
 		}
+		majorBar = progress / (majorTaskCount + Math.max(1, tasks.size()));
 
-		minorBar = (float)minorTaskProgress / minorTaskMaximum;
+		Task main = getMainTask();
+		minorBar = main != null ? main.getProgress() : 0;
+	}
+
+	private Task getMainTask() {
+		return tasks.isEmpty() ? null : tasks.values().iterator().next();
 	}
 
 	/**
@@ -157,18 +232,14 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 		} else {
 			this.drawBorder(32, 32, 0, 0, height, width);
 
-			String majorTaskInfo = majorTaskMessage;
+			Task main = getMainTask();
+			String majorTaskInfo = main != null ? main.majorTaskMessage : "";
 			if (majorTaskCount > 1) {
 				majorTaskInfo = I18n.format(
-						"wdl.gui.saveProgress.progressInfo", majorTaskMessage,
+						"wdl.gui.saveProgress.progressInfo", majorTaskInfo,
 						majorTaskNumber, majorTaskCount);
 			}
-			String minorTaskInfo = minorTaskMessageProvider.get();
-			if (minorTaskMaximum > 1 && includeProgressInMinorTask) {
-				minorTaskInfo = I18n.format(
-						"wdl.gui.saveProgress.progressInfo", minorTaskInfo,
-						minorTaskProgress, minorTaskMaximum);
-			}
+			String minorTaskInfo = main != null ? main.getMinorTaskInfo() : "";
 
 			this.drawCenteredString(this.font,
 					majorTaskInfo, this.width / 2, 100, 0xFFFFFF);
@@ -180,6 +251,16 @@ public class GuiWDLSaveProgress extends GuiTurningCameraBase {
 			this.drawProgressBar(140, 64, 69,
 					prevMinorBar + (minorBar - prevMinorBar) * partialTicks);
 
+			List<Task> others = new ArrayList<>(tasks.values());
+			others.remove(main);
+			int y = 155;
+			for (Task task : others) {
+				this.drawCenteredString(this.font, I18n.format(
+						"wdl.gui.saveProgress.otherTask", task.majorTaskMessage,
+						task.getMinorTaskInfo()), this.width / 2, y, 0xA0A0A0);
+				y += this.font.FONT_HEIGHT + 2;
+			}
+
 			super.render(mouseX, mouseY, partialTicks);
 		}
 	}
@@ -3,7 +3,7 @@
  * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
  *
  * Copyright (c) 2014 nairol, cubic72
- * Copyright (c) 2017 Pokechu22, julialy
+ * Copyright (c) 2017-2020 Pokechu22, julialy
  *
  * This project is licensed under the MMPLv2.  The full text of the MMPL can be
  * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
@@ -13,15 +13,35 @@
  */
 package wdl.update;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
 import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import wdl.update.Release.HashData;
 
 /**
  * Hashes classes inside the jar.
  */
 public class ClassHasher {
+	private static final Logger LOGGER = LogManager.getLogger();
+
 	// https://stackoverflow.com/a/9855338/3991344
 	private static final char[] hexArray = "0123456789ABCDEF".toCharArray();
 
@@ -62,11 +82,116 @@ public class ClassHasher {
 				throw new FileNotFoundException(file + " relative to "
 						+ relativeTo);
 			}
-			try (DigestInputStream digestStream = new DigestInputStream(stream, digest)) {
-				while (digestStream.read() != -1); //Read entire stream
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
 			}
 		}
 
 		return bytesToHex(digest.digest());
 	}
+
+	/**
+	 * Checks the hashes of all of the given files, hashing them in parallel.
+	 * <p>
+	 * Hashes are cached in the given file, along with the path, size, and
+	 * modification time of the jar (or folder) each file was found in; when
+	 * those are unchanged, the cached hash is used instead of hashing again.
+	 *
+	 * @param hashes
+	 *            The files to check.
+	 * @param cacheFile
+	 *            File to cache hashes in, or null to always hash.
+	 * @return The files that failed the check, in their original order, mapped
+	 *         to either the (incorrect) hash that was calculated or the
+	 *         exception that was raised while hashing.
+	 */
+	public static Map<HashData, Object> verify(Collection<HashData> hashes,
+			@Nullable File cacheFile) {
+		Properties cache = new Properties();
+		if (cacheFile != null && cacheFile.exists()) {
+			try (InputStream stream = new FileInputStream(cacheFile)) {
+				cache.load(stream);
+			} catch (IOException | IllegalArgumentException ex) {
+				LOGGER.warn("[WDL] Failed to read hash cache; rehashing everything", ex);
+				cache.clear();
+			}
+		}
+
+		Map<HashData, Object> results = new ConcurrentHashMap<>();
+		Properties newCache = new Properties();
+		hashes.parallelStream().forEach(data -> {
+			String cacheKey = data.relativeTo + "/" + data.file;
+			try {
+				String source = getSourceKey(data.relativeTo, data.file);
+				String cached = cache.getProperty(cacheKey);
+				String hash;
+				if (source != null && cached != null && cached.startsWith(source + "|")) {
+					hash = cached.substring(source.length() + 1);
+				} else {
+					hash = hash(data.relativeTo, data.file);
+				}
+				if (source != null) {
+					newCache.setProperty(cacheKey, source + "|" + hash);
+				}
+				results.put(data, hash);
+			} catch (Exception ex) {
+				results.put(data, ex);
+			}
+		});
+
+		if (cacheFile != null && !newCache.equals(cache)) {
+			try (OutputStream stream = new FileOutputStream(cacheFile)) {
+				newCache.store(stream, "World Downloader class hash cache");
+			} catch (IOException ex) {
+				LOGGER.warn("[WDL] Failed to save hash cache", ex);
+			}
+		}
+
+		Map<HashData, Object> failed = new LinkedHashMap<>();
+		hashLoop: for (HashData data : hashes) {
+			Object result = results.get(data);
+			if (result instanceof String) {
+				for (String validHash : data.validHashes) {
+					if (validHash.equalsIgnoreCase((String) result)) {
+						continue hashLoop;
+					}
+				}
+			}
+			failed.put(data, result);
+		}
+		return failed;
+	}
+
+	/**
+	 * Describes the jar or folder that the given file would be loaded from,
+	 * such that the description changes whenever that jar does.
+	 *
+	 * @return The path, size, and modification time of the jar, or null if it
+	 *         isn't a regular file on disk (in which case it can't be cached).
+	 */
+	@Nullable
+	static String getSourceKey(String relativeTo, String file) throws Exception {
+		URL url = Class.forName(relativeTo).getResource(file);
+		if (url == null) {
+			return null;
+		}
+		File source;
+		switch (url.getProtocol()) {
+		case "jar":
+			source = new File(((JarURLConnection) url.openConnection()).getJarFileURL().toURI());
+			break;
+		case "file":
+			// Not in a jar (e.g. in a development environment); use the file itself
+			source = new File(url.toURI());
+			break;
+		default:
+			return null;
+		}
+		if (!source.isFile()) {
+			return null;
+		}
+		return source.getAbsolutePath() + ";" + source.length() + ";" + source.lastModified();
+	}
 }
@@ -20,14 +20,12 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 import javax.annotation.Nonnull;
 import javax.net.ssl.HttpsURLConnection;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 
@@ -75,12 +73,7 @@ public class GithubInfoGrabber {
 	 */
 	@Nonnull
 	public static List<Release> getReleases() throws Exception {
-		JsonArray array = query(RELEASE_LIST_LOCATION).getAsJsonArray();
-		List<Release> returned = new ArrayList<>();
-		for (JsonElement element : array) {
-			returned.add(new Release(element.getAsJsonObject()));
-		}
-		return returned;
+		return Release.fromJsonArray(query(RELEASE_LIST_LOCATION).getAsJsonArray());
 	}
 
 	/**
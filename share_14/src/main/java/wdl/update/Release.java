@@ -13,7 +13,9 @@
  */
 package wdl.update;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -188,6 +190,20 @@ public class Release {
 		}
 	}
 
+	/**
+	 * Creates releases for each element of the given array, in the format
+	 * returned by GitHub's release list API.
+	 *
+	 * @see https://developer.github.com/v3/repos/releases/#list-releases-for-a-repository
+	 */
+	public static List<Release> fromJsonArray(JsonArray array) {
+		List<Release> releases = new ArrayList<>();
+		for (JsonElement element : array) {
+			releases.add(new Release(element.getAsJsonObject()));
+		}
+		return releases;
+	}
+
 	public Release(JsonObject object) {
 		this.object = object;
 
@@ -158,7 +158,8 @@ final class GeneratorFunctions {
 			ToastGui guitoast = Minecraft.getInstance().getToastGui();
 			ITextComponent top = new TranslationTextComponent("selectWorld.edit.backupCreated", name);
 			ITextComponent bot = new TranslationTextComponent("selectWorld.edit.backupSize", MathHelper.ceil(fileSize / 1048576.0));
-			guitoast.add(new SystemToast(SystemToast.Type.WORLD_BACKUP, top, bot));
+			// Replaces the progress toast, if there is one
+			SystemToast.addOrUpdate(guitoast, SystemToast.Type.WORLD_BACKUP, top, bot);
 		});
 	}
 
@@ -173,7 +174,20 @@ final class GeneratorFunctions {
 			// NOTE: vanilla translation string was missing (MC-137308) until 1.14
 			ITextComponent top = new TranslationTextComponent("wdl.toast.backupFailed");
 			ITextComponent bot = new StringTextComponent(message);
-			guitoast.add(new SystemToast(SystemToast.Type.WORLD_BACKUP, top, bot));
+			// Replaces the progress toast, if there is one
+			SystemToast.addOrUpdate(guitoast, SystemToast.Type.WORLD_BACKUP, top, bot);
+		});
+	}
+
+	/* (non-javadoc)
+	 * @see VersionedFunctions#makeBackupProgressToast
+	 */
+	static void makeBackupProgressToast(String name, int percent) {
+		Minecraft.getInstance().execute(() -> {
+			ToastGui guitoast = Minecraft.getInstance().getToastGui();
+			ITextComponent top = new TranslationTextComponent("wdl.toast.backingUp", name);
+			ITextComponent bot = percent >= 0 ? new TranslationTextComponent("wdl.toast.backingUp.progress", percent) : null;
+			SystemToast.addOrUpdate(guitoast, SystemToast.Type.WORLD_BACKUP, top, bot);
 		});
 	}
 
@@ -513,6 +513,18 @@ public final class VersionedFunctions {
 		GeneratorFunctions.makeBackupFailedToast(ex);
 	}
 
+	/**
+	 * Makes or updates a toast showing the progress of a backup, on versions
+	 * that support it.  The toast is replaced by the one made by
+	 * {@link #makeBackupToast} or {@link #makeBackupFailedToast}.
+	 *
+	 * @param name The name of the world
+	 * @param percent How far along the backup is, or -1 if unknown
+	 */
+	public static void makeBackupProgressToast(String name, int percent) {
+		GeneratorFunctions.makeBackupProgressToast(name, percent);
+	}
+
 	/**
 	 * A superflat configuration that generates only air.
 	 *
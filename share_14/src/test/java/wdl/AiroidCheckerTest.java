@@ -0,0 +1,70 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.ChunkSection;
+
+public class AiroidCheckerTest extends MaybeMixinTest {
+	private static final ChunkPos POS = new ChunkPos(0, 0);
+
+	@Test
+	public void testAir() {
+		AiroidChecker checker = new AiroidChecker();
+		ChunkSection section = new ChunkSection(0);
+		assertTrue(checker.isAiroid(POS, section));
+	}
+
+	@Test
+	public void testBeds() {
+		AiroidChecker checker = new AiroidChecker();
+		ChunkSection section = new ChunkSection(0);
+		section.setBlockState(1, 2, 3, Blocks.RED_BED.getDefaultState());
+		assertTrue(checker.isAiroid(POS, section));
+		section.setBlockState(4, 5, 6, Blocks.STONE.getDefaultState());
+		assertFalse(checker.isAiroid(POS, section));
+	}
+
+	/**
+	 * A palette entry that is no longer used must not cause the section to be
+	 * treated as non-airoid.
+	 */
+	@Test
+	public void testStalePaletteEntry() {
+		AiroidChecker checker = new AiroidChecker();
+		ChunkSection section = new ChunkSection(0);
+		section.setBlockState(1, 2, 3, Blocks.RED_BED.getDefaultState());
+		section.setBlockState(4, 5, 6, Blocks.STONE.getDefaultState());
+		assertFalse(checker.isAiroid(POS, section));
+		section.setBlockState(4, 5, 6, Blocks.AIR.getDefaultState());
+		assertTrue(checker.isAiroid(POS, section));
+		// Stone is still in the palette, so the palette doesn't change here
+		section.setBlockState(7, 8, 9, Blocks.STONE.getDefaultState());
+		assertFalse(checker.isAiroid(POS, section));
+	}
+
+	@Test
+	public void testReplacedSection() {
+		AiroidChecker checker = new AiroidChecker();
+		assertTrue(checker.isAiroid(POS, new ChunkSection(0)));
+		ChunkSection section = new ChunkSection(0);
+		section.setBlockState(0, 0, 0, Blocks.STONE.getDefaultState());
+		assertFalse(checker.isAiroid(POS, section));
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+public class CaptureSpillStoreTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static CompoundNBT makeTileEntity(int x, int y, int z, String id) {
+		CompoundNBT tag = new CompoundNBT();
+		tag.putString("id", id);
+		tag.putInt("x", x);
+		tag.putInt("y", y);
+		tag.putInt("z", z);
+		return tag;
+	}
+
+	/**
+	 * Spilling only starts once the limit has been exceeded, and the oldest
+	 * chunk is spilled first.
+	 */
+	@Test
+	public void testLimit() throws Exception {
+		try (CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 100)) {
+			ChunkPos first = new ChunkPos(0, 0);
+			ChunkPos second = new ChunkPos(1, 0);
+			store.onCaptured(first, 60);
+			assertFalse(store.isOverLimit());
+			assertNull(store.getChunkToSpill());
+			store.onCaptured(second, 60);
+			assertTrue(store.isOverLimit());
+			assertThat(store.getChunkToSpill(), is(first));
+			store.onReleased(first);
+			assertFalse(store.isOverLimit());
+			assertNull(store.getChunkToSpill());
+		}
+	}
+
+	/**
+	 * A limit of 0 disables spilling entirely.
+	 */
+	@Test
+	public void testDisabled() throws Exception {
+		try (CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 0)) {
+			store.onCaptured(new ChunkPos(0, 0), Long.MAX_VALUE / 2);
+			assertFalse(store.isOverLimit());
+		}
+	}
+
+	@Test
+	public void testTileEntities() throws Exception {
+		try (CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 1)) {
+			ChunkPos pos = new ChunkPos(0, 0);
+			store.spillTileEntity(pos, makeTileEntity(1, 2, 3, "minecraft:chest"));
+			store.spillTileEntity(pos, makeTileEntity(4, 5, 6, "minecraft:furnace"));
+			// Replaces the first one
+			store.spillTileEntity(pos, makeTileEntity(1, 2, 3, "minecraft:hopper"));
+
+			Map<BlockPos, CompoundNBT> read = store.readTileEntities(pos);
+			assertThat(read.size(), is(2));
+			assertThat(read.get(new BlockPos(1, 2, 3)).getString("id"), is("minecraft:hopper"));
+			assertThat(read.get(new BlockPos(4, 5, 6)).getString("id"), is("minecraft:furnace"));
+			assertTrue(store.readTileEntities(new ChunkPos(1, 1)).isEmpty());
+
+			store.forget(pos);
+			assertTrue(store.readTileEntities(pos).isEmpty());
+		}
+	}
+
+	@Test
+	public void testEntities() throws Exception {
+		try (CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 1)) {
+			ChunkPos pos = new ChunkPos(2, -3);
+			UUID a = new UUID(1, 2), b = new UUID(3, 4);
+			CompoundNBT tagA = new CompoundNBT();
+			tagA.putString("id", "minecraft:cow");
+			CompoundNBT tagB = new CompoundNBT();
+			tagB.putString("id", "minecraft:pig");
+			CompoundNBT tagA2 = new CompoundNBT();
+			tagA2.putString("id", "minecraft:sheep");
+
+			store.spillEntity(pos, a, tagA);
+			store.spillEntity(pos, b, tagB);
+			store.spillEntity(pos, a, tagA2);
+
+			Map<UUID, CompoundNBT> read = store.readEntities(pos);
+			assertThat(read.size(), is(2));
+			assertThat(read.get(a), is(tagA2));
+			assertThat(read.get(b), is(tagB));
+
+			store.removeEntity(pos, b);
+			assertThat(store.readEntities(pos).keySet(), contains(a));
+			assertThat(store.forget(pos), contains(a));
+			assertTrue(store.readEntities(pos).isEmpty());
+		}
+	}
+
+	@Test
+	public void testMaps() throws Exception {
+		try (CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 1)) {
+			CompoundNBT data = new CompoundNBT();
+			data.putByteArray("colors", new byte[128 * 128]);
+			data.putByte("scale", (byte) 2);
+			store.spillMap(7, data);
+
+			Map<Integer, CompoundNBT> read = store.readMaps();
+			assertThat(read.keySet(), contains(7));
+			assertThat(read.get(7), is(data));
+		}
+	}
+
+	/**
+	 * The spill file is removed once the store is closed.
+	 */
+	@Test
+	public void testClose() throws Exception {
+		File file = new File(folder.getRoot(), CaptureSpillStore.FILE_NAME);
+		CaptureSpillStore store = new CaptureSpillStore(folder.getRoot(), 1);
+		store.spillTileEntity(new ChunkPos(0, 0), makeTileEntity(0, 0, 0, "minecraft:chest"));
+		assertTrue(file.exists());
+		assertThat(store.getSpilledBytes(), is(greaterThan(0L)));
+		store.close();
+		assertFalse(file.exists());
+	}
+}
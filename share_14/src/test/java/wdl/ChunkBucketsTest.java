@@ -0,0 +1,85 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.minecraft.util.math.ChunkPos;
+
+public class ChunkBucketsTest {
+	/**
+	 * A bucket that was obtained before a change isn't affected by it.
+	 */
+	@Test
+	public void testSnapshot() {
+		ChunkBuckets<String, Integer> buckets = new ChunkBuckets<>();
+		ChunkPos pos = new ChunkPos(1, 2);
+		buckets.put(pos, "a", 1);
+		Map<String, Integer> snapshot = buckets.get(pos);
+
+		buckets.put(pos, "b", 2);
+		buckets.put(pos, "a", 3);
+
+		assertThat(snapshot.size(), is(1));
+		assertThat(snapshot.get("a"), is(1));
+		assertThat(buckets.get(pos).size(), is(2));
+		assertThat(buckets.get(pos).get("a"), is(3));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnmodifiable() {
+		ChunkBuckets<String, Integer> buckets = new ChunkBuckets<>();
+		buckets.put(new ChunkPos(0, 0), "a", 1);
+		buckets.get(new ChunkPos(0, 0)).put("b", 2);
+	}
+
+	@Test
+	public void testRemove() {
+		ChunkBuckets<String, Integer> buckets = new ChunkBuckets<>();
+		ChunkPos pos = new ChunkPos(0, 0);
+		assertTrue(buckets.get(pos).isEmpty());
+		buckets.put(pos, "a", 1);
+		buckets.put(pos, "b", 2);
+
+		assertTrue(buckets.remove(pos, "a"));
+		assertFalse(buckets.remove(pos, "a"));
+		assertThat(buckets.get(pos).keySet(), contains("b"));
+		// Removing the last value removes the bucket
+		assertTrue(buckets.remove(pos, "b"));
+		assertTrue(buckets.isEmpty());
+	}
+
+	/**
+	 * Removing a bucket using a snapshot only works if it hasn't changed since.
+	 */
+	@Test
+	public void testRemoveIfUnchanged() {
+		ChunkBuckets<String, Integer> buckets = new ChunkBuckets<>();
+		ChunkPos pos = new ChunkPos(0, 0);
+		buckets.put(pos, "a", 1);
+		Map<String, Integer> snapshot = buckets.get(pos);
+		buckets.put(pos, "b", 2);
+
+		assertFalse(buckets.removeIfUnchanged(pos, snapshot));
+		assertThat(buckets.get(pos).size(), is(2));
+		assertTrue(buckets.removeIfUnchanged(pos, buckets.get(pos)));
+		assertThat(buckets.chunks(), is(empty()));
+		assertThat(buckets.removeAll(pos).size(), is(0));
+	}
+}
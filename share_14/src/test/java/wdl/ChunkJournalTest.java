@@ -0,0 +1,183 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.ChunkPos;
+
+public class ChunkJournalTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private final ChunkEncoder encoder = new ChunkEncoder(Deflater.BEST_SPEED);
+
+	@After
+	public void closeEncoder() {
+		encoder.close();
+	}
+
+	private static CompoundNBT makeChunkTag(int marker) {
+		CompoundNBT level = new CompoundNBT();
+		level.putInt("Marker", marker);
+		level.put("TileEntities", new ListNBT());
+		CompoundNBT root = new CompoundNBT();
+		root.put("Level", level);
+		return root;
+	}
+
+	/**
+	 * Encodes a chunk the same way that {@link WDLChunkLoader} does before
+	 * journaling it.
+	 */
+	private ByteBuffer makeChunk(int marker) throws IOException {
+		return encoder.encode(makeChunkTag(marker));
+	}
+
+	private static CompoundNBT makeTileEntity(int x, int y, int z, String id) {
+		CompoundNBT tag = new CompoundNBT();
+		tag.putString("id", id);
+		tag.putInt("x", x);
+		tag.putInt("y", y);
+		tag.putInt("z", z);
+		return tag;
+	}
+
+	/**
+	 * A journal that wasn't closed (as if the game crashed) can be recovered,
+	 * with the newest copy of each chunk and tile entities merged into it.
+	 */
+	@Test
+	public void testRecover() throws Exception {
+		ChunkPos a = new ChunkPos(0, 0), b = new ChunkPos(5, -3), c = new ChunkPos(1, 1);
+		ChunkJournal journal = new ChunkJournal(folder.getRoot());
+		assertNull(journal.recover());
+		journal.appendChunk(a, makeChunk(1));
+		journal.appendTileEntity(b, makeTileEntity(80, 64, -48, "minecraft:chest"));
+		journal.appendChunk(a, makeChunk(2));
+		journal.appendTileEntity(a, makeTileEntity(1, 2, 3, "minecraft:furnace"));
+		journal.appendTileEntity(c, makeTileEntity(16, 2, 16, "minecraft:hopper"));
+		journal.appendChunk(c, makeChunk(3));
+
+		ChunkJournal.Recovered recovered = new ChunkJournal(folder.getRoot()).recover();
+		assertNotNull(recovered);
+		assertThat(recovered.chunks.keySet(), containsInAnyOrder(a, c));
+		CompoundNBT level = recovered.chunks.get(a).getCompound("Level");
+		assertThat(level.getInt("Marker"), is(2));
+		assertThat(level.getList("TileEntities", 10).size(), is(1));
+		// Saved after the tile entity was captured, so it's already part of the chunk
+		assertThat(recovered.chunks.get(c).getCompound("Level").getList("TileEntities", 10).size(), is(0));
+		assertThat(recovered.tileEntities.keySet(), contains(b));
+		assertThat(recovered.tileEntities.get(b).get(0).getString("id"), is("minecraft:chest"));
+		journal.close();
+	}
+
+	/**
+	 * A record cut off part way through is ignored, along with anything after
+	 * it, but earlier records are kept.
+	 */
+	@Test
+	public void testTornRecord() throws Exception {
+		ChunkPos a = new ChunkPos(0, 0), b = new ChunkPos(1, 0);
+		ChunkJournal journal = new ChunkJournal(folder.getRoot());
+		journal.appendChunk(a, makeChunk(1));
+		journal.appendChunk(b, makeChunk(2));
+
+		File file = new File(folder.getRoot(), ChunkJournal.FILE_NAME);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		ChunkJournal.Recovered recovered = new ChunkJournal(folder.getRoot()).recover();
+		assertThat(recovered.chunks.keySet(), contains(a));
+		journal.close();
+	}
+
+	/**
+	 * Checkpointing only keeps tile entities whose chunk hasn't been saved
+	 * since they were captured; closing then keeps them in the journal.
+	 */
+	@Test
+	public void testCheckpoint() throws Exception {
+		ChunkPos a = new ChunkPos(0, 0), b = new ChunkPos(1, 0);
+		ChunkJournal journal = new ChunkJournal(folder.getRoot());
+		journal.appendTileEntity(a, makeTileEntity(1, 2, 3, "minecraft:chest"));
+		journal.appendChunk(a, makeChunk(1));
+		journal.appendTileEntity(b, makeTileEntity(17, 2, 3, "minecraft:barrel"));
+		long size = journal.getSize();
+		journal.checkpoint(journal.getCheckpointMark());
+		assertThat(journal.getSize(), is(lessThan(size)));
+
+		journal.appendChunk(a, makeChunk(2));
+		ChunkJournal.Recovered recovered = new ChunkJournal(folder.getRoot()).recover();
+		assertThat(recovered.chunks.keySet(), contains(a));
+		assertThat(recovered.chunks.get(a).getCompound("Level").getInt("Marker"), is(2));
+		assertThat(recovered.tileEntities.keySet(), contains(b));
+
+		journal.close();
+		recovered = new ChunkJournal(folder.getRoot()).recover();
+		assertThat(recovered.chunks.keySet(), is(empty()));
+		assertThat(recovered.tileEntities.keySet(), contains(b));
+	}
+
+	/**
+	 * Records appended after the mark was taken survive a checkpoint, along
+	 * with the tile entities that are still live.
+	 */
+	@Test
+	public void testCheckpointKeepsNewerRecords() throws Exception {
+		ChunkPos a = new ChunkPos(0, 0), b = new ChunkPos(1, 0), c = new ChunkPos(2, 0);
+		ChunkJournal journal = new ChunkJournal(folder.getRoot());
+		journal.appendChunk(a, makeChunk(1));
+		journal.appendTileEntity(b, makeTileEntity(17, 2, 3, "minecraft:barrel"));
+		long mark = journal.getCheckpointMark();
+		journal.appendChunk(c, makeChunk(3));
+		journal.appendTileEntity(b, makeTileEntity(18, 2, 3, "minecraft:chest"));
+		journal.checkpoint(mark);
+
+		ChunkJournal.Recovered recovered = new ChunkJournal(folder.getRoot()).recover();
+		assertThat(recovered.chunks.keySet(), contains(c));
+		assertThat(recovered.tileEntities.get(b).size(), is(2));
+
+		// Both of b's tile entities were tracked across the checkpoint
+		journal.forgetTileEntities(b);
+		journal.close();
+		assertFalse(new File(folder.getRoot(), ChunkJournal.FILE_NAME).exists());
+	}
+
+	@Test
+	public void testMergeTileEntity() {
+		CompoundNBT chunk = makeChunkTag(0);
+		ChunkJournal.mergeTileEntity(chunk, makeTileEntity(1, 2, 3, "minecraft:chest"));
+		ChunkJournal.mergeTileEntity(chunk, makeTileEntity(4, 5, 6, "minecraft:furnace"));
+		ChunkJournal.mergeTileEntity(chunk, makeTileEntity(1, 2, 3, "minecraft:hopper"));
+
+		ListNBT list = chunk.getCompound("Level").getList("TileEntities", 10);
+		assertThat(list.size(), is(2));
+		assertThat(list.getCompound(0).getString("id"), is("minecraft:furnace"));
+		assertThat(list.getCompound(1).getString("id"), is("minecraft:hopper"));
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.ChunkPos;
+
+public class ChunkWriteCacheTest {
+	private final List<ChunkPos> written = Collections.synchronizedList(new ArrayList<>());
+	private final ChunkEncoder encoder = new ChunkEncoder(Deflater.BEST_SPEED);
+
+	@After
+	public void closeEncoder() {
+		encoder.close();
+	}
+
+	/**
+	 * Encodes a chunk the same way that {@link WDLChunkLoader} does before
+	 * putting it in the cache.
+	 */
+	private ByteBuffer makeChunk(int value) throws IOException {
+		CompoundNBT tag = new CompoundNBT();
+		tag.putInt("Value", value);
+		tag.putByteArray("Padding", new byte[1000]);
+		return encoder.encode(tag);
+	}
+
+	/**
+	 * Saving a chunk again replaces its entry, without writing it.
+	 */
+	@Test
+	public void testCoalesce() throws Exception {
+		ChunkWriteCache cache = new ChunkWriteCache((pos, data) -> written.add(pos), 1024 * 1024);
+		ChunkPos pos = new ChunkPos(1, 2);
+		cache.put(pos, makeChunk(1));
+		cache.put(pos, makeChunk(2));
+		assertThat(written, is(empty()));
+		assertThat(cache.getCoalescedSaves(), is(1));
+		assertThat(cache.get(pos).getInt("Value"), is(2));
+		assertNull(cache.get(new ChunkPos(0, 0)));
+	}
+
+	/**
+	 * Going over the limit writes the oldest dirty entries in the background.
+	 */
+	@Test
+	public void testEviction() throws Exception {
+		// Enough for a couple of (compressed) entries, but not all of them
+		ChunkWriteCache cache = new ChunkWriteCache((pos, data) -> written.add(pos), 60);
+		for (int i = 0; i < 5; i++) {
+			cache.put(new ChunkPos(i, 0), makeChunk(i));
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while (cache.get(new ChunkPos(0, 0)) != null) {
+			assertThat("Oldest entry wasn't evicted", System.currentTimeMillis(), lessThan(deadline));
+			Thread.sleep(10);
+		}
+		assertThat(written.get(0), is(new ChunkPos(0, 0)));
+		assertThat(written, not(hasItem(new ChunkPos(4, 0))));
+		assertThat(cache.get(new ChunkPos(4, 0)).getInt("Value"), is(4));
+		cache.close();
+	}
+
+	/**
+	 * An entry that fails to be written when evicted stays in the cache, and
+	 * is written by a later flush.
+	 */
+	@Test
+	public void testFailedEviction() throws Exception {
+		boolean[] fail = { true };
+		ChunkWriteCache cache = new ChunkWriteCache((pos, data) -> {
+			if (fail[0]) {
+				throw new IOException("Test failure");
+			}
+			written.add(pos);
+		}, 1);
+		cache.put(new ChunkPos(0, 0), makeChunk(0));
+		// Far over the limit, so this evicts right away
+		try {
+			cache.put(new ChunkPos(1, 0), makeChunk(1));
+			fail("Expected eviction to fail");
+		} catch (IOException ex) {
+			// Expected
+		}
+		assertThat(cache.get(new ChunkPos(0, 0)).getInt("Value"), is(0));
+		assertThat(cache.getDirtyCount(), is(2));
+		fail[0] = false;
+		cache.flush();
+		assertThat(written, containsInAnyOrder(new ChunkPos(0, 0), new ChunkPos(1, 0)));
+		assertThat(cache.getDirtyCount(), is(0));
+		cache.close();
+	}
+
+	/**
+	 * Flushing writes dirty entries once, keeping them readable.
+	 */
+	@Test
+	public void testFlush() throws Exception {
+		ChunkWriteCache cache = new ChunkWriteCache((pos, data) -> written.add(pos), 1024 * 1024);
+		cache.put(new ChunkPos(0, 0), makeChunk(0));
+		cache.put(new ChunkPos(1, 0), makeChunk(1));
+		assertThat(cache.getDirtyCount(), is(2));
+		cache.flush();
+		assertThat(written, containsInAnyOrder(new ChunkPos(0, 0), new ChunkPos(1, 0)));
+		assertThat(cache.getDirtyCount(), is(0));
+		cache.flush();
+		assertThat(written.size(), is(2));
+		assertThat(cache.get(new ChunkPos(1, 0)).getInt("Value"), is(1));
+	}
+
+	/**
+	 * Flushing in the background writes dirty entries, and so does closing.
+	 */
+	@Test
+	public void testFlushInBackgroundAndClose() throws Exception {
+		ChunkWriteCache cache = new ChunkWriteCache((pos, data) -> written.add(pos), 1024 * 1024);
+		cache.put(new ChunkPos(0, 0), makeChunk(0));
+		cache.flushInBackground().get();
+		assertThat(written, contains(new ChunkPos(0, 0)));
+		cache.put(new ChunkPos(1, 0), makeChunk(1));
+		cache.close();
+		assertThat(written, contains(new ChunkPos(0, 0), new ChunkPos(1, 0)));
+	}
+}
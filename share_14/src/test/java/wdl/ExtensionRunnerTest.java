@@ -0,0 +1,193 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.minecraft.nbt.CompoundNBT;
+import wdl.api.ISaveListener;
+import wdl.api.IWDLModThreadSafe;
+import wdl.api.WDLApi.ModInfo;
+
+public class ExtensionRunnerTest {
+	private static class Listener implements ISaveListener {
+		@Override
+		public boolean isValidEnvironment(String version) {
+			return true;
+		}
+
+		@Override
+		public String getEnvironmentErrorMessage(String version) {
+			return null;
+		}
+
+		@Override
+		public void afterChunksSaved(File worldFolder) { }
+	}
+
+	private static class ThreadSafeListener extends Listener implements IWDLModThreadSafe { }
+
+	private static ModInfo<ISaveListener> info(String id, ISaveListener mod) {
+		return new ModInfo<ISaveListener>(id, "1.0", mod) { };
+	}
+
+	/**
+	 * Thread-safe extensions run at the same time; each waits for the other.
+	 */
+	@Test
+	public void testParallel() {
+		ExtensionRunner runner = new ExtensionRunner(() -> 10000);
+		CountDownLatch latch = new CountDownLatch(2);
+		List<ModInfo<ISaveListener>> mods = Arrays.asList(
+				info("a", new ThreadSafeListener()), info("b", new ThreadSafeListener()));
+		List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+		runner.runParallel(mods, "afterChunksSaved", false, info -> started.add(info.id), mod -> {
+			latch.countDown();
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		});
+
+		assertThat(started, contains("a", "b"));
+		assertThat(runner.getTimings("a").get("afterChunksSaved").getCalls(), is(1));
+		assertThat(runner.getTimings("b").get("afterChunksSaved").getCalls(), is(1));
+	}
+
+	/**
+	 * A hung extension is skipped once the timeout passes, and the next one
+	 * still runs.
+	 */
+	@Test
+	public void testTimeout() {
+		ExtensionRunner runner = new ExtensionRunner(() -> 100);
+		Listener hung = new Listener();
+		List<String> finished = Collections.synchronizedList(new ArrayList<>());
+
+		runner.runParallel(Arrays.asList(info("hung", hung), info("ok", new Listener())),
+				"afterChunksSaved", false, info -> { }, mod -> {
+					if (mod == hung) {
+						Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+					}
+					finished.add("ok");
+				});
+
+		assertThat(finished, contains("ok"));
+		assertThat(runner.getTimings("hung").get("afterChunksSaved").getTimeouts(), is(1));
+		assertThat(runner.getTimings("ok").get("afterChunksSaved").getTimeouts(), is(0));
+	}
+
+	/**
+	 * Serial calls run on the calling thread, so that an abandoned call can't
+	 * keep changing the caller's state.
+	 */
+	@Test
+	public void testSerialInline() {
+		ExtensionRunner runner = new ExtensionRunner(() -> 100);
+		Thread caller = Thread.currentThread();
+		List<Thread> threads = new ArrayList<>();
+
+		runner.runSerial(Arrays.asList(info("a", new ThreadSafeListener()), info("b", new Listener())),
+				"afterChunksSaved", info -> { }, mod -> threads.add(Thread.currentThread()));
+
+		assertThat(threads, contains(caller, caller));
+	}
+
+	/**
+	 * Editors each get a copy of the tag, which is only kept if they finish in
+	 * time; a hung editor can't change the tag afterwards.
+	 */
+	@Test
+	public void testEditors() throws Exception {
+		ExtensionRunner runner = new ExtensionRunner(() -> 100);
+		Listener hung = new Listener();
+		CountDownLatch abandoned = new CountDownLatch(1);
+		CompoundNBT tag = new CompoundNBT();
+		tag.putInt("Kept", 1);
+
+		runner.runEditors(Arrays.asList(info("a", new Listener()), info("hung", hung), info("b", new Listener())),
+				"editWorldInfo", tag, info -> { }, (mod, copy) -> {
+					if (mod == hung) {
+						copy.putInt("Hung", 1);
+						try {
+							Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+						} finally {
+							copy.putInt("Late", 1);
+							abandoned.countDown();
+						}
+					} else {
+						copy.putInt("Count", copy.getInt("Count") + 1);
+					}
+				});
+
+		assertTrue(abandoned.await(5, TimeUnit.SECONDS));
+		assertThat(tag.keySet(), containsInAnyOrder("Kept", "Count"));
+		assertThat(tag.getInt("Count"), is(2));
+		assertThat(runner.getTimings("hung").get("editWorldInfo").getTimeouts(), is(1));
+	}
+
+	/**
+	 * Thread-safe extensions run in the background aren't waited for.
+	 */
+	@Test
+	public void testInBackground() throws Exception {
+		ExtensionRunner runner = new ExtensionRunner(() -> 10000);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(1);
+
+		runner.runInBackground(Arrays.asList(info("a", new ThreadSafeListener())),
+				"afterChunksSaved", mod -> {
+					assertTrue(release.await(5, TimeUnit.SECONDS));
+					finished.countDown();
+				});
+
+		// Still running, since it is waiting for this thread
+		assertThat(finished.getCount(), is(1L));
+		release.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Exceptions are rethrown, but only after the other extensions ran.
+	 */
+	@Test
+	public void testFailure() {
+		ExtensionRunner runner = new ExtensionRunner(() -> 0);
+		Listener broken = new Listener();
+		List<String> finished = new ArrayList<>();
+
+		try {
+			runner.runSerial(Arrays.asList(info("broken", broken), info("ok", new Listener())),
+					"afterChunksSaved", info -> { }, mod -> {
+						if (mod == broken) {
+							throw new IllegalStateException("broken");
+						}
+						finished.add("ok");
+					});
+			fail("Expected exception");
+		} catch (RuntimeException ex) {
+			assertThat(ex.getCause(), is(instanceOf(IllegalStateException.class)));
+		}
+		assertThat(finished, contains("ok"));
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraft.block.Blocks;
+import net.minecraft.network.play.server.SBlockActionPacket;
+import net.minecraft.network.play.server.SChatPacket;
+import net.minecraft.network.play.server.SUnloadChunkPacket;
+import net.minecraft.util.math.BlockPos;
+import wdl.HookRecording.Event;
+import wdl.HookRecording.EventType;
+import wdl.versioned.VersionedFunctions;
+
+public class HookRecorderTest extends MaybeMixinTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		File file = folder.newFile();
+		try (HookRecording.Writer writer = new HookRecording.Writer(file, 1234)) {
+			writer.write(EventType.CHAT, VersionedFunctions.makeChatPacket("Hello world"));
+			writer.write(EventType.CHUNK_UNLOAD, new SUnloadChunkPacket(4, -5));
+		}
+
+		try (HookRecording.Reader reader = new HookRecording.Reader(file)) {
+			assertThat(reader.dataVersion, is(1234));
+
+			Event chat = reader.next();
+			assertThat(chat.type, is(EventType.CHAT));
+			assertThat(chat.readPacket(new SChatPacket()).getChatComponent().getString(), is("Hello world"));
+
+			Event unload = reader.next();
+			assertThat(unload.type, is(EventType.CHUNK_UNLOAD));
+			SUnloadChunkPacket packet = unload.readPacket(new SUnloadChunkPacket());
+			assertThat(packet.getX(), is(4));
+			assertThat(packet.getZ(), is(-5));
+
+			assertNull(reader.next());
+		}
+	}
+
+	/**
+	 * Events are forwarded, and the chunk an event refers to is recorded
+	 * before it, but only the first time.
+	 */
+	@Test
+	public void testChunkRecordedOnce() throws Exception {
+		File file = folder.newFile();
+		WDLHooks.IHooksListener delegate = mock(WDLHooks.IHooksListener.class);
+		try (TestWorld.ClientWorld world = TestWorld.makeClient()) {
+			BlockPos pos = new BlockPos(1, 2, 3);
+			world.setBlockState(pos, Blocks.NOTE_BLOCK.getDefaultState());
+			SBlockActionPacket packet = new SBlockActionPacket(pos, Blocks.NOTE_BLOCK, 0, 0);
+
+			HookRecorder recorder = new HookRecorder(delegate,
+					new HookRecording.Writer(file, VersionConstants.getDataVersion()));
+			recorder.onWorldClientTick(world);
+			recorder.onNHPCHandleBlockAction(null, packet);
+			recorder.onNHPCHandleBlockAction(null, packet);
+			recorder.close();
+
+			verify(delegate).onWorldClientTick(world);
+			verify(delegate, times(2)).onNHPCHandleBlockAction(null, packet);
+		}
+
+		try (HookRecording.Reader reader = new HookRecording.Reader(file)) {
+			assertThat(reader.next().type, is(EventType.TICK));
+			Event chunk = reader.next();
+			assertThat(chunk.type, is(EventType.CHUNK));
+			assertThat(chunk.data.readInt(), is(0));
+			assertThat(chunk.data.readInt(), is(0));
+			// Only the bottom section has a block
+			assertThat(chunk.data.readVarInt(), is(1));
+			assertThat(reader.next().type, is(EventType.BLOCK_ACTION));
+			assertThat(reader.next().type, is(EventType.BLOCK_ACTION));
+			assertNull(reader.next());
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
+import wdl.versioned.VersionedFunctions;
+
+public class NBTStreamWriterTest {
+	/**
+	 * Streamed tags read back the same as an equivalent tree.
+	 */
+	@Test
+	public void testMatchesTree() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NBTStreamWriter out = new NBTStreamWriter(new DataOutputStream(bytes));
+		out.beginCompound("");
+		out.beginCompound("Level");
+		out.putInt("xPos", 3);
+		out.putLong("LastUpdate", 1234567890123L);
+		out.putString("Status", "full");
+		out.putBoolean("isLightOn", true);
+		out.putByteArray("Light", new byte[] { 1, 2, 3 });
+		out.putIntArray("Biomes", new int[] { 4, 5 });
+		out.putLongArray("Heights", new long[] { 6L, 7L });
+		out.beginList("Sections", NBTStreamWriter.TAG_COMPOUND, 2);
+		for (byte y = 0; y < 2; y++) {
+			out.beginCompound("");
+			out.putByte("Y", y);
+			out.endCompound();
+		}
+		out.endList();
+		out.beginList("Empty", NBTStreamWriter.TAG_COMPOUND, 0);
+		out.endList();
+		ListNBT existing = new ListNBT();
+		existing.add(VersionedFunctions.createStringTag("a"));
+		out.put("Existing", existing);
+		out.endCompound();
+		out.putInt("DataVersion", 2230);
+		out.endCompound();
+		out.finish();
+
+		CompoundNBT level = new CompoundNBT();
+		level.putInt("xPos", 3);
+		level.putLong("LastUpdate", 1234567890123L);
+		level.putString("Status", "full");
+		level.putBoolean("isLightOn", true);
+		level.putByteArray("Light", new byte[] { 1, 2, 3 });
+		level.putIntArray("Biomes", new int[] { 4, 5 });
+		level.putLongArray("Heights", new long[] { 6L, 7L });
+		ListNBT sections = new ListNBT();
+		for (byte y = 0; y < 2; y++) {
+			CompoundNBT section = new CompoundNBT();
+			section.putByte("Y", y);
+			sections.add(section);
+		}
+		level.put("Sections", sections);
+		level.put("Empty", new ListNBT());
+		level.put("Existing", existing.copy());
+		CompoundNBT expected = new CompoundNBT();
+		expected.put("Level", level);
+		expected.putInt("DataVersion", 2230);
+
+		CompoundNBT read = CompressedStreamTools.read(new DataInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())));
+		assertThat(read, is(expected));
+	}
+
+	/**
+	 * Lists must be given exactly the elements they were declared with.
+	 */
+	@Test
+	public void testListChecks() throws Exception {
+		NBTStreamWriter out = new NBTStreamWriter(new DataOutputStream(new ByteArrayOutputStream()));
+		out.beginCompound("");
+		out.beginList("List", NBTStreamWriter.TAG_INT, 1);
+		try {
+			out.putLong("", 1L);
+			fail("Wrote an element of the wrong type");
+		} catch (IllegalStateException ex) {
+			// Expected
+		}
+		out.putInt("", 1);
+		try {
+			out.putInt("", 2);
+			fail("Wrote too many elements");
+		} catch (IllegalStateException ex) {
+			// Expected
+		}
+		out.endList();
+		out.endCompound();
+		out.finish();
+	}
+
+	/**
+	 * The encoder's output can be decoded again, and its buffer reused.
+	 */
+	@Test
+	public void testEncoder() throws Exception {
+		try (ChunkEncoder encoder = new ChunkEncoder(Deflater.DEFAULT_COMPRESSION)) {
+			for (int i = 0; i < 3; i++) {
+				CompoundNBT tag = new CompoundNBT();
+				tag.putInt("Value", i);
+				tag.putByteArray("Padding", new byte[100000]);
+				ByteBuffer data = encoder.encode(tag);
+				assertThat(data.remaining(), is(lessThan(10000)));
+				assertThat(ChunkEncoder.decode(data), is(tag));
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.ChunkPos;
+
+public class OldChunkPrefetcherTest {
+	private static List<ChunkPos> square(int centerX, int centerZ, int radius) {
+		List<ChunkPos> list = new ArrayList<>();
+		for (int x = centerX - radius; x <= centerX + radius; x++) {
+			for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+				list.add(new ChunkPos(x, z));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Moving east, the western edge of the loaded area will be unloaded.
+	 */
+	@Test
+	public void testPickChunks() {
+		List<ChunkPos> picked = OldChunkPrefetcher.pickChunks(square(0, 0, 4), 0, 0, 2, 0);
+
+		assertThat(picked.size(), is(9 * 2));
+		for (ChunkPos pos : picked) {
+			assertThat(pos.x, is(lessThanOrEqualTo(-3)));
+		}
+		// The furthest ones first
+		assertThat(picked.get(0).x, is(-4));
+	}
+
+	@Test
+	public void testStandingStill() {
+		assertThat(OldChunkPrefetcher.pickChunks(square(0, 0, 4), 0, 0, 0, 0), is(empty()));
+	}
+
+	private static ListNBT makeList(ChunkPos pos) {
+		ListNBT list = new ListNBT();
+		CompoundNBT tag = new CompoundNBT();
+		tag.putInt("x", pos.x * 16);
+		tag.putInt("z", pos.z * 16);
+		list.add(tag);
+		return list;
+	}
+
+	private static ListNBT awaitTake(OldChunkPrefetcher prefetcher, ChunkPos pos) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		ListNBT list;
+		while ((list = prefetcher.take(pos)) == null && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		return list;
+	}
+
+	private static void await(CountDownLatch latch) throws IOException {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	@Test
+	public void testRequest() throws Exception {
+		OldChunkPrefetcher prefetcher = new OldChunkPrefetcher(OldChunkPrefetcherTest::makeList, 16);
+		try {
+			ChunkPos pos = new ChunkPos(3, -2);
+			assertNull(prefetcher.take(pos));
+			prefetcher.request(pos);
+
+			ListNBT list = awaitTake(prefetcher, pos);
+			assertNotNull(list);
+			assertThat(list.getCompound(0).getInt("x"), is(48));
+			// Taking removes it
+			assertNull(prefetcher.take(pos));
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	/**
+	 * A chunk that is saved while its prefetch is queued isn't cached.
+	 */
+	@Test
+	public void testInvalidate() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		OldChunkPrefetcher prefetcher = new OldChunkPrefetcher(pos -> {
+			await(blocked);
+			return makeList(pos);
+		}, 16);
+		try {
+			ChunkPos pos = new ChunkPos(0, 0);
+			prefetcher.request(pos);
+			prefetcher.invalidate(pos);
+			blocked.countDown();
+			// Something requested afterwards is still read, after the first one
+			ChunkPos other = new ChunkPos(1, 0);
+			prefetcher.request(other);
+			assertNotNull(awaitTake(prefetcher, other));
+			assertNull(prefetcher.take(pos));
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	/**
+	 * A chunk that is saved while it is being read isn't cached, as what was
+	 * read may be from before the save.
+	 */
+	@Test
+	public void testInvalidateWhileReading() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch invalidated = new CountDownLatch(1);
+		ChunkPos pos = new ChunkPos(0, 0);
+		OldChunkPrefetcher prefetcher = new OldChunkPrefetcher(p -> {
+			if (p.equals(pos)) {
+				reading.countDown();
+				await(invalidated);
+			}
+			return makeList(p);
+		}, 16);
+		try {
+			prefetcher.request(pos);
+			assertTrue(reading.await(5, TimeUnit.SECONDS));
+			prefetcher.invalidate(pos);
+			invalidated.countDown();
+
+			ChunkPos other = new ChunkPos(1, 0);
+			prefetcher.request(other);
+			assertNotNull(awaitTake(prefetcher, other));
+			assertNull(prefetcher.take(pos));
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	/**
+	 * Once the cache is full, the oldest prefetches make room for new ones.
+	 */
+	@Test
+	public void testEvictOldest() throws Exception {
+		OldChunkPrefetcher prefetcher = new OldChunkPrefetcher(OldChunkPrefetcherTest::makeList, 2);
+		try {
+			for (int i = 0; i < 4; i++) {
+				ChunkPos pos = new ChunkPos(i, 0);
+				prefetcher.request(pos);
+				// Wait for it to be read, without taking it
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while (prefetcher.getQueuedCount() > 0 && System.nanoTime() < deadline) {
+					Thread.sleep(5);
+				}
+			}
+			assertNull(prefetcher.take(new ChunkPos(0, 0)));
+			assertNull(prefetcher.take(new ChunkPos(1, 0)));
+			assertNotNull(prefetcher.take(new ChunkPos(2, 0)));
+			assertNotNull(prefetcher.take(new ChunkPos(3, 0)));
+		} finally {
+			prefetcher.close();
+		}
+	}
+}
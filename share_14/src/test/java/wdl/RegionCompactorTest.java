@@ -0,0 +1,216 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static wdl.RegionCompactor.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+public class RegionCompactorTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Creates somewhat compressible data, similar to chunk NBT.
+	 */
+	private static byte[] makeData(long seed) {
+		Random random = new Random(seed);
+		byte[] data = new byte[64 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (random.nextInt(8) * (i % 7));
+		}
+		return data;
+	}
+
+	private static byte[] deflate(byte[] data, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(level);
+		try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+			stream.write(data);
+		} finally {
+			deflater.end();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] data) throws IOException {
+		try (InputStream stream = new InflaterInputStream(new ByteArrayInputStream(data))) {
+			return ByteStreams.toByteArray(stream);
+		}
+	}
+
+	/**
+	 * Writes a region file with the given deflated chunks, placed at chunk
+	 * indices 0, 1, 2, ... in reverse order, optionally with a free sector
+	 * before each of them.
+	 */
+	private File writeRegion(boolean gaps, byte[]... chunks) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_SIZE);
+		out.write(header.array());
+		for (int i = chunks.length - 1; i >= 0; i--) {
+			if (gaps) {
+				out.write(new byte[SECTOR_SIZE]);
+			}
+			int sector = out.size() / SECTOR_SIZE;
+			int sectors = (chunks[i].length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+			header.putInt(i * 4, (sector << 8) | sectors);
+			header.putInt(SECTOR_SIZE + i * 4, 1000 + i);
+			ByteBuffer chunk = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+			chunk.putInt(chunks[i].length + 1);
+			chunk.put(TYPE_DEFLATE);
+			chunk.put(chunks[i]);
+			out.write(chunk.array());
+		}
+		byte[] contents = out.toByteArray();
+		System.arraycopy(header.array(), 0, contents, 0, header.capacity());
+		File file = folder.newFile();
+		Files.write(file.toPath(), contents);
+		return file;
+	}
+
+	private static byte[] readChunk(File file, int index) throws IOException {
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		int location = data.getInt(index * 4);
+		int offset = (location >>> 8) * SECTOR_SIZE;
+		int length = data.getInt(offset);
+		assertThat(data.get(offset + 4), is(TYPE_DEFLATE));
+		byte[] payload = new byte[length - 1];
+		data.position(offset + 5);
+		data.get(payload);
+		return payload;
+	}
+
+	@Test
+	public void testIsFastCompressed() throws Exception {
+		assertTrue(isFastCompressed(deflate(new byte[100], Deflater.BEST_SPEED)));
+		assertFalse(isFastCompressed(deflate(new byte[100], Deflater.DEFAULT_COMPRESSION)));
+		assertFalse(isFastCompressed(deflate(new byte[100], Deflater.BEST_COMPRESSION)));
+	}
+
+	@Test
+	public void testRecompress() throws Exception {
+		byte[] fastData = makeData(1);
+		byte[] normalData = makeData(2);
+		File file = writeRegion(false, deflate(fastData, Deflater.BEST_SPEED),
+				deflate(normalData, Deflater.DEFAULT_COMPRESSION));
+		long oldLength = file.length();
+
+		long saved = rewrite(file, true, () -> false);
+		assertThat(saved, is(greaterThan(0L)));
+		assertThat(file.length(), is(oldLength - saved));
+
+		byte[] first = readChunk(file, 0);
+		assertFalse(isFastCompressed(first));
+		assertArrayEquals(fastData, inflate(first));
+		assertArrayEquals(normalData, inflate(readChunk(file, 1)));
+
+		// Timestamps are kept
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		assertThat(data.getInt(SECTOR_SIZE), is(1000));
+		assertThat(data.getInt(SECTOR_SIZE + 4), is(1001));
+		assertThat(data.getInt(8), is(0));
+	}
+
+	/**
+	 * Fast-compressed chunks are left alone unless recompression is requested.
+	 */
+	@Test
+	public void testNoRecompress() throws Exception {
+		File file = writeRegion(false, deflate(makeData(5), Deflater.BEST_SPEED));
+		byte[] before = Files.readAllBytes(file.toPath());
+		assertThat(rewrite(file, false, () -> false), is(-1L));
+		assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		byte[] first = deflate(makeData(6), Deflater.DEFAULT_COMPRESSION);
+		byte[] second = deflate(makeData(7), Deflater.DEFAULT_COMPRESSION);
+		File file = writeRegion(true, first, second);
+		long oldLength = file.length();
+
+		assertThat(rewrite(file, false, () -> false), is(2L * SECTOR_SIZE));
+		assertThat(file.length(), is(oldLength - 2 * SECTOR_SIZE));
+		assertArrayEquals(first, readChunk(file, 0));
+		assertArrayEquals(second, readChunk(file, 1));
+
+		// Chunks are now stored in chunk order
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		assertThat(data.getInt(0) >>> 8, is(2));
+		assertThat(data.getInt(4) >>> 8, is(greaterThan(2)));
+	}
+
+	/**
+	 * Files that are already compact are left alone.
+	 */
+	@Test
+	public void testNothingToDo() throws Exception {
+		File file = writeRegion(false, deflate(makeData(3), Deflater.DEFAULT_COMPRESSION));
+		byte[] before = Files.readAllBytes(file.toPath());
+		assertThat(rewrite(file, true, () -> false), is(-1L));
+		assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void testCancelled() throws Exception {
+		File file = writeRegion(true, deflate(makeData(4), Deflater.BEST_SPEED));
+		byte[] before = Files.readAllBytes(file.toPath());
+		assertThat(rewrite(file, true, () -> true), is(-1L));
+		assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void testCompactMany() throws Exception {
+		File dimension = folder.newFolder("world", "DIM-1", "region");
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			File file = new File(dimension, "r." + i + ".-1.mca");
+			Files.move(writeRegion(true, deflate(makeData(i), Deflater.DEFAULT_COMPRESSION)).toPath(), file.toPath());
+			files.add(file);
+		}
+		folder.newFile("world/level.dat");
+
+		List<File> found = findRegionFiles(new File(folder.getRoot(), "world"));
+		assertThat(found, containsInAnyOrder(files.toArray()));
+
+		AtomicInteger progress = new AtomicInteger();
+		Result result = compact(found, progress::set);
+		assertThat(result.filesRewritten, is(4));
+		assertThat(result.filesFailed, is(0));
+		assertThat(result.bytesReclaimed, is(4L * SECTOR_SIZE));
+		assertThat(progress.get(), is(4));
+	}
+}
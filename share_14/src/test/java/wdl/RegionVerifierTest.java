@@ -0,0 +1,194 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static wdl.RegionCompactor.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import wdl.RegionVerifier.Problem;
+import wdl.RegionVerifier.ProblemType;
+import wdl.RegionVerifier.Result;
+
+public class RegionVerifierTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Creates deflated chunk NBT for the given position in region 0, 0.
+	 */
+	private static byte[] makeChunk(int x, int z) throws IOException {
+		CompoundNBT level = new CompoundNBT();
+		level.putInt("xPos", x);
+		level.putInt("zPos", z);
+		level.putByteArray("Biomes", new byte[256]);
+		CompoundNBT root = new CompoundNBT();
+		root.put("Level", level);
+		return deflate(root);
+	}
+
+	private static byte[] deflate(CompoundNBT tag) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(new DeflaterOutputStream(out))) {
+			CompressedStreamTools.write(tag, stream);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes region file r.0.0.mca with the given deflated chunks at chunk
+	 * indices 0, 1, 2, ..., one after another.
+	 */
+	private File writeRegion(byte[]... chunks) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_SIZE);
+		out.write(header.array());
+		for (int i = 0; i < chunks.length; i++) {
+			int sector = out.size() / SECTOR_SIZE;
+			int sectors = (chunks[i].length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+			header.putInt(i * 4, (sector << 8) | sectors);
+			header.putInt(SECTOR_SIZE + i * 4, 1000 + i);
+			ByteBuffer chunk = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+			chunk.putInt(chunks[i].length + 1);
+			chunk.put(TYPE_DEFLATE);
+			chunk.put(chunks[i]);
+			out.write(chunk.array());
+		}
+		byte[] contents = out.toByteArray();
+		System.arraycopy(header.array(), 0, contents, 0, header.capacity());
+		File file = new File(folder.getRoot(), "r.0.0.mca");
+		Files.write(file.toPath(), contents);
+		return file;
+	}
+
+	private static void modify(File file, int position, int value) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		ByteBuffer.wrap(data).putInt(position, value);
+		Files.write(file.toPath(), data);
+	}
+
+	private static List<ProblemType> types(List<Problem> problems) {
+		List<ProblemType> types = new ArrayList<>();
+		for (Problem problem : problems) {
+			types.add(problem.type);
+		}
+		return types;
+	}
+
+	@Test
+	public void testValid() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(1, 0), makeChunk(2, 0));
+		assertThat(RegionVerifier.check(file), is(empty()));
+	}
+
+	@Test
+	public void testBadOffset() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(1, 0));
+		modify(file, 4, (1000 << 8) | 1);
+		List<Problem> problems = RegionVerifier.check(file);
+		assertThat(types(problems), contains(ProblemType.BAD_OFFSET));
+		assertThat(problems.get(0).index, is(1));
+	}
+
+	@Test
+	public void testOverlapping() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(1, 0), makeChunk(2, 0));
+		// Point chunk 2 at chunk 0's sectors
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		modify(file, 8, data.getInt(0));
+		List<Problem> problems = RegionVerifier.check(file);
+		assertThat(types(problems), contains(ProblemType.OVERLAPPING_SECTORS, ProblemType.OVERLAPPING_SECTORS));
+		assertThat(problems.get(0).index, is(0));
+		assertThat(problems.get(1).index, is(2));
+	}
+
+	@Test
+	public void testBadLength() throws Exception {
+		File file = writeRegion(makeChunk(0, 0));
+		modify(file, 2 * SECTOR_SIZE, 2 * SECTOR_SIZE);
+		assertThat(types(RegionVerifier.check(file)), contains(ProblemType.BAD_LENGTH));
+	}
+
+	@Test
+	public void testCorruptCompression() throws Exception {
+		byte[] chunk = makeChunk(0, 0);
+		Arrays.fill(chunk, 2, chunk.length, (byte) 0xFF);
+		File file = writeRegion(chunk);
+		assertThat(types(RegionVerifier.check(file)), contains(ProblemType.CORRUPT_COMPRESSION));
+	}
+
+	@Test
+	public void testMissingLevel() throws Exception {
+		CompoundNBT root = new CompoundNBT();
+		root.putInt("DataVersion", 2230);
+		File file = writeRegion(makeChunk(0, 0), deflate(root));
+		List<Problem> problems = RegionVerifier.check(file);
+		assertThat(types(problems), contains(ProblemType.MISSING_LEVEL));
+		assertThat(problems.get(0).index, is(1));
+	}
+
+	@Test
+	public void testWrongPosition() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(5, 5));
+		assertThat(types(RegionVerifier.check(file)), contains(ProblemType.WRONG_POSITION));
+	}
+
+	/**
+	 * Repairing drops the damaged chunks from the header and leaves the
+	 * others alone.
+	 */
+	@Test
+	public void testRepair() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(5, 5), makeChunk(2, 0));
+		Result result = RegionVerifier.verify(Arrays.asList(file), true, progress -> {});
+		assertThat(result.filesChecked, is(1));
+		assertThat(result.chunksChecked, is(3));
+		assertThat(result.chunksDropped, is(1));
+		assertThat(result.getProblemCount(), is(1));
+
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		assertThat(data.getInt(4), is(0));
+		assertThat(data.getInt(SECTOR_SIZE + 4), is(0));
+		assertThat(data.getInt(0), is(not(0)));
+		assertThat(data.getInt(SECTOR_SIZE + 8), is(1002));
+		assertThat(RegionVerifier.check(file), is(empty()));
+	}
+
+	@Test
+	public void testVerifyOnly() throws Exception {
+		File file = writeRegion(makeChunk(0, 0), makeChunk(5, 5));
+		byte[] before = Files.readAllBytes(file.toPath());
+		Result result = RegionVerifier.verify(Arrays.asList(file), false, progress -> {});
+		assertThat(result.getProblemCount(), is(1));
+		assertThat(result.chunksDropped, is(0));
+		assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import wdl.WDLPluginChannels.ChunkRange;
+import wdl.config.Configuration;
+import wdl.config.DefaultConfiguration;
+import wdl.config.settings.MiscSettings.SaveAreasSetting;
+import wdl.versioned.IDimensionWrapper;
+
+public class SaveAreaFilterTest {
+	private static ChunkRange include(int x1, int z1, int x2, int z2) {
+		return new ChunkRange(SaveAreaFilter.INCLUDE, x1, z1, x2, z2);
+	}
+
+	private static ChunkRange exclude(int x1, int z1, int x2, int z2) {
+		return new ChunkRange(SaveAreaFilter.EXCLUDE, x1, z1, x2, z2);
+	}
+
+	/**
+	 * Without any areas, every chunk is saved.
+	 */
+	@Test
+	public void testNoAreas() {
+		SaveAreaFilter filter = SaveAreaFilter.compile(Collections.emptyList());
+		assertTrue(filter.shouldSave(0, 0));
+		assertTrue(filter.shouldSave(-100000, 31));
+	}
+
+	/**
+	 * Included areas are inclusive on both ends, including across regions and
+	 * at negative coordinates.
+	 */
+	@Test
+	public void testInclude() {
+		SaveAreaFilter filter = SaveAreaFilter.compile(Arrays.asList(include(-40, -3, 40, 3)));
+		for (int x = -45; x <= 45; x++) {
+			for (int z = -5; z <= 5; z++) {
+				boolean inside = x >= -40 && x <= 40 && z >= -3 && z <= 3;
+				assertThat("(" + x + ", " + z + ")", filter.shouldSave(x, z), is(inside));
+			}
+		}
+		// A region without any areas
+		assertFalse(filter.shouldSave(1000, 1000));
+	}
+
+	/**
+	 * With only excluded areas, everything else is saved.
+	 */
+	@Test
+	public void testOnlyExclude() {
+		SaveAreaFilter filter = SaveAreaFilter.compile(Arrays.asList(exclude(0, 0, 63, 63)));
+		assertFalse(filter.shouldSave(0, 0));
+		assertFalse(filter.shouldSave(63, 63));
+		assertTrue(filter.shouldSave(64, 0));
+		assertTrue(filter.shouldSave(-1, 0));
+	}
+
+	/**
+	 * Later areas take priority over earlier ones.
+	 */
+	@Test
+	public void testOrder() {
+		SaveAreaFilter filter = SaveAreaFilter.compile(Arrays.asList(
+				include(0, 0, 10, 10), exclude(2, 2, 4, 4), include(3, 3, 3, 3)));
+		assertTrue(filter.shouldSave(1, 1));
+		assertFalse(filter.shouldSave(2, 2));
+		assertTrue(filter.shouldSave(3, 3));
+		assertFalse(filter.shouldSave(4, 4));
+		assertTrue(filter.shouldSave(5, 5));
+		assertFalse(filter.shouldSave(11, 11));
+	}
+
+	@Test
+	public void testParseAndWrite() {
+		List<ChunkRange> areas = Arrays.asList(include(-5, 10, 5, -10), exclude(0, 0, 1, 1));
+		String text = SaveAreaFilter.writeAreas(areas);
+		assertThat(text, is("include:-5,-10,5,10;exclude:0,0,1,1"));
+
+		List<ChunkRange> read = SaveAreaFilter.parseAreas(text);
+		assertThat(read, hasSize(2));
+		assertThat(SaveAreaFilter.writeAreas(read), is(text));
+		assertThat(SaveAreaFilter.parseAreas(""), is(empty()));
+	}
+
+	private static IDimensionWrapper dimension(String folderName) {
+		IDimensionWrapper dimension = mock(IDimensionWrapper.class);
+		when(dimension.getFolderName()).thenReturn(folderName);
+		return dimension;
+	}
+
+	/**
+	 * Each dimension's areas are stored separately.
+	 */
+	@Test
+	public void testAreasPerDimension() {
+		Configuration config = new Configuration(new DefaultConfiguration());
+		SaveAreasSetting overworld = new SaveAreasSetting(dimension(null));
+		SaveAreasSetting nether = new SaveAreasSetting(dimension("DIM-1"));
+		assertThat(overworld.getConfigurationKey(), is("SaveAreas.Overworld"));
+		assertThat(nether.getConfigurationKey(), is("SaveAreas.DIM-1"));
+
+		config.setValue(nether, Arrays.asList(include(0, 0, 8, 8)));
+		assertThat(config.getValue(nether), hasSize(1));
+		assertThat(config.getValue(overworld), is(empty()));
+		assertThat(config.getValue(new SaveAreasSetting(dimension("DIM-1"))), hasSize(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseMalformed() {
+		SaveAreaFilter.parseAreas("include:1,2,3");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseUnknownTag() {
+		SaveAreaFilter.parseAreas("maybe:1,2,3,4");
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SavePhasesTest {
+	/**
+	 * Independent phases run at the same time; each waits for the other.
+	 */
+	@Test
+	public void testIndependent() throws Exception {
+		SavePhases phases = new SavePhases("test", () -> { });
+		CountDownLatch latch = new CountDownLatch(2);
+		SavePhases.Work work = () -> {
+			latch.countDown();
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		};
+		phases.add("a", work);
+		phases.add("b", work);
+		phases.run();
+	}
+
+	/**
+	 * A phase only starts after its dependencies have finished.
+	 */
+	@Test
+	public void testDependencies() throws Exception {
+		AtomicInteger finished = new AtomicInteger();
+		SavePhases phases = new SavePhases("test", finished::incrementAndGet);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		SavePhases.Phase a = phases.add("a", () -> {
+			Thread.sleep(50);
+			order.add("a");
+		});
+		SavePhases.Phase b = phases.add("b", () -> order.add("b"));
+		phases.add("c", () -> order.add("c"), a, b);
+		phases.run();
+
+		assertThat(order.size(), is(3));
+		assertThat(order.get(2), is("c"));
+		assertThat(finished.get(), is(3));
+	}
+
+	/**
+	 * A failing phase skips the phases depending on it, but not the others,
+	 * and its exception is thrown.
+	 */
+	@Test
+	public void testFailure() throws Exception {
+		SavePhases phases = new SavePhases("test", () -> { });
+		List<String> ran = Collections.synchronizedList(new ArrayList<>());
+		SavePhases.Phase a = phases.add("a", () -> {
+			throw new IOException("a failed");
+		});
+		phases.add("b", () -> ran.add("b"), a);
+		phases.add("c", () -> ran.add("c"));
+
+		try {
+			phases.run();
+			fail("Expected exception");
+		} catch (IOException ex) {
+			assertThat(ex.getMessage(), is("a failed"));
+		}
+		assertThat(ran, contains("c"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownDependency() {
+		SavePhases other = new SavePhases("other", () -> { });
+		SavePhases.Phase foreign = other.add("foreign", () -> { });
+		new SavePhases("test", () -> { }).add("a", () -> { }, foreign);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+
+public class WorldIndexTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File makeWorld(String name) throws Exception {
+		File world = folder.newFolder(name);
+		Files.write(new File(world, "WorldDownloader.txt").toPath(), "WorldName=Test\n".getBytes());
+
+		CompoundNBT rules = new CompoundNBT();
+		rules.putString("doDaylightCycle", "false");
+		CompoundNBT data = new CompoundNBT();
+		data.put("GameRules", rules);
+		CompoundNBT root = new CompoundNBT();
+		root.put("Data", data);
+		try (FileOutputStream stream = new FileOutputStream(new File(world, "level.dat"))) {
+			CompressedStreamTools.writeCompressed(root, stream);
+		}
+
+		writeRegion(new File(world, "region"), "r.0.0.mca", 3);
+		writeRegion(new File(world, "DIM-1/region"), "r.0.0.mca", 1);
+		return world;
+	}
+
+	private static void writeRegion(File regionFolder, String name, int chunks) throws Exception {
+		regionFolder.mkdirs();
+		try (RandomAccessFile file = new RandomAccessFile(new File(regionFolder, name), "rw")) {
+			file.setLength(8192 + 4096 * chunks);
+			for (int i = 0; i < chunks; i++) {
+				file.seek(i * 4);
+				file.writeInt(((2 + i) << 8) | 1);
+			}
+		}
+	}
+
+	@Test
+	public void testIndex() throws Exception {
+		makeWorld("Test");
+		WorldIndex index = new WorldIndex(folder.getRoot());
+		WorldIndex.IndexedWorld world = index.get("Test");
+
+		assertThat(world.getProps(), is("WorldName=Test\n"));
+		assertThat(world.getGameRules().getString("doDaylightCycle"), is("false"));
+		assertThat(world.getDimensions(), contains("DIM-1", "region"));
+		assertThat(world.getChunkCount(), is(4L));
+		assertThat(world.getSize(), is(8192L * 2 + 4096 * 4));
+
+		WorldIndex.IndexedWorld missing = index.get("Missing");
+		assertNull(missing.getProps());
+		assertNull(missing.getGameRules());
+		assertThat(missing.getDimensions(), is(empty()));
+	}
+
+	/**
+	 * The index is persisted, and changed files are reindexed when read back.
+	 */
+	@Test
+	public void testPersistence() throws Exception {
+		File world = makeWorld("Test");
+		WorldIndex index = new WorldIndex(folder.getRoot());
+		index.get("Test");
+		index.flush();
+		assertTrue(new File(folder.getRoot(), WorldIndex.FILE_NAME).isFile());
+
+		File props = new File(world, "WorldDownloader.txt");
+		Files.write(props.toPath(), "WorldName=Changed\nLastSaved=1\n".getBytes());
+		props.setLastModified(props.lastModified() + 2000);
+		writeRegion(new File(world, "DIM1/region"), "r.0.0.mca", 2);
+		world.setLastModified(world.lastModified() + 2000);
+
+		WorldIndex.IndexedWorld reloaded = new WorldIndex(folder.getRoot()).get("Test");
+		assertThat(reloaded.getProps(), is("WorldName=Changed\nLastSaved=1\n"));
+		assertThat(reloaded.getGameRules().getString("doDaylightCycle"), is("false"));
+		assertThat(reloaded.getDimensions(), contains("DIM-1", "DIM1", "region"));
+		assertThat(reloaded.getChunkCount(), is(6L));
+	}
+
+	/**
+	 * Props rewritten without changing their modification time or length are
+	 * only picked up once invalidated.
+	 */
+	@Test
+	public void testInvalidateProps() throws Exception {
+		File world = makeWorld("Test");
+		WorldIndex index = new WorldIndex(folder.getRoot());
+		assertThat(index.getSettings("Test").getProps(), is("WorldName=Test\n"));
+
+		File props = new File(world, "WorldDownloader.txt");
+		long modified = props.lastModified();
+		Files.write(props.toPath(), "WorldName=Tset\n".getBytes());
+		props.setLastModified(modified);
+		assertThat(index.getSettings("Test").getProps(), is("WorldName=Test\n"));
+
+		index.invalidateProps("Test");
+		assertThat(index.getSettings("Test").getProps(), is("WorldName=Tset\n"));
+	}
+
+	/**
+	 * Reading settings after a save doesn't rescan the regions, but the next
+	 * full refresh still does.
+	 */
+	@Test
+	public void testSettingsDeferRegionScan() throws Exception {
+		File world = makeWorld("Test");
+		WorldIndex index = new WorldIndex(folder.getRoot());
+		assertThat(index.get("Test").getChunkCount(), is(4L));
+
+		writeRegion(new File(world, "region"), "r.0.0.mca", 5);
+		File level = new File(world, "level.dat");
+		level.setLastModified(level.lastModified() + 2000);
+
+		WorldIndex.IndexedWorld settings = index.getSettings("Test");
+		assertThat(settings.getGameRules().getString("doDaylightCycle"), is("false"));
+		assertThat(settings.getChunkCount(), is(4L));
+		index.flush();
+
+		assertThat(new WorldIndex(folder.getRoot()).get("Test").getChunkCount(), is(6L));
+	}
+
+	@Test
+	public void testCountChunks() throws Exception {
+		File regionFolder = folder.newFolder("region");
+		writeRegion(regionFolder, "r.0.0.mca", 5);
+		assertThat(WorldIndex.countChunks(new File(regionFolder, "r.0.0.mca")), is(5));
+
+		File empty = new File(regionFolder, "r.1.0.mca");
+		assertTrue(empty.createNewFile());
+		assertThat(WorldIndex.countChunks(empty), is(0));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of World Downloader: A mod to make backups of your multiplayer worlds.
+ * https://www.minecraftforum.net/forums/mapping-and-modding-java-edition/minecraft-mods/2520465-world-downloader-mod-create-backups-of-your-builds
+ *
+ * Copyright (c) 2014 nairol, cubic72
+ * Copyright (c) 2020 Pokechu22, julialy
+ *
+ * This project is licensed under the MMPLv2.  The full text of the MMPL can be
+ * found in LICENSE.md, or online at https://github.com/iopleke/MMPLv2/blob/master/LICENSE.md
+ * For information about this the MMPLv2, see https://stopmodreposts.org/
+ *
+ * Do not redistribute (in modified or unmodified form) without prior permission.
+ */
+package wdl.update;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonParser;
+
+import wdl.update.Release.HashData;
+
+/**
+ * Checks hashing against a local copy of the release list, rather than the one
+ * on GitHub.
+ */
+public class ClassHasherTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private List<HashData> hashes;
+
+	@Before
+	public void readReleases() throws Exception {
+		try (Reader reader = new InputStreamReader(
+				ClassHasherTest.class.getResourceAsStream("releases.json"), StandardCharsets.UTF_8)) {
+			List<Release> releases = Release.fromJsonArray(new JsonParser().parse(reader).getAsJsonArray());
+			assertThat(releases.size(), is(2));
+			assertThat(releases.get(0).tag, is("v4.1.1.1"));
+			assertNotNull(releases.get(0).hiddenInfo);
+			assertNull(releases.get(1).hiddenInfo);
+			hashes = Arrays.asList(releases.get(0).hiddenInfo.hashes);
+		}
+	}
+
+	@Test
+	public void testHash() throws Exception {
+		assertThat(ClassHasher.hash("wdl.update.ClassHasherTest", "hash_fixture.txt"),
+				is("97D541511235A3D1265DF7A285735874"));
+	}
+
+	/**
+	 * Only the entries with a wrong hash or that can't be hashed are reported,
+	 * in the order they were listed.
+	 */
+	@Test
+	public void testVerify() {
+		Map<HashData, Object> failed = ClassHasher.verify(hashes, null);
+		assertThat(failed.keySet(), contains(hashes.get(1), hashes.get(2)));
+		assertThat(failed.get(hashes.get(1)), is(instanceOf(String.class)));
+		assertThat(failed.get(hashes.get(2)), is(instanceOf(FileNotFoundException.class)));
+	}
+
+	/**
+	 * Cached hashes are used while the file they came from is unchanged.
+	 */
+	@Test
+	public void testCache() throws Exception {
+		File cacheFile = folder.newFile();
+		assertThat(ClassHasher.verify(hashes, cacheFile).size(), is(2));
+
+		Properties cache = load(cacheFile);
+		String key = "wdl.update.ClassHasherTest/releases.json";
+		String entry = cache.getProperty(key);
+		assertNotNull(entry);
+		String source = entry.substring(0, entry.lastIndexOf('|'));
+		assertThat(source, is(ClassHasher.getSourceKey("wdl.update.ClassHasherTest", "releases.json")));
+
+		// Pretend that the correct hash was cached; it shouldn't be recalculated
+		cache.setProperty(key, source + "|00000000000000000000000000000000");
+		save(cache, cacheFile);
+		assertThat(ClassHasher.verify(hashes, cacheFile).keySet(), contains(hashes.get(2)));
+
+		// ... but it should be once the file seems to have changed
+		cache.setProperty(key, source + "0|00000000000000000000000000000000");
+		save(cache, cacheFile);
+		assertThat(ClassHasher.verify(hashes, cacheFile).keySet(), contains(hashes.get(1), hashes.get(2)));
+		assertThat(load(cacheFile).getProperty(key), is(entry));
+	}
+
+	private static Properties load(File file) throws Exception {
+		Properties properties = new Properties();
+		try (InputStream stream = new FileInputStream(file)) {
+			properties.load(stream);
+		}
+		return properties;
+	}
+
+	private static void save(Properties properties, File file) throws Exception {
+		try (OutputStream stream = new FileOutputStream(file)) {
+			properties.store(stream, null);
+		}
+	}
+}